@@ -29,4 +29,33 @@ public abstract class CacheKey implements Serializable {
     public int hashCode() {
         return clazz.hashCode();
     }
+
+    /**
+     * Append a string form of this key such that two keys have the same form iif they are equal. This allows
+     * identifying cached content outside of the cache, e.g. in an HTTP ETag.
+     *
+     * @param sb    builder to append to
+     * @return      false if this key has no such form, in which case the content of the builder is undefined
+     */
+    public boolean appendCanonicalForm(StringBuilder sb) {
+        return false;
+    }
+
+    /**
+     * Append the names of the key class and of the processor class.
+     */
+    protected void appendClassNames(StringBuilder sb) {
+        appendString(sb, getClass().getName());
+        appendString(sb, clazz.getName());
+    }
+
+    /**
+     * Append a string so that the result can't be confused with the concatenation of other strings.
+     */
+    protected static void appendString(StringBuilder sb, String s) {
+        if (s == null)
+            sb.append('-');
+        else
+            sb.append(s.length()).append(':').append(s);
+    }
 }
@@ -49,6 +49,17 @@ public class CompoundOutputCacheKey extends OutputCacheKey {
         return hash;
     }
 
+    public boolean appendCanonicalForm(final StringBuilder sb) {
+        appendClassNames(sb);
+        appendString(sb, outputName);
+        sb.append('[').append(keys.size()).append(']');
+        for (final Object currentKey: keys) {
+            if (!((CacheKey) currentKey).appendCanonicalForm(sb))
+                return false;
+        }
+        return true;
+    }
+
     public String toString() {
         return "CompoundOutputCacheKey [class: " + CacheUtils.getShortClassName(getClazz())
                 + ", outputName: " + outputName + ", key: " + keys + "]";
@@ -50,6 +50,12 @@ public class InputCacheKey extends CacheKey {
         return hash;
     }
 
+    public boolean appendCanonicalForm(StringBuilder sb) {
+        appendClassNames(sb);
+        appendString(sb, inputName);
+        return outputKey.appendCanonicalForm(sb);
+    }
+
     public String toString() {
         return "InputCacheKey [class: " + CacheUtils.getShortClassName(getClazz())
                 + ", inputName: " + getInputName()
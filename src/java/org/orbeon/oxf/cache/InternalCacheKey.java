@@ -68,6 +68,21 @@ public class InternalCacheKey extends CacheKey {
         return hash;
     }
 
+    public boolean appendCanonicalForm(StringBuilder sb) {
+        appendClassNames(sb);
+        if (key != null) {
+            appendString(sb, type);
+            appendString(sb, key);
+        } else {
+            sb.append('[').append(keys.size()).append(']');
+            for (final Object currentKey: keys) {
+                if (!(currentKey instanceof CacheKey) || !((CacheKey) currentKey).appendCanonicalForm(sb))
+                    return false;
+            }
+        }
+        return true;
+    }
+
     public String toString() {
         try {
             return "InternalCacheKey[class: " + CacheUtils.getShortClassName(getClazz()) +
@@ -16,7 +16,9 @@ package org.orbeon.oxf.cache;
 import org.orbeon.oxf.properties.Properties;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Factory for ObjectCache instances.
@@ -73,4 +75,13 @@ public class ObjectCache {
     public synchronized static Cache instanceIfExists(String cacheName) {
         return (namedObjectCaches == null) ? null : namedObjectCaches.get(cacheName);
     }
+
+    /**
+     * Get the names of the object caches created so far.
+     *
+     * @return  cache names
+     */
+    public synchronized static Set<String> getCacheNames() {
+        return new HashSet<String>(namedObjectCaches.keySet());
+    }
 }
@@ -44,6 +44,13 @@ public class SimpleOutputCacheKey extends OutputCacheKey {
         return hash;
     }
 
+    public boolean appendCanonicalForm(final StringBuilder sb) {
+        appendClassNames(sb);
+        appendString(sb, outputName);
+        appendString(sb, key);
+        return true;
+    }
+
     public String toString() {
         return "SimpleOutputCacheKey [class: " + CacheUtils.getShortClassName(getClazz())
                 + ", outputName: " + outputName + ", key: " + key + "]"; 
@@ -19,6 +19,7 @@ import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.properties.Properties;
 import org.orbeon.oxf.properties.PropertySet;
 import org.orbeon.oxf.util.PropertyContext;
+import org.xml.sax.ContentHandler;
 
 /**
  * PipelineContext represents a context object passed to all the processors running in a given
@@ -31,17 +32,26 @@ public class PipelineContext implements PropertyContext {
         public long end;
         public final String systemID;
         public final int line;
+        public final String processorClassName;
+        // Number of characters produced, only maintained by a ProfilingTrace
+        public long characters;
 
         public TraceInfo(final long start, final String systemID, final int line) {
             this.start = start;
             this.systemID = systemID;
             this.line = line;
+            this.processorClassName = null;
         }
 
         public TraceInfo(final String systemID, final int line) {
+            this(systemID, line, null);
+        }
+
+        public TraceInfo(final String systemID, final int line, final String processorClassName) {
             this.start = System.currentTimeMillis();
             this.systemID = systemID;
             this.line = line;
+            this.processorClassName = processorClassName;
         }
 
         public String toString() {
@@ -100,7 +110,51 @@ public class PipelineContext implements PropertyContext {
         void add(final TraceInfo tinf);
     }
 
-    private Map<Object, Object> attributes = new HashMap<Object, Object>();
+    /**
+     * Trace which is also notified of cache lookups and of the content produced by processor outputs.
+     */
+    public interface ProfilingTrace extends Trace {
+        /**
+         * Return the ContentHandler to which a processor output must write. This allows the trace to measure the
+         * content produced.
+         *
+         * @param traceInfo         trace information for the output being read
+         * @param contentHandler    original ContentHandler
+         * @return                  ContentHandler to use
+         */
+        ContentHandler getContentHandler(TraceInfo traceInfo, ContentHandler contentHandler);
+
+        /**
+         * Called when a processor looks up the result of reading an input or output in the cache.
+         *
+         * @param processorClass    class of the processor producing the cached result
+         * @param outputName        name of the output producing the cached result
+         * @param hit               whether the result was found in cache
+         */
+        void cacheLookup(Class processorClass, String outputName, boolean hit);
+
+        /**
+         * Whether this trace records the current request. If not, the trace is dropped so that no trace information
+         * is allocated for the request.
+         *
+         * @return true iif the request is recorded
+         */
+        boolean isSampled();
+    }
+
+    // Attributes which are specific to the thread executing a branch of a pipeline
+    private static final Set<String> BRANCH_ATTRIBUTES = Collections.singleton(PARENT_PROCESSORS);
+    // Attributes holding resources which must not be used concurrently, never read from the parent by isolated branches
+    private static final Set<String> RESOURCE_ATTRIBUTES
+            = new HashSet<String>(Arrays.asList(JNDI_CONTEXT, SQL_PROCESSOR_CONTEXT, DATASOURCE_CONTEXT));
+
+    private final Map<Object, Object> attributes;
+    // For branch contexts only: parent context and attributes not shared with it
+    private final PipelineContext parentContext;
+    private final Map<Object, Object> branchAttributes;
+    private final boolean isolated;
+    // Whether branches were created from this context, in which case its attributes are accessed concurrently
+    private volatile boolean hasBranches;
 
     private List<ContextListener> listeners;
 
@@ -108,7 +162,22 @@ public class PipelineContext implements PropertyContext {
 
     private final Trace trace;
 
+    private PipelineContext(PipelineContext parentContext, boolean isolated) {
+        // Other attributes are accessed through the parent context
+        this.attributes = null;
+        this.parentContext = parentContext;
+        this.branchAttributes = new HashMap<Object, Object>();
+        this.isolated = isolated;
+        // Traces are not thread-safe, so branches are not traced
+        this.trace = null;
+    }
+
     public PipelineContext() {
+        attributes = new HashMap<Object, Object>();
+        parentContext = null;
+        branchAttributes = null;
+        isolated = false;
+
         final Properties properties = org.orbeon.oxf.properties.Properties.instance();
         if (properties != null) {
             final PropertySet propertySet = properties.getPropertySet();
@@ -122,7 +191,10 @@ public class PipelineContext implements PropertyContext {
                     try {
                         final Class clazz = Class.forName(traceClass);
                         trace = (Trace) clazz.newInstance();
-                        trace.setPipelineContext(this);
+                        if (trace instanceof ProfilingTrace && !((ProfilingTrace) trace).isSampled())
+                            trace = null;
+                        else
+                            trace.setPipelineContext(this);
                     } catch (final Exception e) {
                         t = e;
                     }
@@ -143,14 +215,58 @@ public class PipelineContext implements PropertyContext {
         return trace;
     }
 
+    /**
+     * Create a context to execute a branch of a pipeline in another thread. The branch context shares the attributes
+     * and listeners of this context, but has its own copy of the stack of parent processors.
+     *
+     * Only use this when the processors of the branch are known not to use the attributes concurrently, for example
+     * the JDBC connections of the SQL processor.
+     *
+     * @return branch context
+     */
+    public PipelineContext createBranchContext() {
+        return createBranchContext(false);
+    }
+
+    /**
+     * Create a context to execute a branch of a pipeline in another thread, isolated from other branches. Attributes
+     * set in the isolated context are only visible in that context, so that several branches can execute the same
+     * processors concurrently, each with its own processor state. Attributes not set in the isolated context are
+     * read from this context, except for those holding resources such as JDBC connections, which each isolated
+     * context obtains on its own.
+     *
+     * @return isolated branch context
+     */
+    public PipelineContext createIsolatedBranchContext() {
+        return createBranchContext(true);
+    }
+
+    private PipelineContext createBranchContext(boolean isolated) {
+        hasBranches = true;
+        final PipelineContext branchContext = new PipelineContext(this, isolated);
+        final Stack parents = (Stack) getAttribute(PARENT_PROCESSORS);
+        if (parents != null) {
+            final Stack<Object> parentsCopy = new Stack<Object>();
+            parentsCopy.addAll(parents);
+            branchContext.setAttribute(PARENT_PROCESSORS, parentsCopy);
+        }
+        return branchContext;
+    }
+
     /**
      * Set an attribute in the context.
      *
      * @param key the attribute key
      * @param o   the attribute value to associate with the key
      */
-    public synchronized void setAttribute(Object key, Object o) {
-        attributes.put(key, o);
+    public void setAttribute(Object key, Object o) {
+        if (parentContext == null) {
+            put(attributes, key, o);
+        } else if (isolated || BRANCH_ATTRIBUTES.contains(key)) {
+            put(branchAttributes, key, o);
+        } else {
+            parentContext.setAttribute(key, o);
+        }
     }
 
     /**
@@ -160,7 +276,37 @@ public class PipelineContext implements PropertyContext {
      * @return the attribute value, null if there is no attribute with the given key
      */
     public Object getAttribute(Object key) {
-        return attributes.get(key);
+        if (parentContext == null) {
+            return get(attributes, key);
+        } else if (isolated || BRANCH_ATTRIBUTES.contains(key)) {
+            final Object value = get(branchAttributes, key);
+            if (value != null || !isolated || RESOURCE_ATTRIBUTES.contains(key))
+                return value;
+            return parentContext.getAttribute(key);
+        } else {
+            return parentContext.getAttribute(key);
+        }
+    }
+
+    // Only lock once branches can access the attributes from other threads
+    private void put(Map<Object, Object> map, Object key, Object o) {
+        if (hasBranches) {
+            synchronized (map) {
+                map.put(key, o);
+            }
+        } else {
+            map.put(key, o);
+        }
+    }
+
+    private Object get(Map<Object, Object> map, Object key) {
+        if (hasBranches) {
+            synchronized (map) {
+                return map.get(key);
+            }
+        } else {
+            return map.get(key);
+        }
     }
 
     /**
@@ -169,6 +315,11 @@ public class PipelineContext implements PropertyContext {
      * @param listener listener to add
      */
     public synchronized void addContextListener(ContextListener listener) {
+        if (parentContext != null) {
+            // Listeners are called when the main context is destroyed
+            parentContext.addContextListener(listener);
+            return;
+        }
         if (listeners == null)
             listeners = new ArrayList<ContextListener>();
         listeners.add(listener);
@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor;
+
+import org.apache.log4j.Logger;
+import org.orbeon.oxf.util.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Aggregates pipeline execution statistics across requests.
+ *
+ * Statistics are gathered by ProfilerTrace and grouped by pipeline location (system id and line), or by processor
+ * class for outputs without location. The profiler is registered with the platform MBean server and its content is
+ * also available through the oxf:pipeline-profiler processor.
+ */
+public class PipelineProfiler implements PipelineProfilerMBean {
+
+    private static final Logger logger = LoggerFactory.createLogger(PipelineProfiler.class);
+
+    public static final String OBJECT_NAME = "org.orbeon.oxf:type=PipelineProfiler";
+
+    // Upper bounds, in ms, of the time histogram buckets; the last bucket is unbounded
+    public static final long[] HISTOGRAM_BOUNDS = { 1, 5, 10, 50, 100, 500, 1000, 5000 };
+
+    private static PipelineProfiler instance;
+
+    private final ConcurrentMap<String, LocationStatistics> locations = new ConcurrentHashMap<String, LocationStatistics>();
+    private final ConcurrentMap<String, CacheStatistics> caches = new ConcurrentHashMap<String, CacheStatistics>();
+    private final AtomicLong profiledRequests = new AtomicLong();
+
+    public synchronized static PipelineProfiler instance() {
+        if (instance == null) {
+            instance = new PipelineProfiler();
+            try {
+                final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+                final ObjectName objectName = new ObjectName(OBJECT_NAME);
+                if (!mbeanServer.isRegistered(objectName))
+                    mbeanServer.registerMBean(instance, objectName);
+            } catch (Exception e) {
+                // Profiling must work even if JMX is not available
+                logger.warn("Unable to register pipeline profiler with JMX: " + e.getMessage());
+            }
+        }
+        return instance;
+    }
+
+    private PipelineProfiler() {}
+
+    /**
+     * Add the trace of a request.
+     *
+     * @param rootTraceNode root of the trace as returned by StdOutTrace.getTraceNodes()
+     */
+    public void addRequest(StdOutTrace.TraceNode rootTraceNode) {
+        profiledRequests.incrementAndGet();
+        // The root node is synthetic
+        for (final Object child: rootTraceNode.children)
+            addTraceNode((StdOutTrace.TraceNode) child);
+    }
+
+    private void addTraceNode(StdOutTrace.TraceNode traceNode) {
+        final LocationStatistics statistics = getLocationStatistics(traceNode);
+        statistics.add(traceNode.getCumulativeTime(), traceNode.getLocalTime(), traceNode.traceInfo.characters);
+
+        for (final Object child: traceNode.children)
+            addTraceNode((StdOutTrace.TraceNode) child);
+    }
+
+    private LocationStatistics getLocationStatistics(StdOutTrace.TraceNode traceNode) {
+        final String systemId = traceNode.traceInfo.systemID;
+        final int line = traceNode.traceInfo.line;
+        final String processorClassName = traceNode.traceInfo.processorClassName;
+
+        // Without location, the system id contains per-instance information so group by processor class instead
+        final String key = (line >= 0 || processorClassName == null) ? systemId + ":" + line : processorClassName;
+
+        final LocationStatistics existing = locations.get(key);
+        if (existing != null) {
+            return existing;
+        } else {
+            final LocationStatistics newStatistics = (line >= 0)
+                    ? new LocationStatistics(systemId, line, processorClassName)
+                    : new LocationStatistics(null, -1, processorClassName != null ? processorClassName : systemId);
+            final LocationStatistics previous = locations.putIfAbsent(key, newStatistics);
+            return (previous != null) ? previous : newStatistics;
+        }
+    }
+
+    public void addCacheLookup(Class processorClass, String outputName, boolean hit) {
+        final String processorClassName = (processorClass != null) ? processorClass.getName() : "";
+        final String key = processorClassName + "#" + outputName;
+
+        CacheStatistics statistics = caches.get(key);
+        if (statistics == null) {
+            final CacheStatistics newStatistics = new CacheStatistics(processorClassName, outputName);
+            statistics = caches.putIfAbsent(key, newStatistics);
+            if (statistics == null)
+                statistics = newStatistics;
+        }
+
+        if (hit)
+            statistics.hits.incrementAndGet();
+        else
+            statistics.misses.incrementAndGet();
+    }
+
+    /**
+     * Return location statistics sorted by decreasing self time.
+     *
+     * @return list of LocationStatistics
+     */
+    public List<LocationStatistics> getLocationStatistics() {
+        final List<LocationStatistics> result = new ArrayList<LocationStatistics>(locations.values());
+        Collections.sort(result, new Comparator<LocationStatistics>() {
+            public int compare(LocationStatistics s1, LocationStatistics s2) {
+                final long t1 = s1.selfTime.get();
+                final long t2 = s2.selfTime.get();
+                return (t1 < t2) ? 1 : (t1 == t2) ? 0 : -1;
+            }
+        });
+        return result;
+    }
+
+    public List<CacheStatistics> getCacheStatistics() {
+        return new ArrayList<CacheStatistics>(caches.values());
+    }
+
+    public long getProfiledRequests() {
+        return profiledRequests.get();
+    }
+
+    public int getLocationCount() {
+        return locations.size();
+    }
+
+    public String getReport() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("profiled requests: ").append(profiledRequests.get()).append('\n');
+        sb.append("count\tcumulative ms\tself ms\tcharacters\tlocation\n");
+        for (final LocationStatistics statistics: getLocationStatistics()) {
+            sb.append(statistics.count.get()).append('\t');
+            sb.append(statistics.cumulativeTime.get()).append('\t');
+            sb.append(statistics.selfTime.get()).append('\t');
+            sb.append(statistics.characters.get()).append('\t');
+            sb.append(statistics.getLocation()).append('\n');
+        }
+        sb.append("hits\tmisses\tcached output\n");
+        for (final CacheStatistics statistics: getCacheStatistics()) {
+            sb.append(statistics.hits.get()).append('\t');
+            sb.append(statistics.misses.get()).append('\t');
+            sb.append(statistics.processorClassName).append(' ').append(statistics.outputName).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public void reset() {
+        locations.clear();
+        caches.clear();
+        profiledRequests.set(0);
+    }
+
+    public static class LocationStatistics {
+        public final String systemId;
+        public final int line;
+        public final String processorClassName;
+
+        public final AtomicLong count = new AtomicLong();
+        public final AtomicLong cumulativeTime = new AtomicLong();
+        public final AtomicLong selfTime = new AtomicLong();
+        public final AtomicLong characters = new AtomicLong();
+        public final AtomicLongArray selfTimeHistogram = new AtomicLongArray(HISTOGRAM_BOUNDS.length + 1);
+        public final AtomicLongArray cumulativeTimeHistogram = new AtomicLongArray(HISTOGRAM_BOUNDS.length + 1);
+
+        public LocationStatistics(String systemId, int line, String processorClassName) {
+            this.systemId = systemId;
+            this.line = line;
+            this.processorClassName = processorClassName;
+        }
+
+        public String getLocation() {
+            return (systemId != null) ? systemId + ":" + line : processorClassName;
+        }
+
+        private void add(long cumulative, long self, long characterCount) {
+            count.incrementAndGet();
+            cumulativeTime.addAndGet(cumulative);
+            selfTime.addAndGet(self);
+            characters.addAndGet(characterCount);
+
+            selfTimeHistogram.incrementAndGet(getBucket(self));
+            cumulativeTimeHistogram.incrementAndGet(getBucket(cumulative));
+        }
+
+        private static int getBucket(long time) {
+            int bucket = 0;
+            while (bucket < HISTOGRAM_BOUNDS.length && time > HISTOGRAM_BOUNDS[bucket])
+                bucket++;
+            return bucket;
+        }
+    }
+
+    public static class CacheStatistics {
+        public final String processorClassName;
+        public final String outputName;
+
+        public final AtomicLong hits = new AtomicLong();
+        public final AtomicLong misses = new AtomicLong();
+
+        public CacheStatistics(String processorClassName, String outputName) {
+            this.processorClassName = processorClassName;
+            this.outputName = outputName;
+        }
+    }
+}
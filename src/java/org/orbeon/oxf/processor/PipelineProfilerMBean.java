@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor;
+
+/**
+ * JMX management interface of the pipeline profiler.
+ */
+public interface PipelineProfilerMBean {
+
+    long getProfiledRequests();
+    int getLocationCount();
+
+    /**
+     * Return a plain text report of the locations sorted by decreasing self time.
+     *
+     * @return report
+     */
+    String getReport();
+
+    void reset();
+}
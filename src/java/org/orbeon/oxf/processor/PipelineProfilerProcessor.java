@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor;
+
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.xml.ContentHandlerHelper;
+import org.xml.sax.ContentHandler;
+
+/**
+ * Output the statistics aggregated by the PipelineProfiler.
+ */
+public class PipelineProfilerProcessor extends ProcessorImpl {
+
+    public PipelineProfilerProcessor() {
+        addOutputInfo(new ProcessorInputOutputInfo(OUTPUT_DATA));
+    }
+
+    public ProcessorOutput createOutput(String name) {
+        final ProcessorOutput output = new ProcessorImpl.ProcessorOutputImpl(getClass(), name) {
+            public void readImpl(PipelineContext pipelineContext, final ContentHandler contentHandler) {
+
+                final PipelineProfiler profiler = PipelineProfiler.instance();
+                final ContentHandlerHelper helper = new ContentHandlerHelper(contentHandler);
+
+                helper.startDocument();
+                helper.startElement("profile", new String[] { "requests", Long.toString(profiler.getProfiledRequests()) });
+
+                for (final PipelineProfiler.LocationStatistics statistics: profiler.getLocationStatistics()) {
+                    helper.startElement("location", new String[] {
+                            "systemId", statistics.systemId != null ? statistics.systemId : "",
+                            "line", Integer.toString(statistics.line),
+                            "processor", statistics.processorClassName != null ? statistics.processorClassName : "",
+                            "count", Long.toString(statistics.count.get()),
+                            "cumulative-time", Long.toString(statistics.cumulativeTime.get()),
+                            "self-time", Long.toString(statistics.selfTime.get()),
+                            "characters", Long.toString(statistics.characters.get())
+                    });
+                    for (int i = 0; i < statistics.selfTimeHistogram.length(); i++) {
+                        final String upperBound = (i < PipelineProfiler.HISTOGRAM_BOUNDS.length) ? Long.toString(PipelineProfiler.HISTOGRAM_BOUNDS[i]) : "";
+                        helper.startElement("bucket", new String[] { "max-time", upperBound,
+                                "count", Long.toString(statistics.selfTimeHistogram.get(i)),
+                                "cumulative-count", Long.toString(statistics.cumulativeTimeHistogram.get(i)) });
+                        helper.endElement();
+                    }
+                    helper.endElement();
+                }
+
+                for (final PipelineProfiler.CacheStatistics statistics: profiler.getCacheStatistics()) {
+                    helper.startElement("cache", new String[] {
+                            "processor", statistics.processorClassName,
+                            "output", statistics.outputName,
+                            "hits", Long.toString(statistics.hits.get()),
+                            "misses", Long.toString(statistics.misses.get())
+                    });
+                    helper.endElement();
+                }
+
+                helper.endElement();
+                helper.endDocument();
+            }
+        };
+        addOutput(name, output);
+        return output;
+    }
+}
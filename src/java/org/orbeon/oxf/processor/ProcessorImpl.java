@@ -533,6 +533,7 @@ public abstract class ProcessorImpl implements Processor {
             KeyValidity keyValidity = getInputKeyValidity(context, input);
             if (keyValidity != null) {
                 final Object inputObject = cache.findValid(context, keyValidity.key, keyValidity.validity);
+                traceCacheLookup(context, output, inputObject != null);
                 if (inputObject != null) {
                     // Return cached object
                     if (logger.isDebugEnabled())
@@ -573,6 +574,12 @@ public abstract class ProcessorImpl implements Processor {
         }
     }
 
+    private static void traceCacheLookup(PipelineContext pipelineContext, ProcessorOutput output, boolean hit) {
+        final Trace trace = pipelineContext.getTrace();
+        if (trace instanceof PipelineContext.ProfilingTrace)
+            ((PipelineContext.ProfilingTrace) trace).cacheLookup(output.getProcessorClass(), output.getName(), hit);
+    }
+
     protected Object getCachedInputAsObject(PipelineContext pipelineContext, ProcessorInput processorInput) {
         // Get associated output
         final ProcessorOutput output = processorInput.getOutput();
@@ -1231,11 +1238,14 @@ public abstract class ProcessorImpl implements Processor {
                     sysID = breakpointKey.getSystemId();
                     line = breakpointKey.getLine();
                 }
-                tinf = new TraceInfo(sysID, line);
+                tinf = new TraceInfo(sysID, line, clazz.getName());
                 trc.add(tinf);
             }
             try {
-                getFilter().read(context, contentHandler);
+                if (trc instanceof PipelineContext.ProfilingTrace)
+                    getFilter().read(context, ((PipelineContext.ProfilingTrace) trc).getContentHandler(tinf, contentHandler));
+                else
+                    getFilter().read(context, contentHandler);
             } catch (AbstractMethodError e) {
                 logger.error(e);
             } catch (Exception e) {
@@ -1253,6 +1263,25 @@ public abstract class ProcessorImpl implements Processor {
             return getFilter().getValidity(context);
         }
 
+        /**
+         * Read the output, then return the key and validity obtained from the same execution of the processor.
+         *
+         * Asking for the key before reading may execute the processor, for example a pipeline starts its serializers
+         * to compute the key of its outputs. Asking after reading guarantees that the processor only runs once.
+         *
+         * @param context           current context
+         * @param contentHandler    receives the output
+         * @return                  key and validity, or null if the output is not cacheable
+         */
+        public final KeyValidity readWithKeyValidity(PipelineContext context, ContentHandler contentHandler) {
+            read(context, contentHandler);
+            final OutputCacheKey outputCacheKey = getKey(context);
+            if (outputCacheKey == null) return null;
+            final Object outputCacheValidity = getValidity(context);
+            if (outputCacheValidity == null) return null;
+            return new KeyValidity(outputCacheKey, outputCacheValidity);
+        }
+
         public final KeyValidity getKeyValidityImpl(PipelineContext context) {
             final OutputCacheKey outputCacheKey = getKeyImpl(context);
             if (outputCacheKey == null) return null;
@@ -1527,6 +1556,7 @@ public abstract class ProcessorImpl implements Processor {
             compoundValidities.add(new Long(0));
 
             final Object cachedObject = cache.findValid(pipelineContext, compoundCacheKey, compoundValidities);
+            traceCacheLookup(pipelineContext, processorOutput, cachedObject != null);
             if (cachedObject != null) {
                 // Found it
                 creator.foundInCache();
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor;
+
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.properties.Properties;
+import org.orbeon.oxf.properties.PropertySet;
+import org.orbeon.oxf.xml.ForwardingContentHandler;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trace which aggregates the statistics of all requests into the PipelineProfiler.
+ *
+ * To keep the overhead low in production, only one request out of processor.profiler.sample-rate is profiled.
+ */
+public class ProfilerTrace implements PipelineContext.ProfilingTrace {
+
+    public static final String SAMPLE_RATE_PROPERTY = "processor.profiler.sample-rate";
+
+    private static final AtomicLong requestCounter = new AtomicLong();
+
+    private final boolean sampled;
+    private final List<PipelineContext.TraceInfo> traceInfos;
+
+    public ProfilerTrace() {
+        final PropertySet propertySet = Properties.instance().getPropertySet();
+        final int sampleRate = propertySet.getInteger(SAMPLE_RATE_PROPERTY, 1);
+        this.sampled = sampleRate <= 1 || requestCounter.getAndIncrement() % sampleRate == 0;
+        this.traceInfos = sampled ? new ArrayList<PipelineContext.TraceInfo>() : null;
+    }
+
+    public void setPipelineContext(PipelineContext pipelineContext) {
+    }
+
+    public void add(PipelineContext.TraceInfo traceInfo) {
+        if (sampled)
+            traceInfos.add(traceInfo);
+    }
+
+    public ContentHandler getContentHandler(final PipelineContext.TraceInfo traceInfo, ContentHandler contentHandler) {
+        if (!sampled)
+            return contentHandler;
+
+        return new ForwardingContentHandler(contentHandler) {
+            @Override
+            public void characters(char[] chars, int start, int length) throws SAXException {
+                traceInfo.characters += length;
+                super.characters(chars, start, length);
+            }
+        };
+    }
+
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    public void cacheLookup(Class processorClass, String outputName, boolean hit) {
+        if (sampled)
+            PipelineProfiler.instance().addCacheLookup(processorClass, outputName, hit);
+    }
+
+    public void contextDestroyed(boolean success) {
+        if (sampled && traceInfos.size() > 0)
+            PipelineProfiler.instance().addRequest(StdOutTrace.getTraceNodes(traceInfos));
+    }
+}
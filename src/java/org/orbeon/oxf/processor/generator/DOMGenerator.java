@@ -36,7 +36,8 @@ import javax.xml.transform.sax.SAXResult;
 /**
  * DOM Document to sax event processor.
  *
- * A note wrt caching.  Each instance of DOMGenerator creates a unique key for caching.  The
+ * A note wrt caching.  Each instance of DOMGenerator creates a unique key for caching, which is
+ * only shared with the copies returned by createCopy().  The
  * validity, however, is provided by whoever instantiates the DOMGenerator.  The intent is that
  * a.) we don't get cache hits for two different DOM objects that happen to have equivalent content.
  * ( source of performance problem in past ), and
@@ -122,6 +123,11 @@ public final class DOMGenerator extends ProcessorImpl {
         public boolean equals(final Object rhsObj) {
             return rhsObj == this;
         }
+
+        public boolean appendCanonicalForm(final StringBuilder sb) {
+            // Keys are only equal to themselves
+            return false;
+        }
     }
 
     public final static Long ZeroValidity = (long) 0;
@@ -146,7 +152,11 @@ public final class DOMGenerator extends ProcessorImpl {
     private final Object validity;
 
     private DOMGenerator(final String id, final Object v, final SourceFactory srcFctry) {
-        key = new DocKey(id);
+        this(new DocKey(id), v, srcFctry);
+    }
+
+    private DOMGenerator(final DocKey k, final Object v, final SourceFactory srcFctry) {
+        key = k;
         validity = v;
         sourceFactory = srcFctry;
         final ProcessorInputOutputInfo pInOutInf = new ProcessorInputOutputInfo(OUTPUT_DATA);
@@ -188,6 +198,19 @@ public final class DOMGenerator extends ProcessorImpl {
         this(id, v, new TinyTreeSourceFactory(makeCopyDoc(nodeInfo), sid));
     }
 
+    /**
+     * Create a generator for the same document, with the same cache key and validity as this generator.
+     *
+     * A generator must not be connected by concurrent pipelines, as connecting it creates outputs. Copies can be
+     * connected independently while still sharing the results cached for the document.
+     */
+    public DOMGenerator createCopy() {
+        final DOMGenerator copy = new DOMGenerator(key, validity, sourceFactory);
+        copy.setId(getId());
+        copy.setName(getName());
+        return copy;
+    }
+
     public ProcessorOutput createOutput(final String nm) {
 
         final Class clazz = getClass();
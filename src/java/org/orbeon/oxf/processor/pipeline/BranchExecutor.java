@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.pipeline;
+
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.pipeline.StaticExternalContext;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.properties.Properties;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor for the branches of pipelines which run in parallel, shared by p:processor/@parallel and
+ * p:for-each/@parallel.
+ *
+ * A thread waiting for the result of a branch which has not started yet runs the branch itself, so nested parallel
+ * branches cannot exhaust the executor.
+ */
+public class BranchExecutor {
+
+    public static final String MAX_THREADS_PROPERTY = "oxf.pipeline.parallel.max-threads";
+    private static final int DEFAULT_MAX_THREADS = 4;
+
+    private static ExecutorService executor;
+
+    public static int getMaxThreads() {
+        return Properties.instance().getPropertySet().getInteger(MAX_THREADS_PROPERTY, DEFAULT_MAX_THREADS);
+    }
+
+    private synchronized static ExecutorService getExecutor() {
+        if (executor == null) {
+            final int maxThreads = getMaxThreads();
+            final AtomicInteger threadCount = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(maxThreads, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "orbeon-pipeline-branch-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Create a branch executing in the given branch context.
+     *
+     * The static context of the current thread is captured, so that the branch can rewrite URLs and call XPath
+     * functions which need the external context. It is set for the branch context while the branch runs, whichever
+     * thread runs it.
+     *
+     * @param branchContext context of the branch
+     * @param callable      code of the branch
+     * @return              branch
+     */
+    public static <T> FutureTask<T> createTask(final PipelineContext branchContext, final Callable<T> callable) {
+        final StaticExternalContext.StaticContext parentStaticContext = StaticExternalContext.getStaticContext();
+        return new FutureTask<T>(new Callable<T>() {
+            public T call() throws Exception {
+                if (parentStaticContext == null)
+                    return callable.call();
+
+                StaticExternalContext.setStaticContext(new StaticExternalContext.StaticContext(parentStaticContext.getExternalContext(), branchContext));
+                try {
+                    return callable.call();
+                } finally {
+                    StaticExternalContext.removeStaticContext();
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedule a branch for execution.
+     *
+     * @param task  branch
+     */
+    public static void execute(FutureTask<?> task) {
+        getExecutor().execute(task);
+    }
+
+    /**
+     * Return the result of a branch, running it in this thread if no other thread has started it.
+     *
+     * @param task  branch
+     * @return      result of the branch
+     */
+    public static <T> T getResult(FutureTask<T> task) {
+        task.run();
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            else if (cause instanceof Error)
+                throw (Error) cause;
+            else
+                throw new OXFException(cause);
+        } catch (InterruptedException e) {
+            throw new OXFException(e);
+        }
+    }
+
+    /**
+     * Cancel a branch if it has not started yet, otherwise wait for it to complete, ignoring its result.
+     *
+     * @param task  branch
+     */
+    public static void cancel(FutureTask<?> task) {
+        task.cancel(false);
+        try {
+            task.get();
+        } catch (Exception e) {
+            // Errors were reported to the reader, or the branch did not run
+        }
+    }
+}
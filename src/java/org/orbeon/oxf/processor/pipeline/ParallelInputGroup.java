@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.pipeline;
+
+import org.orbeon.oxf.cache.Cacheable;
+import org.orbeon.oxf.cache.OutputCacheKey;
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.processor.ProcessorImpl;
+import org.orbeon.oxf.processor.ProcessorInput;
+import org.orbeon.oxf.processor.ProcessorOutput;
+import org.orbeon.oxf.processor.pipeline.ast.*;
+import org.orbeon.oxf.xml.SAXStore;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Group of inputs of a processor which are read in parallel.
+ *
+ * With p:processor/@parallel="true", each input of the processor which only depends on statements that nothing else
+ * in the pipeline uses is connected to a PrefetchOutput. The first time the processor reads one of these inputs,
+ * all of them are read concurrently into SAXStores, each in its own isolated branch PipelineContext, unless
+ * p:processor/@shared-context="true" states that the branches can safely share the attributes of the pipeline
+ * context. The processor then reads its inputs in its usual order, and they are replayed from the SAXStores.
+ *
+ * Branches run on the BranchExecutor.
+ */
+public class ParallelInputGroup {
+
+    private final boolean sharedContext;
+    private final List<PrefetchOutput> prefetchOutputs = new ArrayList<PrefetchOutput>();
+
+    /**
+     * @param sharedContext whether the branches share the attributes of the pipeline context, see
+     *                      p:processor/@shared-context
+     */
+    public ParallelInputGroup(boolean sharedContext) {
+        this.sharedContext = sharedContext;
+    }
+
+    /**
+     * Find the inputs of a processor call which can be read in parallel.
+     *
+     * An input qualifies if it has no inline content and if all the statements it depends on, directly or
+     * indirectly, are used by this input only. Inputs depending on pipeline inputs do not qualify.
+     *
+     * @param astPipeline   pipeline containing the processor call
+     * @param processorCall processor call
+     * @return              independent inputs, empty if there are less than two
+     */
+    public static List<ASTInput> findIndependentInputs(ASTPipeline astPipeline, ASTProcessorCall processorCall) {
+
+        // Find which statement produces each id
+        final Map<String, ASTStatement> idToStatement = new HashMap<String, ASTStatement>();
+        for (final Object statementObject: astPipeline.getStatements()) {
+            final ASTStatement statement = (ASTStatement) statementObject;
+            for (final Object id: statement.getIdInfo().getOutputIds())
+                idToStatement.put((String) id, statement);
+        }
+
+        // Count references to each id in the whole pipeline
+        final Map<String, Integer> referenceCounts = countReferences(astPipeline);
+
+        final List<ASTInput> result = new ArrayList<ASTInput>();
+        for (final Object inputObject: processorCall.getInputs()) {
+            final ASTInput input = (ASTInput) inputObject;
+            if (input.getHref() != null && input.getTransform() == null && isIndependent(input, idToStatement, referenceCounts))
+                result.add(input);
+        }
+
+        if (result.size() < 2)
+            result.clear();
+        return result;
+    }
+
+    private static boolean isIndependent(ASTInput input, Map<String, ASTStatement> idToStatement, Map<String, Integer> referenceCounts) {
+
+        // Gather the statements the input depends on
+        final Set<ASTStatement> statements = new HashSet<ASTStatement>();
+        final LinkedList<String> idsToVisit = new LinkedList<String>(countReferences(input.getHref()).keySet());
+        while (!idsToVisit.isEmpty()) {
+            final String id = idsToVisit.removeFirst();
+            final ASTStatement statement = idToStatement.get(id);
+            if (statement == null) {
+                // Pipeline input, or id that is not produced by a statement of this pipeline
+                return false;
+            }
+            if (statements.add(statement)) {
+                // Statements connected to pipeline outputs are read from outside
+                if (statement.getIdInfo().getOutputRefs().size() > 0)
+                    return false;
+                for (final Object inputRef: statement.getIdInfo().getInputRefs())
+                    idsToVisit.add((String) inputRef);
+            }
+        }
+
+        // All the references to the ids produced by those statements must come from the input or the statements
+        final Map<String, Integer> localReferenceCounts = countReferences(input.getHref());
+        for (final ASTStatement statement: statements) {
+            for (final Map.Entry<String, Integer> entry: countReferences(statement).entrySet()) {
+                final Integer existingCount = localReferenceCounts.get(entry.getKey());
+                localReferenceCounts.put(entry.getKey(), (existingCount != null ? existingCount : 0) + entry.getValue());
+            }
+        }
+        for (final ASTStatement statement: statements) {
+            for (final Object id: statement.getIdInfo().getOutputIds()) {
+                final Integer localCount = localReferenceCounts.get(id);
+                if (localCount == null || !localCount.equals(referenceCounts.get(id)))
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static Map<String, Integer> countReferences(ASTNodeContainer nodeContainer) {
+        final Map<String, Integer> result = new HashMap<String, Integer>();
+        nodeContainer.walk(new ASTSimpleHandler() {
+            public void hrefId(ASTHrefId hrefId) {
+                final Integer existingCount = result.get(hrefId.getId());
+                result.put(hrefId.getId(), (existingCount != null ? existingCount : 0) + 1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Insert a PrefetchOutput between the given input and the output it is connected to.
+     *
+     * @param input input of the processor
+     */
+    public void addInput(ProcessorInput input) {
+        final ProcessorOutput upstreamOutput = input.getOutput();
+
+        // The upstream output now writes to an internal input
+        final ProcessorInput upstreamInput = new ProcessorImpl.ProcessorInputImpl(PipelineProcessor.class, input.getName());
+        upstreamInput.setOutput(upstreamOutput);
+        upstreamOutput.setInput(upstreamInput);
+
+        final PrefetchOutput prefetchOutput = new PrefetchOutput(input.getName(), upstreamOutput);
+        prefetchOutput.setInput(input);
+        input.setOutput(prefetchOutput);
+
+        prefetchOutputs.add(prefetchOutput);
+    }
+
+    public int getInputCount() {
+        return prefetchOutputs.size();
+    }
+
+    /**
+     * Reset the state of the group for the current execution of the pipeline.
+     *
+     * @param pipelineContext   current context
+     */
+    public void reset(PipelineContext pipelineContext) {
+        pipelineContext.setAttribute(getStateKey(pipelineContext), new State());
+    }
+
+    private State getState(PipelineContext pipelineContext) {
+        final State state = (State) pipelineContext.getAttribute(getStateKey(pipelineContext));
+        if (state == null)
+            throw new OXFException("No state in context");
+        return state;
+    }
+
+    private Object getStateKey(PipelineContext pipelineContext) {
+        // Like processors, the state depends on the stack of parent processors
+        final Stack parents = (Stack) pipelineContext.getAttribute(PipelineContext.PARENT_PROCESSORS);
+        return Arrays.asList(this, parents != null ? new ArrayList<Object>(parents) : Collections.emptyList());
+    }
+
+    private void startReading(final PipelineContext pipelineContext, final State state) {
+        state.started = true;
+        for (final PrefetchOutput prefetchOutput: prefetchOutputs) {
+            final PipelineContext branchContext = sharedContext
+                    ? pipelineContext.createBranchContext() : pipelineContext.createIsolatedBranchContext();
+            final FutureTask<SAXStore> task = BranchExecutor.createTask(branchContext, new Callable<SAXStore>() {
+                public SAXStore call() {
+                    final SAXStore saxStore = new SAXStore();
+                    prefetchOutput.upstreamOutput.read(branchContext, saxStore);
+                    return saxStore;
+                }
+            });
+            state.tasks.put(prefetchOutput, task);
+            BranchExecutor.execute(task);
+        }
+
+        // Branches must not outlive the pipeline context
+        final Collection<FutureTask<SAXStore>> tasks = new ArrayList<FutureTask<SAXStore>>(state.tasks.values());
+        pipelineContext.addContextListener(new PipelineContext.ContextListenerAdapter() {
+            public void contextDestroyed(boolean success) {
+                for (final FutureTask<SAXStore> task: tasks)
+                    BranchExecutor.cancel(task);
+            }
+        });
+    }
+
+    private static class State {
+        public boolean started;
+        public final Map<PrefetchOutput, FutureTask<SAXStore>> tasks = new HashMap<PrefetchOutput, FutureTask<SAXStore>>();
+    }
+
+    private class PrefetchOutput extends ProcessorImpl.ProcessorOutputImpl {
+
+        private final ProcessorOutput upstreamOutput;
+
+        public PrefetchOutput(String name, ProcessorOutput upstreamOutput) {
+            super(PipelineProcessor.class, name);
+            this.upstreamOutput = upstreamOutput;
+        }
+
+        protected void readImpl(PipelineContext pipelineContext, ContentHandler contentHandler) {
+            final State state = getState(pipelineContext);
+            if (!state.started)
+                startReading(pipelineContext, state);
+
+            final FutureTask<SAXStore> task = state.tasks.remove(this);
+            if (task == null)
+                throw new OXFException("Parallel input '" + getName() + "' can only be read once");
+            try {
+                BranchExecutor.getResult(task).replay(contentHandler);
+            } catch (SAXException e) {
+                throw new OXFException(e);
+            }
+        }
+
+        protected OutputCacheKey getKeyImpl(PipelineContext pipelineContext) {
+            waitIfReading(pipelineContext);
+            return (upstreamOutput instanceof Cacheable) ? ((Cacheable) upstreamOutput).getKey(pipelineContext) : null;
+        }
+
+        protected Object getValidityImpl(PipelineContext pipelineContext) {
+            waitIfReading(pipelineContext);
+            return (upstreamOutput instanceof Cacheable) ? ((Cacheable) upstreamOutput).getValidity(pipelineContext) : null;
+        }
+
+        private void waitIfReading(PipelineContext pipelineContext) {
+            // Before reading starts, the upstream output is not accessed by other threads
+            final FutureTask<SAXStore> task = getState(pipelineContext).tasks.get(this);
+            if (task != null)
+                BranchExecutor.getResult(task);
+        }
+    }
+}
@@ -37,6 +37,8 @@ public class PipelineConfig {
     private List<Processor> processors = new ArrayList<Processor>();
     // List of Processor objects: we have to call their start() method
     private List<Processor> processorsToStart = new ArrayList<Processor>();
+    // Groups of inputs read in parallel
+    private List<ParallelInputGroup> parallelInputGroups = new ArrayList<ParallelInputGroup>();
     
     private TreeMap<String,BreakpointKey> outnameToBreakpointKey
         = new java.util.TreeMap<String, BreakpointKey>( NullFriendlyStringComparator.instance );
@@ -86,4 +88,12 @@ public class PipelineConfig {
     public List<Processor> getProcessorsToStart() {
         return processorsToStart;
     }
+
+    public void addParallelInputGroup(ParallelInputGroup parallelInputGroup) {
+        parallelInputGroups.add(parallelInputGroup);
+    }
+
+    public List<ParallelInputGroup> getParallelInputGroups() {
+        return parallelInputGroups;
+    }
 }
@@ -255,6 +255,11 @@ public class PipelineProcessor extends ProcessorImpl implements Debuggable {
                 if (!foundOutput && processor.getOutputsInfo().size() > 0)
                     throw new ValidationException("The processor output must be connected", processorLocationData);
 
+                // Find inputs to read in parallel
+                final List<ASTInput> parallelInputs = processorCall.isParallel()
+                        ? ParallelInputGroup.findIndependentInputs(astPipeline, processorCall) : Collections.<ASTInput>emptyList();
+                final ParallelInputGroup parallelInputGroup = parallelInputs.isEmpty() ? null : new ParallelInputGroup(processorCall.isSharedContext());
+
                 // Process inputs
                 for (Iterator j = processorCall.getInputs().iterator(); j.hasNext();) {
                     ASTInput input = (ASTInput) j.next();
@@ -336,8 +341,14 @@ public class PipelineProcessor extends ProcessorImpl implements Debuggable {
                     }
                     setDebugAndSchema(pin, input);
                     setBreakpointKey(pin, input);
+
+                    if (parallelInputs.contains(input))
+                        parallelInputGroup.addInput(pin);
                 }
 
+                if (parallelInputGroup != null)
+                    config.addParallelInputGroup(parallelInputGroup);
+
             } else if (statement instanceof ASTChoose) {
 
                 // Instantiate processor
@@ -628,6 +639,9 @@ public class PipelineProcessor extends ProcessorImpl implements Debuggable {
                 for (Iterator i = config.getProcessors().iterator(); i.hasNext();) {
                     ((Processor) i.next()).reset(context);
                 }
+                for (final ParallelInputGroup parallelInputGroup: config.getParallelInputGroups()) {
+                    parallelInputGroup.reset(context);
+                }
             }
         });
 
@@ -104,6 +104,14 @@ public class PipelineReader extends ProcessorImpl {
         pipeline.getStatements().addAll(readStatements(configElement));
     }
 
+    // Value of an attribute of type xs:boolean
+    private static boolean isTrue(String value) {
+        if (value == null)
+            return false;
+        value = value.trim();
+        return "true".equals(value) || "1".equals(value);
+    }
+
     private List<ASTStatement> readStatements(Element containerElement) {
 
         List<ASTStatement> result = new ArrayList<ASTStatement>();
@@ -117,6 +125,8 @@ public class PipelineReader extends ProcessorImpl {
                     processorCall.setNode(element);
                     processorCall.setId(element.attributeValue("id"));
                     processorCall.setEncapsulation(element.attributeValue("encapsulation"));
+                    processorCall.setParallel(isTrue(element.attributeValue("parallel")));
+                    processorCall.setSharedContext(isTrue(element.attributeValue("shared-context")));
 
                     // Inputs/outputs
                     for (Iterator j = element.elementIterator(); j.hasNext();) {
@@ -206,6 +216,7 @@ public class PipelineReader extends ProcessorImpl {
                     forEach.setOutputSchemaHref(element.attributeValue("output-schema-href"));
                     forEach.setOutputSchemaUri(element.attributeValue("output-schema-uri"));
                     forEach.setOutputDebug(element.attributeValue("output-debug"));
+                    forEach.setParallel(isTrue(element.attributeValue("parallel")));
                     forEach.getStatements().addAll(readStatements(element));
                 }
             }
@@ -48,6 +48,8 @@ public class ASTProcessorCall extends ASTStatement {
     private Processor processor;
     private String id;
     private String encapsulation;
+    private boolean parallel;
+    private boolean sharedContext;
 
     public void addInput(ASTInput input) {
         inputs.add(input);
@@ -97,6 +99,28 @@ public class ASTProcessorCall extends ASTStatement {
         this.encapsulation = encapsulation;
     }
 
+    /**
+     * Whether independent inputs of this processor can be read in parallel.
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Whether the inputs read in parallel can share the attributes of the pipeline context.
+     */
+    public boolean isSharedContext() {
+        return sharedContext;
+    }
+
+    public void setSharedContext(boolean sharedContext) {
+        this.sharedContext = sharedContext;
+    }
+
     public Processor getProcessor() {
         return processor;
     }
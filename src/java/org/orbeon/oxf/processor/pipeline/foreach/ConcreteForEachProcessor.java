@@ -16,19 +16,20 @@ package org.orbeon.oxf.processor.pipeline.foreach;
 import org.dom4j.Document;
 import org.dom4j.Element;
 import org.dom4j.Node;
-import org.orbeon.oxf.cache.Cacheable;
-import org.orbeon.oxf.cache.OutputCacheKey;
+import org.orbeon.oxf.cache.*;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.pipeline.api.PipelineContext;
 import org.orbeon.oxf.processor.*;
 import org.orbeon.oxf.processor.generator.DOMGenerator;
+import org.orbeon.oxf.processor.pipeline.BranchExecutor;
 import org.orbeon.oxf.processor.pipeline.PipelineProcessor;
 import org.orbeon.oxf.processor.pipeline.TeeProcessor;
 import org.orbeon.oxf.processor.pipeline.ast.*;
 import org.orbeon.oxf.util.PooledXPathExpression;
 import org.orbeon.oxf.util.XPathCache;
 import org.orbeon.oxf.xml.EmbeddedDocumentContentHandler;
+import org.orbeon.oxf.xml.SAXStore;
 import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
 import org.orbeon.saxon.dom4j.DocumentWrapper;
 import org.orbeon.saxon.om.DocumentInfo;
@@ -38,6 +39,8 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
 
 public class ConcreteForEachProcessor extends ProcessorImpl {
 
@@ -45,6 +48,8 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
     private final ProcessorOutput iterationOutput;
     private final String select;
     private final Map<String, String> namespaceContext;
+    private final boolean parallel;
+    private final boolean hasProcessorsToStart;
     private String rootLocalName;
     private String rootQName;
     private String rootNamespaceURI;
@@ -94,6 +99,8 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
         iterationOutput = forEachBlockProcessor.createOutput(idOrRef);
 
         select = forEachAST.getSelect();
+        parallel = forEachAST.isParallel();
+        hasProcessorsToStart = hasProcessorsToStart(forEachAST);
         namespaceContext = Dom4jUtils.getNamespaceContextNoDefault((Element) forEachAST.getNode());
         if (forEachAST.getRoot() != null) {
             rootQName = forEachAST.getRoot();
@@ -126,32 +133,40 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
                     // Read n times from iterationOutput
                     PooledXPathExpression expression = null;
                     int iterationCount = 0;
+                    // Key and validity of each iteration, obtained while reading
+                    final KeyValidity dataKeyValidity = getInputKeyValidity(pipelineContext, AbstractForEachProcessor.FOR_EACH_DATA_INPUT);
+                    final List<KeyValidity> iterationKeyValidities = (dataKeyValidity != null) ? new ArrayList<KeyValidity>() : null;
                     try {
-                        expression = createExpression(pipelineContext);
-
-                        for (Iterator i = new ElementIterator(expression); i.hasNext(); iterationCount++) {
-                            final Element currentElement = (Element) i.next();
-
-                            // Create DOMGenerator
-                            final String systemId = Dom4jUtils.makeSystemId(currentElement);
-                            final DOMGenerator domGenerator = new DOMGenerator
-                                    (currentElement, "for each input", DOMGenerator.ZeroValidity, systemId);
-                            domGenerator.createOutput(OUTPUT_DATA);
-                            state.domGenerator = domGenerator;
-
-                            // Run iteration
-                            forEachBlockProcessor.reset(pipelineContext);
-                            iterationOutput.read(pipelineContext, new EmbeddedDocumentContentHandler(contentHandler));
+                        expression = createExpression(pipelineContext, state);
+
+                        if (parallel) {
+                            iterationCount = readIterationsInParallel(pipelineContext, new ElementIterator(expression), contentHandler, iterationKeyValidities);
+                        } else {
+                            for (Iterator i = new ElementIterator(expression); i.hasNext(); iterationCount++) {
+                                final Element currentElement = (Element) i.next();
+                                state.domGenerator = createDOMGenerator(currentElement);
+
+                                // Run iteration
+                                forEachBlockProcessor.reset(pipelineContext);
+                                readIteration(pipelineContext, new EmbeddedDocumentContentHandler(contentHandler), iterationKeyValidities);
+                            }
                         }
                     } catch (XPathException e) {
                         throw new OXFException(e);
                     } finally {
                         // Clear state to allow gc as the state might be referenced for a while
-                        if (state != null) state.domGenerator = null;
+                        if (state != null) {
+                            state.domGenerator = null;
+                            state.dataInput = null;
+                        }
                         // Return expression
                         if (expression != null) expression.returnToPool();
                     }
 
+                    // Remember key and validity so that they are available without running the iterations again
+                    state.keyValidity = combineKeyValidities(getName(), dataKeyValidity, iterationKeyValidities);
+                    state.keyValidityComputed = true;
+
                     // Notify input Tee processors that we are done
                     commitInputs(pipelineContext, iterationCount);
 
@@ -164,24 +179,24 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
             }
 
             /**
-             * For each is not cacheable. We used to have code here that combines the keys for
-             * the outputs of the different executions of the for-each. The problem is when we
-             * have a block in the for-each that has an output and a serializer. In that case,
-             * getting the output key runs the serializer.
+             * The key of p:for-each combines the key of the $data input with the keys of the outputs of the
+             * different executions of the block.
              *
-             * So if we get the key here, we'll run the serializer n times, which is
-             * unexpected. Maybe an an API that combines reading the output and reading the
-             * key/validity would solve this problem.
+             * Once the output has been read, the keys obtained while reading are returned. Before that, getting the
+             * key of the block output may start its serializers, and running them n times is unexpected. So in that
+             * case the key is only computed if the block does not contain processors without outputs.
              */
             protected OutputCacheKey getKeyImpl(PipelineContext pipelineContext) {
-                return null;
+                final KeyValidity keyValidity = getKeyValidity(pipelineContext, getName());
+                return (keyValidity != null) ? (OutputCacheKey) keyValidity.key : null;
             }
 
             /**
-             * For each is not cacheable. See comment in getKeyImpl().
+             * See comment in getKeyImpl().
              */
             protected Object getValidityImpl(PipelineContext pipelineContext) {
-                return null;
+                final KeyValidity keyValidity = getKeyValidity(pipelineContext, getName());
+                return (keyValidity != null) ? keyValidity.validity : null;
             }
 
         };
@@ -189,6 +204,146 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
         return output;
     }
 
+    private KeyValidity getKeyValidity(PipelineContext pipelineContext, String outputName) {
+        final State state = (State) getState(pipelineContext);
+        if (!state.keyValidityComputed) {
+            if (hasProcessorsToStart)
+                return null;
+
+            final KeyValidity dataKeyValidity = getInputKeyValidity(pipelineContext, AbstractForEachProcessor.FOR_EACH_DATA_INPUT);
+            if (dataKeyValidity == null)
+                return null;
+
+            PooledXPathExpression expression = null;
+            final List<KeyValidity> iterationKeyValidities = new ArrayList<KeyValidity>();
+            try {
+                expression = createExpression(pipelineContext, state);
+
+                for (Iterator i = new ElementIterator(expression); i.hasNext();) {
+                    final Element currentElement = (Element) i.next();
+                    state.domGenerator = createDOMGenerator(currentElement);
+
+                    forEachBlockProcessor.reset(pipelineContext);
+                    final KeyValidity iterationKeyValidity = getKeyValidity(pipelineContext, iterationOutput);
+                    iterationKeyValidities.add(iterationKeyValidity);
+                    if (iterationKeyValidity == null)
+                        break;
+                }
+            } catch (XPathException e) {
+                throw new OXFException(e);
+            } finally {
+                // The $data input is kept in the state as it must be read only once
+                if (state != null) state.domGenerator = null;
+                if (expression != null) expression.returnToPool();
+            }
+
+            state.keyValidity = combineKeyValidities(outputName, dataKeyValidity, iterationKeyValidities);
+            state.keyValidityComputed = true;
+        }
+        return state.keyValidity;
+    }
+
+    private static KeyValidity getKeyValidity(PipelineContext pipelineContext, ProcessorOutput output) {
+        if (!(output instanceof Cacheable))
+            return null;
+        final OutputCacheKey outputCacheKey = ((Cacheable) output).getKey(pipelineContext);
+        if (outputCacheKey == null)
+            return null;
+        final Object validity = ((Cacheable) output).getValidity(pipelineContext);
+        if (validity == null)
+            return null;
+        return new KeyValidity(outputCacheKey, validity);
+    }
+
+    private KeyValidity combineKeyValidities(String outputName, KeyValidity dataKeyValidity, List<KeyValidity> iterationKeyValidities) {
+        if (dataKeyValidity == null || iterationKeyValidities == null)
+            return null;
+
+        // The iterations depend on the select and root attributes as well as on the $data input
+        final CacheKey[] keys = new CacheKey[iterationKeyValidities.size() + 2];
+        final List<Object> validities = new ArrayList<Object>(iterationKeyValidities.size() + 1);
+        keys[0] = new SimpleOutputCacheKey(getClass(), outputName, select + " " + rootQName);
+        keys[1] = dataKeyValidity.key;
+        validities.add(dataKeyValidity.validity);
+        int index = 2;
+        for (final KeyValidity iterationKeyValidity: iterationKeyValidities) {
+            if (iterationKeyValidity == null)
+                return null;
+            keys[index++] = iterationKeyValidity.key;
+            validities.add(iterationKeyValidity.validity);
+        }
+        return new KeyValidity(new CompoundOutputCacheKey(getClass(), outputName, keys), validities);
+    }
+
+    /**
+     * Read the output of one iteration, and add its key and validity to the given list if not null. A null entry is
+     * added if the key and validity of the iteration are not known.
+     */
+    private void readIteration(PipelineContext pipelineContext, ContentHandler contentHandler, List<KeyValidity> iterationKeyValidities) {
+        if (iterationKeyValidities != null && iterationOutput instanceof ProcessorOutputImpl) {
+            // Get the key right after reading, so that the block does not run again
+            iterationKeyValidities.add(((ProcessorOutputImpl) iterationOutput).readWithKeyValidity(pipelineContext, contentHandler));
+        } else {
+            iterationOutput.read(pipelineContext, contentHandler);
+            // Without a key, the output of p:for-each can't be cached
+            if (iterationKeyValidities != null)
+                iterationKeyValidities.add(null);
+        }
+    }
+
+    /**
+     * Run iterations concurrently on the BranchExecutor, each in an isolated branch context and into its own SAXStore.
+     * The SAXStores are replayed in document order. To bound memory, only a limited number of iterations are scheduled
+     * ahead of the one being output.
+     *
+     * @return number of iterations
+     */
+    private int readIterationsInParallel(PipelineContext pipelineContext, Iterator elements, ContentHandler contentHandler,
+                                         final List<KeyValidity> iterationKeyValidities) throws SAXException {
+
+        final SharedInputs sharedInputs = new SharedInputs(pipelineContext.createBranchContext());
+        final int maxScheduledIterations = BranchExecutor.getMaxThreads() * 2;
+        final LinkedList<FutureTask<Iteration>> tasks = new LinkedList<FutureTask<Iteration>>();
+        int iterationCount = 0;
+        try {
+            while (elements.hasNext() || !tasks.isEmpty()) {
+                // Schedule iterations ahead
+                while (elements.hasNext() && tasks.size() < maxScheduledIterations) {
+                    final State iterationState = new State();
+                    iterationState.domGenerator = createDOMGenerator((Element) elements.next());
+                    iterationState.sharedInputs = sharedInputs;
+
+                    final PipelineContext iterationContext = pipelineContext.createIsolatedBranchContext();
+                    final FutureTask<Iteration> task = BranchExecutor.createTask(iterationContext, new Callable<Iteration>() {
+                        public Iteration call() {
+                            setState(iterationContext, iterationState);
+                            forEachBlockProcessor.reset(iterationContext);
+
+                            final SAXStore saxStore = new SAXStore();
+                            final List<KeyValidity> keyValidity = (iterationKeyValidities != null) ? new ArrayList<KeyValidity>(1) : null;
+                            readIteration(iterationContext, saxStore, keyValidity);
+                            return new Iteration(saxStore, (keyValidity != null && !keyValidity.isEmpty()) ? keyValidity.get(0) : null);
+                        }
+                    });
+                    tasks.add(task);
+                    BranchExecutor.execute(task);
+                }
+
+                // Output the next iteration
+                final Iteration iteration = BranchExecutor.getResult(tasks.removeFirst());
+                iteration.saxStore.replay(new EmbeddedDocumentContentHandler(contentHandler));
+                if (iterationKeyValidities != null)
+                    iterationKeyValidities.add(iteration.keyValidity);
+                iterationCount++;
+            }
+        } finally {
+            // Don't leave iterations running after an error
+            for (final FutureTask<Iteration> task: tasks)
+                BranchExecutor.cancel(task);
+        }
+        return iterationCount;
+    }
+
     private void commitInputs(PipelineContext pipelineContext, int iterationCount) {
         for (Iterator<Map.Entry<String,List<ProcessorInput>>> i = getConnectedInputs().entrySet().iterator(); i.hasNext();) {
             final Map.Entry<String,List<ProcessorInput>> entry = i.next();
@@ -240,10 +395,11 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
         }
     }
 
-    private PooledXPathExpression createExpression(PipelineContext pipelineContext) {
-        // Read special "$data" input
-        final Document dataInput = readInputAsDOM4J(pipelineContext, getInputByName(AbstractForEachProcessor.FOR_EACH_DATA_INPUT));
-        final DocumentInfo document = new DocumentWrapper(dataInput, null, XPathCache.getGlobalConfiguration());
+    private PooledXPathExpression createExpression(PipelineContext pipelineContext, State state) {
+        // Read special "$data" input, which may have been read already to compute the key
+        if (state.dataInput == null)
+            state.dataInput = readInputAsDOM4J(pipelineContext, getInputByName(AbstractForEachProcessor.FOR_EACH_DATA_INPUT));
+        final DocumentInfo document = new DocumentWrapper(state.dataInput, null, XPathCache.getGlobalConfiguration());
         return XPathCache.getXPathExpression(pipelineContext,
                 document.getConfiguration(), document,
                 select, namespaceContext, getLocationData());
@@ -256,17 +412,11 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
         PooledXPathExpression expression = null;
         int iterationCount = 0;
         try {
-            expression = createExpression(pipelineContext);
+            expression = createExpression(pipelineContext, state);
 
             for (Iterator i = new ElementIterator(expression); i.hasNext(); iterationCount++) {
                 final Element currentElement = (Element) i.next();
-
-                // Create DOMGenerator
-                final String systemId = Dom4jUtils.makeSystemId(currentElement);
-                final DOMGenerator domGenerator = new DOMGenerator
-                        (currentElement, "for each input", DOMGenerator.ZeroValidity, systemId);
-                domGenerator.createOutput(OUTPUT_DATA);
-                state.domGenerator = domGenerator;
+                state.domGenerator = createDOMGenerator(currentElement);
 
                 // Run iteration
                 forEachBlockProcessor.reset(pipelineContext);
@@ -277,7 +427,10 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
             throw new OXFException(e);
         } finally {
             // Clear state to allow gc as the state might be referenced for a while
-            if (state != null) state.domGenerator = null;
+            if (state != null) {
+                state.domGenerator = null;
+                state.dataInput = null;
+            }
             // Return expression
             if (expression != null) expression.returnToPool();
         }
@@ -286,6 +439,37 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
         commitInputs(pipelineContext, iterationCount);
     }
 
+    private static DOMGenerator createDOMGenerator(Element currentElement) {
+        final String systemId = Dom4jUtils.makeSystemId(currentElement);
+        final DOMGenerator domGenerator = new DOMGenerator
+                (currentElement, "for each input", DOMGenerator.ZeroValidity, systemId);
+        domGenerator.createOutput(OUTPUT_DATA);
+        return domGenerator;
+    }
+
+    /**
+     * Whether the block contains processors which are started rather than read, such as serializers.
+     */
+    private static boolean hasProcessorsToStart(ASTForEach forEachAST) {
+        final boolean[] result = new boolean[1];
+        for (final ASTStatement statement: forEachAST.getStatements()) {
+            statement.walk(new ASTSimpleHandler() {
+                public boolean startProcessorCall(ASTProcessorCall processorCall) {
+                    if (processorCall.getOutputs().isEmpty())
+                        result[0] = true;
+                    return true;
+                }
+
+                public boolean startForEach(ASTForEach forEach) {
+                    if (forEach.getId() == null && forEach.getRef() == null)
+                        result[0] = true;
+                    return true;
+                }
+            });
+        }
+        return result[0];
+    }
+
     /**
      * Determine all <p:input ref="..."> with no &lt;p:output id="...">.
      * Those are the inputs of this processor.
@@ -318,18 +502,81 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
         }
 
         protected void readImpl(PipelineContext pipelineContext, ContentHandler contentHandler) {
-            // Delegate to the p:for-each input
-            ConcreteForEachProcessor.this.readInputAsSAX(pipelineContext, getName(), contentHandler);
+            final State state = (State) getState(pipelineContext);
+            if (state.sharedInputs != null) {
+                // Iteration running in parallel
+                state.sharedInputs.read(getName(), contentHandler);
+            } else {
+                // Delegate to the p:for-each input
+                ConcreteForEachProcessor.this.readInputAsSAX(pipelineContext, getName(), contentHandler);
+            }
         }
 
         protected OutputCacheKey getKeyImpl(PipelineContext pipelineContext) {
-            // NOTE: this means that the execution of the pipeline block is not cacheable. Should improve?
-            return null;
+            final State state = (State) getState(pipelineContext);
+            if (state.sharedInputs != null)
+                return state.sharedInputs.getKey(getName());
+            else
+                return getInputKey(pipelineContext, getInputByName(getName()));
         }
 
         protected Object getValidityImpl(PipelineContext pipelineContext) {
-            // NOTE: this means that the execution of the pipeline block is not cacheable. Should improve?
-            return null;
+            final State state = (State) getState(pipelineContext);
+            if (state.sharedInputs != null)
+                return state.sharedInputs.getValidity(getName());
+            else
+                return getInputValidity(pipelineContext, getInputByName(getName()));
+        }
+    }
+
+    /**
+     * Inputs of p:for-each read by iterations running in parallel.
+     *
+     * Each input is read once, in a branch context sharing the state of the p:for-each, and then replayed to the
+     * iterations. Accesses to the processors connected to the inputs are serialized.
+     */
+    private class SharedInputs {
+
+        private final PipelineContext pipelineContext;
+        private final Map<String, SAXStore> saxStores = new HashMap<String, SAXStore>();
+
+        public SharedInputs(PipelineContext pipelineContext) {
+            this.pipelineContext = pipelineContext;
+        }
+
+        public void read(String name, ContentHandler contentHandler) {
+            final SAXStore saxStore;
+            synchronized (this) {
+                if (saxStores.get(name) == null) {
+                    final SAXStore newSAXStore = new SAXStore();
+                    readInputAsSAX(pipelineContext, name, newSAXStore);
+                    saxStores.put(name, newSAXStore);
+                }
+                saxStore = saxStores.get(name);
+            }
+            try {
+                saxStore.replay(contentHandler);
+            } catch (SAXException e) {
+                throw new OXFException(e);
+            }
+        }
+
+        public synchronized OutputCacheKey getKey(String name) {
+            return getInputKey(pipelineContext, getInputByName(name));
+        }
+
+        public synchronized Object getValidity(String name) {
+            return getInputValidity(pipelineContext, getInputByName(name));
+        }
+    }
+
+    private static class Iteration {
+        public final SAXStore saxStore;
+        public final KeyValidity keyValidity;
+
+        public Iteration(SAXStore saxStore, KeyValidity keyValidity) {
+            this.saxStore = saxStore;
+            this.keyValidity = keyValidity;
         }
     }
 
@@ -363,6 +610,11 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
      */
     private static class State {
         DOMGenerator domGenerator;
+        Document dataInput;
+        KeyValidity keyValidity;
+        boolean keyValidityComputed;
+        // Only for iterations running in parallel
+        SharedInputs sharedInputs;
     }
 
     public void reset(PipelineContext pipelineContext) {
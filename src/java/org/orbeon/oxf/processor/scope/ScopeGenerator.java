@@ -37,6 +37,7 @@ import javax.xml.transform.TransformerException;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXResult;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
 
 public class ScopeGenerator extends ScopeProcessorBase {
@@ -117,6 +118,10 @@ public class ScopeGenerator extends ScopeProcessorBase {
                                 }
 
                                 state.saxStore = getSAXStore(value, mapping, config.getContentType(), config.getKey());
+
+                                // A Reader can only be read once, so keep the parsed document in its place
+                                if (value instanceof Reader && config.getContextType() == ScopeProcessorBase.REQUEST_CONTEXT)
+                                    externalContext.getRequest().getAttributesMap().put(config.getKey(), state.saxStore);
                             }
                         } else {
                             // Store empty document
@@ -182,6 +187,14 @@ public class ScopeGenerator extends ScopeProcessorBase {
                 } else if (value instanceof String) {
                     // Consider the String containing a document to parse
                     XMLUtils.stringToSAX((String) value, "", result, false, false);
+                } else if (value instanceof Reader) {
+                    // Consider the Reader providing a document to parse, e.g. from OrbeonXFormsFilter
+                    final Reader reader = (Reader) value;
+                    try {
+                        XMLUtils.readerToSAX(reader, "", result, false, false);
+                    } finally {
+                        reader.close();
+                    }
                 } else {
                     // Consider the object a JavaBean
                     readBean(value, mapping, result);
@@ -26,14 +26,18 @@ import org.orbeon.oxf.processor.ProcessorUtils;
 import org.orbeon.oxf.processor.serializer.store.ResultStoreOutputStream;
 import org.orbeon.oxf.util.LoggerFactory;
 import org.orbeon.oxf.util.NetUtils;
+import org.orbeon.oxf.util.SecureUtils;
 import org.orbeon.oxf.util.URLRewriterUtils;
 import org.orbeon.oxf.xml.XPathUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Base class for all HTTP serializers.
@@ -48,6 +52,10 @@ public abstract class HttpSerializerBase extends CachedSerializer {
     private static final boolean DEFAULT_FORCE_ENCODING = false;
     private static final boolean DEFAULT_IGNORE_DOCUMENT_ENCODING = false;
 
+    // Processor property enabling gzip content encoding when the client accepts it
+    public static final String GZIP_PROPERTY = "gzip";
+    private static final boolean DEFAULT_GZIP = false;
+
     private static Logger logger = LoggerFactory.createLogger(HttpSerializerBase.class);
 
     protected HttpSerializerBase() {
@@ -78,6 +86,9 @@ public abstract class HttpSerializerBase extends CachedSerializer {
             ExternalContext externalContext = (ExternalContext) pipelineContext.getAttribute(PipelineContext.EXTERNAL_CONTEXT);
             final ExternalContext.Response response = externalContext.getResponse();
 
+            // Whether the output is compressed
+            boolean isGZIP = false;
+
             // Compute headers
             if (externalContext != null) {
 
@@ -98,9 +109,27 @@ public abstract class HttpSerializerBase extends CachedSerializer {
 
                 // Check if we are processing a forward. If so, we cannot tell the client that the content has not been modified. 
                 final boolean isForward = URLRewriterUtils.isForwarded(externalContext.getRequest());
+
+                // Negotiate content encoding
+                // NOTE: Don't compress forwarded output, as the forwarding code may process it further
+                final Map<String, String> requestHeaders = externalContext.getRequest().getHeaderMap();
+                final boolean isNegotiateGZIP = !isForward && getPropertySet().getBoolean(GZIP_PROPERTY, DEFAULT_GZIP);
+                isGZIP = isNegotiateGZIP && NetUtils.acceptsGZIP(requestHeaders.get("accept-encoding"));
+
+                // Both the compressed and uncompressed variants depend on the request encodings
+                if (isNegotiateGZIP)
+                    response.setHeader("Vary", "Accept-Encoding");
+
                 if (!isForward) {
-                    // Check If-Modified-Since (conditional GET) and don't return content if condition is met
-                    if (!response.checkIfModifiedSince(lastModified, true)) {
+                    // Strong ETag if the output can be identified from the pipeline cache
+                    // NOTE: Don't set it on forwarded output, which the forwarding code may process further
+                    final String etag = computeETag(pipelineContext, dataInput, isGZIP);
+                    if (etag != null)
+                        response.setHeader("ETag", etag);
+
+                    // Check If-None-Match and If-Modified-Since (conditional GET) and don't return content if condition is met
+                    final String ifNoneMatch = requestHeaders.get("if-none-match");
+                    if (etag != null && ifNoneMatch != null ? NetUtils.matchesETag(ifNoneMatch, etag) : !response.checkIfModifiedSince(lastModified, true)) {
                         response.setStatus(ExternalContext.SC_NOT_MODIFIED);
                         if (logger.isDebugEnabled())
                             logger.debug("Sending SC_NOT_MODIFIED");
@@ -120,13 +149,18 @@ public abstract class HttpSerializerBase extends CachedSerializer {
                         response.setHeader(name, value);
                     }
                 }
+
+                if (isGZIP)
+                    response.setHeader("Content-Encoding", "gzip");
             }
 
             // If we have an empty body, return w/o reading the data input
             if (config.empty)
                 return;
 
-            final OutputStream httpOutputStream = response.getOutputStream();
+            // NOTE: The gzip stream is only created when the input is actually serialized, as it writes a header as soon
+            // as it is created
+            final boolean gzipOutput = isGZIP;
 
             if (config.cacheUseLocalCache) {
                 // If local caching of the data is enabled, use the caching API
@@ -138,6 +172,7 @@ public abstract class HttpSerializerBase extends CachedSerializer {
                         if (logger.isDebugEnabled())
                             logger.debug("Output not cached");
                         try {
+                            final OutputStream httpOutputStream = gzipOutput ? new GZIPOutputStream(response.getOutputStream()) : response.getOutputStream();
                             final ExtendedResultStoreOutputStream resultStoreOutputStream = new ExtendedResultStoreOutputStream(httpOutputStream);
                             // NOTE: readInput will call response.setContentType(), so we intercept and save the set contentType
                             // Other headers are set above 
@@ -165,13 +200,23 @@ public abstract class HttpSerializerBase extends CachedSerializer {
                         if (contentType != null)
                             response.setContentType(contentType);
                         // Set length since we know it
-                        response.setContentLength(resultStore.length(pipelineContext));
+                        if (isGZIP)
+                            response.setContentLength(resultStore.getGZIPBytes().length);
+                        else
+                            response.setContentLength(resultStore.length(pipelineContext));
                     }
                     // Replay content
-                    resultStore.replay(pipelineContext);
+                    if (isGZIP) {
+                        final OutputStream os = response.getOutputStream();
+                        os.write(resultStore.getGZIPBytes());
+                        os.flush();
+                    } else {
+                        resultStore.replay(pipelineContext);
+                    }
                 }
             } else {
                 // Local caching is not enabled, just read the input
+                final OutputStream httpOutputStream = isGZIP ? new GZIPOutputStream(response.getOutputStream()) : response.getOutputStream();
                 readInput(pipelineContext, response, dataInput, config, httpOutputStream);
                 httpOutputStream.close();
             }
@@ -180,6 +225,55 @@ public abstract class HttpSerializerBase extends CachedSerializer {
         }
     }
 
+    /**
+     * Compute a strong ETag from the cache key and validity of the data and config inputs. Keys and validities are
+     * digested in a form which is the same iif they are equal, so that different content never gets the same ETag.
+     *
+     * @param pipelineContext   current context
+     * @param dataInput         data input
+     * @param isGZIP            whether the output is compressed, as each encoding needs its own ETag
+     * @return                  quoted ETag, or null if the output can't be identified
+     */
+    private String computeETag(PipelineContext pipelineContext, ProcessorInput dataInput, boolean isGZIP) {
+        final KeyValidity dataKeyValidity = getInputKeyValidity(pipelineContext, dataInput);
+        if (dataKeyValidity == null)
+            return null;
+        final KeyValidity configKeyValidity = getInputKeyValidity(pipelineContext, INPUT_CONFIG);
+        if (configKeyValidity == null)
+            return null;
+
+        final StringBuilder sb = new StringBuilder(getClass().getName());
+        if (!dataKeyValidity.key.appendCanonicalForm(sb) || !appendValidity(sb, dataKeyValidity.validity)
+                || !configKeyValidity.key.appendCanonicalForm(sb) || !appendValidity(sb, configKeyValidity.validity))
+            return null;
+
+        final String digest = SecureUtils.digestString(sb.toString(), "MD5", "hex");
+
+        return "\"" + digest + (isGZIP ? "-gzip" : "") + "\"";
+    }
+
+    /**
+     * Append a validity made of longs and lists, as returned by processors.
+     *
+     * @return  false if the validity contains other objects
+     */
+    private static boolean appendValidity(StringBuilder sb, Object validity) {
+        if (validity instanceof Long) {
+            sb.append('(').append(validity).append(')');
+            return true;
+        } else if (validity instanceof List) {
+            final List validities = (List) validity;
+            sb.append('[').append(validities.size()).append(']');
+            for (final Object currentValidity: validities) {
+                if (!appendValidity(sb, currentValidity))
+                    return false;
+            }
+            return true;
+        } else {
+            return false;
+        }
+    }
+
     protected Config readConfig(PipelineContext context) {
         return (Config) readCacheInputAsObject(context, getInputByName(INPUT_CONFIG),
                 new CacheableInputReader() {
@@ -323,11 +417,12 @@ public abstract class HttpSerializerBase extends CachedSerializer {
     }
 
     /**
-     * ResultStoreOutputStream with additional content-type storing.
+     * ResultStoreOutputStream with additional content-type storing, and a gzip variant of the content.
      */
     private static class ExtendedResultStoreOutputStream extends ResultStoreOutputStream {
 
         private String contentType;
+        private byte[] gzipBytes;
 
         public ExtendedResultStoreOutputStream(OutputStream out) {
             super(out);
@@ -340,5 +435,20 @@ public abstract class HttpSerializerBase extends CachedSerializer {
         public String getContentType() {
             return contentType;
         }
+
+        /**
+         * Return the content compressed with gzip. This is computed once, the first time a client accepting gzip hits
+         * the cached result.
+         */
+        public synchronized byte[] getGZIPBytes() throws IOException {
+            if (gzipBytes == null) {
+                final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(size() / 3);
+                final GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream);
+                writeTo(gzipOutputStream);
+                gzipOutputStream.close();
+                gzipBytes = byteArrayOutputStream.toByteArray();
+            }
+            return gzipBytes;
+        }
     }
 }
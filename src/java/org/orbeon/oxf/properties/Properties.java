@@ -24,7 +24,9 @@ import org.orbeon.oxf.processor.ProcessorImpl;
 import org.orbeon.oxf.util.LoggerFactory;
 import org.orbeon.oxf.util.PipelineUtils;
 
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class provides access to global, configurable properties, as well as to processor-specific properties. This is
@@ -37,6 +39,9 @@ import java.util.Set;
  *   <property as="xs:string"  processor-name="oxf:page-flow" name="instance-passing" value="redirect"/>
  *
  * </properties>
+ *
+ * Properties are immutable once loaded. When the properties file changes, a new PropertyStore is published and
+ * listeners are notified. Code reading the same property often should use a PropertyHandle.
  */
 public class Properties {
 
@@ -50,19 +55,36 @@ public class Properties {
     /**
      * The global Properties instance.
      */
-    private static Properties instance;
+    private static volatile Properties instance;
     private static String propertiesURI = DEFAULT_PROPERTIES_URI;
     private static boolean initializing = false;
 
     /**
      * The property store.
      */
-    private PropertyStore propertyStore = null;
+    private volatile PropertyStore propertyStore = null;
 
     // Used for refresh
     private Processor urlGenerator;
     private DOMSerializer domSerializer;
-    private long lastUpdate = Long.MIN_VALUE;
+    private volatile long lastUpdate = Long.MIN_VALUE;
+
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    /**
+     * Listener notified when properties are loaded or reloaded.
+     */
+    public interface Listener {
+        void propertiesChanged();
+    }
+
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
 
     private Properties() {
         // Don't allow creation from outside
@@ -100,8 +122,19 @@ public class Properties {
      * Make sure we have the latest properties, and if we don't (resource changed), reload them.
      */
     private void update() {
+        // Check without locking as this is called for each access to properties
+        if (lastUpdate + RELOAD_DELAY >= System.currentTimeMillis())
+            return;
+
+        synchronized (this) {
+            updateIfNeeded();
+        }
+    }
+
+    private void updateIfNeeded() {
         if (!initializing) {
             Throwable throwable = null;
+            boolean changed = false;
             done:
             try {
                 initializing = true;
@@ -138,6 +171,7 @@ public class Properties {
                 domSerializer.start(pipelineContext);
                 final Document document = domSerializer.getDocument(pipelineContext);
                 propertyStore = new PropertyStore(document);
+                changed = true;
 
                 lastUpdate = current;
             } finally {
@@ -146,6 +180,10 @@ public class Properties {
             if (throwable != null) {
                 throw new OXFException("Failure to initialize Orbeon Forms properties", throwable);
             }
+            if (changed) {
+                for (final Listener listener: listeners)
+                    listener.propertiesChanged();
+            }
         }
     }
 
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.properties;
+
+import java.util.Set;
+
+/**
+ * Handle to a global property, meant to be kept in a static field by code which reads the property often.
+ *
+ * The value is resolved once per PropertySet, including wildcard resolution and defaulting, and kept along with the
+ * PropertySet it was resolved against. When properties are reloaded, the next access resolves the value again.
+ */
+public abstract class PropertyHandle<T> {
+
+    private final String name;
+    private final T defaultValue;
+
+    private volatile Resolved<T> resolved;
+
+    protected PropertyHandle(String name, T defaultValue) {
+        this.name = name;
+        this.defaultValue = defaultValue;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the value of the property.
+     *
+     * @return  value, or the default value if the property is not set
+     */
+    public T get() {
+        final PropertySet propertySet = Properties.instance().getPropertySet();
+        final Resolved<T> currentResolved = resolved;
+        if (currentResolved != null && currentResolved.propertySet == propertySet)
+            return currentResolved.value;
+
+        final T value = (propertySet != null) ? resolve(propertySet, name) : null;
+        final Resolved<T> newResolved = new Resolved<T>(propertySet, (value != null) ? value : defaultValue);
+        resolved = newResolved;
+        return newResolved.value;
+    }
+
+    /**
+     * Read the property from the given property set.
+     *
+     * @param propertySet   property set
+     * @param name          property name
+     * @return              value, or null if the property is not set
+     */
+    protected abstract T resolve(PropertySet propertySet, String name);
+
+    public static PropertyHandle<Boolean> booleanProperty(String name, boolean defaultValue) {
+        return new PropertyHandle<Boolean>(name, defaultValue) {
+            protected Boolean resolve(PropertySet propertySet, String name) {
+                return propertySet.getBoolean(name);
+            }
+        };
+    }
+
+    public static PropertyHandle<Integer> integerProperty(String name, int defaultValue) {
+        return new PropertyHandle<Integer>(name, defaultValue) {
+            protected Integer resolve(PropertySet propertySet, String name) {
+                return propertySet.getInteger(name);
+            }
+        };
+    }
+
+    public static PropertyHandle<String> stringProperty(String name, String defaultValue) {
+        return new PropertyHandle<String>(name, defaultValue) {
+            protected String resolve(PropertySet propertySet, String name) {
+                return propertySet.getString(name);
+            }
+        };
+    }
+
+    public static PropertyHandle<String> stringOrURIProperty(String name, String defaultValue) {
+        return new PropertyHandle<String>(name, defaultValue) {
+            protected String resolve(PropertySet propertySet, String name) {
+                return propertySet.getStringOrURIAsString(name);
+            }
+        };
+    }
+
+    public static PropertyHandle<Set<String>> nmtokensProperty(String name, Set<String> defaultValue) {
+        return new PropertyHandle<Set<String>>(name, defaultValue) {
+            protected Set<String> resolve(PropertySet propertySet, String name) {
+                return propertySet.getNmtokens(name);
+            }
+        };
+    }
+
+    private static class Resolved<T> {
+        public final PropertySet propertySet;
+        public final T value;
+
+        public Resolved(PropertySet propertySet, T value) {
+            this.propertySet = propertySet;
+            this.value = value;
+        }
+    }
+}
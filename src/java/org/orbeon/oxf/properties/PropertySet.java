@@ -20,12 +20,15 @@ import org.orbeon.oxf.xml.XMLConstants;
 
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represent a set of properties.
  *
  * A property name can be exact, e.g. foo.bar.gaga, or it can contain wildcards, like ".*.bar.gaga", "foo.*.gaga", or
  * "foo.bar.*", or "*.bar.*", etc.
+ *
+ * A property set is not modified once loaded, so the result of resolving a name against wildcard properties is cached.
  */
 public class PropertySet {
 
@@ -44,8 +47,14 @@ public class PropertySet {
         public Map<String, PropertyNode> children;// Map<String, PropertyNode> of token to property node
     }
 
+    // Limit the size of the cache, as names may be built from request information
+    private static final int MAX_RESOLVED_PROPERTIES = 10000;
+    // Cached result for names which don't resolve to a property
+    private static final TypeValue NO_PROPERTY = new TypeValue(null, null);
+
     private Map<String, TypeValue> exactProperties = new HashMap<String, TypeValue>();// Map<String, TypeValue> of property name to typed value
     private PropertyNode wildcardProperties = new PropertyNode();
+    private final Map<String, TypeValue> resolvedProperties = new ConcurrentHashMap<String, TypeValue>();
 
     /**
      * Return the set of property names.
@@ -97,6 +106,7 @@ public class PropertySet {
 
         // Store exact property name anyway
         exactProperties.put(name, typeValue);
+        resolvedProperties.clear();
 
         // Also store in tree (in all cases, not only when contains wildcard, so we get find all the properties that start with some token)
         final StringTokenizer st = new StringTokenizer(name, ".");
@@ -199,19 +209,28 @@ public class PropertySet {
         // Try first from exact properties
         TypeValue typeValue = exactProperties.get(name);
         if (typeValue == null) {
-            // If not found try traversing tree which contains properties with wildcards
-
-            // Parse name and put into array
-            final String[] tokensArray;
-            {
-                final List<String> tokensList = new ArrayList<String>();
-                for (StringTokenizer nameTokenizer = new StringTokenizer(name, "."); nameTokenizer.hasMoreTokens();)
-                    tokensList.add(nameTokenizer.nextToken());
-                tokensArray = tokensList.toArray(new String[tokensList.size()]);
+            // If not found try names already resolved
+            typeValue = resolvedProperties.get(name);
+            if (typeValue == null) {
+                // Otherwise traverse tree which contains properties with wildcards
+
+                // Parse name and put into array
+                final String[] tokensArray;
+                {
+                    final List<String> tokensList = new ArrayList<String>();
+                    for (StringTokenizer nameTokenizer = new StringTokenizer(name, "."); nameTokenizer.hasMoreTokens();)
+                        tokensList.add(nameTokenizer.nextToken());
+                    tokensArray = tokensList.toArray(new String[tokensList.size()]);
+                }
+                // Call recursive worker
+                typeValue = getPropertyWorker(wildcardProperties, tokensArray, 0);
+                if (typeValue == null)
+                    typeValue = NO_PROPERTY;
+
+                if (resolvedProperties.size() < MAX_RESOLVED_PROPERTIES)
+                    resolvedProperties.put(name, typeValue);
             }
-            // Call recursive worker
-            typeValue = getPropertyWorker(wildcardProperties, tokensArray, 0);
-            if (typeValue == null) return null;
+            if (typeValue == NO_PROPERTY) return null;
         }
 
         // Found a value, check type
@@ -96,6 +96,10 @@ public class FilesystemResourceManagerImpl extends ResourceManagerBase {
         }
     }
 
+    protected boolean isWatchable(String key) {
+        return true;
+    }
+
     /**
      * Returns the length of the file denoted by this abstract pathname.
      * @return The length, in bytes, of the file denoted by this abstract pathname, or 0L if the file does not exist
@@ -24,6 +24,9 @@ import java.io.OutputStream;
 import java.io.Writer;
 import java.lang.reflect.Constructor;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The priority resource manager delegates to two or more resource managers the loading of documents. For example, if a
@@ -31,13 +34,33 @@ import java.util.*;
  *
  * This is an important feature that allows an application developer to bundle a resource, and still allow the user to
  * override it easily.
+ *
+ * Read operations go through a location index, which remembers which resource manager last served each key, or that
+ * no resource manager has it. Entries are checked again after the minimum reload interval, or when a resource manager
+ * reports that the resource changed. When resources are frozen, entries never expire.
  */
 public class PriorityResourceManagerImpl implements ResourceManager {
 
+    // Limit the size of the index, as keys may come from user requests. The index is reset when the limit is reached.
+    private static final int MAX_INDEXED_KEYS = 10000;
+    private static final int NOT_FOUND = -1;
+    // Result of an operation for which the resource manager doesn't have the resource
+    private static final Object MISSING = new Object();
+
     private final List<ResourceManager> resourceManagers = new ArrayList<ResourceManager>();
 
+    private final long minReloadInterval;
+    private final boolean frozen;
+    private final ConcurrentMap<String, Location> locations = new ConcurrentHashMap<String, Location>();
+
+    private final AtomicLong indexHits = new AtomicLong();
+    private final AtomicLong probesAvoided = new AtomicLong();
+
     public PriorityResourceManagerImpl(Map<String, String> props) {
 
+        minReloadInterval = ResourceManagerBase.getMinReloadInterval(props);
+        frozen = ResourceManagerBase.isFrozen(props);
+
         // Map an order number to a Map of local properties
         final Map<Integer, Map<String, String>> orderToPropertyNames = new TreeMap<Integer, Map<String, String>>();
 
@@ -77,6 +100,15 @@ public class PriorityResourceManagerImpl implements ResourceManager {
                 final ResourceManager instance = factory.makeInstance();
 
                 resourceManagers.add(instance);
+
+                // A resource created or removed in any resource manager may change which one serves it
+                if (instance instanceof ResourceManagerBase) {
+                    ((ResourceManagerBase) instance).addChangeListener(new ResourceManagerBase.ChangeListener() {
+                        public void resourceChanged(String key) {
+                            invalidate(key);
+                        }
+                    });
+                }
             } catch (Exception e) {
                 throw new OXFException(e);
             }
@@ -84,7 +116,7 @@ public class PriorityResourceManagerImpl implements ResourceManager {
     }
 
     public Node getContentAsDOM(final String key) {
-        return (Node) delegate(new Operation() {
+        return (Node) delegate(key, new Operation() {
             public Object run(ResourceManager resourceManager) {
                 return resourceManager.getContentAsDOM(key);
             }
@@ -92,7 +124,7 @@ public class PriorityResourceManagerImpl implements ResourceManager {
     }
 
     public Document getContentAsDOM4J(final String key) {
-        return (Document) delegate(new Operation() {
+        return (Document) delegate(key, new Operation() {
             public Object run(ResourceManager resourceManager) {
                 return resourceManager.getContentAsDOM4J(key);
             }
@@ -100,7 +132,7 @@ public class PriorityResourceManagerImpl implements ResourceManager {
     }
 
     public void getContentAsSAX(final String key, final ContentHandler handler) {
-        delegate(new Operation() {
+        delegate(key, new Operation() {
             public Object run(ResourceManager resourceManager) {
                 resourceManager.getContentAsSAX(key, handler);
                 return null;
@@ -109,7 +141,7 @@ public class PriorityResourceManagerImpl implements ResourceManager {
     }
 
     public void getContentAsSAX(final String key, final ContentHandler handler, final boolean validating, final boolean handleXInclude) {
-        delegate(new Operation() {
+        delegate(key, new Operation() {
             public Object run(ResourceManager resourceManager) {
                 resourceManager.getContentAsSAX(key, handler, validating, handleXInclude);
                 return null;
@@ -124,7 +156,7 @@ public class PriorityResourceManagerImpl implements ResourceManager {
      * @return a input stream
      */
     public InputStream getContentAsStream(final String key) {
-        return (InputStream) delegate(new Operation() {
+        return (InputStream) delegate(key, new Operation() {
             public Object run(ResourceManager resourceManager) {
                 return resourceManager.getContentAsStream(key);
             }
@@ -138,12 +170,12 @@ public class PriorityResourceManagerImpl implements ResourceManager {
      * @return a timestamp
      */
     public long lastModified(final String key, boolean doNotThrowResourceNotFound) {
-        for (ResourceManager resourceManager: resourceManagers) {
-            long lastModified = resourceManager.lastModified(key, true);
-            if (lastModified != -1)
-                return lastModified;
-        }
-        throw new ResourceNotFoundException("Cannot find resource " + key);
+        return (Long) delegate(key, new Operation() {
+            public Object run(ResourceManager resourceManager) {
+                final long lastModified = resourceManager.lastModified(key, true);
+                return (lastModified != -1) ? lastModified : MISSING;
+            }
+        });
     }
 
     /**
@@ -206,6 +238,7 @@ public class PriorityResourceManagerImpl implements ResourceManager {
     }
 
     public String getRealPath(final String key) {
+        // Not indexed: resource managers return a path whether the resource exists or not, so the first one answers
         return (String) delegate(new Operation() {
             public Object run(ResourceManager resourceManager) {
                 return resourceManager.getRealPath(key);
@@ -260,11 +293,139 @@ public class PriorityResourceManagerImpl implements ResourceManager {
             throw new OXFException(firstException);
     }
 
-    public boolean exists(String key) {
-        for (ResourceManager resourceManager: resourceManagers) {
-            if (resourceManager.exists(key))
-                return true;
+    public boolean exists(final String key) {
+        return find(key, new Operation() {
+            public Object run(ResourceManager resourceManager) {
+                return resourceManager.exists(key) ? Boolean.TRUE : MISSING;
+            }
+        }) != MISSING;
+    }
+
+    private Object delegate(String key, Operation operation) {
+        final Object result = find(key, operation);
+        if (result == MISSING)
+            throw new ResourceNotFoundException("Cannot find resource " + key);
+        return result;
+    }
+
+    /**
+     * Run a read operation on the resource manager which has the given key, using the location index when possible.
+     *
+     * @return  result of the operation, or MISSING if no resource manager has the key
+     */
+    private Object find(String key, Operation operation) {
+        final long currentTimeMillis = System.currentTimeMillis();
+
+        final Location location = locations.get(key);
+        if (location != null && location.expiration >= currentTimeMillis) {
+            if (location.index == NOT_FOUND) {
+                indexHits.incrementAndGet();
+                probesAvoided.addAndGet(resourceManagers.size());
+                return MISSING;
+            }
+            final Object result = run(resourceManagers.get(location.index), operation);
+            if (result != MISSING) {
+                indexHits.incrementAndGet();
+                probesAvoided.addAndGet(location.index);
+                return result;
+            }
+            // The resource was removed, look for it again
+        }
+
+        for (int i = 0; i < resourceManagers.size(); i++) {
+            final Object result = run(resourceManagers.get(i), operation);
+            if (result != MISSING) {
+                putLocation(key, i, currentTimeMillis);
+                return result;
+            }
+        }
+        putLocation(key, NOT_FOUND, currentTimeMillis);
+        return MISSING;
+    }
+
+    private static Object run(ResourceManager resourceManager, Operation operation) {
+        try {
+            return operation.run(resourceManager);
+        } catch (ResourceNotFoundException e) {
+            return MISSING;
+        } catch (OXFException e) {
+            // This is serious, not just a file not found
+            throw e;
+        } catch (Exception e) {
+            throw new OXFException(e);
+        }
+    }
+
+    private void putLocation(String key, int index, long currentTimeMillis) {
+        // Start over when the index is full, so that keys used after it filled up are indexed too
+        if (locations.size() >= MAX_INDEXED_KEYS && !locations.containsKey(key))
+            locations.clear();
+        locations.put(key, new Location(index, frozen ? Long.MAX_VALUE : currentTimeMillis + minReloadInterval));
+    }
+
+    /**
+     * Forget where a resource was found, for example because it was created or removed.
+     *
+     * @param key   A Resource Manager key
+     */
+    public void invalidate(String key) {
+        locations.remove(key);
+    }
+
+    /**
+     * Forget where all resources were found.
+     */
+    public void invalidateAll() {
+        locations.clear();
+    }
+
+    /**
+     * Register a listener with all the underlying resource managers which support it.
+     *
+     * @param listener  listener notified when a resource changes
+     */
+    public void addChangeListener(ResourceManagerBase.ChangeListener listener) {
+        for (final ResourceManager resourceManager: resourceManagers)
+            if (resourceManager instanceof ResourceManagerBase)
+                ((ResourceManagerBase) resourceManager).addChangeListener(listener);
+    }
+
+    public void removeChangeListener(ResourceManagerBase.ChangeListener listener) {
+        for (final ResourceManager resourceManager: resourceManagers)
+            if (resourceManager instanceof ResourceManagerBase)
+                ((ResourceManagerBase) resourceManager).removeChangeListener(listener);
+    }
+
+    /**
+     * Stop watching resources in all the underlying resource managers. Called when the resource manager is discarded.
+     */
+    public void destroy() {
+        for (final ResourceManager resourceManager: resourceManagers)
+            ResourceManagerWrapper.destroy(resourceManager);
+        locations.clear();
+    }
+
+    /**
+     * Number of lookups answered by the location index.
+     */
+    public long getIndexHits() {
+        return indexHits.get();
+    }
+
+    /**
+     * Number of calls to lower-priority resource managers avoided thanks to the location index.
+     */
+    public long getProbesAvoided() {
+        return probesAvoided.get();
+    }
+
+    private static class Location {
+        public final int index;
+        public final long expiration;
+
+        public Location(int index, long expiration) {
+            this.index = index;
+            this.expiration = expiration;
         }
-        return false;
     }
 }
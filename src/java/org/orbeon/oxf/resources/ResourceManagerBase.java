@@ -35,22 +35,59 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.util.List;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Base class for most resource manager implementations.
+ *
+ * Last modified dates are kept in a concurrent map, so that checking the validity of a resource doesn't take a lock.
+ * Existing resources which are files, as indicated by isWatchable(), are checked for changes by a background thread
+ * every minimum reload interval, and their dates are always read from the map. Other resources, including missing
+ * ones, are checked again on access once the minimum reload interval has elapsed. When resources are frozen, they are
+ * never checked again.
+ *
+ * Keys may come from user requests, so the number of entries which are not watched is limited.
  */
 public abstract class ResourceManagerBase implements ResourceManager {
 
     private static final String MIN_RELOAD_INTERVAL_KEY = "oxf.resources.common.min-reload-interval";
     private static final long DEFAULT_MIN_RELOAD_INTERVAL = 2 * 1000;
+    private static final String FROZEN_KEY = "oxf.resources.common.frozen";
+    private static final int MAX_UNWATCHED_ENTRIES = 10000;
+
+    // Thread checking watched resources of all resource managers
+    private static Timer watcherTimer;
 
-    private ExpirationMap lastModifiedMap;
+    private final long minReloadInterval;
+    private final boolean frozen;
+    private final ConcurrentMap<String, LastModified> lastModifiedMap = new ConcurrentHashMap<String, LastModified>();
+    private final AtomicInteger unwatchedCount = new AtomicInteger();
+    private final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<ChangeListener>();
+    private TimerTask watcherTask;
+    private boolean destroyed;
 
     /**
      * Initialisation. Should be called only by sub-classes
      */
     protected ResourceManagerBase(Map props) {
+        minReloadInterval = getMinReloadInterval(props);
+        frozen = isFrozen(props);
+    }
+
+    /**
+     * Return the minimum interval between two checks of the same resource.
+     *
+     * @param props resource manager properties
+     * @return      interval in ms
+     */
+    static long getMinReloadInterval(Map props) {
         // Override default reload interval if property is specified
         String minReloadIntervalString = (String) props.get(MIN_RELOAD_INTERVAL_KEY);
         long minReloadInterval = DEFAULT_MIN_RELOAD_INTERVAL;
@@ -60,7 +97,47 @@ public abstract class ResourceManagerBase implements ResourceManager {
                 throw new OXFException("Value for property '" + MIN_RELOAD_INTERVAL_KEY + "' must be a non-negative integer.");
             minReloadInterval = longValue;
         }
-        lastModifiedMap = new ExpirationMap(minReloadInterval);
+        return minReloadInterval;
+    }
+
+    /**
+     * Whether resources are frozen, i.e. never checked for changes once loaded. This is meant for production.
+     *
+     * @param props resource manager properties
+     * @return      true iif resources are frozen
+     */
+    static boolean isFrozen(Map props) {
+        return "true".equals(props.get(FROZEN_KEY));
+    }
+
+    /**
+     * Listener notified when the last modified date of a resource changes, including when the resource is created or
+     * removed.
+     */
+    public interface ChangeListener {
+        void resourceChanged(String key);
+    }
+
+    public void addChangeListener(ChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Stop watching resources and forget last modified dates. Called when the resource manager is discarded.
+     */
+    public synchronized void destroy() {
+        destroyed = true;
+        if (watcherTask != null) {
+            watcherTask.cancel();
+            watcherTask = null;
+        }
+        lastModifiedMap.clear();
+        unwatchedCount.set(0);
+        changeListeners.clear();
     }
 
     /**
@@ -289,29 +366,138 @@ public abstract class ResourceManagerBase implements ResourceManager {
         return transformer;
     }
 
-    final synchronized public long lastModified(String key, boolean doNotThrowResourceNotFound) {
-        // Do only 1 call to currentTimeMillis()
-        long currentTimeMillis = System.currentTimeMillis();
-        Object value = lastModifiedMap.get(currentTimeMillis, key);
-        if (value == null) {
-            // We don't have the information or or it has expired
-            try {
-                long lastModified = lastModifiedImpl(key, doNotThrowResourceNotFound);
-                lastModifiedMap.put(currentTimeMillis, key, lastModified);
-                return lastModified;
-            } catch (ResourceNotFoundException e) {
-                lastModifiedMap.put(currentTimeMillis, key, e);
-                throw e;
+    final public long lastModified(String key, boolean doNotThrowResourceNotFound) {
+        LastModified lastModified = lastModifiedMap.get(key);
+        if (lastModified == null || !(frozen || lastModified.watched || lastModified.checkTime + minReloadInterval >= System.currentTimeMillis())) {
+            // We don't have the information or it has expired
+            final LastModified newLastModified = checkLastModified(key);
+            final LastModified oldLastModified = putLastModified(key, newLastModified);
+            if (oldLastModified != null && oldLastModified.value != newLastModified.value)
+                notifyChange(key);
+            if (newLastModified.watched)
+                startWatchingIfNeeded();
+            lastModified = newLastModified;
+        }
+
+        if (lastModified.value == -1 && !doNotThrowResourceNotFound)
+            throw new ResourceNotFoundException("Cannot read resource " + key);
+        return lastModified.value;
+    }
+
+    private LastModified checkLastModified(String key) {
+        long value;
+        try {
+            value = lastModifiedImpl(key, true);
+        } catch (ResourceNotFoundException e) {
+            value = -1;
+        }
+        // Don't watch missing resources, as their keys may come from user requests
+        final boolean watched = value != -1 && !frozen && minReloadInterval > 0 && isWatchable(key);
+        return new LastModified(value, System.currentTimeMillis(), watched);
+    }
+
+    private LastModified putLastModified(String key, LastModified newLastModified) {
+        final LastModified oldLastModified = lastModifiedMap.put(key, newLastModified);
+        if ((oldLastModified == null || oldLastModified.watched) && !newLastModified.watched) {
+            if (unwatchedCount.incrementAndGet() > MAX_UNWATCHED_ENTRIES)
+                purgeUnwatched();
+        } else if (oldLastModified != null && !oldLastModified.watched && newLastModified.watched) {
+            unwatchedCount.decrementAndGet();
+        }
+        return oldLastModified;
+    }
+
+    private LastModified removeLastModified(String key) {
+        final LastModified oldLastModified = lastModifiedMap.remove(key);
+        if (oldLastModified != null && !oldLastModified.watched)
+            unwatchedCount.decrementAndGet();
+        return oldLastModified;
+    }
+
+    /**
+     * Remove entries which are not watched: first expired ones, then all of them if that is not enough.
+     */
+    private void purgeUnwatched() {
+        final long expiredTime = System.currentTimeMillis() - minReloadInterval;
+        for (final Map.Entry<String, LastModified> entry: lastModifiedMap.entrySet()) {
+            final LastModified lastModified = entry.getValue();
+            if (!lastModified.watched && (frozen || lastModified.checkTime < expiredTime))
+                if (lastModifiedMap.remove(entry.getKey(), lastModified))
+                    unwatchedCount.decrementAndGet();
+        }
+        if (unwatchedCount.get() > MAX_UNWATCHED_ENTRIES / 2) {
+            for (final Map.Entry<String, LastModified> entry: lastModifiedMap.entrySet()) {
+                final LastModified lastModified = entry.getValue();
+                if (!lastModified.watched && lastModifiedMap.remove(entry.getKey(), lastModified))
+                    unwatchedCount.decrementAndGet();
             }
-        } else {
-            if (value instanceof ResourceNotFoundException) {
-                throw (ResourceNotFoundException) value;
-            } else {
-                return (Long) value;
+        }
+    }
+
+    private void notifyChange(String key) {
+        for (final ChangeListener listener: changeListeners)
+            listener.resourceChanged(key);
+    }
+
+    private synchronized void startWatchingIfNeeded() {
+        if (watcherTask == null && !destroyed) {
+            watcherTask = new TimerTask() {
+                public void run() {
+                    checkWatchedResources();
+                }
+            };
+            getWatcherTimer().schedule(watcherTask, minReloadInterval, minReloadInterval);
+        }
+    }
+
+    private synchronized static Timer getWatcherTimer() {
+        if (watcherTimer == null)
+            watcherTimer = new Timer("orbeon-resource-watcher", true);
+        return watcherTimer;
+    }
+
+    private void checkWatchedResources() {
+        for (final Map.Entry<String, LastModified> entry: lastModifiedMap.entrySet()) {
+            if (entry.getValue().watched) {
+                final String key = entry.getKey();
+                try {
+                    final LastModified newLastModified = checkLastModified(key);
+                    if (newLastModified.value != entry.getValue().value) {
+                        // A removed resource is no longer watched
+                        putLastModified(key, newLastModified);
+                        notifyChange(key);
+                    }
+                } catch (Exception e) {
+                    // Check again on next access
+                    removeLastModified(key);
+                }
             }
         }
     }
 
+    /**
+     * Whether the resource can be checked for changes cheaply by the background thread, typically because it is a file.
+     *
+     * @param key   A Resource Manager key
+     * @return      true iif the resource can be watched
+     */
+    protected boolean isWatchable(String key) {
+        return false;
+    }
+
+    private static class LastModified {
+        // -1 if the resource doesn't exist
+        public final long value;
+        public final long checkTime;
+        public final boolean watched;
+
+        public LastModified(long value, long checkTime, boolean watched) {
+            this.value = value;
+            this.checkTime = checkTime;
+            this.watched = watched;
+        }
+    }
+
     /**
      * Check if a resource exists given its key.
      *
@@ -44,7 +44,7 @@ final public class ResourceManagerWrapper {
             final Class c = Class.forName(factoryImp);
             final Constructor constructor = c.getConstructor(Map.class);
             factory = (ResourceManagerFactoryFunctor) constructor.newInstance(props);
-            instance = null;
+            discardInstance();
         } catch (ClassNotFoundException e) {
             throw new OXFException("class " + factoryImp + "not found", e);
         } catch (Exception e) {
@@ -68,7 +68,7 @@ final public class ResourceManagerWrapper {
      */
     synchronized public static void setFactory(ResourceManagerFactoryFunctor factory) {
         ResourceManagerWrapper.factory = factory;
-        instance = null;
+        discardInstance();
     }
 
     /**
@@ -78,9 +78,50 @@ final public class ResourceManagerWrapper {
      * @param instance The Singleton instance to use.
      */
     synchronized public static void setInstance(ResourceManager instance) {
+        if (instance != ResourceManagerWrapper.instance)
+            discardInstance();
         ResourceManagerWrapper.instance = instance;
     }
 
+    /**
+     * Register a listener notified when a resource of the current Resource Manager changes. Listeners are dropped
+     * along with the Resource Manager when a new one is set.
+     *
+     * @param listener  listener
+     * @return          true iif the current Resource Manager supports change notifications
+     */
+    synchronized public static boolean addChangeListener(ResourceManagerBase.ChangeListener listener) {
+        final ResourceManager resourceManager = instance();
+        if (resourceManager instanceof ResourceManagerBase) {
+            ((ResourceManagerBase) resourceManager).addChangeListener(listener);
+            return true;
+        } else if (resourceManager instanceof PriorityResourceManagerImpl) {
+            ((PriorityResourceManagerImpl) resourceManager).addChangeListener(listener);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Release the resources held by a Resource Manager which is no longer used, such as its watcher task.
+     *
+     * @param resourceManager   Resource Manager to discard
+     */
+    static void destroy(ResourceManager resourceManager) {
+        if (resourceManager instanceof ResourceManagerBase)
+            ((ResourceManagerBase) resourceManager).destroy();
+        else if (resourceManager instanceof PriorityResourceManagerImpl)
+            ((PriorityResourceManagerImpl) resourceManager).destroy();
+    }
+
+    private static void discardInstance() {
+        if (instance != null) {
+            destroy(instance);
+            instance = null;
+        }
+    }
+
 
     /**
      * Calls the factory to create a ResourceManager instance
@@ -110,6 +110,11 @@ public class WebAppResourceManagerImpl extends ResourceManagerBase {
         }
     }
 
+    protected boolean isWatchable(String key) {
+        // Resources in a WAR file which is not expanded are not watched
+        return servletContext.getRealPath(rootDirectory + key) != null;
+    }
+
     /**
      * Indicates if the resource manager implementation supports write operations
      * @return true if write operations are allowed
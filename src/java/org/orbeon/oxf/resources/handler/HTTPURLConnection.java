@@ -16,7 +16,6 @@ package org.orbeon.oxf.resources.handler;
 import org.apache.commons.httpclient.*;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.*;
-import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.properties.Properties;
 import org.orbeon.oxf.util.Connection;
@@ -39,20 +38,6 @@ public class HTTPURLConnection extends URLConnection {
 	public static String PROXY_NTLM_HOST_PROPERTY = "oxf.http.proxy.ntlm.host";
 	public static String PROXY_NTLM_DOMAIN_PROPERTY = "oxf.http.proxy.ntlm.domain";
 
-    // Use a single shared connection manager so we can have efficient connection pooling
-    private static HttpConnectionManager connectionManager;
-    static {
-        connectionManager = new MultiThreadedHttpConnectionManager();
-        final HttpConnectionManagerParams params = new HttpConnectionManagerParams();
-        params.setDefaultMaxConnectionsPerHost(Integer.MAX_VALUE);
-        params.setMaxTotalConnections(Integer.MAX_VALUE);
-        // The code commented below disables retries. By default HttpClient will try 3 times, and it is not clear
-        // if this is a good thing or not in our case.
-        //DefaultHttpMethodRetryHandler retryHandler = new DefaultHttpMethodRetryHandler(0, false);
-        //params.setParameter(HttpMethodParams.RETRY_HANDLER, retryHandler);
-        connectionManager.setParams(params);
-    }
-
     private HttpState httpState;
 
     private URL url;
@@ -99,7 +84,10 @@ public class HTTPURLConnection extends URLConnection {
             final boolean isAuthenticationRequestedWithUsername = username != null && !username.equals("");
 
             // Create the HTTP client (this *should* be fairly lightweight)
-            final HttpClient httpClient = new HttpClient(connectionManager);
+            // Use a single shared connection manager so we can have efficient connection pooling
+            final HttpConnectionPool connectionPool = HttpConnectionPool.instance(Properties.instance().getPropertySet());
+            final HttpClient httpClient = new HttpClient(connectionPool);
+            httpClient.getParams().setConnectionManagerTimeout(connectionPool.getAcquireTimeout());
 
             // Determine which state to use
             if (httpState != null) {
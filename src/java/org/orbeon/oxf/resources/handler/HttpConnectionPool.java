@@ -0,0 +1,251 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.resources.handler;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.apache.log4j.Logger;
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.properties.PropertySet;
+import org.orbeon.oxf.util.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared HTTP connection pool used by HTTPURLConnection, and therefore by all HTTP submissions and URL reads.
+ *
+ * The pool is configured with the oxf.http.* properties when it is first used. It keeps statistics about leases,
+ * waiting requests and connection reuse, which are available through JMX.
+ */
+public class HttpConnectionPool extends MultiThreadedHttpConnectionManager implements HttpConnectionPoolMBean {
+
+    private static final Logger logger = LoggerFactory.createLogger(HttpConnectionPool.class);
+
+    public static final String OBJECT_NAME = "org.orbeon.oxf:type=HttpConnectionPool";
+
+    public static final String MAX_TOTAL_CONNECTIONS_PROPERTY = "oxf.http.max-total-connections";
+    public static final String MAX_CONNECTIONS_PER_HOST_PROPERTY = "oxf.http.max-connections-per-host";
+    public static final String HOST_MAX_CONNECTIONS_PROPERTY = "oxf.http.host-max-connections";
+    public static final String CONNECT_TIMEOUT_PROPERTY = "oxf.http.connect-timeout";
+    public static final String SOCKET_TIMEOUT_PROPERTY = "oxf.http.socket-timeout";
+    public static final String ACQUIRE_TIMEOUT_PROPERTY = "oxf.http.acquire-timeout";
+    public static final String IDLE_TIMEOUT_PROPERTY = "oxf.http.idle-timeout";
+    public static final String STALE_CHECKING_PROPERTY = "oxf.http.stale-checking";
+
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 500;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 100;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+    public static final int DEFAULT_SOCKET_TIMEOUT = 0;
+    public static final int DEFAULT_ACQUIRE_TIMEOUT = 60000;
+    public static final int DEFAULT_IDLE_TIMEOUT = 60000;
+
+    private static HttpConnectionPool instance;
+
+    private final long acquireTimeout;
+    private final IdleConnectionTimeoutThread idleConnectionTimeoutThread;
+    private final long idleTimeout;
+
+    private final AtomicInteger leased = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong leaseCount = new AtomicLong();
+    private final AtomicLong reuseCount = new AtomicLong();
+    private final AtomicLong acquireTimeoutCount = new AtomicLong();
+    private final AtomicLong totalWaitTime = new AtomicLong();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    public synchronized static HttpConnectionPool instance(PropertySet propertySet) {
+        if (instance == null) {
+            instance = new HttpConnectionPool(propertySet);
+            try {
+                final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+                final ObjectName objectName = new ObjectName(OBJECT_NAME);
+                if (!mbeanServer.isRegistered(objectName))
+                    mbeanServer.registerMBean(instance, objectName);
+            } catch (Exception e) {
+                // Connections must work even if JMX is not available
+                logger.warn("Unable to register HTTP connection pool with JMX: " + e.getMessage());
+            }
+        }
+        return instance;
+    }
+
+    private HttpConnectionPool(PropertySet propertySet) {
+        final HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+        params.setMaxTotalConnections(propertySet.getInteger(MAX_TOTAL_CONNECTIONS_PROPERTY, DEFAULT_MAX_TOTAL_CONNECTIONS));
+        params.setDefaultMaxConnectionsPerHost(propertySet.getInteger(MAX_CONNECTIONS_PER_HOST_PROPERTY, DEFAULT_MAX_CONNECTIONS_PER_HOST));
+        setHostMaxConnections(params, propertySet.getString(HOST_MAX_CONNECTIONS_PROPERTY, ""));
+        params.setConnectionTimeout(propertySet.getInteger(CONNECT_TIMEOUT_PROPERTY, DEFAULT_CONNECT_TIMEOUT));
+        params.setSoTimeout(propertySet.getInteger(SOCKET_TIMEOUT_PROPERTY, DEFAULT_SOCKET_TIMEOUT));
+        params.setStaleCheckingEnabled(propertySet.getBoolean(STALE_CHECKING_PROPERTY, true));
+        // The code commented below disables retries. By default HttpClient will try 3 times, and it is not clear
+        // if this is a good thing or not in our case.
+        //DefaultHttpMethodRetryHandler retryHandler = new DefaultHttpMethodRetryHandler(0, false);
+        //params.setParameter(HttpMethodParams.RETRY_HANDLER, retryHandler);
+        setParams(params);
+
+        acquireTimeout = propertySet.getInteger(ACQUIRE_TIMEOUT_PROPERTY, DEFAULT_ACQUIRE_TIMEOUT);
+
+        // Close connections which remained idle for too long, so that we don't hold on to sockets the server or a
+        // firewall may have dropped in the meanwhile
+        idleTimeout = propertySet.getInteger(IDLE_TIMEOUT_PROPERTY, DEFAULT_IDLE_TIMEOUT);
+        if (idleTimeout > 0) {
+            idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+            idleConnectionTimeoutThread.setName("orbeon-http-idle-connections");
+            idleConnectionTimeoutThread.setDaemon(true);
+            idleConnectionTimeoutThread.setConnectionTimeout(idleTimeout);
+            idleConnectionTimeoutThread.setTimeoutInterval(Math.max(idleTimeout / 2, 1000));
+            idleConnectionTimeoutThread.addConnectionManager(this);
+            idleConnectionTimeoutThread.start();
+        } else {
+            idleConnectionTimeoutThread = null;
+        }
+    }
+
+    /**
+     * Parse per-host limits of the form "http://example.org:8080=10 https://example.com=5".
+     *
+     * NOTE: HttpClient matches limits on the complete host configuration, so these limits do not apply to connections
+     * going through a proxy.
+     */
+    private static void setHostMaxConnections(HttpConnectionManagerParams params, String value) {
+        for (final StringTokenizer st = new StringTokenizer(value); st.hasMoreTokens();) {
+            final String token = st.nextToken();
+            final int equalIndex = token.lastIndexOf('=');
+            if (equalIndex == -1)
+                throw new OXFException("Invalid value for " + HOST_MAX_CONNECTIONS_PROPERTY + ": " + token);
+            try {
+                final URL url = new URL(token.substring(0, equalIndex));
+                final HostConfiguration hostConfiguration = new HostConfiguration();
+                hostConfiguration.setHost(url.getHost(), url.getPort(), url.getProtocol());
+                params.setMaxConnectionsPerHost(hostConfiguration, Integer.parseInt(token.substring(equalIndex + 1)));
+            } catch (MalformedURLException e) {
+                throw new OXFException("Invalid value for " + HOST_MAX_CONNECTIONS_PROPERTY + ": " + token, e);
+            } catch (NumberFormatException e) {
+                throw new OXFException("Invalid value for " + HOST_MAX_CONNECTIONS_PROPERTY + ": " + token, e);
+            }
+        }
+    }
+
+    /**
+     * Maximum time in ms to wait for a connection from the pool, 0 meaning no limit.
+     */
+    public long getAcquireTimeout() {
+        return acquireTimeout;
+    }
+
+    @Override
+    public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration, long timeout) throws ConnectionPoolTimeoutException {
+        final long startTime = System.currentTimeMillis();
+        pending.incrementAndGet();
+        final HttpConnection connection;
+        try {
+            connection = super.getConnectionWithTimeout(hostConfiguration, timeout);
+        } catch (ConnectionPoolTimeoutException e) {
+            acquireTimeoutCount.incrementAndGet();
+            logger.warn("Timeout waiting for HTTP connection to " + hostConfiguration.getHostURL() + " after " + timeout + " ms");
+            throw e;
+        } finally {
+            pending.decrementAndGet();
+            recordWaitTime(System.currentTimeMillis() - startTime);
+        }
+
+        leased.incrementAndGet();
+        leaseCount.incrementAndGet();
+        if (connection.isOpen())
+            reuseCount.incrementAndGet();
+        return connection;
+    }
+
+    @Override
+    public void releaseConnection(HttpConnection connection) {
+        leased.decrementAndGet();
+        super.releaseConnection(connection);
+    }
+
+    private void recordWaitTime(long waitTime) {
+        totalWaitTime.addAndGet(waitTime);
+        while (true) {
+            final long currentMax = maxWaitTime.get();
+            if (waitTime <= currentMax || maxWaitTime.compareAndSet(currentMax, waitTime))
+                break;
+        }
+    }
+
+    public int getDefaultMaxConnectionsPerHost() {
+        return getParams().getDefaultMaxConnectionsPerHost();
+    }
+
+    public int getLeasedConnections() {
+        return leased.get();
+    }
+
+    public int getPooledConnections() {
+        return getConnectionsInPool();
+    }
+
+    public int getPendingRequests() {
+        return pending.get();
+    }
+
+    public long getLeaseCount() {
+        return leaseCount.get();
+    }
+
+    public long getAcquireTimeoutCount() {
+        return acquireTimeoutCount.get();
+    }
+
+    public long getTotalWaitTime() {
+        return totalWaitTime.get();
+    }
+
+    public long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+
+    public double getReuseRatio() {
+        final long leases = leaseCount.get();
+        return (leases == 0) ? 0 : (double) reuseCount.get() / leases;
+    }
+
+    public void closeIdleConnections() {
+        closeIdleConnections(idleTimeout > 0 ? idleTimeout : 0);
+    }
+
+    public void resetStatistics() {
+        leaseCount.set(0);
+        reuseCount.set(0);
+        acquireTimeoutCount.set(0);
+        totalWaitTime.set(0);
+        maxWaitTime.set(0);
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        if (idleConnectionTimeoutThread != null)
+            idleConnectionTimeoutThread.shutdown();
+        super.shutdown();
+    }
+}
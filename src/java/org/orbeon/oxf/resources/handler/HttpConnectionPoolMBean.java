@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.resources.handler;
+
+/**
+ * JMX management interface of the HTTP connection pool.
+ */
+public interface HttpConnectionPoolMBean {
+
+    int getMaxTotalConnections();
+    int getDefaultMaxConnectionsPerHost();
+
+    int getLeasedConnections();
+    int getPooledConnections();
+    int getPendingRequests();
+
+    long getLeaseCount();
+    long getAcquireTimeoutCount();
+    long getTotalWaitTime();
+    long getMaxWaitTime();
+
+    /**
+     * Return the ratio of leases which obtained an already open connection.
+     *
+     * @return ratio between 0 and 1
+     */
+    double getReuseRatio();
+
+    void closeIdleConnections();
+    void resetStatistics();
+}
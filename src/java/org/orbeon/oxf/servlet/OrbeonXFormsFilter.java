@@ -35,15 +35,25 @@ public class OrbeonXFormsFilter implements Filter {
     public static final String RENDERER_PATH = "/xforms-renderer";
 
     private static final String RENDERER_CONTEXT_PARAMETER_NAME = "oxf.xforms.renderer.context";
+    private static final String RENDERER_MAX_MEMORY_PARAMETER_NAME = "oxf.xforms.renderer.max-memory-buffer";
+    private static final int DEFAULT_MAX_MEMORY_BUFFER = 1024 * 1024;
     private static final String DEFAULT_ENCODING = "ISO-8859-1"; // must be this per Servlet spec
 
     private ServletContext servletContext;
     private String orbeonContextPath;
+    private int maxMemoryBuffer;
 
     public void init(FilterConfig filterConfig) throws ServletException {
         servletContext = filterConfig.getServletContext();
         orbeonContextPath = filterConfig.getInitParameter(RENDERER_CONTEXT_PARAMETER_NAME);
 
+        final String maxMemoryBufferParameter = filterConfig.getInitParameter(RENDERER_MAX_MEMORY_PARAMETER_NAME);
+        try {
+            maxMemoryBuffer = (maxMemoryBufferParameter != null) ? Integer.parseInt(maxMemoryBufferParameter.trim()) : DEFAULT_MAX_MEMORY_BUFFER;
+        } catch (NumberFormatException e) {
+            throw new ServletException("Invalid value for the '" + RENDERER_MAX_MEMORY_PARAMETER_NAME + "' filter initialization parameter: " + maxMemoryBufferParameter);
+        }
+
         // TODO: check orbeonContextPath format: starts with /, doesn't end with one, etc.
     }
 
@@ -65,46 +75,55 @@ public class OrbeonXFormsFilter implements Filter {
         } else {
             // Forward the request to the Orbeon Forms renderer
             final FilterRequestWrapper requestWrapper = new FilterRequestWrapper(httpRequest);
-            final FilterResponseWrapper responseWrapper = new FilterResponseWrapper(httpResponse);
-
-            // Execute filter
-            filterChain.doFilter(requestWrapper, responseWrapper);
+            final FilterResponseWrapper responseWrapper = new FilterResponseWrapper(httpResponse, new ContentBuffer(maxMemoryBuffer, getTempDirectory()));
+            try {
+                doFilterAndForward(httpRequest, httpResponse, filterChain, requestPath, requestWrapper, responseWrapper);
+            } finally {
+                responseWrapper.dispose();
+            }
+        }
+    }
 
-            // Set document if not present AND output was intercepted
-            final boolean isEmptyContent;
-            if (httpRequest.getAttribute(RENDERER_DOCUMENT_ATTRIBUTE_NAME) == null) {
-                final String content = responseWrapper.getContent();
-                if (content != null) {
-                    httpRequest.setAttribute(RENDERER_DOCUMENT_ATTRIBUTE_NAME, content);
-                }
-                isEmptyContent = isBlank(content);
-            } else {
-                // Assume content is not blank
-                isEmptyContent = false;
+    private void doFilterAndForward(HttpServletRequest httpRequest, HttpServletResponse httpResponse, FilterChain filterChain, String requestPath,
+                                    FilterRequestWrapper requestWrapper, FilterResponseWrapper responseWrapper) throws IOException, ServletException {
+        // Execute filter
+        filterChain.doFilter(requestWrapper, responseWrapper);
+
+        // Set document if not present AND output was intercepted
+        // NOTE: The document is passed as a Reader over the buffered output, so that the renderer parses it
+        // directly instead of working on a String copy of the page.
+        final boolean isEmptyContent;
+        if (httpRequest.getAttribute(RENDERER_DOCUMENT_ATTRIBUTE_NAME) == null) {
+            isEmptyContent = responseWrapper.isBlank();
+            if (responseWrapper.hasContent()) {
+                httpRequest.setAttribute(RENDERER_DOCUMENT_ATTRIBUTE_NAME, responseWrapper.getContentReader());
             }
+        } else {
+            // Assume content is not blank
+            isEmptyContent = false;
+        }
 
-            // Tell whether there is a session
-            httpRequest.setAttribute(RENDERER_HAS_SESSION_ATTRIBUTE_NAME, Boolean.toString(httpRequest.getSession(false) != null));
+        // Tell whether there is a session
+        httpRequest.setAttribute(RENDERER_HAS_SESSION_ATTRIBUTE_NAME, Boolean.toString(httpRequest.getSession(false) != null));
 
-            // Provide media type if available
-            if (responseWrapper.getMediaType() != null)
-                httpRequest.setAttribute(RENDERER_CONTENT_TYPE_ATTRIBUTE_NAME, responseWrapper.getMediaType());
+        // Provide media type if available
+        if (responseWrapper.getMediaType() != null)
+            httpRequest.setAttribute(RENDERER_CONTENT_TYPE_ATTRIBUTE_NAME, responseWrapper.getMediaType());
 
-            // Set base URI
-            httpRequest.setAttribute(RENDERER_BASE_URI_ATTRIBUTE_NAME, requestPath);
+        // Set base URI
+        httpRequest.setAttribute(RENDERER_BASE_URI_ATTRIBUTE_NAME, requestPath);
 
-            // Forward to Orbeon Forms for rendering only of there is content to be rendered, otherwise just return and
-            // let the filterChain finish its life naturally, assuming that when sendRedirect is used, no content is
-            // available in the response object
-            if (!isEmptyContent) {
-                // The request wrapper provides an empty request body if the filtered resource already attempted to
-                // read the body.
-                final HandleBodyOrbeonRequestWrapper orbeonRequestWrapper
-                        = new HandleBodyOrbeonRequestWrapper(httpRequest, requestWrapper.isRequestBodyRead());
+        // Forward to Orbeon Forms for rendering only of there is content to be rendered, otherwise just return and
+        // let the filterChain finish its life naturally, assuming that when sendRedirect is used, no content is
+        // available in the response object
+        if (!isEmptyContent) {
+            // The request wrapper provides an empty request body if the filtered resource already attempted to
+            // read the body.
+            final HandleBodyOrbeonRequestWrapper orbeonRequestWrapper
+                    = new HandleBodyOrbeonRequestWrapper(httpRequest, requestWrapper.isRequestBodyRead());
 
-                // Forward
-                getOrbeonDispatcher(RENDERER_PATH).forward(orbeonRequestWrapper, httpResponse);
-            }
+            // Forward
+            getOrbeonDispatcher(RENDERER_PATH).forward(orbeonRequestWrapper, httpResponse);
         }
     }
 
@@ -126,6 +145,11 @@ public class OrbeonXFormsFilter implements Filter {
     public void destroy() {
     }
 
+    private File getTempDirectory() {
+        final Object tempDirectory = servletContext.getAttribute("javax.servlet.context.tempdir");
+        return (tempDirectory instanceof File) ? (File) tempDirectory : null;
+    }
+
     private ServletContext getOrbeonContext() throws ServletException {
         final ServletContext orbeonContext = (orbeonContextPath != null) ? servletContext.getContext(orbeonContextPath) : servletContext;
         if (orbeonContext  == null)
@@ -317,14 +341,16 @@ public class OrbeonXFormsFilter implements Filter {
 
     private static class FilterResponseWrapper extends HttpServletResponseWrapper {
 
-        public FilterResponseWrapper(HttpServletResponse response) {
+        private static final String WRITER_ENCODING = "UTF-8";
+
+        public FilterResponseWrapper(HttpServletResponse response, ContentBuffer contentBuffer) {
             super(response);
+            this.contentBuffer = contentBuffer;
         }
 
-        private ByteArrayOutputStream byteArrayOutputStream;
+        private final ContentBuffer contentBuffer;
         private ServletOutputStream servletOutputStream;
 
-        private StringWriter stringWriter;
         private PrintWriter printWriter;
 
 
@@ -439,11 +465,15 @@ public class OrbeonXFormsFilter implements Filter {
 
         @Override
         public ServletOutputStream getOutputStream() throws IOException {
-            if (byteArrayOutputStream == null) {
-                byteArrayOutputStream = new ByteArrayOutputStream();
+            if (servletOutputStream == null) {
                 servletOutputStream = new ServletOutputStream() {
                     public void write(int i) throws IOException {
-                        byteArrayOutputStream.write(i);
+                        contentBuffer.write(i);
+                    }
+
+                    @Override
+                    public void write(byte[] bytes, int offset, int length) throws IOException {
+                        contentBuffer.write(bytes, offset, length);
                     }
                 };
             }
@@ -453,8 +483,8 @@ public class OrbeonXFormsFilter implements Filter {
         @Override
         public PrintWriter getWriter() throws IOException {
             if (printWriter == null) {
-                stringWriter = new StringWriter();
-                printWriter = new PrintWriter(stringWriter);
+                // Characters are buffered in UTF-8 and decoded again when read
+                printWriter = new PrintWriter(new OutputStreamWriter(contentBuffer, WRITER_ENCODING));
             }
             return printWriter;
         }
@@ -499,18 +529,9 @@ public class OrbeonXFormsFilter implements Filter {
 
         @Override
         public void resetBuffer() {
-            if (byteArrayOutputStream != null) {
-                try {
-                    servletOutputStream.flush();
-                } catch (IOException e) {
-                    // ignore?
-                }
-                byteArrayOutputStream.reset();
-            } else if (stringWriter != null) {
+            if (printWriter != null)
                 printWriter.flush();
-                final StringBuffer sb = stringWriter.getBuffer();
-                sb.delete(0, sb.length());
-            }
+            contentBuffer.reset();
         }
 
         @Override
@@ -523,18 +544,141 @@ public class OrbeonXFormsFilter implements Filter {
             return super.getLocale();
         }
 
-        public String getContent() throws IOException {
-            if (stringWriter != null) {
-                // getWriter() was used
+        public boolean hasContent() {
+            return servletOutputStream != null || printWriter != null;
+        }
+
+        private String getContentEncoding() {
+            // With getWriter(), the encoding set by the application only applies to the final output
+            return (printWriter != null) ? WRITER_ENCODING : getCharacterEncoding();
+        }
+
+        /**
+         * Return a Reader over the content written so far. The Reader can be obtained several times, but not after
+         * dispose() has been called.
+         */
+        public Reader getContentReader() throws IOException {
+            if (printWriter != null)
                 printWriter.flush();
-                return stringWriter.toString();
-            } else if (servletOutputStream != null) {
-                // getOutputStream() was used
-                servletOutputStream.flush();
-                return new String(byteArrayOutputStream.toByteArray(), getCharacterEncoding());
+            return new InputStreamReader(contentBuffer.getInputStream(), getContentEncoding());
+        }
+
+        public boolean isBlank() throws IOException {
+            if (!hasContent())
+                return true;
+
+            final Reader reader = getContentReader();
+            try {
+                // Only read up to the first non-whitespace character
+                int c;
+                while ((c = reader.read()) != -1) {
+                    if (!Character.isWhitespace((char) c))
+                        return false;
+                }
+                return true;
+            } finally {
+                reader.close();
+            }
+        }
+
+        public void dispose() {
+            contentBuffer.dispose();
+        }
+    }
+
+    /**
+     * Buffer for the output of the filtered resource.
+     *
+     * Content is kept in fixed-size chunks, so that it is never copied while growing. Past the given limit, content
+     * is written to a temporary file instead, so that the memory used per request remains bounded.
+     */
+    private static class ContentBuffer extends OutputStream {
+
+        private static final int CHUNK_SIZE = 8192;
+
+        private final int maxMemorySize;
+        private final File tempDirectory;
+
+        private final List<byte[]> chunks = new ArrayList<byte[]>();
+        private int lastChunkLength = CHUNK_SIZE;
+        private long size;
+
+        private File file;
+        private OutputStream fileOutputStream;
+
+        public ContentBuffer(int maxMemorySize, File tempDirectory) {
+            this.maxMemorySize = maxMemorySize;
+            this.tempDirectory = tempDirectory;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            size += length;
+            if (fileOutputStream == null && size > maxMemorySize)
+                switchToFile();
+
+            if (fileOutputStream != null) {
+                fileOutputStream.write(bytes, offset, length);
             } else {
-                return null;
+                while (length > 0) {
+                    if (lastChunkLength == CHUNK_SIZE) {
+                        chunks.add(new byte[CHUNK_SIZE]);
+                        lastChunkLength = 0;
+                    }
+                    final int toCopy = Math.min(length, CHUNK_SIZE - lastChunkLength);
+                    System.arraycopy(bytes, offset, chunks.get(chunks.size() - 1), lastChunkLength, toCopy);
+                    lastChunkLength += toCopy;
+                    offset += toCopy;
+                    length -= toCopy;
+                }
+            }
+        }
+
+        private void switchToFile() throws IOException {
+            file = File.createTempFile("orbeon-filter", ".tmp", tempDirectory);
+            fileOutputStream = new BufferedOutputStream(new FileOutputStream(file));
+            for (int i = 0; i < chunks.size(); i++)
+                fileOutputStream.write(chunks.get(i), 0, (i == chunks.size() - 1) ? lastChunkLength : CHUNK_SIZE);
+            chunks.clear();
+            lastChunkLength = CHUNK_SIZE;
+        }
+
+        public InputStream getInputStream() throws IOException {
+            if (fileOutputStream != null) {
+                fileOutputStream.flush();
+                return new BufferedInputStream(new FileInputStream(file));
+            } else {
+                final List<InputStream> streams = new ArrayList<InputStream>(chunks.size());
+                for (int i = 0; i < chunks.size(); i++)
+                    streams.add(new ByteArrayInputStream(chunks.get(i), 0, (i == chunks.size() - 1) ? lastChunkLength : CHUNK_SIZE));
+                return new SequenceInputStream(Collections.enumeration(streams));
+            }
+        }
+
+        public void reset() {
+            dispose();
+            size = 0;
+        }
+
+        public void dispose() {
+            chunks.clear();
+            lastChunkLength = CHUNK_SIZE;
+            if (fileOutputStream != null) {
+                try {
+                    fileOutputStream.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                fileOutputStream = null;
+                if (!file.delete())
+                    file.deleteOnExit();
+                file = null;
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -122,6 +122,79 @@ public class NetUtils {
         return true;
     }
 
+    /**
+     * Whether an Accept-Encoding header value accepts the gzip content coding.
+     *
+     * The gzip coding is acceptable if it is listed with a non-zero quality value, or if it is not listed and "*" is
+     * listed with a non-zero quality value.
+     *
+     * @param acceptEncoding    header value, may be null
+     * @return                  true iif gzip is acceptable
+     */
+    public static boolean acceptsGZIP(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return false;
+
+        Boolean acceptsGZIP = null;
+        Boolean acceptsAny = null;
+        for (final String token: acceptEncoding.split(",")) {
+            final String[] parts = token.split(";");
+            final String coding = parts[0].trim();
+            if (coding.equalsIgnoreCase("gzip"))
+                acceptsGZIP = getQuality(parts) > 0;
+            else if (coding.equals("*"))
+                acceptsAny = getQuality(parts) > 0;
+        }
+        return (acceptsGZIP != null) ? acceptsGZIP : acceptsAny != null && acceptsAny;
+    }
+
+    /**
+     * Return the quality value among the parameters of a header element, 1 if missing and 0 if malformed.
+     */
+    private static double getQuality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            final String parameter = parts[i].trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Whether an If-None-Match header value matches one of the given ETags.
+     *
+     * As specified for If-None-Match, the comparison is weak: a weak validator W/"x" in the header matches the ETag
+     * "x", and "*" matches any ETag.
+     *
+     * @param ifNoneMatch   header value, may be null
+     * @param etags         quoted ETags to check
+     * @return              true iif the header matches
+     */
+    public static boolean matchesETag(String ifNoneMatch, String... etags) {
+        if (ifNoneMatch == null)
+            return false;
+
+        for (final String token: ifNoneMatch.split(",")) {
+            final String trimmed = token.trim();
+            if (trimmed.equals("*"))
+                return true;
+            final String opaqueTag = getOpaqueTag(trimmed);
+            for (final String etag: etags)
+                if (opaqueTag.equals(getOpaqueTag(etag)))
+                    return true;
+        }
+        return false;
+    }
+
+    private static String getOpaqueTag(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
     /**
      * Return a request path info that looks like what one would expect. The path starts with a "/", relative to the
      * servlet context. If the servlet was included or forwarded to, return the path by which the *current* servlet was
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms;
+
+import org.orbeon.oxf.xforms.control.XFormsControl;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Controls of the current control tree whose external state may have changed since the initial control tree was
+ * cloned for the current request.
+ *
+ * Controls record changes of value, MIPs, LHHA, itemset, relevance and local state as they happen during refresh. The
+ * ancestors of a changed control are recorded as well, so that the difference engine can skip any subtree which
+ * doesn't contain a changed control. Structural changes, such as repeat iterations added, removed or moved, mark the
+ * whole subtree as changed.
+ */
+public class ChangedControls {
+
+    // Changed controls and their ancestors
+    private final Map<XFormsControl, Boolean> changedControls = new IdentityHashMap<XFormsControl, Boolean>();
+    // Controls whose whole subtree must be compared
+    private final Map<XFormsControl, Boolean> changedSubtrees = new IdentityHashMap<XFormsControl, Boolean>();
+
+    public void markChanged(XFormsControl control) {
+        // Stop at the first ancestor already marked, as its own ancestors are marked too
+        XFormsControl current = control;
+        while (current != null && changedControls.put(current, Boolean.TRUE) == null)
+            current = current.getParent();
+    }
+
+    public void markSubtreeChanged(XFormsControl control) {
+        changedSubtrees.put(control, Boolean.TRUE);
+        markChanged(control);
+    }
+
+    /**
+     * Whether the control or one of its descendants has changed.
+     */
+    public boolean isChanged(XFormsControl control) {
+        return changedControls.containsKey(control);
+    }
+
+    /**
+     * Whether all the descendants of the control must be compared.
+     */
+    public boolean isSubtreeChanged(XFormsControl control) {
+        return changedSubtrees.containsKey(control);
+    }
+
+    public int size() {
+        return changedControls.size();
+    }
+
+    public void clear() {
+        changedControls.clear();
+        changedSubtrees.clear();
+    }
+}
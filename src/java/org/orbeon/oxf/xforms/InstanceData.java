@@ -371,7 +371,14 @@ public class InstanceData {
     }
 
     public static void clearValidationState(NodeInfo nodeInfo) {
-        final InstanceData existingInstanceData = getLocalInstanceData(nodeInfo, false);// not really an update since for read-only nothing changes
+        clearValidationState(getLocalInstanceData(nodeInfo, false));// not really an update since for read-only nothing changes
+    }
+
+    public static void clearValidationState(Node node) {
+        clearValidationState(getLocalInstanceData(node));
+    }
+
+    private static void clearValidationState(InstanceData existingInstanceData) {
         if (existingInstanceData != null) {
             // Clear everything related to validity (except required)
             existingInstanceData.valueValid = DEFAULT_VALID;
@@ -94,6 +94,8 @@ public class XFormsConstants {
 
     public static final QName XXFORMS_ATTRIBUTE_QNAME = new QName("attribute", XXFORMS_NAMESPACE);
     public static final QName XXFORMS_TEXT_QNAME = new QName("text", XXFORMS_NAMESPACE);
+    // Internal wrapper around static content in the XHTML render plan
+    public static final QName XXFORMS_STATIC_CONTENT_QNAME = new QName("static-content", XXFORMS_NAMESPACE);
 
     public static final QName SUBMIT_QNAME = new QName("submit", XFORMS_NAMESPACE);
     public static final QName TRIGGER_QNAME = new QName("trigger", XFORMS_NAMESPACE);
@@ -275,6 +277,7 @@ public class XFormsConstants {
     public static final QName XXFORMS_CACHE_QNAME = new QName("cache", XXFORMS_NAMESPACE);
     public static final QName XXFORMS_TIME_TO_LIVE_QNAME = new QName("ttl", XXFORMS_NAMESPACE);
     public static final QName XXFORMS_VALIDATION_QNAME = new QName("validation", XXFORMS_NAMESPACE);
+    public static final QName XXFORMS_INDEX_QNAME = new QName("index", XXFORMS_NAMESPACE);
     public static final QName XXFORMS_EXCLUDE_RESULT_PREFIXES = new QName("exclude-result-prefixes", XXFORMS_NAMESPACE);
 
     public static final QName XXFORMS_INSTANCE_QNAME = new QName("instance", XXFORMS_NAMESPACE);
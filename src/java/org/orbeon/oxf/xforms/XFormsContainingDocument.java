@@ -35,6 +35,7 @@ import org.orbeon.oxf.xforms.event.events.*;
 import org.orbeon.oxf.xforms.processor.XFormsServer;
 import org.orbeon.oxf.xforms.processor.XFormsURIResolver;
 import org.orbeon.oxf.xforms.state.XFormsState;
+import org.orbeon.oxf.xforms.state.XFormsStaticStateCache;
 import org.orbeon.oxf.xforms.submission.AsynchronousSubmissionManager;
 import org.orbeon.oxf.xforms.submission.XFormsModelSubmission;
 import org.orbeon.oxf.xforms.xbl.XBLContainer;
@@ -203,10 +204,16 @@ public class XFormsContainingDocument extends XBLContainer {
             indentedLogger.startHandleOperation("initialization", "restoring containing document (static state object provided).");
             this.xformsStaticState = xformsStaticState;
         } else {
-            // Create static state object
-            // TODO: Handle caching of XFormsStaticState object? Anything that can be done here?
+            // Use cached static state object if possible, otherwise create it
             indentedLogger.startHandleOperation("initialization", "restoring containing document (static state object not provided).");
-            this.xformsStaticState = new XFormsStaticState(pipelineContext, xformsState.getStaticState());
+            final XFormsStaticStateCache staticStateCache = XFormsStaticStateCache.instance();
+            final XFormsStaticState cachedStaticState = staticStateCache.findByEncodedStaticState(pipelineContext, xformsState.getStaticState());
+            if (cachedStaticState != null) {
+                this.xformsStaticState = cachedStaticState;
+            } else {
+                this.xformsStaticState = new XFormsStaticState(pipelineContext, xformsState.getStaticState());
+                staticStateCache.add(pipelineContext, null, this.xformsStaticState);
+            }
         }
         {
             // Make sure there is location data
@@ -54,6 +54,9 @@ public class XFormsControls implements XFormsObjectResolver {
 
     private boolean dirtySinceLastRequest;
 
+    // Controls changed since the initial tree was cloned
+    private final ChangedControls changedControls = new ChangedControls();
+
     // Whether we currently require a UI refresh
     private boolean requireRefresh;
 
@@ -61,6 +64,10 @@ public class XFormsControls implements XFormsObjectResolver {
     private XBLContainer rootContainer;
     
     private Map<String, Itemset> constantItems;
+    // Itemsets shared by all the iterations of a control until instance data may have changed
+    private Map<String, SharedItemset> sharedItemsets;
+    // Results of pure expressions while control bindings and values are evaluated, null outside of that time
+    private XFormsRefreshMemo refreshMemo;
 
     private final XPathDependencies xpathDependencies;
 
@@ -92,8 +99,12 @@ public class XFormsControls implements XFormsObjectResolver {
     
     public void markDirtySinceLastRequest(boolean bindingsAffected) {
         dirtySinceLastRequest = true;
-        if (bindingsAffected)
+        if (bindingsAffected) {
             currentControlTree.markBindingsDirty();
+            // Instance data may have changed
+            clearSharedItemsets();
+            refreshMemo = null;
+        }
     }
 
     public void requireRefresh() {
@@ -146,6 +157,7 @@ public class XFormsControls implements XFormsObjectResolver {
             // NOTE: Do this here, because ControlTree.initialize() can dispatch events and make the tree dirty
             dirtySinceLastRequest = false;
             initialControlTree.markBindingsClean();
+            changedControls.clear();
 
             if (initialized) {
                 // Use existing controls tree
@@ -290,12 +302,56 @@ public class XFormsControls implements XFormsObjectResolver {
             {
                 // NOTE: We clone "back", that is the new tree is used as the "initial" tree. This is done so that
                 // if we started working with controls in the initial tree, we can keep using those references safely.
+                // NOTE: Controls with local changes made before cloning record themselves as changed while cloning.
+                changedControls.clear();
                 initialControlTree = (ControlTree) currentControlTree.getBackCopy(propertyContext);
             }
             indentedLogger.endHandleOperation();
         }
     }
 
+    /**
+     * Record that the external state of a control of the current tree may have changed. This is a NOP unless the
+     * initial tree has been cloned, as there is nothing to compare against otherwise.
+     *
+     * @param control   changed control
+     */
+    public void markControlChanged(XFormsControl control) {
+        if (initialControlTree != currentControlTree)
+            changedControls.markChanged(control);
+    }
+
+    /**
+     * Record that the local state of a control changed before the initial tree was cloned. This is called while cloning.
+     *
+     * @param control   changed control
+     */
+    public void markControlChangedBeforeCloning(XFormsControl control) {
+        changedControls.markChanged(control);
+    }
+
+    /**
+     * Record that the structure of a subtree of the current tree may have changed, e.g. because repeat iterations were
+     * added, removed or moved.
+     *
+     * @param control   root of the changed subtree
+     */
+    public void markSubtreeChanged(XFormsControl control) {
+        if (initialControlTree != currentControlTree)
+            changedControls.markSubtreeChanged(control);
+    }
+
+    /**
+     * Return the controls changed since the initial tree was cloned. Only meaningful to compare the initial tree with the
+     * current tree.
+     *
+     * @return  changed controls, or null if the initial tree has not been cloned
+     */
+    public ChangedControls getChangedControls() {
+        // If the tree was not cloned, differences can still exist between the initial and current local state of controls
+        return (initialControlTree != currentControlTree) ? changedControls : null;
+    }
+
     /**
      * Get object with the effective id specified.
      *
@@ -582,6 +638,88 @@ public class XFormsControls implements XFormsObjectResolver {
             constantItems = new HashMap<String, Itemset>();
         constantItems.put(controlId, itemset);
     }
+
+    /**
+     * Get the itemset shared by all the iterations of a control with a context-independent itemset.
+     *
+     * @param prefixedId            prefixed id of the control
+     * @param dependentInstances    instances the itemset depends on
+     * @return                      itemset or null if not yet evaluated since the last change to these instances
+     */
+    public Itemset getSharedItemset(String prefixedId, List<XFormsInstance> dependentInstances) {
+        if (sharedItemsets == null)
+            return null;
+        final SharedItemset sharedItemset = sharedItemsets.get(prefixedId);
+        return (sharedItemset != null && sharedItemset.isValid(dependentInstances)) ? sharedItemset.itemset : null;
+    }
+
+    /**
+     * Set the itemset shared by all the iterations of a control with a context-independent itemset.
+     *
+     * @param prefixedId            prefixed id of the control
+     * @param dependentInstances    instances the itemset depends on
+     * @param itemset               itemset
+     */
+    public void setSharedItemset(String prefixedId, List<XFormsInstance> dependentInstances, Itemset itemset) {
+        if (sharedItemsets == null)
+            sharedItemsets = new HashMap<String, SharedItemset>();
+        sharedItemsets.put(prefixedId, new SharedItemset(itemset, dependentInstances));
+    }
+
+    private void clearSharedItemsets() {
+        if (sharedItemsets != null)
+            sharedItemsets.clear();
+    }
+
+    /**
+     * Itemset along with the instances it was evaluated against and their modification counts at that time.
+     */
+    private static class SharedItemset {
+        public final Itemset itemset;
+        private final List<XFormsInstance> instances;
+        private final long[] modificationCounts;
+
+        public SharedItemset(Itemset itemset, List<XFormsInstance> instances) {
+            this.itemset = itemset;
+            this.instances = instances;
+            this.modificationCounts = new long[instances.size()];
+            for (int i = 0; i < modificationCounts.length; i++)
+                modificationCounts[i] = instances.get(i).getModificationCount();
+        }
+
+        public boolean isValid(List<XFormsInstance> currentInstances) {
+            // Instances are compared by identity, as an XBL component may have its own copy of the instances
+            if (currentInstances.size() != instances.size())
+                return false;
+            for (int i = 0; i < modificationCounts.length; i++) {
+                final XFormsInstance instance = instances.get(i);
+                if (currentInstances.get(i) != instance || instance.getModificationCount() != modificationCounts[i])
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Return the memo of expression results for the refresh in progress.
+     *
+     * @return memo, or null if controls are not being evaluated by a refresh
+     */
+    public XFormsRefreshMemo getRefreshMemo() {
+        return refreshMemo;
+    }
+
+    private void startRefreshMemo() {
+        refreshMemo = new XFormsRefreshMemo();
+    }
+
+    private void endRefreshMemo() {
+        if (refreshMemo != null && indentedLogger.isDebugEnabled())
+            indentedLogger.logDebug("controls", "refresh memo",
+                    "hits", Integer.toString(refreshMemo.getHitCount()), "misses", Integer.toString(refreshMemo.getMissCount()));
+        // Event handlers may change instance data
+        refreshMemo = null;
+    }
     
     public void doRefresh(final PropertyContext propertyContext, XBLContainer container) {
 
@@ -596,10 +734,17 @@ public class XFormsControls implements XFormsObjectResolver {
         } else {
             indentedLogger.startHandleOperation("model", "performing refresh", "container id", container.getEffectiveId());
             {
-                // Update control bindings
-                updateControlBindings(propertyContext);
-                // Update control values
-                evaluateControlValues(propertyContext);
+                // Controls are about to be marked dirty, so shared itemsets must be evaluated again
+                clearSharedItemsets();
+                startRefreshMemo();
+                try {
+                    // Update control bindings
+                    updateControlBindings(propertyContext);
+                    // Update control values
+                    evaluateControlValues(propertyContext);
+                } finally {
+                    endRefreshMemo();
+                }
 
                 if (currentControlTree.isAllowSendingRefreshEvents()) {
                     // There are potentially event handlers for UI events, so do the whole processing
@@ -711,17 +856,22 @@ public class XFormsControls implements XFormsObjectResolver {
      */
     public void doPartialRefresh(final PropertyContext propertyContext, XFormsContainerControl containerControl) {
 
-        // Update bindings starting at the container control
-        updateSubtreeBindings(propertyContext, containerControl);
-
-        // Evaluate the controls
-        ControlTree.visitControls(containerControl, true, new XFormsControlVisitorAdapter() {
-            @Override
-            public boolean startVisitControl(XFormsControl control) {
-                control.evaluate(propertyContext);
-                return true;
-            }
-        });
+        startRefreshMemo();
+        try {
+            // Update bindings starting at the container control
+            updateSubtreeBindings(propertyContext, containerControl);
+
+            // Evaluate the controls
+            ControlTree.visitControls(containerControl, true, new XFormsControlVisitorAdapter() {
+                @Override
+                public boolean startVisitControl(XFormsControl control) {
+                    control.evaluate(propertyContext);
+                    return true;
+                }
+            });
+        } finally {
+            endRefreshMemo();
+        }
 
         if (currentControlTree.isAllowSendingRefreshEvents()) {
             // There are potentially event handlers for UI events, so do the whole processing
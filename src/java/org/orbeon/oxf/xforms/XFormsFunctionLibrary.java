@@ -21,6 +21,7 @@ import org.orbeon.oxf.xforms.function.exforms.EXFormsRelevant;
 import org.orbeon.oxf.xforms.function.exforms.EXFormsRequired;
 import org.orbeon.oxf.xforms.function.exforms.EXFormsSort;
 import org.orbeon.oxf.xforms.function.xxforms.*;
+import org.orbeon.oxf.xml.XMLConstants;
 import org.orbeon.saxon.expr.Expression;
 import org.orbeon.saxon.expr.StaticContext;
 import org.orbeon.saxon.expr.StaticProperty;
@@ -35,13 +36,24 @@ import org.orbeon.saxon.type.Type;
 import org.orbeon.saxon.value.SequenceType;
 import org.orbeon.saxon.value.Value;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 public class XFormsFunctionLibrary implements FunctionLibrary {
 
     private static Map<String, StandardFunction.Entry> functionTable = new HashMap<String, StandardFunction.Entry>();
 
+    // Names of the functions whose result can't change during a refresh, see isRefreshPure()
+    private static Set<String> refreshPureFunctions = new HashSet<String>();
+
+    // Standard functions which depend on the context position or on the current time, or which load documents
+    private static final Set<String> REFRESH_IMPURE_STANDARD_FUNCTIONS = new HashSet<String>(Arrays.asList(
+            "position", "last", "current-dateTime", "current-date", "current-time", "implicit-timezone",
+            "doc", "doc-available", "document", "collection", "unparsed-text", "unparsed-text-available", "error", "trace"));
+
     private static StandardFunction.Entry register(String name,
                                                    Class implementationClass,
                                                    int opcode,
@@ -64,6 +76,10 @@ public class XFormsFunctionLibrary implements FunctionLibrary {
         return e;
     }
 
+    private static void markRefreshPure(String... names) {
+        refreshPureFunctions.addAll(Arrays.asList(names));
+    }
+
     static {
         StandardFunction.Entry e;
 
@@ -360,6 +376,12 @@ public class XFormsFunctionLibrary implements FunctionLibrary {
         StandardFunction.arg(e, 3, BuiltInAtomicType.STRING, StaticProperty.ALLOWS_ZERO_OR_ONE, null);
         StandardFunction.arg(e, 4, BuiltInAtomicType.STRING, StaticProperty.ALLOWS_ZERO_OR_ONE, null);
         
+        // xxforms:key()
+        e = register("{" + XFormsConstants.XXFORMS_NAMESPACE_URI  + "}key", XXFormsKey.class, 0, 2, 3, Type.NODE_TYPE, StaticProperty.ALLOWS_ZERO_OR_MORE);
+        StandardFunction.arg(e, 0, BuiltInAtomicType.STRING, StaticProperty.EXACTLY_ONE, null);
+        StandardFunction.arg(e, 1, BuiltInAtomicType.ANY_ATOMIC, StaticProperty.ALLOWS_ZERO_OR_MORE, null);
+        StandardFunction.arg(e, 2, BuiltInAtomicType.STRING, StaticProperty.EXACTLY_ONE, null);
+
         // xxforms:itemset()
         e = register("{" + XFormsConstants.XXFORMS_NAMESPACE_URI  + "}itemset", XXFormsItemset.class, 0, 2, 2, Type.ITEM_TYPE, StaticProperty.ALLOWS_ZERO_OR_MORE);
         StandardFunction.arg(e, 0, BuiltInAtomicType.STRING, StaticProperty.EXACTLY_ONE, null);
@@ -413,6 +435,48 @@ public class XFormsFunctionLibrary implements FunctionLibrary {
         StandardFunction.arg(e, 2, BuiltInAtomicType.STRING, StaticProperty.ALLOWS_ZERO_OR_ONE, null);
         StandardFunction.arg(e, 3, BuiltInAtomicType.STRING, StaticProperty.ALLOWS_ZERO_OR_ONE, null);
         StandardFunction.arg(e, 4, BuiltInAtomicType.STRING, StaticProperty.ALLOWS_ZERO_OR_ONE, null);
+
+        // Functions which only depend on their arguments and on state which doesn't change during a refresh
+        markRefreshPure("boolean-from-string", "is-card-number", "count-non-empty", "power", "xfif", "choose", "property",
+                "digest", "hmac", "days-from-date", "days-to-date", "seconds-from-dateTime", "seconds-to-dateTime",
+                "seconds", "months", "instance", "format-date", "format-dateTime", "format-number", "format-time");
+        markRefreshPure(
+                "{" + XFormsConstants.XXFORMS_NAMESPACE_URI + "}get-request-header",
+                "{" + XFormsConstants.XXFORMS_NAMESPACE_URI + "}get-request-parameter",
+                "{" + XFormsConstants.XXFORMS_NAMESPACE_URI + "}get-request-attribute",
+                "{" + XFormsConstants.XXFORMS_NAMESPACE_URI + "}get-session-attribute",
+                "{" + XFormsConstants.XXFORMS_NAMESPACE_URI + "}get-remote-user",
+                "{" + XFormsConstants.XXFORMS_NAMESPACE_URI + "}is-user-in-role",
+                "{" + XFormsConstants.XXFORMS_NAMESPACE_URI + "}if",
+                "{" + XFormsConstants.XXFORMS_NAMESPACE_URI + "}instance",
+                "{" + XFormsConstants.XXFORMS_NAMESPACE_URI + "}list-models",
+                "{" + XFormsConstants.XXFORMS_NAMESPACE_URI + "}list-instances",
+                "{" + XFormsConstants.XXFORMS_NAMESPACE_URI + "}property",
+                "{" + XFormsConstants.XXFORMS_NAMESPACE_URI + "}properties-start-with",
+                "{" + XFormsConstants.XXFORMS_NAMESPACE_URI + "}decode-iso9075-14",
+                "{" + XFormsConstants.XXFORMS_NAMESPACE_URI + "}encode-iso9075-14",
+                "{" + XFormsConstants.XXFORMS_NAMESPACE_URI + "}key");
+    }
+
+    /**
+     * Whether a function returns the same result for the same arguments, context item, model and XBL container during
+     * the evaluation of controls in a refresh. Instances and other state don't change during that time, so such
+     * function calls can be memoized.
+     *
+     * @param uri   function namespace URI
+     * @param local function local name
+     * @return      true iif the function is pure during a refresh
+     */
+    public static boolean isRefreshPure(String uri, String local) {
+        if (uri.equals(NamespaceConstant.FN)) {
+            // XForms functions override standard functions with the same name
+            return functionTable.containsKey(local) ? refreshPureFunctions.contains(local) : !REFRESH_IMPURE_STANDARD_FUNCTIONS.contains(local);
+        } else if (uri.equals(XFormsConstants.XXFORMS_NAMESPACE_URI) || uri.equals(XFormsConstants.EXFORMS_NAMESPACE_URI)) {
+            return refreshPureFunctions.contains("{" + uri + "}" + local);
+        } else {
+            // Constructor functions
+            return uri.equals(XMLConstants.XSD_URI);
+        }
     }
 
     private StandardFunction.Entry getEntry(String uri, String local, int arity) {
@@ -26,6 +26,7 @@ import org.orbeon.oxf.xforms.event.XFormsEvents;
 import org.orbeon.oxf.xforms.event.events.XFormsBindingExceptionEvent;
 import org.orbeon.oxf.xforms.event.events.XFormsDeleteEvent;
 import org.orbeon.oxf.xforms.event.events.XFormsInsertEvent;
+import org.orbeon.oxf.xforms.function.xxforms.XXFormsSort;
 import org.orbeon.oxf.xforms.xbl.XBLBindings;
 import org.orbeon.oxf.xforms.xbl.XBLContainer;
 import org.orbeon.oxf.xml.TransformerUtils;
@@ -35,6 +36,7 @@ import org.orbeon.saxon.Configuration;
 import org.orbeon.saxon.dom4j.DocumentWrapper;
 import org.orbeon.saxon.dom4j.NodeWrapper;
 import org.orbeon.saxon.dom4j.TypedDocumentWrapper;
+import org.orbeon.saxon.expr.Expression;
 import org.orbeon.saxon.om.DocumentInfo;
 import org.orbeon.saxon.om.Item;
 import org.orbeon.saxon.om.NodeInfo;
@@ -45,9 +47,7 @@ import javax.xml.transform.Transformer;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * Represent an XForms instance.
@@ -77,6 +77,11 @@ public class XFormsInstance implements XFormsEventTarget, XFormsEventObserver {
      */
     private boolean replaced;
 
+    // Sorted views computed by xxforms:sort() on the current content of the instance
+    private Map<Expression, XXFormsSort.SortedView> sortedViews;
+    // Number of changes to the instance content, see markModified()
+    private long modificationCount;
+
     /**
      * Create an XFormsInstance from a container element. The container contains meta-informationa about the instance,
      * such as id, username, URI, etc.
@@ -344,6 +349,38 @@ public class XFormsInstance implements XFormsEventTarget, XFormsEventObserver {
         this.replaced = replaced;
     }
 
+    /**
+     * Mark the instance as modified. This must be called upon any change to the instance content.
+     */
+    public synchronized void markModified() {
+        sortedViews = null;
+        modificationCount++;
+    }
+
+    /**
+     * Return the number of times the instance was marked as modified. This allows checking whether the content may
+     * have changed since a given time.
+     *
+     * @return modification count
+     */
+    public synchronized long getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * Return the sorted views computed on the current content of the instance, by xxforms:sort() expression.
+     *
+     * NOTE: Read-only instances can be shared between documents, so the map is synchronized, and expressions are
+     * weakly referenced as they can be discarded by the XPath cache.
+     *
+     * @return  sorted views
+     */
+    public synchronized Map<Expression, XXFormsSort.SortedView> getSortedViews() {
+        if (sortedViews == null)
+            sortedViews = Collections.synchronizedMap(new WeakHashMap<Expression, XXFormsSort.SortedView>());
+        return sortedViews;
+    }
+
     /**
      * Set a value on the instance using a NodeInfo and a value.
      *
@@ -0,0 +1,307 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms;
+
+import org.dom4j.*;
+import org.orbeon.oxf.common.ValidationException;
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
+import org.orbeon.oxf.xml.dom4j.LocationData;
+
+import java.util.*;
+
+/**
+ * Secondary index on an instance, declared with the xxforms:index attribute on xforms:instance, e.g.:
+ *
+ *   <xforms:instance id="rows" xxforms:index="row/@id row/name">
+ *
+ * Each declaration is a path of child steps from the root element to the indexed items, followed by the key, which is
+ * an attribute or a child element of each item. The index maps the string value of the key to the items, so lookups
+ * use string equality rather than the comparison rules of the XPath = operator. The index is updated incrementally
+ * upon setvalue, insert and delete so that xxforms:key() can find items without scanning the instance.
+ */
+public class XFormsInstanceIndex {
+
+    private final String name;
+    private final QName[] itemPath;
+    private final QName keyQName;
+    private final boolean isKeyAttribute;
+
+    // Root element the index was built for, null if the index must be rebuilt
+    private Element rootElement;
+
+    private final Map<String, List<Element>> keyToItems = new HashMap<String, List<Element>>();
+    private final Map<Element, String> itemToKey = new IdentityHashMap<Element, String>();
+    private final Map<Element, List<Element>> containerToItems = new IdentityHashMap<Element, List<Element>>();
+    private final Set<String> unsortedKeys = new HashSet<String>();
+
+    public XFormsInstanceIndex(String name, Map<String, String> namespaces, LocationData locationData) {
+        this.name = name;
+
+        final String[] steps = name.split("/");
+        if (steps.length < 2)
+            throw new ValidationException("Invalid index declaration: " + name, locationData);
+
+        this.itemPath = new QName[steps.length - 1];
+        for (int i = 0; i < itemPath.length; i++)
+            itemPath[i] = Dom4jUtils.extractTextValueQName(namespaces, steps[i].trim(), true);
+
+        final String keyStep = steps[steps.length - 1].trim();
+        this.isKeyAttribute = keyStep.startsWith("@");
+        this.keyQName = Dom4jUtils.extractTextValueQName(namespaces, isKeyAttribute ? keyStep.substring(1) : keyStep, true);
+    }
+
+    /**
+     * Create the indexes declared on an xforms:instance element.
+     *
+     * @param instanceElement   xforms:instance element
+     * @return                  indexes, empty if none
+     */
+    public static List<XFormsInstanceIndex> createIndexes(Element instanceElement) {
+        final String indexAttribute = instanceElement.attributeValue(XFormsConstants.XXFORMS_INDEX_QNAME);
+        if (indexAttribute == null || indexAttribute.trim().length() == 0)
+            return Collections.emptyList();
+
+        final Map<String, String> namespaces = Dom4jUtils.getNamespaceContextNoDefault(instanceElement);
+        final LocationData locationData = (LocationData) instanceElement.getData();
+
+        final List<XFormsInstanceIndex> result = new ArrayList<XFormsInstanceIndex>();
+        for (final String declaration: indexAttribute.trim().split("\\s+"))
+            result.add(new XFormsInstanceIndex(declaration, namespaces, locationData));
+        return result;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the items with any of the given keys, in document order and without duplicates.
+     *
+     * @param document  current instance document
+     * @param keys      key values
+     * @return          items, empty if none
+     */
+    public List<Element> lookup(Document document, List<String> keys) {
+        if (rootElement == null || rootElement != document.getRootElement())
+            build(document.getRootElement());
+
+        if (keys.size() == 1)
+            return lookup(keys.get(0));
+
+        final Map<Element, Element> result = new IdentityHashMap<Element, Element>();
+        for (final String key: keys) {
+            for (final Element item: lookup(key))
+                result.put(item, item);
+        }
+        final List<Element> sortedResult = new ArrayList<Element>(result.keySet());
+        Collections.sort(sortedResult, DOCUMENT_ORDER_COMPARATOR);
+        return sortedResult;
+    }
+
+    private List<Element> lookup(String key) {
+        final List<Element> items = keyToItems.get(key);
+        if (items == null)
+            return Collections.emptyList();
+
+        if (unsortedKeys.remove(key) && items.size() > 1)
+            Collections.sort(items, DOCUMENT_ORDER_COMPARATOR);
+        return items;
+    }
+
+    /**
+     * Mark a change to the value of an instance node.
+     *
+     * @param node  element, attribute or text node whose value changed
+     */
+    public void markValueChange(Node node) {
+        if (rootElement == null)
+            return;
+
+        final Element element = (node instanceof Element) ? (Element) node : node.getParent();
+        if (isKeyAttribute) {
+            if (node instanceof Attribute && ((Attribute) node).getQName().equals(keyQName) && itemToKey.containsKey(element))
+                updateItem(element);
+        } else {
+            updateItemForKeyElement(element);
+        }
+    }
+
+    /**
+     * Mark a structural change where only the attributes or children of the given elements changed.
+     *
+     * @param modifiedElements  modified elements, null if the root element changed
+     */
+    public void markStructuralChange(Collection<Element> modifiedElements) {
+        if (rootElement == null)
+            return;
+
+        for (final Element element: modifiedElements) {
+            if (element == null || element.getParent() == null && element != rootElement) {
+                markAllChanged();
+                return;
+            }
+
+            if (itemToKey.containsKey(element)) {
+                // Attributes or children of an item changed
+                updateItem(element);
+            } else if (containerToItems.containsKey(element) || isContainer(element)) {
+                // Items may have been inserted or deleted
+                updateContainer(element);
+            } else if (getDepth(element) < itemPath.length - 1) {
+                // Containers may have been inserted or deleted
+                markAllChanged();
+                return;
+            } else if (!isKeyAttribute) {
+                // Content of a key element may have changed
+                updateItemForKeyElement(element);
+            }
+        }
+    }
+
+    public void markAllChanged() {
+        rootElement = null;
+        keyToItems.clear();
+        itemToKey.clear();
+        containerToItems.clear();
+        unsortedKeys.clear();
+    }
+
+    private void build(Element newRootElement) {
+        markAllChanged();
+        rootElement = newRootElement;
+
+        List<Element> containers = Collections.singletonList(newRootElement);
+        for (int i = 0; i < itemPath.length - 1; i++) {
+            final List<Element> children = new ArrayList<Element>();
+            for (final Element container: containers)
+                children.addAll(Dom4jUtils.elements(container, itemPath[i]));
+            containers = children;
+        }
+        for (final Element container: containers)
+            updateContainer(container);
+    }
+
+    private void updateContainer(Element container) {
+        final List<Element> previousItems = containerToItems.remove(container);
+        if (previousItems != null) {
+            for (final Element item: previousItems)
+                removeItem(item);
+        }
+
+        final List<Element> items = Dom4jUtils.elements(container, itemPath[itemPath.length - 1]);
+        if (items.size() > 0) {
+            containerToItems.put(container, new ArrayList<Element>(items));
+            for (final Element item: items)
+                addItem(item, getKey(item));
+        }
+    }
+
+    private void updateItemForKeyElement(Element element) {
+        // Find the key element among the ancestors-or-self, and its parent item
+        for (Element current = element; current != null; current = current.getParent()) {
+            final Element parent = current.getParent();
+            if (parent != null && itemToKey.containsKey(parent)) {
+                if (current.getQName().equals(keyQName))
+                    updateItem(parent);
+                return;
+            }
+        }
+    }
+
+    private void updateItem(Element item) {
+        final String newKey = getKey(item);
+        final String oldKey = itemToKey.get(item);
+        if (newKey == null ? oldKey != null : !newKey.equals(oldKey)) {
+            removeItem(item);
+            addItem(item, newKey);
+        }
+    }
+
+    private void addItem(Element item, String key) {
+        // Items without key are remembered but not indexed
+        itemToKey.put(item, key);
+        if (key != null) {
+            List<Element> items = keyToItems.get(key);
+            if (items == null) {
+                items = new ArrayList<Element>(1);
+                keyToItems.put(key, items);
+            }
+            items.add(item);
+            if (items.size() > 1)
+                unsortedKeys.add(key);
+        }
+    }
+
+    private void removeItem(Element item) {
+        final String key = itemToKey.remove(item);
+        if (key != null) {
+            final List<Element> items = keyToItems.get(key);
+            if (items != null) {
+                items.remove(item);
+                if (items.isEmpty()) {
+                    keyToItems.remove(key);
+                    unsortedKeys.remove(key);
+                }
+            }
+        }
+    }
+
+    private String getKey(Element item) {
+        if (isKeyAttribute) {
+            return item.attributeValue(keyQName);
+        } else {
+            final Element keyElement = item.element(keyQName);
+            return (keyElement != null) ? keyElement.getStringValue() : null;
+        }
+    }
+
+    private boolean isContainer(Element element) {
+        // Check that the element is reached from the root element by the item path, without the last step
+        Element current = element;
+        for (int i = itemPath.length - 2; i >= 0; i--) {
+            if (current == null || !current.getQName().equals(itemPath[i]))
+                return false;
+            current = current.getParent();
+        }
+        return current == rootElement;
+    }
+
+    private static int getDepth(Element element) {
+        int depth = 0;
+        for (Element current = element.getParent(); current != null; current = current.getParent())
+            depth++;
+        return depth;
+    }
+
+    private static final Comparator<Element> DOCUMENT_ORDER_COMPARATOR = new Comparator<Element>() {
+        public int compare(Element e1, Element e2) {
+            final List<Integer> path1 = getPath(e1);
+            final List<Integer> path2 = getPath(e2);
+            final int size = Math.min(path1.size(), path2.size());
+            for (int i = 0; i < size; i++) {
+                final int diff = path1.get(i) - path2.get(i);
+                if (diff != 0)
+                    return diff;
+            }
+            return path1.size() - path2.size();
+        }
+
+        private List<Integer> getPath(Element element) {
+            final LinkedList<Integer> path = new LinkedList<Integer>();
+            for (Element current = element; current.getParent() != null; current = current.getParent())
+                path.addFirst(current.getParent().indexOf(current));
+            return path;
+        }
+    };
+}
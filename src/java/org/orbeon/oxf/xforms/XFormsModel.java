@@ -16,6 +16,7 @@ package org.orbeon.oxf.xforms;
 import org.apache.log4j.Logger;
 import org.dom4j.Document;
 import org.dom4j.Element;
+import org.dom4j.Node;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.common.Version;
@@ -65,6 +66,7 @@ public class XFormsModel implements XFormsEventTarget, XFormsEventObserver, XFor
     private final List<String> instanceIds;
     private final List<XFormsInstance> instances;
     private final Map<String, XFormsInstance> instancesMap;
+    private final Map<String, List<XFormsInstanceIndex>> instanceIndexes;
 
     // Submissions
     private final Map<String, XFormsModelSubmission> submissions;
@@ -115,12 +117,19 @@ public class XFormsModel implements XFormsEventTarget, XFormsEventObserver, XFor
                 instanceIds = Collections.emptyList();
                 instances = Collections.emptyList();
                 instancesMap = Collections.emptyMap();
+                instanceIndexes = Collections.emptyMap();
             } else {
                 // At least one instance in this model
                 instanceIds = new ArrayList<String>(instanceContainers.size());
+                instanceIndexes = new HashMap<String, List<XFormsInstanceIndex>>();
                 for (Element instanceContainer: instanceContainers) {
                     final String instanceId = XFormsInstance.getInstanceStaticId(instanceContainer);
                     instanceIds.add(instanceId);
+
+                    // Secondary indexes declared with xxforms:index
+                    final List<XFormsInstanceIndex> indexes = XFormsInstanceIndex.createIndexes(instanceContainer);
+                    if (indexes.size() > 0)
+                        instanceIndexes.put(instanceId, indexes);
                 }
                 instances = Arrays.asList(new XFormsInstance[instanceIds.size()]);
                 instancesMap = new HashMap<String, XFormsInstance>(instanceIds.size());
@@ -271,6 +280,24 @@ public class XFormsModel implements XFormsEventTarget, XFormsEventObserver, XFor
         return instancesMap.get(instanceStaticId);
     }
 
+    /**
+     * Return the index with the given name declared on an instance of this model.
+     *
+     * @param instanceStaticId  static id of the instance
+     * @param indexName         index declaration, e.g. "row/@id"
+     * @return                  index, or null if not declared
+     */
+    public XFormsInstanceIndex getInstanceIndex(String instanceStaticId, String indexName) {
+        final List<XFormsInstanceIndex> indexes = instanceIndexes.get(instanceStaticId);
+        if (indexes != null) {
+            for (final XFormsInstanceIndex index: indexes) {
+                if (index.getName().equals(indexName))
+                    return index;
+            }
+        }
+        return null;
+    }
+
     /**
      * Return the XFormsInstance object containing the given node.
      */
@@ -975,11 +1002,16 @@ public class XFormsModel implements XFormsEventTarget, XFormsEventObserver, XFor
                 indentedLogger.startHandleOperation("validation", "performing revalidate", "model id", getEffectiveId());
 
             // Clear validation state
+            final Set<String> incrementalInstances = new HashSet<String>();
             for (final XFormsInstance instance: instances) {
                 // Only clear instances that are impacted by xf:bind/(@ref|@nodeset), assuming we were able to figure out the dependencies
                 // The reason is that clearing this state can take quite some time
                 final boolean mustSchemaValidateInstance = mustSchemaValidate && instance.isSchemaValidation();
-                if (mustSchemaValidateInstance || containingDocument.getXPathDependencies().requireBindValidation(staticModel, instance.getPrefixedId())) {
+                final boolean requireBindValidation = containingDocument.getXPathDependencies().requireBindValidation(staticModel, instance.getPrefixedId());
+                if (mustSchemaValidateInstance && !requireBindValidation && schemaValidator.isIncrementalValidationPossible(instance)) {
+                    // Only the schema validates this instance, and it clears the state of the nodes it revalidates
+                    incrementalInstances.add(instance.getEffectiveId());
+                } else if (mustSchemaValidateInstance || requireBindValidation) {
                     XFormsUtils.iterateInstanceData(instance, new XFormsUtils.InstanceWalker() {
                         public void walk(NodeInfo nodeInfo) {
                             InstanceData.clearValidationState(nodeInfo);
@@ -997,7 +1029,15 @@ public class XFormsModel implements XFormsEventTarget, XFormsEventObserver, XFor
                 for (final XFormsInstance instance: instances) {
                     // Currently we don't support validating read-only instances
                     if (instance.isSchemaValidation()) {
-                        if (!schemaValidator.validateInstance(instance)) {
+                        final boolean isValid;
+                        if (incrementalInstances.contains(instance.getEffectiveId())) {
+                            isValid = schemaValidator.revalidateInstance(instance);
+                        } else {
+                            // Keep validation state if only the schema validates this instance
+                            final boolean keepState = !containingDocument.getXPathDependencies().requireBindValidation(staticModel, instance.getPrefixedId());
+                            isValid = schemaValidator.validateInstance(instance, keepState);
+                        }
+                        if (!isValid) {
                             // Remember that instance is invalid
                             invalidInstances.add(instance.getEffectiveId());
                         }
@@ -1050,6 +1090,9 @@ public class XFormsModel implements XFormsEventTarget, XFormsEventObserver, XFor
             deferredActionContext.recalculate = true;
             deferredActionContext.revalidate = true;
         }
+        if (binds != null)
+            binds.markAllChanged();
+        markInstanceChanged(updatedInstance, null);
 
         final XFormsControls xformsControls = containingDocument.getControls();
         if (xformsControls.isInitialized()) {
@@ -1082,6 +1125,62 @@ public class XFormsModel implements XFormsEventTarget, XFormsEventObserver, XFor
     }
 
     public void markStructuralChange() {
+        // Instances must be validated entirely
+        if (schemaValidator != null)
+            schemaValidator.markAllChanged();
+        // Binds must be rebuilt entirely
+        if (binds != null)
+            binds.markAllChanged();
+        for (final XFormsInstance instance: instances) {
+            if (instance != null)
+                markInstanceChanged(instance, null);
+        }
+
+        doMarkStructuralChange();
+    }
+
+    /**
+     * Mark a structural change where only the attributes or children of the given elements changed.
+     *
+     * @param instance          instance containing the elements
+     * @param modifiedElements  elements whose attributes or children changed, null if the root element changed
+     */
+    public void markStructuralChange(XFormsInstance instance, Collection<Element> modifiedElements) {
+        if (schemaValidator != null) {
+            for (final Element modifiedElement: modifiedElements) {
+                if (modifiedElement != null)
+                    schemaValidator.markChanged(instance, modifiedElement);
+                else
+                    schemaValidator.markAllChanged();
+            }
+        }
+        if (binds != null)
+            binds.markStructuralChange(modifiedElements);
+        markInstanceChanged(instance, modifiedElements);
+
+        doMarkStructuralChange();
+    }
+
+    /**
+     * Update the modification count and indexes of an instance after a structural change.
+     *
+     * @param instance          modified instance
+     * @param modifiedElements  elements whose attributes or children changed, null if the whole instance changed
+     */
+    private void markInstanceChanged(XFormsInstance instance, Collection<Element> modifiedElements) {
+        instance.markModified();
+        final List<XFormsInstanceIndex> indexes = instanceIndexes.get(instance.getId());
+        if (indexes != null) {
+            for (final XFormsInstanceIndex index: indexes) {
+                if (modifiedElements != null)
+                    index.markStructuralChange(modifiedElements);
+                else
+                    index.markAllChanged();
+            }
+        }
+    }
+
+    private void doMarkStructuralChange() {
         // "XForms Actions that change the tree structure of instance data result in setting all four flags to true"
         deferredActionContext.setAllDeferredFlags(true);
 
@@ -1089,6 +1188,29 @@ public class XFormsModel implements XFormsEventTarget, XFormsEventObserver, XFor
         containingDocument.getXPathDependencies().markStructuralChange(this);
     }
 
+    /**
+     * Mark a change to the value of an instance node.
+     *
+     * @param nodeInfo  node whose value changed
+     */
+    public void markValueChange(NodeInfo nodeInfo) {
+        final XFormsInstance instance = getInstanceForNode(nodeInfo);
+        if (schemaValidator != null)
+            schemaValidator.markChanged(instance, XFormsUtils.getNodeFromNodeInfo(nodeInfo, ""));
+        if (instance != null) {
+            instance.markModified();
+            final List<XFormsInstanceIndex> indexes = instanceIndexes.get(instance.getId());
+            if (indexes != null) {
+                final Node node = XFormsUtils.getNodeFromNodeInfo(nodeInfo, "");
+                for (final XFormsInstanceIndex index: indexes)
+                    index.markValueChange(node);
+            }
+        }
+
+        // Notify dependencies of the change
+        containingDocument.getXPathDependencies().markValueChanged(this, nodeInfo);
+    }
+
     public void startOutermostActionHandler() {
         // NOP now that deferredActionContext is always created
     }
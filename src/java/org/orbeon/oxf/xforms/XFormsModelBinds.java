@@ -15,6 +15,7 @@ package org.orbeon.oxf.xforms;
 
 import org.apache.commons.collections.map.CompositeMap;
 import org.dom4j.Element;
+import org.dom4j.Node;
 import org.dom4j.Namespace;
 import org.dom4j.QName;
 import org.orbeon.oxf.common.OXFException;
@@ -23,6 +24,7 @@ import org.orbeon.oxf.util.IndentedLogger;
 import org.orbeon.oxf.util.PropertyContext;
 import org.orbeon.oxf.util.XPathCache;
 import org.orbeon.oxf.xforms.action.actions.XFormsSetvalueAction;
+import org.orbeon.oxf.xforms.analysis.controls.SimpleAnalysis;
 import org.orbeon.oxf.xforms.analysis.model.Model;
 import org.orbeon.oxf.xforms.control.XFormsControl;
 import org.orbeon.oxf.xforms.control.XFormsPseudoControl;
@@ -37,6 +39,7 @@ import org.orbeon.oxf.xml.XMLUtils;
 import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
 import org.orbeon.oxf.xml.dom4j.ExtendedLocationData;
 import org.orbeon.oxf.xml.dom4j.LocationData;
+import org.orbeon.saxon.dom4j.NodeWrapper;
 import org.orbeon.saxon.expr.XPathContext;
 import org.orbeon.saxon.expr.XPathContextMajor;
 import org.orbeon.saxon.om.*;
@@ -53,6 +56,7 @@ import org.orbeon.saxon.value.SequenceExtent;
 import org.orbeon.saxon.value.StringValue;
 
 import java.util.*;
+import java.util.regex.Pattern;
 
 /**
  * Represent a given model's binds.
@@ -73,6 +77,17 @@ public class XFormsModelBinds {
     private List<Bind> offlineBinds = new ArrayList<Bind>();
     private Map<String, String> variableNamesToIds = new HashMap<String, String>();
 
+    // Elements whose attributes or children changed since the last rebuild, or null if a full rebuild is required
+    private Map<Node, Boolean> modifiedElements;
+    // Instance documents as of the last rebuild: replacing an instance requires a full rebuild
+    private final Map<String, DocumentInfo> rebuiltInstanceDocuments = new HashMap<String, DocumentInfo>();
+    // Whether the nested binds of a given bind element only depend on the subtree of their context node
+    private final Map<Element, Boolean> localNestedBinds = new HashMap<Element, Boolean>();
+
+    // Relative path made of simple child, attribute or descendant steps, without predicates, variables or functions
+    private static final String NAME_TEST = "(\\*|[A-Za-z_][\\w.\\-]*(:([A-Za-z_][\\w.\\-]*|\\*))?)";
+    private static final Pattern LOCAL_PATH = Pattern.compile("(\\.|@?" + NAME_TEST + ")(//?(\\.|@?" + NAME_TEST + "))*");
+
     private XFormsModelSchemaValidator xformsValidator;         // validator for standard XForms schema types
 
     private boolean isFirstCalculate;                           // whether this is the first recalculate for the associated XForms model
@@ -119,28 +134,111 @@ public class XFormsModelBinds {
      */
     public void rebuild(PropertyContext propertyContext) {
 
+        final boolean isIncremental = modifiedElements != null && topLevelBinds.size() == bindElements.size() && !isInstanceDocumentsChanged();
+
         if (indentedLogger.isDebugEnabled())
-            indentedLogger.startHandleOperation("model", "performing rebuild", "model id", model.getEffectiveId());
+            indentedLogger.startHandleOperation("model", "performing rebuild", "model id", model.getEffectiveId(),
+                    "incremental", Boolean.toString(isIncremental));
 
-        // Reset everything
         model.getContextStack().resetBindingContext(propertyContext, model);
-        topLevelBinds.clear();
-        singleNodeContextBinds.clear();
-        iterationsForContextNodeInfo.clear();
-        offlineBinds.clear();
-        variableNamesToIds.clear();
-
-        // Iterate through all top-level bind elements
-        for (final Element currentBindElement: bindElements) {
-            // Create and remember as top-level bind
-            final Bind currentBind = new Bind(propertyContext, currentBindElement, true);
-            topLevelBinds.add(currentBind);
+        if (isIncremental) {
+            // Only re-evaluate the bind iterations whose context node contains a modified element
+            final Map<Node, Boolean> changedSubtrees = new IdentityHashMap<Node, Boolean>();
+            for (final Node modifiedElement: modifiedElements.keySet()) {
+                for (Node currentNode = modifiedElement; currentNode != null && changedSubtrees.put(currentNode, Boolean.TRUE) == null;) {
+                    final Node parent = currentNode.getParent();
+                    currentNode = (parent != null) ? parent : currentNode.getDocument();
+                }
+            }
+
+            for (int i = 0; i < topLevelBinds.size(); i++) {
+                final Bind previousBind = topLevelBinds.get(i);
+                topLevelBinds.set(i, new Bind(propertyContext, previousBind.getBindElement(), true, previousBind, changedSubtrees));
+            }
+        } else {
+            // Reset everything
+            topLevelBinds.clear();
+            singleNodeContextBinds.clear();
+            iterationsForContextNodeInfo.clear();
+            offlineBinds.clear();
+            variableNamesToIds.clear();
+
+            // Iterate through all top-level bind elements
+            for (final Element currentBindElement: bindElements) {
+                // Create and remember as top-level bind
+                final Bind currentBind = new Bind(propertyContext, currentBindElement, true);
+                topLevelBinds.add(currentBind);
+            }
         }
 
+        // Start tracking changes for the next rebuild
+        modifiedElements = new IdentityHashMap<Node, Boolean>();
+        rebuiltInstanceDocuments.clear();
+        for (final XFormsInstance instance: model.getInstances())
+            rebuiltInstanceDocuments.put(instance.getEffectiveId(), instance.getDocumentInfo());
+
         if (indentedLogger.isDebugEnabled())
             indentedLogger.endHandleOperation();
     }
 
+    /**
+     * Mark a structural change where only the attributes or children of the given elements changed. The next rebuild
+     * only re-evaluates the binds which may depend on these elements.
+     *
+     * @param elements  elements whose attributes or children changed, null if the root element changed
+     */
+    public void markStructuralChange(Collection<Element> elements) {
+        if (modifiedElements != null) {
+            for (final Element element: elements) {
+                if (element == null) {
+                    markAllChanged();
+                    return;
+                }
+                modifiedElements.put(element, Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * Require the next rebuild to re-evaluate all the binds.
+     */
+    public void markAllChanged() {
+        modifiedElements = null;
+    }
+
+    private boolean isInstanceDocumentsChanged() {
+        final List<XFormsInstance> instances = model.getInstances();
+        if (instances.size() != rebuiltInstanceDocuments.size())
+            return true;
+        for (final XFormsInstance instance: instances) {
+            if (rebuiltInstanceDocuments.get(instance.getEffectiveId()) != instance.getDocumentInfo())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether the nodesets of all the binds nested in the given bind element only depend on the subtree of their
+     * context node, so that the nested binds remain valid for a context node whose subtree didn't change.
+     */
+    private boolean isLocalNestedBinds(Element bindElement) {
+        Boolean result = localNestedBinds.get(bindElement);
+        if (result == null) {
+            result = Boolean.TRUE;
+            for (final Element childElement: Dom4jUtils.elements(bindElement, XFormsConstants.XFORMS_BIND_QNAME)) {
+                final String bindingExpression = SimpleAnalysis.getBindingExpression(childElement);
+                if (childElement.attribute("context") != null
+                        || bindingExpression != null && !LOCAL_PATH.matcher(bindingExpression.trim()).matches()
+                        || !isLocalNestedBinds(childElement)) {
+                    result = Boolean.FALSE;
+                    break;
+                }
+            }
+            localNestedBinds.put(bindElement, result);
+        }
+        return result;
+    }
+
     /**
      * Apply calculate binds.
      *
@@ -1105,6 +1203,22 @@ public class XFormsModelBinds {
         }
     }
 
+    private void unregisterIteration(NodeInfo contextNodeInfo, BindIteration iteration) {
+        final List<BindIteration> iterations = iterationsForContextNodeInfo.get(contextNodeInfo);
+        if (iterations != null) {
+            iterations.remove(iteration);
+            if (iterations.isEmpty())
+                iterationsForContextNodeInfo.remove(contextNodeInfo);
+        }
+        for (final Bind childBind: iteration.childrenBinds)
+            childBind.unregister();
+    }
+
+    private static boolean isChangedSubtree(NodeInfo nodeInfo, Map<Node, Boolean> changedSubtrees) {
+        // Read-only instances cannot be modified
+        return nodeInfo instanceof NodeWrapper && changedSubtrees.get((Node) ((NodeWrapper) nodeInfo).getUnderlyingNode()) != null;
+    }
+
     private static interface BindRunner {
         public void applyBind(PropertyContext propertyContext, Bind bind, List<Item> nodeset, int position);
     }
@@ -1120,6 +1234,20 @@ public class XFormsModelBinds {
         private Map<String, String> customMips;         // Map<String name, String expression> where: foo:bar="true()" => "foo-bar" -> "true()"
 
         public Bind(PropertyContext propertyContext, Element bindElement, boolean isSingleNodeContext) {
+            this(propertyContext, bindElement, isSingleNodeContext, null, null);
+        }
+
+        /**
+         * Create a bind, reusing the iterations of the previous bind for the same element where possible.
+         *
+         * @param propertyContext       current context
+         * @param bindElement           bind element
+         * @param isSingleNodeContext   whether all the ancestor binds have a single node
+         * @param previousBind          bind for the same element as of the last rebuild, or null
+         * @param changedSubtrees       nodes containing a modified element, if previousBind is not null
+         */
+        private Bind(PropertyContext propertyContext, Element bindElement, boolean isSingleNodeContext,
+                     Bind previousBind, Map<Node, Boolean> changedSubtrees) {
             this.bindElement = bindElement;
             this.id = XFormsUtils.getElementStaticId(bindElement);
             this.name = bindElement.attributeValue(XFormsConstants.NAME_QNAME);
@@ -1129,8 +1257,11 @@ public class XFormsModelBinds {
                 variableNamesToIds.put(name, id);
 
             // If this bind is marked for offline handling, remember it
-            if ("true".equals(bindElement.attributeValue(XFormsConstants.XXFORMS_OFFLINE_QNAME)))
+            if ("true".equals(bindElement.attributeValue(XFormsConstants.XXFORMS_OFFLINE_QNAME))) {
+                if (previousBind != null)
+                    offlineBinds.remove(previousBind);
                 offlineBinds.add(this);
+            }
 
             // Remember custom MIPs
             customMips = staticModel.customMIPs.get(this.id);
@@ -1162,31 +1293,74 @@ public class XFormsModelBinds {
                     // There are children binds
                     childrenIterations = new ArrayList<BindIteration>();
 
+                    // Find which iterations of the previous bind may be reused: nested binds must only depend on the
+                    // context node subtree, and whether they have a single node context must not change
+                    final Map<Item, BindIteration> previousIterations;
+                    if (previousBind != null && previousBind.childrenIterations != null && isLocalNestedBinds(bindElement)
+                            && (!isSingleNodeContext || (previousBind.nodeset.size() == 1) == (nodesetSize == 1))) {
+                        previousIterations = new HashMap<Item, BindIteration>();
+                        for (int i = 0; i < previousBind.nodeset.size(); i++)
+                            previousIterations.put(previousBind.nodeset.get(i), previousBind.childrenIterations.get(i));
+                    } else {
+                        previousIterations = null;
+                    }
+
                     // Iterate over nodeset and produce child iterations
                     for (int currentPosition = 1; currentPosition <= nodesetSize; currentPosition++) {
+                        final NodeInfo iterationNodeInfo = (NodeInfo) nodeset.get(currentPosition - 1);
+                        final BindIteration previousIteration = (previousIterations != null) ? previousIterations.remove(iterationNodeInfo) : null;
+
+                        if (previousIteration != null && !isChangedSubtree(iterationNodeInfo, changedSubtrees)) {
+                            // Nothing changed within the context node: keep the iteration and its mapping as is
+                            childrenIterations.add(previousIteration);
+                            continue;
+                        }
+
                         model.getContextStack().pushIteration(currentPosition);
                         {
                             // Create iteration and remember it
                             final boolean isNewSingleNodeContext = isSingleNodeContext && nodesetSize == 1;
-                            final BindIteration currentBindIteration = new BindIteration(propertyContext, isNewSingleNodeContext, childElements);
+                            final BindIteration currentBindIteration = new BindIteration(propertyContext, isNewSingleNodeContext, childElements, previousIteration, changedSubtrees);
                             childrenIterations.add(currentBindIteration);
 
                             // Create mapping context node -> iteration
-                            final NodeInfo iterationNodeInfo = (NodeInfo) nodeset.get(currentPosition - 1);
                             List<BindIteration> iterations = iterationsForContextNodeInfo.get(iterationNodeInfo);
                             if (iterations == null) {
                                 iterations = new ArrayList<BindIteration>();
                                 iterationsForContextNodeInfo.put(iterationNodeInfo, iterations);
+                            } else if (previousIteration != null) {
+                                // Nested binds of the previous iteration were updated above
+                                iterations.remove(previousIteration);
                             }
                             iterations.add(currentBindIteration);
                         }
                         model.getContextStack().popBinding();
                     }
+
+                    // Forget about the previous iterations which were neither kept nor replaced
+                    if (previousBind != null && previousBind.childrenIterations != null) {
+                        for (int i = 0; i < previousBind.nodeset.size(); i++) {
+                            final Item previousItem = previousBind.nodeset.get(i);
+                            final BindIteration previousIteration = previousBind.childrenIterations.get(i);
+                            if (previousIterations == null || previousIterations.get(previousItem) == previousIteration)
+                                unregisterIteration((NodeInfo) previousItem, previousIteration);
+                        }
+                    }
                 }
             }
             model.getContextStack().popBinding();
         }
 
+        private void unregister() {
+            offlineBinds.remove(this);
+            if (singleNodeContextBinds.get(id) == this)
+                singleNodeContextBinds.remove(id);
+            if (childrenIterations != null) {
+                for (int i = 0; i < nodeset.size(); i++)
+                    unregisterIteration((NodeInfo) nodeset.get(i), childrenIterations.get(i));
+            }
+        }
+
         public void applyBinds(PropertyContext propertyContext, BindRunner bindRunner) {
             if (nodeset != null && nodeset.size() > 0) {
                 // Handle each node in this node-set
@@ -1267,15 +1441,18 @@ public class XFormsModelBinds {
 
         private List<Bind> childrenBinds;
 
-        public BindIteration(PropertyContext propertyContext, boolean isSingleNodeContext, List<Element> childElements) {
+        public BindIteration(PropertyContext propertyContext, boolean isSingleNodeContext, List<Element> childElements,
+                             BindIteration previousIteration, Map<Node, Boolean> changedSubtrees) {
 
             if (childElements.size() > 0) {
                 // There are child elements
                 childrenBinds = new ArrayList<Bind>();
 
                 // Iterate over child elements and create children binds
+                int index = 0;
                 for (Element currentBindElement: childElements) {
-                    final Bind currentBind = new Bind(propertyContext, currentBindElement, isSingleNodeContext);
+                    final Bind previousBind = (previousIteration != null) ? previousIteration.childrenBinds.get(index++) : null;
+                    final Bind currentBind = new Bind(propertyContext, currentBindElement, isSingleNodeContext, previousBind, changedSubtrees);
                     childrenBinds.add(currentBind);
                 }
             }
@@ -35,7 +35,9 @@ import com.sun.msv.verifier.regexp.xmlschema.XSREDocDecl;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.dom4j.Attribute;
+import org.dom4j.Document;
 import org.dom4j.Element;
+import org.dom4j.Node;
 import org.dom4j.QName;
 import org.orbeon.oxf.cache.Cache;
 import org.orbeon.oxf.cache.CacheKey;
@@ -64,9 +66,7 @@ import org.xml.sax.helpers.AttributesImpl;
 import javax.xml.parsers.SAXParserFactory;
 import java.io.IOException;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.*;
 
 /**
  * Provides XML Schema validation services for the XForms model.
@@ -90,6 +90,41 @@ public class XFormsModelSchemaValidator {
     // REDocumentDeclaration is not reentrant, but the validator is used by a single thread
     private REDocumentDeclaration documentDeclaration;
 
+    // Validation state kept between revalidations, by instance effective id
+    private final Map<String, IncrementalState> incrementalStates = new HashMap<String, IncrementalState>();
+
+    // State being updated by the current validation, if any
+    private IncrementalState currentState;
+
+    /**
+     * Validation state of an instance, which allows revalidating only the parts of the instance which changed.
+     */
+    private static class IncrementalState {
+
+        // Root element when the instance was last validated, to detect replaced documents
+        public final Element rootElement;
+        public final boolean isStrict;
+
+        // For each validated element, the acceptor for its content, before any attribute or child is fed to it
+        public final Map<Element, Acceptor> acceptors = new IdentityHashMap<Element, Acceptor>();
+        // Elements and attributes with schema errors
+        public final Map<Node, Boolean> invalidNodes = new IdentityHashMap<Node, Boolean>();
+        // Errors found by the acceptor of the parent of an element, which revalidating the element's content doesn't find
+        public final Map<Element, List<String>> parentErrors = new IdentityHashMap<Element, List<String>>();
+        // Elements whose value, attributes or children changed since the last validation
+        public final Map<Element, Boolean> changedElements = new IdentityHashMap<Element, Boolean>();
+
+        // Whether the instance uses identity constraints or ID/IDREF(S) types, which are checked across the document
+        public boolean hasDocumentConstraints;
+        // Whether a change was not precise enough to be handled incrementally
+        public boolean allChanged;
+
+        public IncrementalState(Element rootElement, boolean isStrict) {
+            this.rootElement = rootElement;
+            this.isStrict = isStrict;
+        }
+    }
+
     public XFormsModelSchemaValidator(Element modelElement, IndentedLogger indentedLogger) {
         this.modelElement = modelElement;
         this.indentedLogger = indentedLogger;
@@ -270,12 +305,28 @@ public class XFormsModelSchemaValidator {
         if (indentedLogger.isDebugEnabled())
             indentedLogger.logDebug("schema", "validation error", "error", newErrorMessage);
         InstanceData.addSchemaError(element, newErrorMessage, element.getStringValue(), null);
+        if (currentState != null)
+            currentState.invalidNodes.put(element, Boolean.TRUE);
+    }
+
+    private void addParentSchemaError(final Element element, final String errMsg) {
+        addSchemaError(element, errMsg);
+        if (currentState != null) {
+            List<String> errors = currentState.parentErrors.get(element);
+            if (errors == null) {
+                errors = new ArrayList<String>(1);
+                currentState.parentErrors.put(element, errors);
+            }
+            errors.add(errMsg);
+        }
     }
 
     private void addSchemaError(final Attribute attribute, final String schemaError) {
         if (indentedLogger.isDebugEnabled())
             indentedLogger.logDebug("schema", "validation error", "error", schemaError);
         InstanceData.addSchemaError(attribute, schemaError, attribute.getStringValue(), null);
+        if (currentState != null)
+            currentState.invalidNodes.put(attribute, Boolean.TRUE);
     }
 
     private boolean handleIDErrors(final IDConstraintChecker icc) {
@@ -294,25 +345,7 @@ public class XFormsModelSchemaValidator {
         boolean isElementValid = true;
 
         // Create StartTagInfo
-        final StartTagInfo startTagInfo;
-        {
-            final String uri = element.getNamespaceURI();
-            final String name = element.getName();
-            final String qName = element.getQualifiedName();
-            final List attributesList = element.attributes();
-            final AttributesImpl attributes = new AttributesImpl();
-
-            for (Object anAttributesList: attributesList) {
-                final Attribute attribute = (Attribute) anAttributesList;
-                final String attributeURI = attribute.getNamespaceURI();
-                final String attributeName = attribute.getName();
-                final String attributeQName = attribute.getQualifiedName();
-                final String attributeValue = attribute.getValue();
-                attributes.addAttribute(attributeURI, attributeName, attributeQName, null, attributeValue);
-            }
-            validationContext.setCurrentElement(element);
-            startTagInfo = new StartTagInfo(uri, name, qName, attributes, validationContext);
-        }
+        final StartTagInfo startTagInfo = createStartTagInfo(element);
 
         final StringRef stringRef = new StringRef();
 
@@ -323,7 +356,7 @@ public class XFormsModelSchemaValidator {
             if (tempChildAcceptor == null) {
                 if (isReportErrors) {
                     tempChildAcceptor = acceptor.createChildAcceptor(startTagInfo, stringRef);
-                    addSchemaError(element, stringRef.str);
+                    addParentSchemaError(element, stringRef.str);
                     isElementValid = false;
                 } else {
                     return false;
@@ -332,12 +365,81 @@ public class XFormsModelSchemaValidator {
             childAcceptor = tempChildAcceptor;
         }
 
+        // Remember the acceptor so that the content of the element can be revalidated on its own later
+        if (currentState != null) {
+            currentState.acceptors.put(element, childAcceptor.createClone());
+
+            final Object ownerType = childAcceptor.getOwnerType();
+            if (ownerType instanceof ElementDeclExp.XSElementExp) {
+                final Vector identityConstraints = ((ElementDeclExp.XSElementExp) ownerType).identityConstraints;
+                if (identityConstraints != null && identityConstraints.size() > 0)
+                    currentState.hasDocumentConstraints = true;
+            }
+        }
+
         // Handle id errors
         if (icc != null && isReportErrors) {
             icc.onNextAcceptorReady(startTagInfo, childAcceptor, element);
             isElementValid &= handleIDErrors(icc);
         }
 
+        final boolean isContentValid = validateElementContent(element, childAcceptor, startTagInfo, icc, isReportErrors);
+        if (!isContentValid) {
+            if (isReportErrors)
+                isElementValid = false;
+            else
+                return false;
+        }
+
+        // Get back to parent acceptor
+        if (!acceptor.stepForward(childAcceptor, null)) {
+            if (isReportErrors) {
+                acceptor.stepForward(childAcceptor, stringRef);
+                addParentSchemaError(element, stringRef.str);
+                isElementValid = false;
+            } else {
+                return false;
+            }
+        }
+
+        if (isReportErrors) {
+            // Element may be invalid or not
+            return isElementValid;
+        } else {
+            // This element is valid
+            return true;
+        }
+    }
+
+    private StartTagInfo createStartTagInfo(Element element) {
+        final String uri = element.getNamespaceURI();
+        final String name = element.getName();
+        final String qName = element.getQualifiedName();
+        final List attributesList = element.attributes();
+        final AttributesImpl attributes = new AttributesImpl();
+
+        for (Object anAttributesList: attributesList) {
+            final Attribute attribute = (Attribute) anAttributesList;
+            final String attributeURI = attribute.getNamespaceURI();
+            final String attributeName = attribute.getName();
+            final String attributeQName = attribute.getQualifiedName();
+            final String attributeValue = attribute.getValue();
+            attributes.addAttribute(attributeURI, attributeName, attributeQName, null, attributeValue);
+        }
+        validationContext.setCurrentElement(element);
+        return new StartTagInfo(uri, name, qName, attributes, validationContext);
+    }
+
+    /**
+     * Validate the attributes and content of an element with the acceptor obtained for that element, and assign the
+     * element's datatype if any.
+     */
+    private boolean validateElementContent(final Element element, final Acceptor childAcceptor, final StartTagInfo startTagInfo,
+                                           final IDConstraintChecker icc, final boolean isReportErrors) {
+
+        boolean isElementValid = true;
+        final StringRef stringRef = new StringRef();
+
         // Validate children
         final DatatypeRef datatypeRef = new DatatypeRef();
         final boolean childrenValid = validateChildren(element, childAcceptor, startTagInfo, icc, datatypeRef, isReportErrors);
@@ -377,17 +479,7 @@ public class XFormsModelSchemaValidator {
             icc.endElement(element, datatypeRef.types);
             isElementValid &= handleIDErrors(icc);
         }
-
-        // Get back to parent acceptor
-        if (!acceptor.stepForward(childAcceptor, null)) {
-            if (isReportErrors) {
-                acceptor.stepForward(childAcceptor, stringRef);
-                addSchemaError(element, stringRef.str);
-                isElementValid = false;
-            } else {
-                return false;
-            }
-        }
+        checkIdTypes(datatypeRef.types);
 
         if (isReportErrors) {
             // Element may be invalid or not
@@ -398,6 +490,15 @@ public class XFormsModelSchemaValidator {
         }
     }
 
+    private void checkIdTypes(Datatype[] types) {
+        if (currentState != null && types != null) {
+            for (final Datatype type: types) {
+                if (type.getIdType() != Datatype.ID_TYPE_NULL)
+                    currentState.hasDocumentConstraints = true;
+            }
+        }
+    }
+
     /**
      * Validate an element following the XML Schema "lax" mode.
      *
@@ -553,6 +654,7 @@ public class XFormsModelSchemaValidator {
                     icc.feedAttribute(acceptor, attribute, attributeDatatypeRef.types);
                     isElementChildrenValid &= handleIDErrors(icc);
                 }
+                checkIdTypes(attributeDatatypeRef.types);
             }
 
             if (!acceptor.onEndAttributes(startTagInfo, null)) {
@@ -732,6 +834,20 @@ public class XFormsModelSchemaValidator {
      * @param instance          instance to validate
      */
     public boolean validateInstance(XFormsInstance instance) {
+        return validateInstance(instance, false);
+    }
+
+    /**
+     * Validate an instance entirely.
+     *
+     * @param instance          instance to validate
+     * @param keepState         whether to keep validation state, so that revalidateInstance() can be used next
+     * @return                  true iif the instance is valid
+     */
+    public boolean validateInstance(XFormsInstance instance, boolean keepState) {
+
+        incrementalStates.remove(instance.getEffectiveId());
+
         if (schemaGrammar != null) {
 
             // Create REDocumentDeclaration if needed
@@ -739,30 +855,207 @@ public class XFormsModelSchemaValidator {
                 documentDeclaration = createDocumentDeclaration(schemaGrammar);
             }
 
-            // Get validation mode ("lax" is the default)
-            boolean isValid = true;
-            if (instance.isLaxValidation()) {
-                // Lax validation
-                final Element instanceRootElement = instance.getDocument().getRootElement();
-                isValid &= validateElementLax(instanceRootElement);
-            } else if (instance.isStrictValidation()) {
-                // Strict validation
-                final Acceptor acceptor = documentDeclaration.createAcceptor();
-                final Element instanceRootElement = instance.getDocument().getRootElement();
-                final IDConstraintChecker idConstraintChecker = new IDConstraintChecker();
+            final Element instanceRootElement = instance.getDocument().getRootElement();
+            final boolean isStrict = instance.isStrictValidation();
+            if (keepState && (instance.isLaxValidation() || isStrict))
+                currentState = new IncrementalState(instanceRootElement, isStrict);
+
+            try {
+                // Get validation mode ("lax" is the default)
+                boolean isValid = true;
+                if (instance.isLaxValidation()) {
+                    // Lax validation
+                    isValid &= validateElementLax(instanceRootElement);
+                } else if (isStrict) {
+                    // Strict validation
+                    final Acceptor acceptor = documentDeclaration.createAcceptor();
+                    final IDConstraintChecker idConstraintChecker = new IDConstraintChecker();
+
+                    isValid &= validateElement(instanceRootElement, acceptor, idConstraintChecker, true);
+                    idConstraintChecker.endDocument();
+                    isValid &= handleIDErrors(idConstraintChecker);
+                } else {
+                    // Skip validation
+                }
 
-                isValid &= validateElement(instanceRootElement, acceptor, idConstraintChecker, true);
-                idConstraintChecker.endDocument();
-                isValid &= handleIDErrors(idConstraintChecker);
-            } else {
-                // Skip validation
+                if (currentState != null)
+                    incrementalStates.put(instance.getEffectiveId(), currentState);
+
+                return isValid;
+            } finally {
+                currentState = null;
             }
-            return isValid;
         } else {
             return true;
         }
     }
 
+    /**
+     * Record that the value of the given node changed, or that its attributes or children were inserted or deleted.
+     *
+     * @param instance  instance containing the node
+     * @param node      element, attribute or text node
+     */
+    public void markChanged(XFormsInstance instance, Node node) {
+        final IncrementalState state = incrementalStates.get(instance.getEffectiveId());
+        if (state != null) {
+            final Element element;
+            if (node instanceof Element) {
+                element = (Element) node;
+            } else if (node instanceof Attribute && XMLConstants.XSI_URI.equals(((Attribute) node).getNamespaceURI())) {
+                // xsi:type and xsi:nil can change how the element is matched by its parent
+                element = null;
+            } else if (node instanceof Document) {
+                element = null;
+            } else {
+                element = (node != null) ? node.getParent() : null;
+            }
+
+            if (element != null)
+                state.changedElements.put(element, Boolean.TRUE);
+            else
+                state.allChanged = true;
+        }
+    }
+
+    /**
+     * Record that instances changed in ways which require validating them entirely.
+     */
+    public void markAllChanged() {
+        incrementalStates.clear();
+    }
+
+    /**
+     * Whether revalidateInstance() can be used for the given instance.
+     *
+     * @param instance  instance to check
+     * @return          true iif the instance can be revalidated incrementally
+     */
+    public boolean isIncrementalValidationPossible(XFormsInstance instance) {
+        final IncrementalState state = incrementalStates.get(instance.getEffectiveId());
+        if (state == null || state.allChanged || state.rootElement != instance.getDocument().getRootElement())
+            return false;
+
+        // Identity constraints and ID/IDREF types are checked across the document in strict mode
+        return !state.isStrict || !state.hasDocumentConstraints;
+    }
+
+    /**
+     * Revalidate only the elements of the instance which changed since the last validation. Only the validation state
+     * of the revalidated elements is cleared, except for the errors found for a revalidated element by the acceptor of
+     * its parent, which the change cannot fix.
+     *
+     * The content of a changed element is validated again with the acceptor which was obtained for that element during
+     * the last validation. This covers changed values, checked against the resolved types, as well as inserted or
+     * deleted children, which are checked against the content model.
+     *
+     * @param instance  instance to revalidate
+     * @return          true iif the instance is valid
+     */
+    public boolean revalidateInstance(XFormsInstance instance) {
+        final IncrementalState state = incrementalStates.get(instance.getEffectiveId());
+
+        // Find the elements to revalidate
+        final List<Element> laxElements = new ArrayList<Element>();
+        final Map<Element, Boolean> anchors = new IdentityHashMap<Element, Boolean>();
+        for (final Element changedElement: state.changedElements.keySet()) {
+            // Nearest element for which we have an acceptor
+            Element anchor = changedElement;
+            while (anchor != null && !state.acceptors.containsKey(anchor))
+                anchor = anchor.getParent();
+
+            if (anchor != null) {
+                anchors.put(anchor, Boolean.TRUE);
+            } else if (!state.isStrict) {
+                // In lax mode, the element may now contain declared elements
+                laxElements.add(changedElement);
+            } else {
+                // Should not happen in strict mode as all elements have an acceptor
+                state.allChanged = true;
+                return validateInstance(instance, true);
+            }
+        }
+        state.changedElements.clear();
+
+        if (indentedLogger.isDebugEnabled())
+            indentedLogger.logDebug("schema", "revalidating instance incrementally", "instance", instance.getEffectiveId(),
+                    "elements", Integer.toString(anchors.size() + laxElements.size()));
+
+        currentState = state;
+        try {
+            for (final Element anchor: anchors.keySet()) {
+                // Skip elements revalidated as part of an ancestor
+                if (hasAncestor(anchor, anchors))
+                    continue;
+
+                clearSubtree(state, anchor, false);
+
+                // The parent's acceptor only depends on the name and xsi:type of the element, which didn't change, so
+                // keep the errors it found
+                final List<String> parentErrors = state.parentErrors.get(anchor);
+                if (parentErrors != null) {
+                    for (final String parentError: parentErrors)
+                        addSchemaError(anchor, parentError);
+                }
+
+                validateElementContent(anchor, state.acceptors.get(anchor).createClone(), createStartTagInfo(anchor), null, true);
+            }
+
+            for (final Element laxElement: laxElements) {
+                if (hasAncestor(laxElement, anchors))
+                    continue;
+
+                clearSubtree(state, laxElement, true);
+                validateElementLax(laxElement);
+            }
+        } finally {
+            currentState = null;
+        }
+
+        // Forget errors of deleted nodes
+        for (final Iterator<Node> i = state.invalidNodes.keySet().iterator(); i.hasNext();) {
+            if (!isAttached(i.next(), state.rootElement))
+                i.remove();
+        }
+
+        return state.invalidNodes.isEmpty();
+    }
+
+    private static boolean isAttached(Node node, Element rootElement) {
+        Element element = (node instanceof Element) ? (Element) node : node.getParent();
+        while (element != null && element != rootElement)
+            element = element.getParent();
+        return element != null;
+    }
+
+    private static boolean hasAncestor(Element element, Map<Element, Boolean> elements) {
+        for (Element ancestor = element.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+            if (elements.containsKey(ancestor))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Clear the validation state of an element and its descendants, and forget the acceptors of its descendants, which
+     * are obtained again by the revalidation.
+     */
+    private void clearSubtree(IncrementalState state, Element element, boolean clearAcceptor) {
+        InstanceData.clearValidationState(element);
+        state.invalidNodes.remove(element);
+        if (clearAcceptor) {
+            state.acceptors.remove(element);
+            state.parentErrors.remove(element);
+        }
+
+        for (final Object attribute: element.attributes()) {
+            InstanceData.clearValidationState((Attribute) attribute);
+            state.invalidNodes.remove(attribute);
+        }
+        for (final Object child: element.elements())
+            clearSubtree(state, (Element) child, true);
+    }
+
     /**
      * Check whether a node's value satisfies a simple schema type definition given by namespace URI and local name.
      *
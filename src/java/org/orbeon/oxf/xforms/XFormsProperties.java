@@ -14,7 +14,7 @@
 package org.orbeon.oxf.xforms;
 
 import org.apache.commons.lang.StringUtils;
-import org.orbeon.oxf.properties.Properties;
+import org.orbeon.oxf.properties.PropertyHandle;
 import org.orbeon.oxf.util.Connection;
 import org.orbeon.saxon.om.FastStringBuffer;
 
@@ -278,6 +278,18 @@ public class XFormsProperties {
     private static final String CACHE_COMBINED_RESOURCES_PROPERTY = XFORMS_PROPERTY_PREFIX + "cache-combined-resources"; // global but could possibly be per document
     private static final boolean CACHE_COMBINED_RESOURCES_DEFAULT = false;
 
+    private static final String CALL_XPL_PURE_PIPELINES_PROPERTY = XFORMS_PROPERTY_PREFIX + "call-xpl.pure-pipelines"; // global
+    private static final String CALL_XPL_PURE_PIPELINES_DEFAULT = "";
+
+    private static final String CALL_XPL_READ_ONLY_OUTPUTS_PROPERTY = XFORMS_PROPERTY_PREFIX + "call-xpl.read-only-outputs"; // global
+    private static final boolean CALL_XPL_READ_ONLY_OUTPUTS_DEFAULT = false;
+
+    private static final String STATIC_STATE_STORE_DIRECTORY_PROPERTY = XFORMS_PROPERTY_PREFIX + "static-state.store.directory"; // global
+    private static final String STATIC_STATE_STORE_DIRECTORY_DEFAULT = "";
+
+    private static final String RECORD_REQUESTS_DIRECTORY_PROPERTY = XFORMS_PROPERTY_PREFIX + "record-requests.directory"; // global
+    private static final String RECORD_REQUESTS_DIRECTORY_DEFAULT = "";
+
     private static final String TEST_AJAX_PROPERTY = XFORMS_PROPERTY_PREFIX + "test.ajax";
     private static final boolean TEST_AJAX_DEFAULT = false;
 
@@ -288,6 +300,26 @@ public class XFormsProperties {
     private static final String DEBUG_LOGGING_PROPERTY = XFORMS_PROPERTY_PREFIX + "logging.debug";
     private static final String ERROR_LOGGING_PROPERTY = XFORMS_PROPERTY_PREFIX + "logging.error";
 
+    // Handles for global properties, which are read for each request
+    private static final PropertyHandle<String> PASSWORD = PropertyHandle.stringProperty(PASSWORD_PROPERTY, null);
+    private static final PropertyHandle<Set<String>> DEBUG_LOGGING = PropertyHandle.nmtokensProperty(DEBUG_LOGGING_PROPERTY, Collections.<String>emptySet());
+    private static final PropertyHandle<Set<String>> ERROR_LOGGING = PropertyHandle.nmtokensProperty(ERROR_LOGGING_PROPERTY, Collections.<String>emptySet());
+    private static final PropertyHandle<Boolean> CACHE_DOCUMENT = PropertyHandle.booleanProperty(CACHE_DOCUMENT_PROPERTY, CACHE_DOCUMENT_DEFAULT);
+    private static final PropertyHandle<Integer> STORE_APPLICATION_SIZE = PropertyHandle.integerProperty(STORE_APPLICATION_SIZE_PROPERTY, STORE_APPLICATION_SIZE_DEFAULT);
+    private static final PropertyHandle<Integer> CACHE_APPLICATION_SIZE = PropertyHandle.integerProperty(CACHE_APPLICATION_SIZE_PROPERTY, CACHE_APPLICATION_SIZE_DEFAULT);
+    private static final PropertyHandle<Boolean> GZIP_STATE = PropertyHandle.booleanProperty(GZIP_STATE_PROPERTY, GZIP_STATE_DEFAULT);
+    private static final PropertyHandle<Boolean> TEST_AJAX = PropertyHandle.booleanProperty(TEST_AJAX_PROPERTY, TEST_AJAX_DEFAULT);
+    private static final PropertyHandle<String> STORE_APPLICATION_USERNAME = PropertyHandle.stringProperty(STORE_APPLICATION_USERNAME_PROPERTY, STORE_APPLICATION_USERNAME_DEFAULT);
+    private static final PropertyHandle<String> STORE_APPLICATION_PASSWORD = PropertyHandle.stringProperty(STORE_APPLICATION_PASSWORD_PROPERTY, STORE_APPLICATION_PASSWORD_DEFAULT);
+    private static final PropertyHandle<String> STORE_APPLICATION_URI = PropertyHandle.stringOrURIProperty(STORE_APPLICATION_URI_PROPERTY, STORE_APPLICATION_URI_DEFAULT);
+    private static final PropertyHandle<String> STORE_APPLICATION_COLLECTION = PropertyHandle.stringProperty(STORE_APPLICATION_COLLECTION_PROPERTY, STORE_APPLICATION_COLLECTION_DEFAULT);
+    private static final PropertyHandle<Boolean> HOST_LANGUAGE_AVTS = PropertyHandle.booleanProperty(HOST_LANGUAGE_AVTS_PROPERTY, HOST_LANGUAGE_AVTS_DEFAULT);
+    private static final PropertyHandle<Boolean> CACHE_COMBINED_RESOURCES = PropertyHandle.booleanProperty(CACHE_COMBINED_RESOURCES_PROPERTY, CACHE_COMBINED_RESOURCES_DEFAULT);
+    private static final PropertyHandle<String> CALL_XPL_PURE_PIPELINES = PropertyHandle.stringProperty(CALL_XPL_PURE_PIPELINES_PROPERTY, CALL_XPL_PURE_PIPELINES_DEFAULT);
+    private static final PropertyHandle<Boolean> CALL_XPL_READ_ONLY_OUTPUTS = PropertyHandle.booleanProperty(CALL_XPL_READ_ONLY_OUTPUTS_PROPERTY, CALL_XPL_READ_ONLY_OUTPUTS_DEFAULT);
+    private static final PropertyHandle<String> STATIC_STATE_STORE_DIRECTORY = PropertyHandle.stringProperty(STATIC_STATE_STORE_DIRECTORY_PROPERTY, STATIC_STATE_STORE_DIRECTORY_DEFAULT);
+    private static final PropertyHandle<String> RECORD_REQUESTS_DIRECTORY = PropertyHandle.stringProperty(RECORD_REQUESTS_DIRECTORY_PROPERTY, RECORD_REQUESTS_DIRECTORY_DEFAULT);
+
     // == Global properties ============================================================================================
     /**
      * Return a PropertyDefinition given a property name.
@@ -316,72 +348,104 @@ public class XFormsProperties {
     }
 
     public static String getXFormsPassword() {
-        return Properties.instance().getPropertySet().getString(PASSWORD_PROPERTY);
+        return PASSWORD.get();
     }
 
     public static Set<String> getDebugLogging() {
-        final Set<String> result = Properties.instance().getPropertySet().getNmtokens(DEBUG_LOGGING_PROPERTY);
-        return (result != null) ? result : Collections.<String>emptySet();
+        return DEBUG_LOGGING.get();
     }
 
     public static Set<String> getErrorLogging() {
-        final Set<String> result = Properties.instance().getPropertySet().getNmtokens(ERROR_LOGGING_PROPERTY);
-        return (result != null) ? result : Collections.<String>emptySet();
+        return ERROR_LOGGING.get();
     }
 
     public static boolean isCacheDocument() {
-        return Properties.instance().getPropertySet().getBoolean
-                (CACHE_DOCUMENT_PROPERTY, CACHE_DOCUMENT_DEFAULT);
+        return CACHE_DOCUMENT.get();
     }
 
     public static int getApplicationStateStoreSize() {
-        return Properties.instance().getPropertySet().getInteger
-                (STORE_APPLICATION_SIZE_PROPERTY, STORE_APPLICATION_SIZE_DEFAULT);
+        return STORE_APPLICATION_SIZE.get();
     }
 
     public static int getApplicationCacheSize() {
-        return Properties.instance().getPropertySet().getInteger
-                (CACHE_APPLICATION_SIZE_PROPERTY, CACHE_APPLICATION_SIZE_DEFAULT);
+        return CACHE_APPLICATION_SIZE.get();
     }
 
     public static boolean isGZIPState() {
-        return Properties.instance().getPropertySet().getBoolean
-                (GZIP_STATE_PROPERTY, GZIP_STATE_DEFAULT);
+        return GZIP_STATE.get();
     }
 
     public static boolean isAjaxTest() {
-        return Properties.instance().getPropertySet().getBoolean
-                (TEST_AJAX_PROPERTY, TEST_AJAX_DEFAULT);
+        return TEST_AJAX.get();
     }
 
     public static String getStoreUsername() {
-        return Properties.instance().getPropertySet().getString
-                (STORE_APPLICATION_USERNAME_PROPERTY, STORE_APPLICATION_USERNAME_DEFAULT);
+        return STORE_APPLICATION_USERNAME.get();
     }
 
     public static String getStorePassword() {
-        return Properties.instance().getPropertySet().getString
-                (STORE_APPLICATION_PASSWORD_PROPERTY, STORE_APPLICATION_PASSWORD_DEFAULT);
+        return STORE_APPLICATION_PASSWORD.get();
     }
 
     public static String getStoreURI() {
-        return Properties.instance().getPropertySet().getStringOrURIAsString
-                (STORE_APPLICATION_URI_PROPERTY, STORE_APPLICATION_URI_DEFAULT);
+        return STORE_APPLICATION_URI.get();
     }
 
     public static String getStoreCollection() {
-        return Properties.instance().getPropertySet().getString
-                (STORE_APPLICATION_COLLECTION_PROPERTY, STORE_APPLICATION_COLLECTION_DEFAULT);
+        return STORE_APPLICATION_COLLECTION.get();
     }
 
     public static boolean isHostLanguageAVTs() {
-        return Properties.instance().getPropertySet().getBoolean
-                (HOST_LANGUAGE_AVTS_PROPERTY, HOST_LANGUAGE_AVTS_DEFAULT);
+        return HOST_LANGUAGE_AVTS.get();
     }
 
     public static boolean isCacheCombinedResources() {
-        return Properties.instance().getPropertySet().getBoolean
-                (CACHE_COMBINED_RESOURCES_PROPERTY, CACHE_COMBINED_RESOURCES_DEFAULT);
+        return CACHE_COMBINED_RESOURCES.get();
+    }
+
+    /**
+     * Whether the outputs of the given pipeline only depend on its inputs, so that xxforms:call-xpl() can reuse them.
+     *
+     * Such pipelines must be self-contained: the outputs are reused until the XPL file itself changes, even if other
+     * resources used by the pipeline change.
+     *
+     * @param xplURL    absolute XPL URL
+     * @return          true iif the URL is listed in the space-separated list of pure pipelines
+     */
+    public static boolean isCallXPLPurePipeline(String xplURL) {
+        final String purePipelines = CALL_XPL_PURE_PIPELINES.get();
+        return purePipelines.length() > 0 && Arrays.asList(StringUtils.split(purePipelines)).contains(xplURL);
+    }
+
+    /**
+     * Whether xxforms:call-xpl() returns read-only TinyTree documents, which are faster to build, instead of mutable
+     * dom4j documents.
+     */
+    public static boolean isCallXPLReadOnlyOutputs() {
+        return CALL_XPL_READ_ONLY_OUTPUTS.get();
+    }
+
+    /**
+     * Directory where analyzed static states are persisted so that they can be reloaded after a restart.
+     *
+     * @return  directory path, or null if static states are not persisted
+     */
+    public static String getStaticStateStoreDirectory() {
+        final String directory = STATIC_STATE_STORE_DIRECTORY.get();
+        return (directory == null || directory.trim().length() == 0) ? null : directory.trim();
+    }
+
+    /**
+     * Directory where incoming Ajax requests are recorded so that they can be replayed later.
+     *
+     * Event values are recorded unredacted, including passwords and other personal data, so this must not be enabled
+     * on systems handling real user data unless the directory is protected accordingly.
+     *
+     * @return  directory path, or null if requests are not recorded
+     */
+    public static String getRecordRequestsDirectory() {
+        final String directory = RECORD_REQUESTS_DIRECTORY.get();
+        return (directory == null || directory.trim().length() == 0) ? null : directory.trim();
     }
 
     // == XForms document properties ===================================================================================
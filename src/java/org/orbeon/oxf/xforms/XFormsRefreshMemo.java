@@ -0,0 +1,303 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms;
+
+import org.orbeon.oxf.xforms.xbl.XBLContainer;
+import org.orbeon.saxon.om.Item;
+import org.orbeon.saxon.om.NamespaceConstant;
+import org.orbeon.saxon.om.NodeInfo;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Memo of XPath string results evaluated by controls during a refresh.
+ *
+ * Instance data doesn't change while control bindings and values are evaluated, so an expression which only calls
+ * functions marked as pure in XFormsFunctionLibrary and doesn't reference variables returns the same result for the
+ * same context node, model and XBL container. This is typically the case for labels, hints and AVTs repeated in every
+ * iteration of a repeat, or pointing to the same resource node.
+ *
+ * A memo is only valid for the duration of a refresh and must be discarded before any event is dispatched.
+ */
+public class XFormsRefreshMemo {
+
+    // Results can be null, which means that the value could not be computed
+    private static final String NULL_RESULT = new String("");
+
+    private static final Pattern FUNCTION_CALL_PATTERN = Pattern.compile("(?<![\\w.\\-])(?:([\\w.\\-]+):)?([\\w.\\-]+)\\s*\\(");
+
+    // Names followed by an opening parenthesis which are not function calls
+    private static final Set<String> NON_FUNCTION_NAMES = new HashSet<String>(Arrays.asList(
+            "if", "node", "text", "comment", "processing-instruction", "element", "attribute", "document-node",
+            "schema-element", "schema-attribute", "item", "empty-sequence", "and", "or", "div", "mod", "eq", "ne", "lt",
+            "le", "gt", "ge", "is", "to", "union", "intersect", "except", "in", "return", "then", "else", "satisfies", "of", "as"));
+
+    private final Map<MemoKey, String> results = new HashMap<MemoKey, String>();
+    // Analysis results by expression
+    private final Map<AnalysisKey, Boolean> memoizableExpressions = new HashMap<AnalysisKey, Boolean>();
+
+    private int hitCount;
+    private int missCount;
+
+    /**
+     * Return a memoized result.
+     *
+     * @param container         container of the control
+     * @param model             in-scope model
+     * @param contextItem       context item
+     * @param xpathString       XPath expression or AVT
+     * @param isAvt             whether the string is an AVT
+     * @param prefixToURIMap    namespace mappings
+     * @return                  result, null if not memoized
+     */
+    public String get(XBLContainer container, XFormsModel model, Item contextItem, String xpathString, boolean isAvt, Map<String, String> prefixToURIMap) {
+        if (!(contextItem instanceof NodeInfo))
+            return null;
+
+        final String result = results.get(new MemoKey(container, model, (NodeInfo) contextItem, xpathString, isAvt, prefixToURIMap));
+        if (result != null)
+            hitCount++;
+        return result;
+    }
+
+    /**
+     * Whether the value returned by get() stands for a null result.
+     *
+     * @param result    result returned by get()
+     * @return          true iif the result stands for null
+     */
+    public static boolean isNullResult(String result) {
+        return result == NULL_RESULT;
+    }
+
+    /**
+     * Memoize a result if the expression allows it.
+     *
+     * @param container         container of the control
+     * @param model             in-scope model
+     * @param contextItem       context item
+     * @param xpathString       XPath expression or AVT
+     * @param isAvt             whether the string is an AVT
+     * @param prefixToURIMap    namespace mappings
+     * @param result            result of the evaluation, possibly null
+     */
+    public void put(XBLContainer container, XFormsModel model, Item contextItem, String xpathString, boolean isAvt, Map<String, String> prefixToURIMap, String result) {
+        if (!(contextItem instanceof NodeInfo) || !isMemoizable(xpathString, isAvt, prefixToURIMap))
+            return;
+
+        missCount++;
+        results.put(new MemoKey(container, model, (NodeInfo) contextItem, xpathString, isAvt, prefixToURIMap), result != null ? result : NULL_RESULT);
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Whether the result of an expression only depends on its context node, in-scope model and XBL container during a
+     * refresh.
+     *
+     * The analysis is textual and conservative: any variable reference, or any call to a function not known to be pure,
+     * makes the expression not memoizable.
+     *
+     * @param xpathString       XPath expression or AVT
+     * @param isAvt             whether the string is an AVT
+     * @param prefixToURIMap    namespace mappings
+     * @return                  true iif the expression can be memoized
+     */
+    public boolean isMemoizable(String xpathString, boolean isAvt, Map<String, String> prefixToURIMap) {
+        final AnalysisKey key = new AnalysisKey(xpathString, isAvt, prefixToURIMap);
+        Boolean memoizable = memoizableExpressions.get(key);
+        if (memoizable == null) {
+            memoizable = analyze(isAvt ? extractAvtExpressions(xpathString) : xpathString, prefixToURIMap);
+            memoizableExpressions.put(key, memoizable);
+        }
+        return memoizable;
+    }
+
+    private static boolean analyze(String expressions, Map<String, String> prefixToURIMap) {
+        if (expressions == null)
+            return false;
+
+        final String code = stripLiteralsAndComments(expressions);
+        if (code == null || code.indexOf('$') != -1)
+            return false;
+
+        final Matcher matcher = FUNCTION_CALL_PATTERN.matcher(code);
+        while (matcher.find()) {
+            final String prefix = matcher.group(1);
+            final String local = matcher.group(2);
+
+            final String uri;
+            if (prefix == null) {
+                if (NON_FUNCTION_NAMES.contains(local))
+                    continue;
+                uri = NamespaceConstant.FN;
+            } else {
+                uri = prefixToURIMap.get(prefix);
+                if (uri == null)
+                    return false;
+            }
+
+            if (!XFormsFunctionLibrary.isRefreshPure(uri, local))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return the expressions of an AVT separated by spaces, or null if the AVT is malformed.
+     */
+    private static String extractAvtExpressions(String avt) {
+        final StringBuilder sb = new StringBuilder();
+        final int length = avt.length();
+        int i = 0;
+        while (i < length) {
+            final char c = avt.charAt(i);
+            if (c == '{') {
+                if (i + 1 < length && avt.charAt(i + 1) == '{') {
+                    // Escaped brace
+                    i += 2;
+                    continue;
+                }
+                // Find the end of the expression, skipping string literals
+                int j = i + 1;
+                char quote = 0;
+                while (j < length) {
+                    final char d = avt.charAt(j);
+                    if (quote != 0) {
+                        if (d == quote)
+                            quote = 0;
+                    } else if (d == '\'' || d == '"') {
+                        quote = d;
+                    } else if (d == '}') {
+                        break;
+                    }
+                    j++;
+                }
+                if (j == length)
+                    return null;
+                sb.append(avt, i + 1, j);
+                sb.append(' ');
+                i = j + 1;
+            } else {
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replace string literals and comments with spaces, or return null if they are not terminated.
+     */
+    private static String stripLiteralsAndComments(String expression) {
+        final StringBuilder sb = new StringBuilder(expression.length());
+        final int length = expression.length();
+        int i = 0;
+        while (i < length) {
+            final char c = expression.charAt(i);
+            if (c == '\'' || c == '"') {
+                // Doubled quotes within the literal just start a new literal
+                final int end = expression.indexOf(c, i + 1);
+                if (end == -1)
+                    return null;
+                sb.append(' ');
+                i = end + 1;
+            } else if (c == '(' && i + 1 < length && expression.charAt(i + 1) == ':') {
+                // Comments can be nested
+                int depth = 1;
+                int j = i + 2;
+                while (j < length && depth > 0) {
+                    if (expression.startsWith("(:", j)) {
+                        depth++;
+                        j += 2;
+                    } else if (expression.startsWith(":)", j)) {
+                        depth--;
+                        j += 2;
+                    } else {
+                        j++;
+                    }
+                }
+                if (depth > 0)
+                    return null;
+                sb.append(' ');
+                i = j;
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static class AnalysisKey {
+
+        private final String xpathString;
+        private final boolean isAvt;
+        private final Map<String, String> prefixToURIMap;
+
+        private AnalysisKey(String xpathString, boolean isAvt, Map<String, String> prefixToURIMap) {
+            this.xpathString = xpathString;
+            this.isAvt = isAvt;
+            this.prefixToURIMap = prefixToURIMap;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof AnalysisKey))
+                return false;
+            final AnalysisKey other = (AnalysisKey) o;
+            return isAvt == other.isAvt && xpathString.equals(other.xpathString) && prefixToURIMap.equals(other.prefixToURIMap);
+        }
+
+        @Override
+        public int hashCode() {
+            return xpathString.hashCode() * 31 + (isAvt ? 1 : 0);
+        }
+    }
+
+    private static class MemoKey extends AnalysisKey {
+
+        private final XBLContainer container;
+        private final XFormsModel model;
+        private final NodeInfo contextNode;
+
+        private MemoKey(XBLContainer container, XFormsModel model, NodeInfo contextNode, String xpathString, boolean isAvt, Map<String, String> prefixToURIMap) {
+            super(xpathString, isAvt, prefixToURIMap);
+            this.container = container;
+            this.model = model;
+            this.contextNode = contextNode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MemoKey))
+                return false;
+            final MemoKey other = (MemoKey) o;
+            // NodeInfo implements equals() as isSameNodeInfo()
+            return container == other.container && model == other.model && contextNode.equals(other.contextNode) && super.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return super.hashCode() * 31 + contextNode.hashCode();
+        }
+    }
+}
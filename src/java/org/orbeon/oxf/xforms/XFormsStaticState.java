@@ -23,6 +23,7 @@ import org.orbeon.oxf.pipeline.api.PipelineContext;
 import org.orbeon.oxf.properties.Properties;
 import org.orbeon.oxf.properties.PropertySet;
 import org.orbeon.oxf.util.*;
+import org.orbeon.oxf.xforms.action.CompiledAction;
 import org.orbeon.oxf.xforms.action.XFormsActions;
 import org.orbeon.oxf.xforms.analysis.ControlAnalysisFactory;
 import org.orbeon.oxf.xforms.analysis.IdGenerator;
@@ -36,6 +37,7 @@ import org.orbeon.oxf.xforms.event.XFormsEventHandlerImpl;
 import org.orbeon.oxf.xforms.event.XFormsEvents;
 import org.orbeon.oxf.xforms.processor.XFormsServer;
 import org.orbeon.oxf.xforms.xbl.XBLBindings;
+import org.orbeon.oxf.xforms.xbl.XBLComponentRegistry;
 import org.orbeon.oxf.xml.SAXStore;
 import org.orbeon.oxf.xml.TransformerUtils;
 import org.orbeon.oxf.xml.XMLConstants;
@@ -55,6 +57,7 @@ import javax.xml.transform.Transformer;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.TransformerHandler;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class encapsulates containing document static state information.
@@ -112,6 +115,7 @@ public class XFormsStaticState {
     private Map<String, List<XFormsEventHandler>> eventHandlersMap;         // Map<String observerPrefixedId, List<XFormsEventHandler> eventHandler>: for all observers with handlers
     private Map<String, String> eventHandlerAncestorsMap;                   // Map<String actionPrefixId, String ancestorPrefixedId>
     private List<XFormsEventHandler> keyHandlers;
+    private final Map<Element, CompiledAction> compiledActions = new ConcurrentHashMap<Element, CompiledAction>(); // Map<Element actionElement, CompiledAction>
 
     // Controls
     private Map<String, Map<String, ControlAnalysis>> controlTypes;         // Map<String type, Map<String prefixedId, ControlAnalysis>>
@@ -217,6 +221,7 @@ public class XFormsStaticState {
                             XFormsAnnotatorContentHandler.Metadata metadata,
                             SAXStore xhtmlDocument, String encodedStaticState) {
 
+        final long startTime = System.currentTimeMillis();
         indentedLogger.startHandleOperation("", "initializing static state");
 
         final Element staticStateElement = staticStateDocument.getRootElement();
@@ -344,6 +349,7 @@ public class XFormsStaticState {
         }
 
         indentedLogger.endHandleOperation();
+        XBLComponentRegistry.instance().addStaticStateConstruction(baseURI, System.currentTimeMillis() - startTime);
     }
 
     private void extractProperties(Element staticStateElement, List<Element> topLevelModelsElements) {
@@ -769,6 +775,30 @@ public class XFormsStaticState {
         return eventHandlersMap.get(observerPrefixedId);
     }
 
+    /**
+     * Return the compiled action for the given action element. Actions of event handlers are compiled when the handlers
+     * are registered, other actions are compiled upon first use.
+     *
+     * @param actionElement action element
+     * @return              compiled action
+     */
+    public CompiledAction getCompiledAction(Element actionElement) {
+        final CompiledAction compiledAction = compiledActions.get(actionElement);
+        return (compiledAction != null) ? compiledAction : compileAction(actionElement);
+    }
+
+    private CompiledAction compileAction(Element actionElement) {
+        final CompiledAction compiledAction = new CompiledAction(actionElement, Collections.<Element>emptyList());
+        indexCompiledAction(compiledAction);
+        return compiledAction;
+    }
+
+    private void indexCompiledAction(CompiledAction compiledAction) {
+        compiledActions.put(compiledAction.getElement(), compiledAction);
+        for (final CompiledAction child: compiledAction.getChildren())
+            indexCompiledAction(child);
+    }
+
     public boolean observerHasHandlerForEvent(String observerPrefixedId, String eventName) {
         final List<XFormsEventHandler> handlers = getEventHandlers(observerPrefixedId);
         if (handlers == null || handlers.isEmpty())
@@ -1484,6 +1514,9 @@ public class XFormsStaticState {
                 });
             }
 
+            // Compile the actions of the handler
+            compileAction(newEventHandlerImpl.getEventHandlerElement());
+
             // Remember all event names
             if (newEventHandlerImpl.isAllEvents()) {
                 eventNames.add(XFormsConstants.XXFORMS_ALL_EVENTS);
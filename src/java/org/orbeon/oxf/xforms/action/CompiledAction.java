@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.action;
+
+import org.dom4j.Element;
+import org.dom4j.QName;
+import org.orbeon.oxf.common.ValidationException;
+import org.orbeon.oxf.xforms.XFormsConstants;
+import org.orbeon.oxf.xforms.XFormsStaticState;
+import org.orbeon.oxf.xforms.XFormsUtils;
+import org.orbeon.oxf.xforms.action.actions.XFormsActionAction;
+import org.orbeon.oxf.xforms.xbl.XBLBindings;
+import org.orbeon.oxf.xml.XMLUtils;
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
+import org.orbeon.oxf.xml.dom4j.ExtendedLocationData;
+import org.orbeon.oxf.xml.dom4j.LocationData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable representation of an action element and its nested actions, compiled once per static state.
+ *
+ * The action implementation, iteration and condition expressions, binding attributes and the variables scoped before
+ * each nested action are resolved at compile time, so that XFormsActionInterpreter doesn't have to read them from the
+ * action element upon each execution. Action scopes and namespace mappings, which depend on the prefix of the XBL
+ * container, are resolved on first use and cached per prefix.
+ */
+public class CompiledAction {
+
+    private final Element element;
+    private final String staticId;
+    private final String actionNamespaceURI;
+    private final String actionName;
+    private final XFormsAction action;
+
+    // Conditions, with their boolean() wrapper for evaluation
+    private final String ifCondition;
+    private final String ifExpression;
+    private final String whileCondition;
+    private final String whileExpression;
+    private final String iterate;
+
+    // Binding attributes, used when iterating
+    private final String contextAttribute;
+    private final String modelAttribute;
+    private final String refAttribute;
+    private final String nodesetAttribute;
+    private final String bindAttribute;
+
+    // Variables in scope before this action within the parent xforms:action, and nested actions of xforms:action
+    private final List<Element> precedingVariables;
+    private final List<CompiledAction> children;
+
+    private final Map<String, XBLBindings.Scope> scopesByPrefix = new ConcurrentHashMap<String, XBLBindings.Scope>();
+    private final Map<String, Map<String, String>> namespaceMappingsByPrefix = new ConcurrentHashMap<String, Map<String, String>>();
+
+    /**
+     * Compile an action element and its nested actions.
+     *
+     * @param element               action element
+     * @param precedingVariables    variables preceding the action within its parent xforms:action
+     */
+    public CompiledAction(Element element, List<Element> precedingVariables) {
+        this.element = element;
+        this.staticId = XFormsUtils.getElementStaticId(element);
+        this.actionNamespaceURI = element.getNamespaceURI();
+        this.actionName = element.getName();
+        // NOTE: This is null for an invalid action, which is reported only if the action runs
+        this.action = XFormsActions.getAction(actionNamespaceURI, actionName);
+
+        this.ifCondition = getAttributeValue(element, "if", XFormsConstants.EXFORMS_IF_ATTRIBUTE_QNAME);
+        this.ifExpression = (ifCondition != null) ? "boolean(" + ifCondition + ")" : null;
+        this.whileCondition = getAttributeValue(element, "while", XFormsConstants.EXFORMS_WHILE_ATTRIBUTE_QNAME);
+        this.whileExpression = (whileCondition != null) ? "boolean(" + whileCondition + ")" : null;
+        {
+            final String xxformsIterateAttribute = element.attributeValue(XFormsConstants.XXFORMS_ITERATE_ATTRIBUTE_QNAME);
+            this.iterate = (xxformsIterateAttribute != null) ? xxformsIterateAttribute : element.attributeValue(XFormsConstants.EXFORMS_ITERATE_ATTRIBUTE_QNAME);
+        }
+
+        this.contextAttribute = element.attributeValue("context");
+        this.modelAttribute = element.attributeValue("model");
+        this.refAttribute = element.attributeValue("ref");
+        this.nodesetAttribute = element.attributeValue("nodeset");
+        this.bindAttribute = element.attributeValue("bind");
+
+        this.precedingVariables = precedingVariables;
+
+        if (action instanceof XFormsActionAction) {
+            // Compile nested actions, remembering the variables which precede each of them
+            final List<CompiledAction> children = new ArrayList<CompiledAction>();
+            List<Element> currentVariables = null;
+            for (final Element currentElement: Dom4jUtils.elements(element)) {
+                if (currentElement.getName().equals(XFormsConstants.XXFORMS_VARIABLE_NAME)) {
+                    if (currentVariables == null)
+                        currentVariables = new ArrayList<Element>();
+                    currentVariables.add(currentElement);
+                } else {
+                    // NOTE: We compile children actions, even if they happen to have ev:observer or ev:target attributes
+                    children.add(new CompiledAction(currentElement, (currentVariables == null) ? Collections.<Element>emptyList() : Collections.unmodifiableList(currentVariables)));
+                    currentVariables = null;
+                }
+            }
+            this.children = Collections.unmodifiableList(children);
+        } else {
+            this.children = Collections.emptyList();
+        }
+    }
+
+    private static String getAttributeValue(Element element, String name, QName exformsQName) {
+        final String value = element.attributeValue(name);
+        return (value != null) ? value : element.attributeValue(exformsQName);
+    }
+
+    public Element getElement() {
+        return element;
+    }
+
+    public String getStaticId() {
+        return staticId;
+    }
+
+    public String getActionName() {
+        return actionName;
+    }
+
+    /**
+     * Return the action implementation.
+     *
+     * @return  action implementation
+     * @throws ValidationException if the element is not a known action
+     */
+    public XFormsAction getAction() {
+        if (action == null)
+            throw new ValidationException("Invalid action: " + XMLUtils.buildExplodedQName(actionNamespaceURI, actionName),
+                    new ExtendedLocationData(getLocationData(), "running XForms action", element,
+                            "action name", XMLUtils.buildExplodedQName(actionNamespaceURI, actionName)));
+        return action;
+    }
+
+    public String getIfCondition() {
+        return ifCondition;
+    }
+
+    public String getIfExpression() {
+        return ifExpression;
+    }
+
+    public String getWhileCondition() {
+        return whileCondition;
+    }
+
+    public String getWhileExpression() {
+        return whileExpression;
+    }
+
+    public String getIterate() {
+        return iterate;
+    }
+
+    public String getContextAttribute() {
+        return contextAttribute;
+    }
+
+    public String getModelAttribute() {
+        return modelAttribute;
+    }
+
+    public String getRefAttribute() {
+        return refAttribute;
+    }
+
+    public String getNodesetAttribute() {
+        return nodesetAttribute;
+    }
+
+    public String getBindAttribute() {
+        return bindAttribute;
+    }
+
+    public List<Element> getPrecedingVariables() {
+        return precedingVariables;
+    }
+
+    public List<CompiledAction> getChildren() {
+        return children;
+    }
+
+    public LocationData getLocationData() {
+        return (LocationData) element.getData();
+    }
+
+    /**
+     * Return the resolution scope of the action within an XBL container.
+     *
+     * @param staticState   static state
+     * @param prefix        full prefix of the XBL container
+     * @return              scope
+     */
+    public XBLBindings.Scope getScope(XFormsStaticState staticState, String prefix) {
+        XBLBindings.Scope scope = scopesByPrefix.get(prefix);
+        if (scope == null) {
+            scope = staticState.getXBLBindings().getResolutionScopeByPrefixedId(prefix + staticId);
+            if (scope != null)
+                scopesByPrefix.put(prefix, scope);
+        }
+        return scope;
+    }
+
+    /**
+     * Return the namespace mappings of the action element within an XBL container.
+     *
+     * @param staticState   static state
+     * @param prefix        full prefix of the XBL container
+     * @return              Map<String prefix, String uri>
+     */
+    public Map<String, String> getNamespaceMappings(XFormsStaticState staticState, String prefix) {
+        Map<String, String> namespaceMappings = namespaceMappingsByPrefix.get(prefix);
+        if (namespaceMappings == null) {
+            namespaceMappings = staticState.getNamespaceMappings(prefix, element);
+            namespaceMappingsByPrefix.put(prefix, namespaceMappings);
+        }
+        return namespaceMappings;
+    }
+}
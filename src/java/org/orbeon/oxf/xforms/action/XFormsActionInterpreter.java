@@ -45,6 +45,7 @@ public class XFormsActionInterpreter {
 
     private final XBLContainer container;
     private final XFormsContainingDocument containingDocument;
+    private final XFormsStaticState staticState;
 
     private final IndentedLogger indentedLogger;
 
@@ -58,6 +59,7 @@ public class XFormsActionInterpreter {
 
         this.container = container;
         this.containingDocument = container.getContainingDocument();
+        this.staticState = containingDocument.getStaticState();
 
         this.indentedLogger = containingDocument.getIndentedLogger(XFormsActions.LOGGING_CATEGORY);
 
@@ -152,7 +154,21 @@ public class XFormsActionInterpreter {
      * @return              Map<String prefix, String uri>
      */
     public Map<String, String> getNamespaceMappings(Element actionElement) {
-        return container.getNamespaceMappings(actionElement);
+        return getNamespaceMappings(getCompiledAction(actionElement));
+    }
+
+    private Map<String, String> getNamespaceMappings(CompiledAction compiledAction) {
+        return compiledAction.getNamespaceMappings(staticState, container.getFullPrefix());
+    }
+
+    /**
+     * Return the compiled action for the given action element.
+     *
+     * @param actionElement action element
+     * @return              compiled action
+     */
+    public CompiledAction getCompiledAction(Element actionElement) {
+        return staticState.getCompiledAction(actionElement);
     }
 
     /**
@@ -164,69 +180,42 @@ public class XFormsActionInterpreter {
      * @param actionElement         Element specifying the action to execute
      */
     public void runAction(final PropertyContext propertyContext, XFormsEvent event, XFormsEventObserver eventObserver, Element actionElement) {
+        runAction(propertyContext, event, eventObserver, getCompiledAction(actionElement));
+    }
 
-        // Check that we understand the action element
-        final String actionNamespaceURI = actionElement.getNamespaceURI();
-        final String actionName = actionElement.getName();
-        if (!XFormsActions.isActionName(actionNamespaceURI, actionName)) {
-            throw new ValidationException("Invalid action: " + XMLUtils.buildExplodedQName(actionNamespaceURI, actionName),
-                    new ExtendedLocationData((LocationData) actionElement.getData(), "running XForms action", actionElement,
-                            "action name", XMLUtils.buildExplodedQName(actionNamespaceURI, actionName)));
-        }
+    /**
+     * Execute a compiled XForms action.
+     *
+     * @param propertyContext       current context
+     * @param event                 event causing the action
+     * @param eventObserver         event observer
+     * @param compiledAction        action to execute
+     */
+    public void runAction(final PropertyContext propertyContext, XFormsEvent event, XFormsEventObserver eventObserver, CompiledAction compiledAction) {
 
+        final Element actionElement = compiledAction.getElement();
         try {
-            // Get action scope
-            final XBLBindings.Scope actionScope = getActionScope(actionElement);
-
-            // Extract conditional action (@if / @exf:if)
-            final String ifConditionAttribute;
-            {
-                final String ifAttribute = actionElement.attributeValue("if");
-                if (ifAttribute != null)
-                    ifConditionAttribute = ifAttribute;
-                else
-                    ifConditionAttribute = actionElement.attributeValue(XFormsConstants.EXFORMS_IF_ATTRIBUTE_QNAME);
-            }
-
-            // Extract iterated action (@while / @exf:while)
-            final String whileIterationAttribute;
-            {
-                final String whileAttribute = actionElement.attributeValue("while");
-                if (whileAttribute != null)
-                    whileIterationAttribute = whileAttribute;
-                else
-                    whileIterationAttribute = actionElement.attributeValue(XFormsConstants.EXFORMS_WHILE_ATTRIBUTE_QNAME);
-            }
+            // Check that we understand the action element
+            compiledAction.getAction();
 
-            // Extract iterated action (@xxforms:iterate / @exf:iterate)
-            final String iterateIterationAttribute;
-            {
-                final String xxformsIterateAttribute = actionElement.attributeValue(XFormsConstants.XXFORMS_ITERATE_ATTRIBUTE_QNAME);
-                if (xxformsIterateAttribute != null)
-                    iterateIterationAttribute = xxformsIterateAttribute;
-                else
-                    iterateIterationAttribute = actionElement.attributeValue(XFormsConstants.EXFORMS_ITERATE_ATTRIBUTE_QNAME);
-            }
+            // Get action scope
+            final XBLBindings.Scope actionScope = getActionScope(compiledAction);
 
             // NOTE: At this point, the context has already been set to the current action element
+            final String iterateIterationAttribute = compiledAction.getIterate();
             if (iterateIterationAttribute != null) {
                 // Gotta iterate
 
                 // We have to restore the context to the in-scope evaluation context, then push @model/@context/@iterate
                 // NOTE: It's not 100% how @context and @xxforms:iterate should interact here
                 final XFormsContextStack.BindingContext actionBindingContext = actionBlockContextStack.popBinding();
-                final Map<String, String> namespaceContext = container.getNamespaceMappings(actionElement);
+                final Map<String, String> namespaceContext = getNamespaceMappings(compiledAction);
+                final String sourceEffectiveId = getSourceEffectiveId(compiledAction);
                 {
-                    final String contextAttribute = actionElement.attributeValue("context");
-                    final String modelAttribute = actionElement.attributeValue("model");
                     // TODO: function context
-                    actionBlockContextStack.pushBinding(propertyContext, null, contextAttribute, iterateIterationAttribute, modelAttribute, null, actionElement, namespaceContext, getSourceEffectiveId(actionElement), actionScope);
+                    actionBlockContextStack.pushBinding(propertyContext, null, compiledAction.getContextAttribute(), iterateIterationAttribute, compiledAction.getModelAttribute(), null, actionElement, namespaceContext, sourceEffectiveId, actionScope);
                 }
                 {
-                    final String refAttribute = actionElement.attributeValue("ref");
-                    final String nodesetAttribute = actionElement.attributeValue("nodeset");
-                    final String bindAttribute = actionElement.attributeValue("bind");
-
                     final int iterationCount = actionBlockContextStack.getCurrentNodeset().size();
                     for (int index = 1; index <= iterationCount; index++) {
 
@@ -235,11 +224,10 @@ public class XFormsActionInterpreter {
 
                         // Then we also need to push back binding attributes, excluding @context and @model
                         // TODO: function context
-                        actionBlockContextStack.pushBinding(propertyContext, refAttribute, null, nodesetAttribute, null, bindAttribute, actionElement, namespaceContext, getSourceEffectiveId(actionElement), actionScope);
+                        actionBlockContextStack.pushBinding(propertyContext, compiledAction.getRefAttribute(), null, compiledAction.getNodesetAttribute(), null, compiledAction.getBindAttribute(), actionElement, namespaceContext, sourceEffectiveId, actionScope);
 
                         final Item overriddenContextNodeInfo = actionBlockContextStack.getCurrentSingleItem();
-                        runSingleIteration(propertyContext, event, eventObserver, actionElement, actionNamespaceURI,
-                                actionName, actionScope, ifConditionAttribute, whileIterationAttribute, true, overriddenContextNodeInfo);
+                        runSingleIteration(propertyContext, event, eventObserver, compiledAction, actionScope, true, overriddenContextNodeInfo);
 
                         // Restore context
                         actionBlockContextStack.popBinding();
@@ -253,31 +241,34 @@ public class XFormsActionInterpreter {
             } else {
                 // Do a single iteration run (but this may repeat over the @while condition!)
 
-                runSingleIteration(propertyContext, event, eventObserver, actionElement, actionNamespaceURI,
-                        actionName, actionScope, ifConditionAttribute, whileIterationAttribute, actionBlockContextStack.hasOverriddenContext(), actionBlockContextStack.getContextItem());
+                runSingleIteration(propertyContext, event, eventObserver, compiledAction, actionScope,
+                        actionBlockContextStack.hasOverriddenContext(), actionBlockContextStack.getContextItem());
             }
         } catch (Exception e) {
-            throw ValidationException.wrapException(e, new ExtendedLocationData((LocationData) actionElement.getData(), "running XForms action", actionElement,
-                    "action name", XMLUtils.buildExplodedQName(actionNamespaceURI, actionName)));
+            throw ValidationException.wrapException(e, new ExtendedLocationData(compiledAction.getLocationData(), "running XForms action", actionElement,
+                    "action name", XMLUtils.buildExplodedQName(actionElement.getNamespaceURI(), compiledAction.getActionName())));
         }
     }
 
     private void runSingleIteration(PropertyContext propertyContext, XFormsEvent event, XFormsEventObserver eventObserver,
-                                    Element actionElement, String actionNamespaceURI, String actionName, XBLBindings.Scope actionScope,
-                                    String ifConditionAttribute, String whileIterationAttribute, boolean hasOverriddenContext, Item contextItem) {
+                                    CompiledAction compiledAction, XBLBindings.Scope actionScope, boolean hasOverriddenContext, Item contextItem) {
+
+        final Element actionElement = compiledAction.getElement();
+        final String actionName = compiledAction.getActionName();
+        final String whileIterationAttribute = compiledAction.getWhileCondition();
 
         // The context is now the overridden context
         int whileIteration = 1;
         while (true) {
             // Check if the conditionAttribute attribute exists and stop if false
-            if (ifConditionAttribute != null) {
-                boolean result = evaluateCondition(propertyContext, actionElement, actionName, ifConditionAttribute, "if", contextItem);
+            if (compiledAction.getIfCondition() != null) {
+                boolean result = evaluateCondition(propertyContext, actionElement, actionName, compiledAction.getIfCondition(), compiledAction.getIfExpression(), "if", contextItem);
                 if (!result)
                     break;
             }
             // Check if the iterationAttribute attribute exists and stop if false
             if (whileIterationAttribute != null) {
-                boolean result = evaluateCondition(propertyContext, actionElement, actionName, whileIterationAttribute, "while", contextItem);
+                boolean result = evaluateCondition(propertyContext, actionElement, actionName, whileIterationAttribute, compiledAction.getWhileExpression(), "while", contextItem);
                 if (!result)
                     break;
             }
@@ -290,9 +281,8 @@ public class XFormsActionInterpreter {
                     indentedLogger.startHandleOperation("interpreter", "executing", "action name", actionName, "while iteration", Integer.toString(whileIteration));
             }
 
-            // Get action and execute it
-            final XFormsAction xformsAction = XFormsActions.getAction(actionNamespaceURI, actionName);
-            xformsAction.execute(this, propertyContext, event, eventObserver, actionElement, actionScope, hasOverriddenContext, contextItem);
+            // Execute action
+            compiledAction.getAction().execute(this, propertyContext, event, eventObserver, actionElement, actionScope, hasOverriddenContext, contextItem);
 
             if (indentedLogger.isDebugEnabled()) {
                 if (whileIterationAttribute == null)
@@ -311,15 +301,15 @@ public class XFormsActionInterpreter {
             // In that case, in the second iteration, xforms:repeat must find an up-to-date nodeset
             // NOTE: There is still the possibility that parent bindings will be out of date. What should be done there?
             actionBlockContextStack.popBinding();
-            actionBlockContextStack.pushBinding(propertyContext, actionElement, getSourceEffectiveId(actionElement), actionScope);
+            actionBlockContextStack.pushBinding(propertyContext, actionElement, getSourceEffectiveId(compiledAction), actionScope);
 
             whileIteration++;
         }
     }
 
     private boolean evaluateCondition(PropertyContext propertyContext, Element actionElement,
-                                      String actionName, String conditionAttribute, String conditionType,
-                                      Item contextItem) {
+                                      String actionName, String conditionAttribute, String conditionExpression,
+                                      String conditionType, Item contextItem) {
 
         // Execute condition relative to the overridden context if it exists, or the in-scope context if not
         final List<Item> contextNodeset;
@@ -346,7 +336,7 @@ public class XFormsActionInterpreter {
         }
 
         final List conditionResult = evaluateExpression(propertyContext, actionElement,
-                contextNodeset, contextPosition, "boolean(" + conditionAttribute + ")");
+                contextNodeset, contextPosition, conditionExpression);
         if (!(Boolean) conditionResult.get(0)) {
             // Don't execute action
 
@@ -370,6 +360,10 @@ public class XFormsActionInterpreter {
         return XFormsUtils.getRelatedEffectiveId(outerActionElementEffectiveId, getActionStaticId(actionElement));
     }
 
+    private String getSourceEffectiveId(CompiledAction compiledAction) {
+        return XFormsUtils.getRelatedEffectiveId(outerActionElementEffectiveId, compiledAction.getStaticId());
+    }
+
     public String evaluateStringExpression(PropertyContext propertyContext, Element actionElement,
                                            List<Item> nodeset, int position, String xpathExpression) {
 
@@ -534,7 +528,11 @@ public class XFormsActionInterpreter {
     }
 
     public XBLBindings.Scope getActionScope(Element actionElement) {
-        return containingDocument.getStaticState().getXBLBindings().getResolutionScopeByPrefixedId(getActionPrefixedId(actionElement));
+        return getActionScope(getCompiledAction(actionElement));
+    }
+
+    public XBLBindings.Scope getActionScope(CompiledAction compiledAction) {
+        return compiledAction.getScope(staticState, container.getFullPrefix());
     }
 
     private XBLContainer findResolutionScopeContainer(Element actionElement) {
@@ -16,8 +16,8 @@ package org.orbeon.oxf.xforms.action.actions;
 import org.dom4j.Element;
 import org.orbeon.oxf.util.IndentedLogger;
 import org.orbeon.oxf.util.PropertyContext;
-import org.orbeon.oxf.xforms.XFormsConstants;
 import org.orbeon.oxf.xforms.XFormsContextStack;
+import org.orbeon.oxf.xforms.action.CompiledAction;
 import org.orbeon.oxf.xforms.action.XFormsAction;
 import org.orbeon.oxf.xforms.action.XFormsActionInterpreter;
 import org.orbeon.oxf.xforms.event.XFormsEvent;
@@ -25,8 +25,6 @@ import org.orbeon.oxf.xforms.event.XFormsEventObserver;
 import org.orbeon.oxf.xforms.xbl.XBLBindings;
 import org.orbeon.saxon.om.Item;
 
-import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -38,40 +36,29 @@ public class XFormsActionAction extends XFormsAction {
                         XBLBindings.Scope actionScope, boolean hasOverriddenContext, Item overriddenContext) {
 
         final XFormsContextStack contextStack = actionInterpreter.getContextStack();
+        final CompiledAction compiledAction = actionInterpreter.getCompiledAction(actionElement);
+        final String sourceEffectiveId = actionInterpreter.getSourceEffectiveId(actionElement);
 
         // Iterate over child actions
         int variablesCount = 0;
-        final List<Element> currentVariableElements = new ArrayList<Element>();
-        for (Iterator i = actionElement.elementIterator(); i.hasNext();) {
-            final Element currentActionElement = (Element) i.next();
-            final String currentActionName = currentActionElement.getName();
+        for (final CompiledAction currentAction: compiledAction.getChildren()) {
 
-            if (currentActionName.equals(XFormsConstants.XXFORMS_VARIABLE_NAME)) {
-                // Remember variable element
-                currentVariableElements.add(currentActionElement);
-            } else {
-                // NOTE: We execute children actions, even if they happen to have ev:observer or ev:target attributes
-
-                // Push previous variables if any
-                if (currentVariableElements.size() > 0) {
-                    contextStack.addAndScopeVariables(propertyContext, actionInterpreter.getXBLContainer(), currentVariableElements, actionInterpreter.getSourceEffectiveId(actionElement));
-                    variablesCount += currentVariableElements.size();
-                }
-
-                // Set context on action element
-                final XBLBindings.Scope currentActionScope = actionInterpreter.getActionScope(currentActionElement);
-                contextStack.pushBinding(propertyContext, currentActionElement, actionInterpreter.getSourceEffectiveId(actionElement), currentActionScope);
-
-                // Run action
-                actionInterpreter.runAction(propertyContext, event, eventObserver, currentActionElement);
+            // Push previous variables if any
+            final List<Element> currentVariableElements = currentAction.getPrecedingVariables();
+            if (currentVariableElements.size() > 0) {
+                contextStack.addAndScopeVariables(propertyContext, actionInterpreter.getXBLContainer(), currentVariableElements, sourceEffectiveId);
+                variablesCount += currentVariableElements.size();
+            }
 
-                // Restore context
-                contextStack.popBinding();
+            // Set context on action element
+            final XBLBindings.Scope currentActionScope = actionInterpreter.getActionScope(currentAction);
+            contextStack.pushBinding(propertyContext, currentAction.getElement(), sourceEffectiveId, currentActionScope);
 
+            // Run action
+            actionInterpreter.runAction(propertyContext, event, eventObserver, currentAction);
 
-                // Clear variables
-                currentVariableElements.clear();
-            }
+            // Restore context
+            contextStack.popBinding();
         }
 
         final IndentedLogger indentedLogger = actionInterpreter.getIndentedLogger();
@@ -118,6 +118,7 @@ public class XFormsDeleteAction extends XFormsAction {
         final boolean isEmptyNodesetBinding = collectionToUpdate == null || collectionToUpdate.size() == 0;
 
         final List<Item> deletedNodeInfos;
+        final List<Element> modifiedElements = new ArrayList<Element>();
         if (isEmptyNodesetBinding) {
             deletedNodeInfos = XFormsConstants.EMPTY_ITEM_LIST;
         } else if (deleteIndex == -1) {
@@ -125,7 +126,7 @@ public class XFormsDeleteAction extends XFormsAction {
 
             deletedNodeInfos = new ArrayList<Item>(collectionToUpdate.size());
             for (int i = 1; i <= collectionToUpdate.size(); i++) {
-                final NodeInfo deletedNodeInfo = doDeleteOne(indentedLogger, collectionToUpdate, i);
+                final NodeInfo deletedNodeInfo = doDeleteOne(indentedLogger, collectionToUpdate, i, modifiedElements);
                 if (deletedNodeInfo != null) {
                     deletedNodeInfos.add(deletedNodeInfo);
                 }
@@ -133,7 +134,7 @@ public class XFormsDeleteAction extends XFormsAction {
         } else {
             // Find actual deletion point
 
-            final NodeInfo deletedNodeInfo = doDeleteOne(indentedLogger, collectionToUpdate, deleteIndex);
+            final NodeInfo deletedNodeInfo = doDeleteOne(indentedLogger, collectionToUpdate, deleteIndex, modifiedElements);
             if (deletedNodeInfo != null) {
                 deletedNodeInfos = Collections.singletonList((Item) deletedNodeInfo);
             } else {
@@ -158,7 +159,7 @@ public class XFormsDeleteAction extends XFormsAction {
                 // NOTE: Can be null if document into which delete is performed is not in an instance, e.g. in a variable
                 
                 // "XForms Actions that change the tree structure of instance data result in setting all four flags to true"
-                modifiedInstance.getModel(containingDocument).markStructuralChange();
+                modifiedInstance.getModel(containingDocument).markStructuralChange(modifiedInstance, modifiedElements);
 
                 // "4. If the delete is successful, the event xforms-delete is dispatched."
                 if (doDispatch)
@@ -169,7 +170,7 @@ public class XFormsDeleteAction extends XFormsAction {
         return deletedNodeInfos;
     }
 
-    private static NodeInfo doDeleteOne(IndentedLogger indentedLogger, List collectionToUpdate, int deleteIndex) {
+    private static NodeInfo doDeleteOne(IndentedLogger indentedLogger, List collectionToUpdate, int deleteIndex, List<Element> modifiedElements) {
         final NodeInfo nodeInfoToRemove = (NodeInfo) collectionToUpdate.get(deleteIndex - 1);
         final Node nodeToRemove = XFormsUtils.getNodeFromNodeInfo(nodeInfoToRemove, CANNOT_DELETE_READONLY_MESSAGE);
 
@@ -209,6 +210,9 @@ public class XFormsDeleteAction extends XFormsAction {
         parentContent.remove(actualIndexInParentContentCollection);
 //        nodeToRemove.detach(); // not sure if we should detach or not!
 
+        // Remember the parent, which is null for the root element
+        modifiedElements.add(parentElement);
+
         return nodeInfoToRemove;
     }
 }
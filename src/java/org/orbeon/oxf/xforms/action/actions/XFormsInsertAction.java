@@ -416,7 +416,10 @@ public class XFormsInsertAction extends XFormsAction {
         // "XForms Actions that change the tree structure of instance data result in setting all four flags to true"
         if (didInsertNodes && modifiedInstance  != null) {
             // NOTE: Can be null if document into which delete is performed is not in an instance, e.g. in a variable
-            modifiedInstance.getModel(containingDocument).markStructuralChange();
+            final List<Element> modifiedElements = new ArrayList<Element>(insertedNodes.size());
+            for (final Node insertedNode: insertedNodes)
+                modifiedElements.add(insertedNode.getParent());
+            modifiedInstance.getModel(containingDocument).markStructuralChange(modifiedInstance, modifiedElements);
         }
 
         // "4. If the insert is successful, the event xforms-insert is dispatched."
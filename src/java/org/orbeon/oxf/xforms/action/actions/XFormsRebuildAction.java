@@ -43,6 +43,8 @@ public class XFormsRebuildAction extends XFormsAction {
 
         // Because of inter-model dependencies, we consider for now that the action must force the operation
         model.getDeferredActionContext().rebuild = true;
+        if (model.getBinds() != null)
+            model.getBinds().markAllChanged();
         container.dispatchEvent(propertyContext, new XFormsRebuildEvent(containingDocument, model));
     }
 }
@@ -13,19 +13,29 @@
  */
 package org.orbeon.oxf.xforms.analysis.controls;
 
+import org.dom4j.Attribute;
 import org.dom4j.Element;
 import org.orbeon.oxf.util.PropertyContext;
 import org.orbeon.oxf.util.XPathCache;
+import org.orbeon.oxf.xforms.XFormsConstants;
+import org.orbeon.oxf.xforms.XFormsContainingDocument;
+import org.orbeon.oxf.xforms.XFormsFunctionLibrary;
 import org.orbeon.oxf.xforms.XFormsStaticState;
+import org.orbeon.oxf.xforms.analysis.XPathAnalysis;
 import org.orbeon.oxf.xforms.xbl.XBLBindings;
 import org.orbeon.saxon.dom4j.DocumentWrapper;
+import org.orbeon.saxon.expr.*;
 import org.orbeon.saxon.om.NodeInfo;
+import org.orbeon.saxon.om.StructuredQName;
 
-import java.util.Map;
+import java.util.*;
 
 public class Select1Analysis extends ControlAnalysis {
     public final boolean isMultiple;
     public final boolean hasNonStaticItem;
+    public final boolean isContextIndependentItemset;
+    // Prefixed ids of the instances a context-independent itemset depends on, null if the itemset is not
+    public final Set<String> itemsetDependentInstances;
 
     public Select1Analysis(PropertyContext propertyContext, XFormsStaticState staticState, DocumentWrapper controlsDocumentInfo, XBLBindings.Scope scope, Element element, int index, boolean isValueControl, ContainerAnalysis parentControlAnalysis, Map<String, ControlAnalysis> inScopeVariables) {
         super(propertyContext, staticState, controlsDocumentInfo, scope, element, index, isValueControl, parentControlAnalysis, inScopeVariables);
@@ -43,5 +53,167 @@ public class Select1Analysis extends ControlAnalysis {
         // Remember information
         this.isMultiple = element.getName().equals("select");
         this.hasNonStaticItem = hasNonStaticItem;
+        // Dependencies are only available with XPath analysis
+        this.itemsetDependentInstances = (hasNonStaticItem && staticState.isXPathAnalysis()) ? analyzeItemset(element) : null;
+        this.isContextIndependentItemset = itemsetDependentInstances != null;
+    }
+
+    /**
+     * Find the instances the dynamic items of the given control depend on, if the items only depend on instance data
+     * and not on the control's context. Such an itemset evaluates the same for all the repeat iterations of the
+     * control, and can be shared as long as the instances it depends on don't change.
+     *
+     * The test is conservative: all the dynamic content must be within xforms:itemset elements whose @nodeset is
+     * rooted at instances only, and all the expressions within the itemset must have figured-out dependencies. In
+     * addition, no expression may refer to variables, which may be bound differently in each iteration, or call
+     * functions whose result may change during a refresh.
+     *
+     * @param controlElement    control element
+     * @return                  prefixed ids of the dependent instances, or null if the itemset depends on the context
+     */
+    private Set<String> analyzeItemset(Element controlElement) {
+        final Set<String> dependentInstances = new HashSet<String>();
+        for (final Object child: controlElement.elements()) {
+            if (!analyzeItems((Element) child, dependentInstances))
+                return null;
+        }
+        return dependentInstances;
+    }
+
+    private boolean analyzeItems(Element element, Set<String> dependentInstances) {
+        final String localname = element.getName();
+        if (!XFormsConstants.XFORMS_NAMESPACE_URI.equals(element.getNamespaceURI()))
+            return true;
+
+        if (localname.equals(XFormsConstants.ITEMSET_QNAME.getName())) {
+            // Nodeset must not depend on the context
+            if (element.attribute("bind") != null || element.attribute("context") != null || element.attribute("model") != null)
+                return false;
+            final String nodeset = element.attributeValue("nodeset");
+            if (nodeset == null)
+                return false;
+            final XPathAnalysis nodesetAnalysis = analyzeItemsetXPath(null, element, nodeset, dependentInstances);
+            if (nodesetAnalysis == null)
+                return false;
+            // Expressions within the itemset are evaluated relative to the nodes returned by the nodeset
+            for (final Object child: element.elements()) {
+                if (!analyzeItemContent(nodesetAnalysis, (Element) child, dependentInstances))
+                    return false;
+            }
+            return true;
+        } else if (localname.equals(XFormsConstants.CHOICES_QNAME.getName())) {
+            // Recurse into xforms:choices, which may itself contain xforms:itemset
+            if (element.attribute("ref") != null || element.attribute("bind") != null || element.attribute("context") != null)
+                return false;
+            for (final Object child: element.elements()) {
+                if (!analyzeItems((Element) child, dependentInstances))
+                    return false;
+            }
+            return true;
+        } else if (localname.equals(XFormsConstants.ITEM_QNAME.getName())) {
+            // xforms:item is relative to the control's context, so it must be entirely static
+            return !hasDynamicContent(element);
+        } else {
+            // Other elements, such as label, hint, or event handlers, are not part of the itemset
+            return true;
+        }
+    }
+
+    private boolean analyzeItemContent(XPathAnalysis baseAnalysis, Element element, Set<String> dependentInstances) {
+        // AVTs are not analyzed
+        for (final Object attribute: element.attributes()) {
+            if (((Attribute) attribute).getValue().indexOf('{') != -1)
+                return false;
+        }
+
+        XPathAnalysis currentAnalysis = baseAnalysis;
+        if (XFormsConstants.XFORMS_NAMESPACE_URI.equals(element.getNamespaceURI())) {
+            if (element.attribute("bind") != null || element.attribute("context") != null
+                    || element.attribute("model") != null || element.attribute("nodeset") != null)
+                return false;
+
+            final String ref = element.attributeValue("ref");
+            if (ref != null) {
+                currentAnalysis = analyzeItemsetXPath(baseAnalysis, element, ref, dependentInstances);
+                if (currentAnalysis == null)
+                    return false;
+            }
+            final String value = element.attributeValue("value");
+            if (value != null && analyzeItemsetXPath(currentAnalysis, element, value, dependentInstances) == null)
+                return false;
+        }
+
+        for (final Object child: element.elements()) {
+            if (!analyzeItemContent(currentAnalysis, (Element) child, dependentInstances))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Analyze an expression within the itemset and gather the instances it depends on.
+     *
+     * @param baseAnalysis          analysis of the context, null for the itemset's @nodeset
+     * @param element               element holding the expression
+     * @param xpathString           expression
+     * @param dependentInstances    instances found so far
+     * @return                      analysis, or null if the expression may not evaluate the same in all iterations
+     */
+    private XPathAnalysis analyzeItemsetXPath(XPathAnalysis baseAnalysis, Element element, String xpathString, Set<String> dependentInstances) {
+        final XPathAnalysis analysis;
+        try {
+            final Expression expression = XPathCache.createExpression(staticState.getXPathConfiguration(), xpathString,
+                    staticState.getNamespaceMappings(scope.getFullPrefix(), element), XFormsContainingDocument.getFunctionLibrary());
+            // The @nodeset must not depend on the context item, position or size
+            if (baseAnalysis == null && (expression.getDependencies() & StaticProperty.DEPENDS_ON_FOCUS) != 0)
+                return null;
+            if (!isIterationIndependent(expression))
+                return null;
+            analysis = new XPathAnalysis(staticState, expression, xpathString, baseAnalysis, inScopeVariables, scope, modelPrefixedId, getDefaultInstancePrefixedId());
+        } catch (Exception e) {
+            // Errors will be reported when the itemset is evaluated
+            return null;
+        }
+        // Without a base analysis, dependencies are only figured out if all the paths are rooted at instances
+        if (!analysis.figuredOutDependencies)
+            return null;
+        dependentInstances.addAll(analysis.dependentInstances);
+        return analysis;
+    }
+
+    /**
+     * Whether the compiled expression doesn't refer to variables and only calls functions which return the same result
+     * during a refresh.
+     */
+    private static boolean isIterationIndependent(Expression expression) {
+        if (expression instanceof VariableReference) {
+            // XForms variables are bound per control and may differ between iterations
+            return false;
+        } else if (expression instanceof FunctionCall) {
+            final StructuredQName functionName = ((FunctionCall) expression).getFunctionName();
+            if (functionName == null || !XFormsFunctionLibrary.isRefreshPure(functionName.getNamespaceURI(), functionName.getLocalName()))
+                return false;
+        }
+        for (final Iterator i = expression.iterateSubExpressions(); i.hasNext();) {
+            if (!isIterationIndependent((Expression) i.next()))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean hasDynamicContent(Element element) {
+        if (XFormsConstants.XFORMS_NAMESPACE_URI.equals(element.getNamespaceURI())
+                && (element.attribute("ref") != null || element.attribute("nodeset") != null
+                    || element.attribute("bind") != null || element.attribute("value") != null))
+            return true;
+        for (final Object attribute: element.attributes()) {
+            if (((Attribute) attribute).getValue().indexOf('{') != -1)
+                return true;
+        }
+        for (final Object child: element.elements()) {
+            if (hasDynamicContent((Element) child))
+                return true;
+        }
+        return false;
     }
 }
@@ -196,10 +196,12 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
             // Control is created
             this.relevant = newRelevant;
             onCreate(propertyContext);
+            markExternalChange();
         } else if (oldRelevant && !newRelevant) {
             // Control is destroyed
             onDestroy(propertyContext);
             this.relevant = newRelevant;
+            markExternalChange();
         } else if (newRelevant) {
             onBindingUpdate(propertyContext, oldBinding, bindingContext);
         }
@@ -219,6 +221,16 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
     protected void onBindingUpdate(PropertyContext propertyContext, XFormsContextStack.BindingContext oldBinding, XFormsContextStack.BindingContext newBinding) {
     }
 
+    /**
+     * Notify the difference engine that the external state of this control (value, MIPs, LHHA, etc.) may have changed
+     * since the initial control tree was cloned. Controls which are not notified are not compared when computing the
+     * Ajax response.
+     */
+    protected void markExternalChange() {
+        if (containingDocument != null && containingDocument.isHandleDifferences())
+            containingDocument.getControls().markControlChanged(this);
+    }
+
     protected boolean computeRelevant() {
         // By default: if there is a parent, we have the same relevance as the parent, otherwise we are top-level so
         // we are relevant by default
@@ -537,14 +549,18 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
             final XFormsConstants.LHHA key = entry.getKey();
             final LHHA value = entry.getValue();
 
-            if (value != null && !value.isDirty() && xpathDependencies.requireLHHAUpdate(key, getPrefixedId()))
+            if (value != null && value != NULL_LHHA && !value.isDirty() && xpathDependencies.requireLHHAUpdate(key, getPrefixedId())) {
                 value.markDirty();
+                markExternalChange();
+            }
         }
 
         // For now clear this all the time
         // TODO: dependencies
-        if (extensionAttributesValues != null)
+        if (extensionAttributesValues != null && extensionAttributesValues.size() > 0) {
             extensionAttributesValues.clear();
+            markExternalChange();
+        }
     }
 
     /**
@@ -824,6 +840,15 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
                 return null;
             } else {
 
+                // Reuse the result of the same pure AVT evaluated earlier during the refresh
+                final XFormsRefreshMemo refreshMemo = containingDocument.getControls().getRefreshMemo();
+                final Item contextItem = bindingContext.getSingleItem();
+                if (refreshMemo != null) {
+                    final String memoizedResult = refreshMemo.get(container, bindingContext.model, contextItem, attributeValue, true, getNamespaceMappings());
+                    if (memoizedResult != null)
+                        return XFormsRefreshMemo.isNullResult(memoizedResult) ? null : memoizedResult;
+                }
+
                 // Need to ensure the binding on the context stack is correct before evaluating XPath expressions
                 // Reason is that XPath functions might use the context stack to get the current model, etc.
                 final XFormsContextStack contextStack = getContextStack();
@@ -831,8 +856,11 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
 
                 // Evaluate
                 try {
-                    return XPathCache.evaluateAsAvt(propertyContext, contextNodeset, bindingContext.getPosition(), attributeValue, getNamespaceMappings(),
+                    final String result = XPathCache.evaluateAsAvt(propertyContext, contextNodeset, bindingContext.getPosition(), attributeValue, getNamespaceMappings(),
                         bindingContext.getInScopeVariables(), XFormsContainingDocument.getFunctionLibrary(), getFunctionContext(), null, getLocationData());
+                    if (refreshMemo != null)
+                        refreshMemo.put(container, bindingContext.model, contextItem, attributeValue, true, getNamespaceMappings(), result);
+                    return result;
                 } catch (Exception e) {
                     // Don't consider this as fatal
                     // TODO: must dispatch xforms-compute-error? Check if safe to do so.
@@ -864,16 +892,28 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
             // TODO: in the future we should be able to try evaluating anyway
             return null;
         } else {
+            // Reuse the result of the same pure expression evaluated earlier during the refresh
+            final XFormsRefreshMemo refreshMemo = containingDocument.getControls().getRefreshMemo();
+            final Item contextItem = bindingContext.getSingleItem();
+            if (refreshMemo != null) {
+                final String memoizedResult = refreshMemo.get(container, bindingContext.model, contextItem, xpathString, false, getNamespaceMappings());
+                if (memoizedResult != null)
+                    return XFormsRefreshMemo.isNullResult(memoizedResult) ? null : memoizedResult;
+            }
+
             // Need to ensure the binding on the context stack is correct before evaluating XPath expressions
             // Reason is that XPath functions might use the context stack to get the current model, etc.
             final XFormsContextStack contextStack = getContextStack();
             contextStack.setBinding(this);
 
             try {
-                return XPathCache.evaluateAsString(propertyContext, contextNodeset, bindingContext.getPosition(),
+                final String result = XPathCache.evaluateAsString(propertyContext, contextNodeset, bindingContext.getPosition(),
                                     xpathString, getNamespaceMappings(), bindingContext.getInScopeVariables(),
                                     XFormsContainingDocument.getFunctionLibrary(),
                                     getFunctionContext(), null, getLocationData());
+                if (refreshMemo != null)
+                    refreshMemo.put(container, bindingContext.model, contextItem, xpathString, false, getNamespaceMappings(), result);
+                return result;
             } catch (Exception e) {
                 // Don't consider this as fatal
                 // TODO: must dispatch xforms-compute-error? Check if safe to do so.
@@ -906,6 +946,14 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
             // TODO: in the future we should be able to try evaluating anyway
             return null;
         } else {
+            // Reuse the result of the same pure expression evaluated earlier during the refresh
+            final XFormsRefreshMemo refreshMemo = containingDocument.getControls().getRefreshMemo();
+            if (refreshMemo != null) {
+                final String memoizedResult = refreshMemo.get(container, bindingContext.model, contextItem, xpathString, false, prefixToURIMap);
+                if (memoizedResult != null)
+                    return XFormsRefreshMemo.isNullResult(memoizedResult) ? null : memoizedResult;
+            }
+
             // Need to ensure the binding on the context stack is correct before evaluating XPath expressions
             // Reason is that XPath functions might use the context stack to get the current model, etc.
             final XFormsContextStack contextStack = getContextStack();
@@ -913,10 +961,13 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
 
             // Evaluate
             try {
-                return XPathCache.evaluateAsString(propertyContext, contextItem,
+                final String result = XPathCache.evaluateAsString(propertyContext, contextItem,
                                 xpathString, prefixToURIMap, variableToValueMap,
                                 XFormsContainingDocument.getFunctionLibrary(),
                                 getFunctionContext(), null, getLocationData());
+                if (refreshMemo != null)
+                    refreshMemo.put(container, bindingContext.model, contextItem, xpathString, false, prefixToURIMap, result);
+                return result;
             } catch (Exception e) {
                 // Don't consider this as fatal
                 // TODO: must dispatch xforms-compute-error? Check if safe to do so.
@@ -1048,6 +1099,8 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
                 // The trees don't keep wasteful references
                 cloned.currentLocal = cloned.initialLocal;
                 this.initialLocal = this.currentLocal;
+                // The local state changed before cloning, so the clone keeps the old state
+                containingDocument.getControls().markControlChangedBeforeCloning(this);
             } else {
                 // The new tree must have its own copy
                 // NOTE: We could implement a copy-on-write flag here
@@ -1069,6 +1122,7 @@ public abstract class XFormsControl implements XFormsEventTarget, XFormsEventObs
 
     protected XFormsControlLocal getLocalForUpdate() {
         if (containingDocument.isHandleDifferences()) {
+            markExternalChange();
             // Happening during a client request where we need to handle diffs
             final XFormsControls controls =  containingDocument.getControls();
             if (controls.getInitialControlTree() != controls.getCurrentControlTree()) {
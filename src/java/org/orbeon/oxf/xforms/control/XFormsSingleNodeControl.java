@@ -75,7 +75,20 @@ public abstract class XFormsSingleNodeControl extends XFormsControl {
     @Override
     protected void onBindingUpdate(PropertyContext propertyContext, XFormsContextStack.BindingContext oldBinding, XFormsContextStack.BindingContext newBinding) {
         super.onBindingUpdate(propertyContext, oldBinding, newBinding);
+
+        final Item oldBoundItem = boundItem;
+        final boolean oldReadonly = readonly;
+        final boolean oldRequired = required;
+        final boolean oldValid = valid;
+        final String oldType = type;
+        final Map<String, String> oldCustomMIPs = customMIPs;
+
         readBinding();
+
+        // Only bound item and MIP changes affect the external state here
+        if (!XFormsUtils.compareItems(boundItem, oldBoundItem) || readonly != oldReadonly || required != oldRequired || valid != oldValid
+                || !XFormsUtils.compareStrings(type, oldType) || !compareCustomMIPs(customMIPs, oldCustomMIPs))
+            markExternalChange();
     }
 
     private void readBinding() {
@@ -62,6 +62,8 @@ public abstract class XFormsValueContainerControl extends XFormsSingleNodeContai
     protected void evaluateImpl(PropertyContext propertyContext) {
         super.evaluateImpl(propertyContext);
 
+        final String oldValue = value;
+
         // Evaluate control values
         if (hasValue && isRelevant()) {
             // Control has value and is relevant
@@ -70,6 +72,9 @@ public abstract class XFormsValueContainerControl extends XFormsSingleNodeContai
             // Control doesn't have value or is not relevant
             value = null;
         }
+
+        if (!XFormsUtils.compareStrings(value, oldValue))
+            markExternalChange();
     }
 
     @Override
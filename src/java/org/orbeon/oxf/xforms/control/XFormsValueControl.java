@@ -97,6 +97,8 @@ public abstract class XFormsValueControl extends XFormsSingleNodeControl {
 
             isExternalValueEvaluated = false;
             externalValue = null;
+
+            markExternalChange();
         }
     }
 
@@ -360,6 +360,9 @@ public class XFormsRepeatControl extends XFormsNoSingleNodeContainerControl {
         final XFormsControls controls = containingDocument.getControls();
         controls.cloneInitialStateIfNeeded(propertyContext);
 
+        // Iterations may be added, removed or moved, so the whole repeat must be compared
+        controls.markSubtreeChanged(this);
+
         final boolean isInsert = insertedNodeInfos != null;
 
         final ControlTree currentControlTree = controls.getCurrentControlTree();
@@ -22,7 +22,10 @@ import org.orbeon.oxf.util.PropertyContext;
 import org.orbeon.oxf.xforms.InstanceData;
 import org.orbeon.oxf.xforms.XFormsConstants;
 import org.orbeon.oxf.xforms.XFormsContainingDocument;
+import org.orbeon.oxf.xforms.XFormsControls;
+import org.orbeon.oxf.xforms.XFormsInstance;
 import org.orbeon.oxf.xforms.XFormsProperties;
+import org.orbeon.oxf.xforms.XFormsUtils;
 import org.orbeon.oxf.xforms.analysis.XPathDependencies;
 import org.orbeon.oxf.xforms.analysis.controls.Select1Analysis;
 import org.orbeon.oxf.xforms.control.XFormsControl;
@@ -42,6 +45,7 @@ import org.orbeon.saxon.om.NodeInfo;
 import org.xml.sax.helpers.AttributesImpl;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -109,6 +113,9 @@ public class XFormsSelect1Control extends XFormsValueControl {
         super.markDirtyImpl(xpathDependencies);
         // Force recalculation of items here
         itemset = null;
+        // Items may change even if they were not evaluated since the control was restored
+        if (!isNorefresh && !isStaticItemset(containingDocument, getPrefixedId()))
+            markExternalChange();
     }
 
     /**
@@ -174,7 +181,18 @@ public class XFormsSelect1Control extends XFormsValueControl {
             } else {
                 // Items are stored in the control
                 if (itemset == null) {
-                    itemset = XFormsItemUtils.evaluateItemset(propertyContext, XFormsSelect1Control.this, setBinding);
+                    final List<XFormsInstance> dependentInstances = getItemsetDependentInstances();
+                    if (dependentInstances != null) {
+                        // Items don't depend on the control's context, so share them between repeat iterations
+                        final XFormsControls controls = containingDocument.getControls();
+                        itemset = controls.getSharedItemset(getPrefixedId(), dependentInstances);
+                        if (itemset == null) {
+                            itemset = XFormsItemUtils.evaluateItemset(propertyContext, XFormsSelect1Control.this, setBinding);
+                            controls.setSharedItemset(getPrefixedId(), dependentInstances, itemset);
+                        }
+                    } else {
+                        itemset = XFormsItemUtils.evaluateItemset(propertyContext, XFormsSelect1Control.this, setBinding);
+                    }
                 }
                 return itemset;
             }
@@ -183,6 +201,40 @@ public class XFormsSelect1Control extends XFormsValueControl {
         }
     }
 
+    /**
+     * Return the instances a context-independent itemset depends on, in the order of their prefixed ids.
+     *
+     * @return instances, or null if the itemset can't be shared or if an instance can't be found
+     */
+    private List<XFormsInstance> getItemsetDependentInstances() {
+        final Select1Analysis analysis = containingDocument.getStaticState().getSelect1Analysis(getPrefixedId());
+        if (analysis == null || !analysis.isContextIndependentItemset)
+            return null;
+
+        final List<String> instancePrefixedIds = new ArrayList<String>(analysis.itemsetDependentInstances);
+        Collections.sort(instancePrefixedIds);
+
+        final List<XFormsInstance> instances = new ArrayList<XFormsInstance>(instancePrefixedIds.size());
+        for (final String instancePrefixedId: instancePrefixedIds) {
+            final XFormsInstance instance = findInstance(instancePrefixedId);
+            if (instance == null)
+                return null;
+            instances.add(instance);
+        }
+        return instances;
+    }
+
+    private XFormsInstance findInstance(String instancePrefixedId) {
+        // Search from the control's container up, as the itemset may refer to instances in enclosing scopes
+        final String instanceStaticId = XFormsUtils.getStaticIdFromId(instancePrefixedId);
+        for (XBLContainer container = getXBLContainer(); container != null; container = container.getParentXBLContainer()) {
+            final XFormsInstance instance = container.findInstance(instanceStaticId);
+            if (instance != null && instance.getPrefixedId().equals(instancePrefixedId))
+                return instance;
+        }
+        return null;
+    }
+
     /**
      * Whether the given control has a static set of items.
      *
@@ -313,6 +365,16 @@ public class XFormsSelect1Control extends XFormsValueControl {
         }
     }
 
+    @Override
+    public Object getBackCopy(PropertyContext propertyContext) {
+
+        // Evaluate lazy itemset, so that the copy keeps the items as they were before changes
+        if (isRelevant() && !isNorefresh && !isStaticItemset(containingDocument, getPrefixedId()))
+            getItemset(propertyContext, true);
+
+        return super.getBackCopy(propertyContext);
+    }
+
     @Override
     public boolean equalsExternal(PropertyContext propertyContext, XFormsControl other) {
 
@@ -76,6 +76,7 @@ public class XFormsUploadControl extends XFormsValueControl {
     protected void markDirtyImpl(XPathDependencies xpathDependencies) {
         super.markDirtyImpl(xpathDependencies);
         fileInfo.markDirty();
+        markExternalChange();
     }
 
     /**
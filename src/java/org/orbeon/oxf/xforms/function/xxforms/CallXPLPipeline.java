@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.function.xxforms;
+
+import org.dom4j.QName;
+import org.orbeon.oxf.pipeline.InitUtils;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.pipeline.api.ProcessorDefinition;
+import org.orbeon.oxf.processor.Processor;
+import org.orbeon.oxf.processor.ProcessorImpl;
+import org.orbeon.oxf.processor.ProcessorInputOutputInfo;
+import org.orbeon.oxf.processor.ProcessorOutput;
+import org.orbeon.oxf.util.PipelineUtils;
+import org.orbeon.oxf.xml.SAXStore;
+import org.orbeon.oxf.xml.TransformerUtils;
+import org.orbeon.oxf.xml.XMLConstants;
+import org.orbeon.saxon.om.NodeInfo;
+import org.xml.sax.ContentHandler;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Connected oxf:pipeline processor used by xxforms:call-xpl(), cached per XPL URL and input and output names.
+ *
+ * Like other processors, the processor graph is shared between executions and keeps its state in the pipeline
+ * context. Input documents are also passed through the pipeline context, so that the graph doesn't change between
+ * calls. The pipeline processor reads its configuration through a cached input, so changes to the XPL file are taken
+ * into account.
+ */
+public class CallXPLPipeline {
+
+    private static final ConcurrentMap<String, CallXPLPipeline> pipelines = new ConcurrentHashMap<String, CallXPLPipeline>();
+
+    private final URL xplURL;
+    private final List<String> inputNames;
+    private final List<String> outputNames;
+
+    private final Processor processor;
+    private final List<InputGenerator> inputGenerators;
+    private final List<SAXStoreSerializer> outputSerializers;
+
+    /**
+     * Return the pipeline for the given XPL URL, input names and output names.
+     *
+     * @param xplURL        XPL URL
+     * @param inputNames    names of the pipeline inputs
+     * @param outputNames   names of the pipeline outputs to read
+     * @return              pipeline
+     */
+    public static CallXPLPipeline getPipeline(URL xplURL, List<String> inputNames, List<String> outputNames) {
+        final String key = xplURL.toExternalForm() + '|' + inputNames + '|' + outputNames;
+        final CallXPLPipeline existingPipeline = pipelines.get(key);
+        if (existingPipeline != null)
+            return existingPipeline;
+
+        final CallXPLPipeline newPipeline = new CallXPLPipeline(xplURL, inputNames, outputNames);
+        final CallXPLPipeline concurrentPipeline = pipelines.putIfAbsent(key, newPipeline);
+        return (concurrentPipeline != null) ? concurrentPipeline : newPipeline;
+    }
+
+    private CallXPLPipeline(URL xplURL, List<String> inputNames, List<String> outputNames) {
+        this.xplURL = xplURL;
+        this.inputNames = inputNames;
+        this.outputNames = outputNames;
+
+        final ProcessorDefinition processorDefinition = new ProcessorDefinition();
+        processorDefinition.setName(new QName("pipeline", XMLConstants.OXF_PROCESSORS_NAMESPACE));
+        processorDefinition.addInput("config", xplURL.toExternalForm());
+        processor = InitUtils.createProcessor(processorDefinition);
+
+        inputGenerators = new ArrayList<InputGenerator>(inputNames.size());
+        for (final String inputName: inputNames) {
+            final InputGenerator inputGenerator = new InputGenerator();
+            PipelineUtils.connect(inputGenerator, ProcessorImpl.OUTPUT_DATA, processor, inputName);
+            inputGenerators.add(inputGenerator);
+        }
+
+        outputSerializers = new ArrayList<SAXStoreSerializer>(outputNames.size());
+        for (final String outputName: outputNames) {
+            final SAXStoreSerializer outputSerializer = new SAXStoreSerializer();
+            PipelineUtils.connect(processor, outputName, outputSerializer, ProcessorImpl.INPUT_DATA);
+            outputSerializers.add(outputSerializer);
+        }
+    }
+
+    /**
+     * Run the pipeline and read all its outputs.
+     *
+     * @param pipelineContext   current pipeline context
+     * @param inputNodeInfos    document or element for each input, in the order of the input names
+     * @return                  SAX events of each output, in the order of the output names
+     */
+    public List<SAXStore> run(PipelineContext pipelineContext, List<NodeInfo> inputNodeInfos) {
+
+        if (pipelineContext.getAttribute(this) != null) {
+            // This pipeline is already running in this context, e.g. if it calls itself through XForms: use a new graph
+            // so the states don't clash
+            final CallXPLPipeline nestedPipeline = new CallXPLPipeline(xplURL, inputNames, outputNames);
+            return nestedPipeline.run(pipelineContext, inputNodeInfos);
+        }
+
+        pipelineContext.setAttribute(this, Boolean.TRUE);
+        try {
+            for (int i = 0; i < inputGenerators.size(); i++)
+                pipelineContext.setAttribute(inputGenerators.get(i), inputNodeInfos.get(i));
+
+            processor.reset(pipelineContext);
+
+            if (outputSerializers.size() == 0) {
+                // Just run the processor
+                processor.start(pipelineContext);
+                return Collections.emptyList();
+            } else {
+                // Read all outputs in sequence
+                final List<SAXStore> results = new ArrayList<SAXStore>(outputSerializers.size());
+                for (final SAXStoreSerializer outputSerializer: outputSerializers)
+                    results.add(outputSerializer.read(pipelineContext));
+                return results;
+            }
+        } finally {
+            // Don't keep references to input documents
+            for (final InputGenerator inputGenerator: inputGenerators)
+                pipelineContext.setAttribute(inputGenerator, null);
+            pipelineContext.setAttribute(this, null);
+        }
+    }
+
+    /**
+     * Generator producing the node stored in the pipeline context for the current execution. Its output is not
+     * cacheable, as the node changes for each call.
+     */
+    private static class InputGenerator extends ProcessorImpl {
+
+        public InputGenerator() {
+            addOutputInfo(new ProcessorInputOutputInfo(OUTPUT_DATA));
+        }
+
+        public ProcessorOutput createOutput(String name) {
+            final ProcessorOutput output = new ProcessorOutputImpl(getClass(), name) {
+                public void readImpl(PipelineContext pipelineContext, ContentHandler contentHandler) {
+                    // Elements are output with their in-scope namespaces
+                    TransformerUtils.writeTinyTree((NodeInfo) pipelineContext.getAttribute(InputGenerator.this), contentHandler);
+                }
+            };
+            addOutput(name, output);
+            return output;
+        }
+    }
+
+    /**
+     * Serializer reading its input into a SAXStore, from which the caller builds the type of document it needs.
+     */
+    private static class SAXStoreSerializer extends ProcessorImpl {
+
+        public SAXStoreSerializer() {
+            addInputInfo(new ProcessorInputOutputInfo(INPUT_DATA));
+        }
+
+        public SAXStore read(PipelineContext pipelineContext) {
+            final SAXStore saxStore = new SAXStore();
+            readInputAsSAX(pipelineContext, INPUT_DATA, saxStore);
+            return saxStore;
+        }
+    }
+}
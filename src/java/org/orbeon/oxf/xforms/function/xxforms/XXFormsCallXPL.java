@@ -13,27 +13,24 @@
  */
 package org.orbeon.oxf.xforms.function.xxforms;
 
-import org.dom4j.Document;
-import org.dom4j.Element;
-import org.dom4j.Node;
-import org.dom4j.QName;
+import org.orbeon.oxf.cache.Cache;
+import org.orbeon.oxf.cache.InternalCacheKey;
+import org.orbeon.oxf.cache.ObjectCache;
 import org.orbeon.oxf.common.OXFException;
-import org.orbeon.oxf.pipeline.InitUtils;
 import org.orbeon.oxf.pipeline.StaticExternalContext;
 import org.orbeon.oxf.pipeline.api.PipelineContext;
-import org.orbeon.oxf.pipeline.api.ProcessorDefinition;
-import org.orbeon.oxf.processor.DOMSerializer;
-import org.orbeon.oxf.processor.Processor;
-import org.orbeon.oxf.processor.ProcessorOutput;
 import org.orbeon.oxf.resources.URLFactory;
-import org.orbeon.oxf.util.PipelineUtils;
+import org.orbeon.oxf.util.NetUtils;
+import org.orbeon.oxf.util.NumberUtils;
 import org.orbeon.oxf.xforms.XFormsContainingDocument;
+import org.orbeon.oxf.xforms.XFormsProperties;
 import org.orbeon.oxf.xforms.function.XFormsFunction;
+import org.orbeon.oxf.xml.SAXStore;
 import org.orbeon.oxf.xml.TransformerUtils;
-import org.orbeon.oxf.xml.XMLConstants;
+import org.orbeon.oxf.xml.XMLUtils;
 import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
+import org.orbeon.saxon.Configuration;
 import org.orbeon.saxon.dom4j.DocumentWrapper;
-import org.orbeon.saxon.dom4j.NodeWrapper;
 import org.orbeon.saxon.expr.Expression;
 import org.orbeon.saxon.expr.XPathContext;
 import org.orbeon.saxon.om.*;
@@ -49,6 +46,9 @@ import java.util.List;
  */
 public class XXFormsCallXPL extends XFormsFunction {
 
+    private static final String RESULTS_CACHE_NAME = "cache.xforms.call-xpl";
+    private static final int RESULTS_CACHE_DEFAULT_SIZE = 100;
+
     public SequenceIterator iterate(XPathContext xpathContext) throws XPathException {
 
         try {
@@ -103,51 +103,45 @@ public class XXFormsCallXPL extends XFormsFunction {
                 }
             }
 
-            // Create processor definition and processor
-            Processor processor;
+            // Check input nodes, which are passed as is to the pipeline
+            final List<NodeInfo> inputNodeInfosToPass = new ArrayList<NodeInfo>(inputNodeInfos.size());
             {
-                ProcessorDefinition processorDefinition = new ProcessorDefinition();
-                {
-                    processorDefinition.setName(new QName("pipeline", XMLConstants.OXF_PROCESSORS_NAMESPACE));
-                    processorDefinition.addInput("config", xplURL.toExternalForm());
-
-                    Iterator inputNodesIterator = inputNodeInfos.iterator();
-                    for (final String inputName: inputNames) {
-                        final NodeInfo inputNodeInfo = (NodeInfo) inputNodesIterator.next();
-
-                        if (!(inputNodeInfo.getNodeKind() == org.w3c.dom.Document.ELEMENT_NODE || inputNodeInfo.getNodeKind() == org.w3c.dom.Document.DOCUMENT_NODE))
-                            throw new OXFException("Input node must be a document or element for input name: " + inputName);
-
-                        // TODO: We should be able to just pass inputNodeInfo to addInput() and avoid the conversions, but that doesn't work!
-
-                        if (inputNodeInfo instanceof NodeWrapper) {
-                            // Get reference to dom4j node
-
-                            final Element inputElement;
-                            final Node inputNode = (Node) ((NodeWrapper) inputNodeInfo).getUnderlyingNode();
-
-                            if (inputNode instanceof Document)
-                                inputElement = ((Document) inputNode).getRootElement();
-                            else if (inputNode instanceof Element && inputNode.getParent() == null)
-                                inputElement = (Element) inputNode;
-                            else if (inputNode instanceof Element)
-                                inputElement = Dom4jUtils.createDocumentCopyParentNamespaces((Element) inputNode).getRootElement();
-                            else
-                                throw new OXFException("Input node must be a document or element for input name: " + inputName);
-
-                            processorDefinition.addInput(inputName, inputElement);
-                        } else {
-                            // Copy to dom4j
-
-//                            final DocumentInfo inputDocumentInfo = TransformerUtils.readTinyTree(inputNodeInfo);
-//                            processorDefinition.addInput(inputName, inputDocumentInfo);
-
-                            final Document inputDocument = TransformerUtils.tinyTreeToDom4j2(inputNodeInfo);
-                            processorDefinition.addInput(inputName, inputDocument.getRootElement());
-                        }
-                    }
+                final Iterator<Item> inputNodesIterator = inputNodeInfos.iterator();
+                for (final String inputName: inputNames) {
+                    final Item inputItem = inputNodesIterator.next();
+                    if (!(inputItem instanceof NodeInfo)
+                            || !(((NodeInfo) inputItem).getNodeKind() == org.w3c.dom.Document.ELEMENT_NODE || ((NodeInfo) inputItem).getNodeKind() == org.w3c.dom.Document.DOCUMENT_NODE))
+                        throw new OXFException("Input node must be a document or element for input name: " + inputName);
+                    inputNodeInfosToPass.add((NodeInfo) inputItem);
+                }
+            }
+
+            // If the pipeline is declared as pure, try to reuse the outputs of a previous call with the same inputs. The
+            // pipeline must be self-contained: only the XPL file is checked for changes, not the resources it uses.
+            final Configuration configuration = xpathContext.getConfiguration();
+            final String xplURLString = xplURL.toExternalForm();
+            final boolean isPure = outputNames.size() > 0 && XFormsProperties.isCallXPLPurePipeline(xplURLString);
+            final InternalCacheKey resultsCacheKey;
+            final Long resultsValidity;
+            if (isPure) {
+                final StringBuilder keyBuilder = new StringBuilder(xplURLString);
+                keyBuilder.append('|');
+                keyBuilder.append(inputNames);
+                keyBuilder.append('|');
+                keyBuilder.append(outputNames);
+                for (final NodeInfo inputNodeInfo: inputNodeInfosToPass) {
+                    keyBuilder.append('|');
+                    keyBuilder.append(NumberUtils.toHexString(XMLUtils.getDigest(inputNodeInfo)));
                 }
-                processor = InitUtils.createProcessor(processorDefinition);
+                resultsCacheKey = new InternalCacheKey("xxforms:call-xpl()", keyBuilder.toString());
+                resultsValidity = NetUtils.getLastModifiedIfFast(xplURLString);
+
+                final List<SAXStore> cachedResults = (List<SAXStore>) getResultsCache().findValid(null, resultsCacheKey, resultsValidity);
+                if (cachedResults != null)
+                    return new ListIterator(createDocuments(configuration, cachedResults));
+            } else {
+                resultsCacheKey = null;
+                resultsValidity = null;
             }
 
             // Try to obtain an existing PipelineContext, otherwise create a new one
@@ -161,44 +155,16 @@ public class XXFormsCallXPL extends XFormsFunction {
                 pipelineContext = new PipelineContext();
             }
 
-            processor.reset(pipelineContext);
-
             try {
-                if (outputNames.size() == 0) {
-                    // Just run the processor
-                    processor.start(pipelineContext);
-                    if (newPipelineContext && !pipelineContext.isDestroyed())
-                        pipelineContext.destroy(true);
-
-                    return EmptyIterator.getInstance();
-                } else {
-                    // Create all outputs to read
-                    List<ProcessorOutput> outputs = new ArrayList<ProcessorOutput>(outputNames.size());
-                    for (String outputName: outputNames) {
-                        ProcessorOutput output = processor.createOutput(outputName);
-                        outputs.add(output);
-                    }
-
-                    // Connect all DOM serializers
-                    List<DOMSerializer> domSerializers = new ArrayList<DOMSerializer>(outputNames.size());
-                    for (ProcessorOutput output: outputs) {
-                        DOMSerializer domSerializer = new DOMSerializer();
-                        PipelineUtils.connect(processor, output.getName(), domSerializer, "data");
-                        domSerializers.add(domSerializer);
-                    }
-
-                    // Read all outputs in sequence
-                    List<DocumentWrapper> results = new ArrayList<DocumentWrapper>(outputNames.size());
-                    for (DOMSerializer domSerializer: domSerializers) {
-                        domSerializer.start(pipelineContext);
-                        results.add(new DocumentWrapper((Document) Dom4jUtils.normalizeTextNodes(domSerializer.getDocument(pipelineContext)), null,
-                                xpathContext.getConfiguration()));
-                    }
-                    if (newPipelineContext && !pipelineContext.isDestroyed())
-                        pipelineContext.destroy(true);
+                // Run the pipeline and read all outputs
+                final List<SAXStore> results = CallXPLPipeline.getPipeline(xplURL, inputNames, outputNames).run(pipelineContext, inputNodeInfosToPass);
+                if (newPipelineContext && !pipelineContext.isDestroyed())
+                    pipelineContext.destroy(true);
 
-                    return new ListIterator(results);
-                }
+                if (isPure)
+                    getResultsCache().add(null, resultsCacheKey, resultsValidity, results);
+
+                return (results.size() == 0) ? EmptyIterator.getInstance() : new ListIterator(createDocuments(configuration, results));
             } catch (Exception e) {
                 try {
                     if (newPipelineContext && !pipelineContext.isDestroyed())
@@ -214,4 +180,23 @@ public class XXFormsCallXPL extends XFormsFunction {
             throw new OXFException(e);
         }
     }
+
+    /**
+     * Create the documents returned for the outputs, as a new document for each call so that callers can modify them.
+     */
+    private static List<DocumentInfo> createDocuments(Configuration configuration, List<SAXStore> saxStores) {
+        final boolean isReadOnly = XFormsProperties.isCallXPLReadOnlyOutputs();
+        final List<DocumentInfo> documents = new ArrayList<DocumentInfo>(saxStores.size());
+        for (final SAXStore saxStore: saxStores) {
+            if (isReadOnly)
+                documents.add(TransformerUtils.saxStoreToTinyTree(configuration, saxStore));
+            else
+                documents.add(new DocumentWrapper(Dom4jUtils.normalizeTextNodes(TransformerUtils.saxStoreToDom4jDocument(saxStore)), null, configuration));
+        }
+        return documents;
+    }
+
+    private static Cache getResultsCache() {
+        return ObjectCache.instance(RESULTS_CACHE_NAME, RESULTS_CACHE_DEFAULT_SIZE);
+    }
 }
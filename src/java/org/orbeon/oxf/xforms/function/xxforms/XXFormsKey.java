@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.function.xxforms;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.xforms.*;
+import org.orbeon.oxf.xforms.function.XFormsFunction;
+import org.orbeon.oxf.xforms.xbl.XBLContainer;
+import org.orbeon.saxon.dom4j.DocumentWrapper;
+import org.orbeon.saxon.expr.Expression;
+import org.orbeon.saxon.expr.PathMap;
+import org.orbeon.saxon.expr.XPathContext;
+import org.orbeon.saxon.om.*;
+import org.orbeon.saxon.trans.XPathException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * xxforms:key() function. Return the elements of an instance which have the given key values, using an index declared
+ * with xxforms:index on the instance. For example, with xxforms:index="row/@id" on instance 'rows':
+ *
+ *   xxforms:key('row/@id', $id, 'rows')
+ *
+ * returns the same nodes as instance('rows')/row[string(@id) = (for $v in $id return string($v))], without scanning
+ * the instance. Keys are always compared as strings: unlike with row[@id = $id], a key "1.0" doesn't match the number 1.
+ * The instance id is optional and defaults to the default instance of the current model.
+ */
+public class XXFormsKey extends XFormsFunction {
+
+    @Override
+    public SequenceIterator iterate(XPathContext xpathContext) throws XPathException {
+
+        final XFormsContainingDocument containingDocument = getContainingDocument(xpathContext);
+
+        final String indexName = argument[0].evaluateAsString(xpathContext);
+
+        // Find instance
+        final XFormsInstance instance;
+        if (argument.length > 2) {
+            final String instanceId = XFormsUtils.namespaceId(containingDocument, argument[2].evaluateAsString(xpathContext));
+            XFormsInstance foundInstance = null;
+            XBLContainer currentContainer = getXBLContainer(xpathContext);
+            while (currentContainer != null) {
+                foundInstance = currentContainer.findInstance(instanceId);
+                if (foundInstance != null)
+                    break;
+                currentContainer = currentContainer.getParentXBLContainer();
+            }
+            if (foundInstance == null)
+                throw new OXFException("xxforms:key(): instance not found: " + instanceId);
+            instance = foundInstance;
+        } else {
+            instance = getModel(xpathContext).getDefaultInstance();
+            if (instance == null)
+                throw new OXFException("xxforms:key(): model has no default instance");
+        }
+
+        final Document document = instance.getDocument();
+        if (document == null)
+            throw new OXFException("xxforms:key(): indexes are not supported on read-only instance: " + instance.getEffectiveId());
+
+        final XFormsInstanceIndex index = instance.getModel(containingDocument).getInstanceIndex(instance.getId(), indexName);
+        if (index == null)
+            throw new OXFException("xxforms:key(): index " + indexName + " is not declared on instance: " + instance.getEffectiveId());
+
+        // Gather key values
+        final List<String> keys = new ArrayList<String>();
+        final SequenceIterator keysIterator = argument[1].iterate(xpathContext);
+        for (Item item = keysIterator.next(); item != null; item = keysIterator.next())
+            keys.add(item.getStringValue());
+
+        final List<Element> elements = index.lookup(document, keys);
+        if (elements.isEmpty())
+            return EmptyIterator.getInstance();
+
+        final DocumentWrapper documentWrapper = (DocumentWrapper) instance.getDocumentInfo();
+        final List<Item> result = new ArrayList<Item>(elements.size());
+        for (final Element element: elements)
+            result.add(documentWrapper.wrap(element));
+        return new ListIterator(result);
+    }
+
+    @Override
+    public PathMap.PathMapNodeSet addToPathMap(PathMap pathMap, PathMap.PathMapNodeSet pathMapNodeSet) {
+        for (final Expression currentArgument: argument)
+            currentArgument.addToPathMap(pathMap, pathMapNodeSet);
+        // Nodes are not found by following a path, so dependencies can't be figured out
+        return new PathMap.PathMapNodeSet(pathMap.makeNewRoot(this));
+    }
+}
@@ -13,13 +13,11 @@
  */
 package org.orbeon.oxf.xforms.function.xxforms;
 
+import org.orbeon.oxf.xforms.XFormsContainingDocument;
+import org.orbeon.oxf.xforms.XFormsInstance;
 import org.orbeon.oxf.xforms.function.XFormsFunction;
-import org.orbeon.saxon.expr.Expression;
-import org.orbeon.saxon.expr.PathMap;
-import org.orbeon.saxon.expr.XPathContext;
-import org.orbeon.saxon.om.Item;
-import org.orbeon.saxon.om.NodeInfo;
-import org.orbeon.saxon.om.SequenceIterator;
+import org.orbeon.saxon.expr.*;
+import org.orbeon.saxon.om.*;
 import org.orbeon.saxon.sort.AtomicComparer;
 import org.orbeon.saxon.sort.SortKeyDefinition;
 import org.orbeon.saxon.sort.SortKeyEvaluator;
@@ -27,8 +25,16 @@ import org.orbeon.saxon.sort.SortedIterator;
 import org.orbeon.saxon.trans.XPathException;
 import org.orbeon.saxon.value.Value;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 /**
- * exforms:sort() function
+ * xxforms:sort() function
+ *
+ * When the nodes to sort all belong to the same instance and the sort key only looks at the node itself or its
+ * children and attributes, the result is kept with the instance and reused as long as the instance is not modified
+ * and the same nodes are passed again.
  */
 public class XXFormsSort extends XFormsFunction {
 
@@ -38,10 +44,80 @@ public class XXFormsSort extends XFormsFunction {
         final Expression sequenceToSortExpression = argument[0];
         final Expression sortKeyExpression = argument[1];
 
-        return sort(xpathContext, sequenceToSortExpression, sortKeyExpression);
+        final XFormsContainingDocument containingDocument = getContainingDocument(xpathContext);
+        if (containingDocument == null || !isMemoizable())
+            return sort(xpathContext, sequenceToSortExpression, sortKeyExpression);
+
+        // Find instance containing all the nodes to sort
+        final List<Item> items = new ArrayList<Item>();
+        final XFormsInstance instance;
+        {
+            final SequenceIterator iterator = sequenceToSortExpression.iterate(xpathContext);
+            DocumentInfo documentInfo = null;
+            boolean sameDocument = true;
+            for (Item item = iterator.next(); item != null; item = iterator.next()) {
+                if (sameDocument) {
+                    if (!(item instanceof NodeInfo)) {
+                        sameDocument = false;
+                    } else {
+                        final DocumentInfo currentDocumentInfo = ((NodeInfo) item).getDocumentRoot();
+                        if (documentInfo == null)
+                            documentInfo = currentDocumentInfo;
+                        else if (currentDocumentInfo == null || !documentInfo.isSameNodeInfo(currentDocumentInfo))
+                            sameDocument = false;
+                    }
+                }
+                items.add(item);
+            }
+            instance = (sameDocument && documentInfo != null) ? containingDocument.getInstanceForNode((NodeInfo) items.get(0)) : null;
+        }
+        if (instance == null)
+            return sort(xpathContext, new ListIterator(items), sortKeyExpression);
+
+        // Reuse sorted view if the same nodes are sorted again
+        final Map<Expression, SortedView> sortedViews = instance.getSortedViews();
+        final SortedView sortedView = sortedViews.get(this);
+        if (sortedView != null && sortedView.isSameInput(items))
+            return new ListIterator(sortedView.output);
+
+        final List<Item> output = new ArrayList<Item>(items.size());
+        final SequenceIterator sortedIterator = sort(xpathContext, new ListIterator(items), sortKeyExpression);
+        for (Item item = sortedIterator.next(); item != null; item = sortedIterator.next())
+            output.add(item);
+
+        sortedViews.put(this, new SortedView(items, output));
+        return new ListIterator(output);
+    }
+
+    /**
+     * Whether the result only depends on the nodes to sort. This is the case if the sort key is a single child or
+     * attribute step, or the context item, and if the sort parameters are literals.
+     */
+    private boolean isMemoizable() {
+        for (int i = 2; i < argument.length; i++) {
+            if (!(argument[i] instanceof Literal))
+                return false;
+        }
+
+        Expression sortKeyExpression = argument[1];
+        while (sortKeyExpression instanceof UnaryExpression)
+            sortKeyExpression = ((UnaryExpression) sortKeyExpression).getBaseExpression();
+
+        if (sortKeyExpression instanceof ContextItemExpression) {
+            return true;
+        } else if (sortKeyExpression instanceof AxisExpression) {
+            final byte axis = ((AxisExpression) sortKeyExpression).getAxis();
+            return axis == Axis.CHILD || axis == Axis.ATTRIBUTE;
+        } else {
+            return false;
+        }
     }
 
     protected SequenceIterator sort(XPathContext xpathContext, Expression sequenceToSortExpression, final Expression sortKeyExpression) throws XPathException {
+        return sort(xpathContext, sequenceToSortExpression.iterate(xpathContext), sortKeyExpression);
+    }
+
+    private SequenceIterator sort(XPathContext xpathContext, SequenceIterator sequenceToSort, final Expression sortKeyExpression) throws XPathException {
         final SortKeyEvaluator sortKeyEvaluator = new SortKeyEvaluator() {
             public Item evaluateSortKey(int n, XPathContext context) throws XPathException {
                 Item c = sortKeyExpression.evaluateItem(context);
@@ -61,7 +137,7 @@ public class XXFormsSort extends XFormsFunction {
         final SortKeyDefinition sortKeyDefinition = getSortKeyDefinition(sortKeyExpression);
         final AtomicComparer comparer = sortKeyDefinition.makeComparator(xpathContext);
         final AtomicComparer[] comparers = { comparer };
-        return new SortedIterator(xpathContext, sequenceToSortExpression.iterate(xpathContext), sortKeyEvaluator, comparers);
+        return new SortedIterator(xpathContext, sequenceToSort, sortKeyEvaluator, comparers);
     }
     
     private SortKeyDefinition getSortKeyDefinition(Expression sortKeyExpression) {
@@ -123,4 +199,27 @@ public class XXFormsSort extends XFormsFunction {
 
         return target;
     }
+
+    /**
+     * Result of a sort, kept with the instance containing the sorted nodes.
+     */
+    public static class SortedView {
+        private final List<Item> input;
+        private final List<Item> output;
+
+        public SortedView(List<Item> input, List<Item> output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        public boolean isSameInput(List<Item> items) {
+            if (items.size() != input.size())
+                return false;
+            for (int i = 0; i < items.size(); i++) {
+                if (!((NodeInfo) items.get(i)).isSameNodeInfo((NodeInfo) input.get(i)))
+                    return false;
+            }
+            return true;
+        }
+    }
 }
@@ -298,6 +298,10 @@ public class Itemset implements ItemContainer {
      * @return          true iif the itemsets are identical
      */
     public static boolean compareItemsets(Itemset itemset1, Itemset itemset2) {
+        // Shared itemsets are often the same instance
+        if (itemset1 == itemset2)
+            return true;
+
         final List<Item> children1 = (itemset1 != null) ? itemset1.children : Collections.<Item>emptyList();
         final List<Item> children2 = (itemset2 != null) ? itemset2.children : Collections.<Item>emptyList();
 
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.processor;
+
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.util.NetUtils;
+import org.orbeon.oxf.util.SecureUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Combined CSS or JavaScript resources for a given set of features, kept in memory in identity and gzip encodings.
+ */
+public class CombinedResourceBundle {
+
+    private final List<XFormsFeatures.ResourceConfig> resources;
+    private final boolean isMinimal;
+    private final long lastModified;
+
+    private final byte[] identityBytes;
+    private final byte[] gzipBytes;
+    private final String etag;
+
+    public CombinedResourceBundle(List<XFormsFeatures.ResourceConfig> resources, boolean isMinimal, long lastModified, byte[] identityBytes) {
+        this.resources = resources;
+        this.isMinimal = isMinimal;
+        this.lastModified = lastModified;
+
+        this.identityBytes = identityBytes;
+        this.gzipBytes = gzip(identityBytes);
+        // Strong validator based on the content
+        this.etag = "\"" + SecureUtils.digestBytes(identityBytes, "MD5", "hex") + "\"";
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public byte[] getBytes(boolean gzip) {
+        return gzip ? gzipBytes : identityBytes;
+    }
+
+    /**
+     * Return the ETag for the given encoding. Each encoding must have its own strong validator.
+     *
+     * @param gzip  whether the gzip encoding is used
+     * @return      ETag, including quotes
+     */
+    public String getETag(boolean gzip) {
+        return gzip ? etag.substring(0, etag.length() - 1) + "-gzip\"" : etag;
+    }
+
+    /**
+     * Whether the given If-None-Match header value matches one of the ETags of this bundle.
+     *
+     * @param ifNoneMatch   header value, may be null
+     * @return              true iif the header matches
+     */
+    public boolean matchesETag(String ifNoneMatch) {
+        return NetUtils.matchesETag(ifNoneMatch, getETag(false), getETag(true));
+    }
+
+    /**
+     * Whether the bundle includes the given resource.
+     *
+     * @param resourcePath  resource manager key
+     * @return              true iif the resource is included
+     */
+    public boolean containsResource(String resourcePath) {
+        for (final XFormsFeatures.ResourceConfig resource: resources)
+            if (resource.getResourcePath(isMinimal).equals(resourcePath))
+                return true;
+        return false;
+    }
+
+    /**
+     * Check whether the resources have changed since the bundle was created. This is used when the resource manager
+     * doesn't notify changes.
+     *
+     * @return true iif the bundle is still valid
+     */
+    public boolean isUpToDate() {
+        return XFormsResourceServer.computeCombinedLastModified(resources, isMinimal) <= lastModified;
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        try {
+            final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(bytes.length / 3);
+            final GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream);
+            gzipOutputStream.write(bytes);
+            gzipOutputStream.close();
+            return byteArrayOutputStream.toByteArray();
+        } catch (IOException e) {
+            throw new OXFException(e);
+        }
+    }
+}
@@ -18,6 +18,7 @@ import org.orbeon.oxf.pipeline.api.ExternalContext;
 import org.orbeon.oxf.pipeline.api.PipelineContext;
 import org.orbeon.oxf.processor.converter.XHTMLRewrite;
 import org.orbeon.oxf.util.ContentHandlerWriter;
+import org.orbeon.oxf.xforms.ChangedControls;
 import org.orbeon.oxf.xforms.XFormsConstants;
 import org.orbeon.oxf.xforms.XFormsContainingDocument;
 import org.orbeon.oxf.xforms.XFormsProperties;
@@ -40,6 +41,7 @@ public class ControlsComparator {
     private final PipelineContext pipelineContext;
     private final XFormsContainingDocument containingDocument;
     private final Set<String> valueChangeControlIds;
+    private final ChangedControls changedControls;
     private final boolean isTestMode;
 
     public final boolean isSpanHTMLLayout;
@@ -51,15 +53,38 @@ public class ControlsComparator {
 
     private final int fullUpdateThreshold;
 
+    // Whether we are within a subtree which must be compared entirely
+    private boolean isInChangedSubtree;
+
+    /**
+     * Create a comparator.
+     *
+     * @param pipelineContext       pipeline context
+     * @param ch                    output
+     * @param containingDocument    containing document
+     * @param valueChangeControlIds ids of controls whose values changed in the request, or null
+     * @param changedControls       changed controls, or null to compare all the controls
+     * @param isTestMode            whether we are in test mode
+     */
     public ControlsComparator(PipelineContext pipelineContext, ContentHandlerHelper ch, XFormsContainingDocument containingDocument,
-                              Set<String> valueChangeControlIds, boolean isTestMode) {
+                              Set<String> valueChangeControlIds, ChangedControls changedControls, boolean isTestMode) {
 
         this.pipelineContext = pipelineContext;
         this.ch = ch;
         this.containingDocument = containingDocument;
         this.valueChangeControlIds = valueChangeControlIds;
+        this.changedControls = changedControls;
         this.isTestMode = isTestMode;
 
+        // Controls whose values changed in the request are always output, so they must not be skipped
+        if (changedControls != null && valueChangeControlIds != null) {
+            for (final String effectiveId: valueChangeControlIds) {
+                final Object control = containingDocument.getControls().getObjectByEffectiveId(effectiveId);
+                if (control instanceof XFormsControl)
+                    changedControls.markChanged((XFormsControl) control);
+            }
+        }
+
         this.isSpanHTMLLayout = XFormsProperties.isSpanHTMLLayout(containingDocument);
         this.fullUpdateThreshold = XFormsProperties.getAjaxFullUpdateThreshold(containingDocument);
     }
@@ -90,6 +115,10 @@ public class ControlsComparator {
             final XFormsControl control1 = (leftIterator == null) ? null : leftIterator.next();
             final XFormsControl control2 = (rightIterator == null) ? null : rightIterator.next();
 
+            // Skip existing controls which have not changed since the initial tree was cloned, along with their descendants
+            if (control1 != null && changedControls != null && !isInChangedSubtree && !changedControls.isChanged(control2))
+                continue;
+
             // Handle xxforms:update="full"
             final SAXStore.Mark mark = getUpdateFullMark(control2);
             final boolean isFullUpdateLevel = mark != null;
@@ -117,6 +146,9 @@ public class ControlsComparator {
             boolean mustDoFullUpdate = mustDoFullUpdate();
 
             // 2: Check children unless we already know we must do a full update
+            final boolean wasInChangedSubtree = isInChangedSubtree;
+            if (changedControls != null && changedControls.isSubtreeChanged(control2))
+                isInChangedSubtree = true;
             if (!mustDoFullUpdate) {
                 foobar: if (control2 instanceof XFormsContainerControl) {
 
@@ -230,6 +262,7 @@ public class ControlsComparator {
                     }
                 }
             }
+            isInChangedSubtree = wasInChangedSubtree;
 
             // Handle xxforms:update="full"
             if (mustDoFullUpdate && !isFullUpdateLevel) {
@@ -306,13 +339,13 @@ public class ControlsComparator {
                 final boolean hostLanguageAVTs = XFormsProperties.isHostLanguageAVTs();
                 if (hostLanguageAVTs) {
                     controller.registerHandler(XXFormsAttributeHandler.class.getName(), XFormsConstants.XXFORMS_NAMESPACE_URI, "attribute");
-                    controller.registerHandler(XHTMLElementHandler.class.getName(), XMLConstants.XHTML_NAMESPACE_URI);
+                    controller.registerHandler(XHTMLElementHandler.FACTORY, XMLConstants.XHTML_NAMESPACE_URI);
                 }
 
                 // Swallow XForms elements that are unknown
-                controller.registerHandler(NullHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI);
-                controller.registerHandler(NullHandler.class.getName(), XFormsConstants.XXFORMS_NAMESPACE_URI);
-                controller.registerHandler(NullHandler.class.getName(), XFormsConstants.XBL_NAMESPACE_URI);
+                controller.registerHandler(NullHandler.FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI);
+                controller.registerHandler(NullHandler.FACTORY, XFormsConstants.XXFORMS_NAMESPACE_URI);
+                controller.registerHandler(NullHandler.FACTORY, XFormsConstants.XBL_NAMESPACE_URI);
             }
 
             // Create the output SAX pipeline:
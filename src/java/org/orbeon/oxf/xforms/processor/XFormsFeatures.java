@@ -23,6 +23,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 public class XFormsFeatures {
 
@@ -469,6 +471,22 @@ public class XFormsFeatures {
         }
     }
 
+    /**
+     * Return the names of the features in use by the given document.
+     *
+     * @param containingDocument    document
+     * @param appearancesMap        control appearances in use
+     * @return                      sorted feature names
+     */
+    public static SortedSet<String> getInUseFeatureNames(XFormsContainingDocument containingDocument, Map appearancesMap) {
+        final SortedSet<String> result = new TreeSet<String>();
+        for (final FeatureConfig currentFeature: features) {
+            if (currentFeature.isInUse(containingDocument, appearancesMap))
+                result.add(currentFeature.getName());
+        }
+        return result;
+    }
+
     public static List<ResourceConfig> getCSSResources(XFormsContainingDocument containingDocument, Map appearancesMap) {
         final List<ResourceConfig> result = new ArrayList<ResourceConfig>();
         for (final ResourceConfig resourceConfig: stylesheets) {
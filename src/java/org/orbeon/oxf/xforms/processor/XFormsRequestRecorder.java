@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.processor;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.QName;
+import org.orbeon.oxf.pipeline.api.ExternalContext;
+import org.orbeon.oxf.util.IndentedLogger;
+import org.orbeon.oxf.util.SecureUtils;
+import org.orbeon.oxf.xforms.XFormsConstants;
+import org.orbeon.oxf.xforms.state.XFormsStateManager;
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Record incoming Ajax requests to disk so that sessions can be replayed later by a load-test driver.
+ *
+ * Each request is written to its own file, with its static and dynamic states removed as those are produced again
+ * upon replay. Requests are grouped in one directory per document, and file names sort in the order in which requests
+ * were received. Documents are identified by their UUID when their state is kept on the server. With client state
+ * handling, requests don't identify the document, and they are grouped by session instead.
+ *
+ * Event values are recorded as they are sent by the client, including passwords and other personal data.
+ *
+ * Recording is only a diagnostic tool: failing to record a request doesn't fail the request.
+ */
+public class XFormsRequestRecorder {
+
+    public static final String RECORDED_TIME_ATTRIBUTE = "recorded-time";
+
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private final File directory;
+
+    public XFormsRequestRecorder(String directory) {
+        this.directory = new File(directory);
+    }
+
+    /**
+     * Record the given request document.
+     *
+     * @param indentedLogger    logger
+     * @param session           current session, may be null
+     * @param requestDocument   incoming xxforms:event-request document
+     */
+    public void record(IndentedLogger indentedLogger, ExternalContext.Session session, Document requestDocument) {
+        final Element requestElement = requestDocument.getRootElement();
+
+        // Group requests by document if possible
+        final Element staticStateElement = requestElement.element(XFormsConstants.XXFORMS_STATIC_STATE_QNAME);
+        final String staticStateString = (staticStateElement != null) ? staticStateElement.getTextTrim() : "";
+        final String documentUUID = XFormsStateManager.getDocumentUUID(staticStateString);
+        final String groupKey;
+        if (documentUUID != null)
+            groupKey = documentUUID;
+        else if (session != null)
+            groupKey = session.getId();
+        else
+            groupKey = staticStateString;
+        final File documentDirectory = new File(directory, SecureUtils.digestString(groupKey, "MD5", "hex"));
+
+        // Copy request without states
+        final Document recordedDocument = Dom4jUtils.createDocumentCopyElement(requestElement);
+        final Element recordedElement = recordedDocument.getRootElement();
+        removeElement(recordedElement, XFormsConstants.XXFORMS_STATIC_STATE_QNAME);
+        removeElement(recordedElement, XFormsConstants.XXFORMS_DYNAMIC_STATE_QNAME);
+        removeElement(recordedElement, XFormsConstants.XXFORMS_INITIAL_DYNAMIC_STATE_QNAME);
+
+        final long now = System.currentTimeMillis();
+        recordedElement.addAttribute(RECORDED_TIME_ATTRIBUTE, Long.toString(now));
+
+        final File file = new File(documentDirectory, String.format("%013d-%06d.xml", now, sequence.incrementAndGet()));
+        try {
+            if (!documentDirectory.isDirectory() && !documentDirectory.mkdirs() && !documentDirectory.isDirectory()) {
+                indentedLogger.logWarning("", "unable to create directory to record ajax request", "directory", documentDirectory.getAbsolutePath());
+                return;
+            }
+
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "utf-8");
+            try {
+                writer.write(Dom4jUtils.domToString(recordedDocument));
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            indentedLogger.logWarning("", "unable to record ajax request", e);
+            return;
+        }
+
+        indentedLogger.logDebug("", "recorded ajax request", "file", file.getAbsolutePath());
+    }
+
+    private static void removeElement(Element parentElement, QName qName) {
+        final Element element = parentElement.element(qName);
+        if (element != null)
+            parentElement.remove(element);
+    }
+}
@@ -19,6 +19,8 @@ import org.orbeon.oxf.common.Version;
 import org.orbeon.oxf.pipeline.api.ExternalContext;
 import org.orbeon.oxf.pipeline.api.PipelineContext;
 import org.orbeon.oxf.processor.ProcessorImpl;
+import org.orbeon.oxf.resources.ResourceManager;
+import org.orbeon.oxf.resources.ResourceManagerBase;
 import org.orbeon.oxf.resources.ResourceManagerWrapper;
 import org.orbeon.oxf.resources.URLFactory;
 import org.orbeon.oxf.util.*;
@@ -40,6 +42,30 @@ public class XFormsResourceServer extends ProcessorImpl {
     private static final Logger logger = LoggerFactory.createLogger(XFormsResourceServer.class);
     private static final long ONE_YEAR_IN_MILLISECONDS = 365L * 24 * 60 * 60 * 1000;
 
+    // Combined resources by context path, type and sorted feature names, least recently used first
+    private static final int MAX_BUNDLES = 64;
+    private static final Map<String, CombinedResourceBundle> bundles = Collections.synchronizedMap(new LinkedHashMap<String, CombinedResourceBundle>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CombinedResourceBundle> eldest) {
+            return size() > MAX_BUNDLES;
+        }
+    });
+
+    // Resource manager notifying us of changes to the resources, null if changes must be checked on access
+    private static ResourceManager listenedResourceManager;
+
+    // Drop bundles which include a resource that changed
+    private static final ResourceManagerBase.ChangeListener BUNDLES_CHANGE_LISTENER = new ResourceManagerBase.ChangeListener() {
+        public void resourceChanged(String key) {
+            synchronized (bundles) {
+                for (final Iterator<CombinedResourceBundle> i = bundles.values().iterator(); i.hasNext();) {
+                    if (i.next().containsResource(key))
+                        i.remove();
+                }
+            }
+        }
+    };
+
     public XFormsResourceServer() {
     }
 
@@ -188,10 +214,10 @@ public class XFormsResourceServer extends ProcessorImpl {
             else
                 resources = XFormsFeatures.getJavaScriptResourcesByFeatureMap(requestedFeaturesMap);
 
-            // Get last modified date
-            final long combinedLastModified = computeCombinedLastModified(resources, isMinimal);
-
-            // If conditional get and date ok, send not modified
+            // Get combined resources, from memory if possible
+            final CombinedResourceBundle bundle = getBundle(indentedLogger, resources, pipelineContext, requestPath,
+                    new TreeSet<String>(requestedFeaturesMap.keySet()), isCSS, isMinimal);
+            final long combinedLastModified = bundle.getLastModified();
 
             // Set Last-Modified, required for caching and conditional get
             if (URLRewriterUtils.isResourcesVersioned()) {
@@ -202,42 +228,32 @@ public class XFormsResourceServer extends ProcessorImpl {
                 response.setResourceCaching(combinedLastModified, 0);
             }
 
-            // Check If-Modified-Since and don't return content if condition is met
-            if (!response.checkIfModifiedSince(combinedLastModified, false)) {
+            // Check If-None-Match and If-Modified-Since and don't return content if condition is met
+            final Map<String, String> headers = request.getHeaderMap();
+            final boolean isGZIP = NetUtils.acceptsGZIP(headers.get("accept-encoding"));
+            response.setHeader("ETag", bundle.getETag(isGZIP));
+            response.setHeader("Vary", "Accept-Encoding");
+            final String ifNoneMatch = headers.get("if-none-match");
+            if (ifNoneMatch != null ? bundle.matchesETag(ifNoneMatch) : !response.checkIfModifiedSince(combinedLastModified, false)) {
                 response.setStatus(ExternalContext.SC_NOT_MODIFIED);
                 return;
             }
 
             OutputStream os = null;
             try {
-                os = response.getOutputStream();
                 response.setContentType(isCSS ? "text/css" : "application/x-javascript");
-                {
-                    final boolean isDebugEnabled = indentedLogger.isDebugEnabled();
-                    if (XFormsProperties.isCacheCombinedResources()) {
-                        // Caching requested
-                        final File resourceFile = cacheResources(indentedLogger, resources, pipelineContext, requestPath, combinedLastModified, isCSS, isMinimal);
-                        if (resourceFile != null) {
-                            // Caching could take place, send out cached result
-                            if (isDebugEnabled)
-                                indentedLogger.logDebug("resources", "serving from cache ", "request path", requestPath);
-                            final FileInputStream fis = new FileInputStream(resourceFile);
-                            NetUtils.copyStream(fis, os);
-                            fis.close();
-                            os.flush();
-                        } else {
-                            // Was unable to cache, just serve
-                            if (isDebugEnabled)
-                                indentedLogger.logDebug("resources", "caching requested but not possible, serving directly", "request path", requestPath);
-                            generate(indentedLogger, resources, pipelineContext, os, isCSS, isMinimal);
-                        }
-                    } else {
-                        // Should not cache, just serve
-                        if (isDebugEnabled)
-                            indentedLogger.logDebug("resources", "caching not requested, serving directly", "request path", requestPath);
-                        generate(indentedLogger, resources, pipelineContext, os, isCSS, isMinimal);
-                    }
-                }
+                if (isGZIP)
+                    response.setHeader("Content-Encoding", "gzip");
+
+                final byte[] bytes = bundle.getBytes(isGZIP);
+                response.setContentLength(bytes.length);
+
+                if (indentedLogger.isDebugEnabled())
+                    indentedLogger.logDebug("resources", "serving from memory", "request path", requestPath, "gzip", Boolean.toString(isGZIP));
+
+                os = response.getOutputStream();
+                os.write(bytes);
+                os.flush();
             } catch (OXFException e) {
                 throw e;
             } catch (Exception e) {
@@ -254,6 +270,82 @@ public class XFormsResourceServer extends ProcessorImpl {
         }
     }
 
+    /**
+     * Return the in-memory combined resources for the given resource path, creating or refreshing them if needed.
+     *
+     * If caching of combined resources is enabled, new resources are also stored on disk, so that deployments using
+     * an HTTP server front-end can access them directly.
+     *
+     * @param indentedLogger        logger
+     * @param resources             list of XFormsFeatures.ResourceConfig to consider
+     * @param propertyContext       current PipelineContext (used for rewriting and matchers)
+     * @param resourcePath          path of the combined resource, used to store it on disk
+     * @param featureNames          sorted names of the requested features
+     * @param isCSS                 whether to generate CSS or JavaScript resources
+     * @param isMinimal             whether to use minimal resources
+     * @return                      bundle
+     */
+    public static CombinedResourceBundle getBundle(IndentedLogger indentedLogger, List<XFormsFeatures.ResourceConfig> resources,
+                                                   PropertyContext propertyContext, String resourcePath, SortedSet<String> featureNames,
+                                                   boolean isCSS, boolean isMinimal) {
+
+        final boolean checkOnAccess = !listenForChanges();
+
+        // CSS content is rewritten against the context path, so include it in the key
+        final StringBuilder keyBuilder = new StringBuilder(XFormsUtils.getExternalContext(propertyContext).getRequest().getContextPath());
+        keyBuilder.append(isCSS ? "|css|" : "|js|");
+        keyBuilder.append(isMinimal ? "min|" : "full|");
+        for (final String featureName: featureNames) {
+            keyBuilder.append(featureName);
+            keyBuilder.append(',');
+        }
+        final String key = keyBuilder.toString();
+
+        final CombinedResourceBundle existingBundle = bundles.get(key);
+        if (existingBundle != null && (!checkOnAccess || existingBundle.isUpToDate()))
+            return existingBundle;
+
+        final boolean isDebugEnabled = indentedLogger.isDebugEnabled();
+        if (isDebugEnabled)
+            indentedLogger.logDebug("resources", existingBundle == null ? "creating combined resources" : "combined resources out of date, recreating",
+                    "resource path", resourcePath);
+
+        try {
+            final long combinedLastModified = computeCombinedLastModified(resources, isMinimal);
+
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            generate(indentedLogger, resources, propertyContext, os, isCSS, isMinimal);
+
+            final CombinedResourceBundle newBundle = new CombinedResourceBundle(resources, isMinimal, combinedLastModified, os.toByteArray());
+            // NOTE: Concurrent requests may create the same bundle, in which case the last one wins
+            bundles.put(key, newBundle);
+
+            if (XFormsProperties.isCacheCombinedResources())
+                storeResources(indentedLogger, resourcePath, newBundle);
+
+            return newBundle;
+        } catch (OXFException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new OXFException(e);
+        }
+    }
+
+    /**
+     * Make sure bundles are dropped when the resources they include change.
+     *
+     * @return true iif the current resource manager notifies changes
+     */
+    private static synchronized boolean listenForChanges() {
+        final ResourceManager resourceManager = ResourceManagerWrapper.instance();
+        if (resourceManager != listenedResourceManager) {
+            // New resource manager, e.g. after initialization: start over
+            bundles.clear();
+            listenedResourceManager = ResourceManagerWrapper.addChangeListener(BUNDLES_CHANGE_LISTENER) ? resourceManager : null;
+        }
+        return listenedResourceManager != null;
+    }
+
     /**
      * Compute the last modification date of the given resources.
      *
@@ -272,55 +364,37 @@ public class XFormsResourceServer extends ProcessorImpl {
     }
 
     /**
-     * Try to cache the combined resources on disk.
+     * Try to store the combined resources on disk.
      *
      * @param indentedLogger        logger
-     * @param resources             list of XFormsFeatures.ResourceConfig to consider
-     * @param propertyContext       current PipelineContext (used for rewriting and matchers)
      * @param resourcePath          path to store the cached resource to
-     * @param combinedLastModified  last modification date of the resources to combine
-     * @param isCSS                 whether to generate CSS or JavaScript resources
-     * @param isMinimal             whether to use minimal resources
-     * @return                      File pointing to the generated resource, null if caching could not take place
+     * @param bundle                combined resources
      */
-    public static File cacheResources(IndentedLogger indentedLogger, List<XFormsFeatures.ResourceConfig> resources,
-                                      PropertyContext propertyContext, String resourcePath, long combinedLastModified,
-                                      boolean isCSS, boolean isMinimal) {
+    private static void storeResources(IndentedLogger indentedLogger, String resourcePath, CombinedResourceBundle bundle) {
         try {
-            final File resourceFile;
             final String realPath = ResourceManagerWrapper.instance().getRealPath(resourcePath);
             final boolean isDebugEnabled = indentedLogger.isDebugEnabled();
             if (realPath != null) {
-                // We hope to be able to cache as a resource
-                resourceFile = new File(realPath);
-                if (resourceFile.exists()) {
-                    // Resources exist, generate if needed
-                    final long resourceLastModified = resourceFile.lastModified();
-                    if (resourceLastModified < combinedLastModified) {
-                        // Resource is out of date, generate
-                        if (isDebugEnabled)
-                            indentedLogger.logDebug("resources", "cached combined resources out of date, saving", "resource path", resourcePath);
-                        final FileOutputStream fos = new FileOutputStream(resourceFile);
-                        generate(indentedLogger, resources, propertyContext, fos, isCSS, isMinimal);
-                    } else {
-                        if (isDebugEnabled)
-                            indentedLogger.logDebug("resources", "cached combined resources exist and are up-to-date", "resource path", resourcePath);
-                    }
-                } else {
-                    // Resource doesn't exist, generate
+                final File resourceFile = new File(realPath);
+                if (!resourceFile.exists() || resourceFile.lastModified() < bundle.getLastModified()) {
+                    // Resource doesn't exist or is out of date, save
                     if (isDebugEnabled)
-                        indentedLogger.logDebug("resources", "cached combined resources don't exist, saving", "resource path", resourcePath);
+                        indentedLogger.logDebug("resources", "saving cached combined resources", "resource path", resourcePath);
                     resourceFile.getParentFile().mkdirs();
-                    resourceFile.createNewFile();
                     final FileOutputStream fos = new FileOutputStream(resourceFile);
-                    generate(indentedLogger, resources, propertyContext, fos, isCSS, isMinimal);
+                    try {
+                        fos.write(bundle.getBytes(false));
+                    } finally {
+                        fos.close();
+                    }
+                } else {
+                    if (isDebugEnabled)
+                        indentedLogger.logDebug("resources", "cached combined resources exist and are up-to-date", "resource path", resourcePath);
                 }
             } else {
                 if (isDebugEnabled)
                     indentedLogger.logDebug("resources", "unable to locate real path for cached combined resources, not saving", "resource path", resourcePath);
-                resourceFile = null;
             }
-            return resourceFile;
         } catch (Exception e) {
             throw new OXFException(e);
         }
@@ -183,6 +183,12 @@ public class XFormsServer extends ProcessorImpl {
             }
         }
 
+        // Record request for later replay if needed
+        final String recordRequestsDirectory = XFormsProperties.getRecordRequestsDirectory();
+        if (recordRequestsDirectory != null) {
+            new XFormsRequestRecorder(recordRequestsDirectory).record(indentedLogger, session, requestDocument);
+        }
+
         // Get static state
         final String encodedClientStaticStateString;
         {
@@ -854,13 +860,14 @@ public class XFormsServer extends ProcessorImpl {
                         final ControlTree currentControlTree = xformsControls.getCurrentControlTree();
                         final ControlTree initialControlTree = initialContainingDocument.getControls().getCurrentControlTree();
                         diffControls(pipelineContext, ch, containingDocument, indentedLogger, initialControlTree.getChildren(),
-                                currentControlTree.getChildren(), null, testOutputAllActions);
+                                currentControlTree.getChildren(), null, null, testOutputAllActions);
                     } else if (testOutputAllActions || containingDocument.isDirtySinceLastRequest()) {
                         // Only output changes if needed
                         final ControlTree currentControlTree = xformsControls.getCurrentControlTree();
                         diffControls(pipelineContext, ch, containingDocument, indentedLogger,
                                 xformsControls.getInitialControlTree().getChildren(),
-                                currentControlTree.getChildren(), valueChangeControlIds, testOutputAllActions);
+                                currentControlTree.getChildren(), valueChangeControlIds,
+                                xformsControls.getChangedControls(), testOutputAllActions);
                     }
 
                     ch.endElement();
@@ -1032,7 +1039,7 @@ public class XFormsServer extends ProcessorImpl {
     public static void diffControls(PipelineContext pipelineContext, ContentHandlerHelper ch,
                                     XFormsContainingDocument containingDocument, IndentedLogger indentedLogger,
                                     List<XFormsControl> state1, List<XFormsControl> state2,
-                                    Set<String> valueChangeControlIds, boolean isTestMode) {
+                                    Set<String> valueChangeControlIds, ChangedControls changedControls, boolean isTestMode) {
 
         // In test mode, ignore first tree
         if (isTestMode)
@@ -1040,7 +1047,7 @@ public class XFormsServer extends ProcessorImpl {
 
         indentedLogger.startHandleOperation("", "computing differences");
         {
-            new ControlsComparator(pipelineContext, ch, containingDocument, valueChangeControlIds, isTestMode).diff(state1, state2);
+            new ControlsComparator(pipelineContext, ch, containingDocument, valueChangeControlIds, changedControls, isTestMode).diff(state1, state2);
         }
         indentedLogger.endHandleOperation();
     }
@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.processor;
+
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.processor.ProcessorImpl;
+import org.orbeon.oxf.xforms.state.XFormsStaticStateCache;
+
+/**
+ * Load the static states persisted in the static state store. This is meant to be run as a context initialization
+ * processor, so that the first requests to precompiled forms don't have to analyze them.
+ */
+public class XFormsStaticStateLoader extends ProcessorImpl {
+
+    public XFormsStaticStateLoader() {
+    }
+
+    @Override
+    public void start(PipelineContext pipelineContext) {
+        XFormsStaticStateCache.instance().loadStore(pipelineContext);
+    }
+}
@@ -30,6 +30,7 @@ import org.orbeon.oxf.xforms.analysis.XFormsExtractorContentHandler;
 import org.orbeon.oxf.xforms.processor.handlers.*;
 import org.orbeon.oxf.xforms.state.XFormsDocumentCache;
 import org.orbeon.oxf.xforms.state.XFormsState;
+import org.orbeon.oxf.xforms.state.XFormsStaticStateCache;
 import org.orbeon.oxf.xforms.state.XFormsStateManager;
 import org.orbeon.oxf.xforms.submission.AsynchronousSubmissionManager;
 import org.orbeon.oxf.xml.*;
@@ -147,6 +148,7 @@ public class XFormsToXHTML extends ProcessorImpl {
                         // Compute annotated XForms document + static state document
                         final Stage1CacheableState stage1CacheableState = new Stage1CacheableState();
                         final Stage2CacheableState stage2CacheableState;
+                        final String newSourceDigest;
                         {
                             final TransformerHandler identity = TransformerUtils.getIdentityTransformerHandler();
                             // TODO: Use TinyTree instead of dom4j Document
@@ -162,18 +164,37 @@ public class XFormsToXHTML extends ProcessorImpl {
                             // Read the input through the annotator and gather namespace mappings
                             readInputAsSAX(pipelineContext, processorInput, new XFormsAnnotatorContentHandler(annotatedSAXStore, externalContext, metadata));
 
-                            // Get static state document and create static state object
+                            // Get static state document and create static state object, unless an identical one was already analyzed
                             final Document staticStateDocument = documentResult.getDocument();
-                            final XFormsStaticState xformsStaticState = new XFormsStaticState(pipelineContext, staticStateDocument, metadata, annotatedSAXStore);
+                            final String sourceDigest = XFormsStaticStateCache.getSourceDigest(staticStateDocument);
+                            final XFormsStaticState cachedStaticState = XFormsStaticStateCache.instance().findBySourceDigest(pipelineContext, sourceDigest, annotatedSAXStore);
+                            final XFormsStaticState xformsStaticState;
+                            if (cachedStaticState != null) {
+                                indentedLogger.logDebug("", "reusing analyzed static state.");
+                                xformsStaticState = cachedStaticState;
+                                newSourceDigest = null;
+                            } else {
+                                xformsStaticState = new XFormsStaticState(pipelineContext, staticStateDocument, metadata, annotatedSAXStore);
+                                newSourceDigest = sourceDigest;
+                            }
+
+                            // Compute render plan for the initial output
+                            final XHTMLRenderPlan renderPlan = new XHTMLRenderPlan(annotatedSAXStore);
+                            if (indentedLogger.isDebugEnabled())
+                                indentedLogger.logDebug("", "computed render plan", "static subtrees", Integer.toString(renderPlan.getStaticSubtreesCount()));
 
                             // Update input dependencies object
-                            stage2CacheableState = new Stage2CacheableState(annotatedSAXStore, xformsStaticState);
+                            stage2CacheableState = new Stage2CacheableState(annotatedSAXStore, xformsStaticState, renderPlan);
                         }
 
                         // Create document here so we can do appropriate analysis of caching dependencies
                         createCacheContainingDocument(pipelineContext, uriResolver, stage2CacheableState.getXFormsEngineStaticState(),
                                 containingDocument, xformsState);
 
+                        // Remember newly analyzed static state, now that it is encoded
+                        if (newSourceDigest != null)
+                            XFormsStaticStateCache.instance().add(pipelineContext, newSourceDigest, stage2CacheableState.getXFormsEngineStaticState());
+
                         // Gather set caching dependencies
                         gatherInputDependencies(containingDocument[0], indentedLogger, stage1CacheableState);
 
@@ -241,7 +262,7 @@ public class XFormsToXHTML extends ProcessorImpl {
                 final XFormsState encodedClientState = XFormsStateManager.getInitialEncodedClientState(containingDocument[0],
                         externalContext, xformsState[0], staticStateUUID, dynamicStateUUID);
 
-                outputResponseDocument(pipelineContext, externalContext, indentedLogger, stage2CacheableState.getAnnotatedSAXStore(),
+                outputResponseDocument(pipelineContext, externalContext, indentedLogger, stage2CacheableState.getRenderPlan().getSAXStore(),
                         containingDocument[0], contentHandler, encodedClientState);
             } else {
                 // Output in test mode
@@ -270,21 +291,27 @@ public class XFormsToXHTML extends ProcessorImpl {
     // What can be cached by the first stage: URI dependencies
     private static class Stage1CacheableState extends URIProcessorOutputImpl.URIReferences {}
 
-    // What can be cached by the second stage: SAXStore and static state
+    // What can be cached by the second stage: SAXStore, static state and render plan
     private static class Stage2CacheableState extends URIProcessorOutputImpl.URIReferences {
 
         private final SAXStore annotatedSAXStore;
         private final XFormsStaticState xformsStaticState;
+        private final XHTMLRenderPlan renderPlan;
 
-        public Stage2CacheableState(SAXStore annotatedSAXStore, XFormsStaticState xformsStaticState) {
+        public Stage2CacheableState(SAXStore annotatedSAXStore, XFormsStaticState xformsStaticState, XHTMLRenderPlan renderPlan) {
             this.annotatedSAXStore = annotatedSAXStore;
             this.xformsStaticState = xformsStaticState;
+            this.renderPlan = renderPlan;
         }
 
         public SAXStore getAnnotatedSAXStore() {
             return annotatedSAXStore;
         }
 
+        public XHTMLRenderPlan getRenderPlan() {
+            return renderPlan;
+        }
+
         public XFormsStaticState getXFormsEngineStaticState() {
             return xformsStaticState;
         }
@@ -399,6 +426,9 @@ public class XFormsToXHTML extends ProcessorImpl {
 
             // Register handlers on controller (the other handlers are registered by the body handler)
             {
+                // Content marked static by the render plan doesn't need any handler
+                controller.registerStaticContent(XFormsConstants.XXFORMS_NAMESPACE_URI, XFormsConstants.XXFORMS_STATIC_CONTENT_QNAME.getName());
+
                 controller.registerHandler(XHTMLHeadHandler.class.getName(), XMLConstants.XHTML_NAMESPACE_URI, "head");
                 controller.registerHandler(XHTMLBodyHandler.class.getName(), XMLConstants.XHTML_NAMESPACE_URI, "body");
 
@@ -406,13 +436,13 @@ public class XFormsToXHTML extends ProcessorImpl {
                 final boolean hostLanguageAVTs = XFormsProperties.isHostLanguageAVTs(); // TODO: this should be obtained per document, but we only know about this in the extractor
                 if (hostLanguageAVTs) {
                     controller.registerHandler(XXFormsAttributeHandler.class.getName(), XFormsConstants.XXFORMS_NAMESPACE_URI, "attribute");
-                    controller.registerHandler(XHTMLElementHandler.class.getName(), XMLConstants.XHTML_NAMESPACE_URI);
+                    controller.registerHandler(XHTMLElementHandler.FACTORY, XMLConstants.XHTML_NAMESPACE_URI);
                 }
 
                 // Swallow XForms elements that are unknown
-                controller.registerHandler(NullHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI);
-                controller.registerHandler(NullHandler.class.getName(), XFormsConstants.XXFORMS_NAMESPACE_URI);
-                controller.registerHandler(NullHandler.class.getName(), XFormsConstants.XBL_NAMESPACE_URI);
+                controller.registerHandler(NullHandler.FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI);
+                controller.registerHandler(NullHandler.FACTORY, XFormsConstants.XXFORMS_NAMESPACE_URI);
+                controller.registerHandler(NullHandler.FACTORY, XFormsConstants.XBL_NAMESPACE_URI);
             }
 
             // Set final output
@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.processor;
+
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.xforms.XFormsConstants;
+import org.orbeon.oxf.xml.ForwardingContentHandler;
+import org.orbeon.oxf.xml.SAXStore;
+import org.orbeon.oxf.xml.XMLConstants;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Stack;
+
+/**
+ * Render plan for the initial XHTML output of a form.
+ *
+ * The plan is a copy of the annotated document where each maximal subtree which the XHTML handlers would output
+ * unchanged is wrapped into an xxforms:static-content element. ElementHandlerController forwards the content of such
+ * elements directly to its output, without looking for handlers. The plan depends only on the annotated document, so
+ * it is computed once and cached along with the static state.
+ *
+ * A subtree is static if it only contains XHTML elements without @id, @for, or AVTs. Elements with an id may be
+ * rewritten with their effective id, and elements in other namespaces may be controls or components.
+ */
+public class XHTMLRenderPlan {
+
+    private final SAXStore saxStore;
+    private final int staticSubtreesCount;
+
+    public XHTMLRenderPlan(SAXStore annotatedSAXStore) {
+        try {
+            // 1. Find which elements start a static subtree
+            final StaticSubtreeFinder finder = new StaticSubtreeFinder();
+            annotatedSAXStore.replay(finder);
+
+            // 2. Copy the document with static subtrees wrapped
+            saxStore = new SAXStore();
+            final StaticSubtreeWrapper wrapper = new StaticSubtreeWrapper(saxStore, finder.staticElements);
+            annotatedSAXStore.replay(wrapper);
+            staticSubtreesCount = wrapper.wrappedCount;
+        } catch (SAXException e) {
+            throw new OXFException(e);
+        }
+    }
+
+    /**
+     * Return the SAXStore to replay through the handlers instead of the annotated document.
+     *
+     * @return SAXStore
+     */
+    public SAXStore getSAXStore() {
+        return saxStore;
+    }
+
+    public int getStaticSubtreesCount() {
+        return staticSubtreesCount;
+    }
+
+    private static boolean isStaticElement(String uri, String localname, Attributes attributes) {
+        // Only XHTML elements, except those for which specific handlers are registered
+        if (!XMLConstants.XHTML_NAMESPACE_URI.equals(uri) || localname.equals("html") || localname.equals("head") || localname.equals("body"))
+            return false;
+
+        if (attributes.getIndex("id") != -1 || attributes.getIndex("for") != -1)
+            return false;
+
+        final int attributesCount = attributes.getLength();
+        for (int i = 0; i < attributesCount; i++) {
+            if (attributes.getValue(i).indexOf('{') != -1)
+                return false;
+        }
+
+        return true;
+    }
+
+    private static class StaticSubtreeFinder extends ForwardingContentHandler {
+
+        // Elements are identified by their position in document order
+        public final BitSet staticElements = new BitSet();
+
+        private final Stack<int[]> elementStack = new Stack<int[]>(); // { position, isStatic }
+        private int elementPosition;
+
+        @Override
+        public void startElement(String uri, String localname, String qName, Attributes attributes) throws SAXException {
+            elementStack.push(new int[] { elementPosition++, isStaticElement(uri, localname, attributes) ? 1 : 0 });
+        }
+
+        @Override
+        public void endElement(String uri, String localname, String qName) throws SAXException {
+            final int[] element = elementStack.pop();
+            if (element[1] == 1) {
+                staticElements.set(element[0]);
+            } else if (elementStack.size() > 0) {
+                // A non-static element makes its ancestors non-static
+                elementStack.peek()[1] = 0;
+            }
+        }
+    }
+
+    private static class StaticSubtreeWrapper extends ForwardingContentHandler {
+
+        private final BitSet staticElements;
+        private final List<String[]> pendingPrefixMappings = new ArrayList<String[]>();
+
+        private int elementPosition;
+        private int staticLevel;
+        private boolean pendingWrapperEnd;
+
+        public int wrappedCount;
+
+        public StaticSubtreeWrapper(ContentHandler contentHandler, BitSet staticElements) {
+            super(contentHandler);
+            this.staticElements = staticElements;
+        }
+
+        private void closeWrapperIfNeeded() throws SAXException {
+            // The wrapper is closed lazily so that it includes the end prefix mappings of the static element
+            if (pendingWrapperEnd) {
+                super.endElement(XFormsConstants.XXFORMS_NAMESPACE_URI, XFormsConstants.XXFORMS_STATIC_CONTENT_QNAME.getName(),
+                        XFormsConstants.XXFORMS_STATIC_CONTENT_QNAME.getQualifiedName());
+                pendingWrapperEnd = false;
+            }
+        }
+
+        private void flushPrefixMappings() throws SAXException {
+            for (final String[] mapping: pendingPrefixMappings)
+                super.startPrefixMapping(mapping[0], mapping[1]);
+            pendingPrefixMappings.clear();
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) throws SAXException {
+            closeWrapperIfNeeded();
+            // Keep mappings until we know whether the element they apply to is wrapped
+            pendingPrefixMappings.add(new String[] { prefix, uri });
+        }
+
+        @Override
+        public void endPrefixMapping(String prefix) throws SAXException {
+            super.endPrefixMapping(prefix);
+        }
+
+        @Override
+        public void startElement(String uri, String localname, String qName, Attributes attributes) throws SAXException {
+            closeWrapperIfNeeded();
+            if (staticLevel > 0) {
+                staticLevel++;
+            } else if (staticElements.get(elementPosition)) {
+                // Start of static subtree
+                super.startElement(XFormsConstants.XXFORMS_NAMESPACE_URI, XFormsConstants.XXFORMS_STATIC_CONTENT_QNAME.getName(),
+                        XFormsConstants.XXFORMS_STATIC_CONTENT_QNAME.getQualifiedName(), new AttributesImpl());
+                staticLevel = 1;
+                wrappedCount++;
+            }
+            elementPosition++;
+            flushPrefixMappings();
+            super.startElement(uri, localname, qName, attributes);
+        }
+
+        @Override
+        public void endElement(String uri, String localname, String qName) throws SAXException {
+            closeWrapperIfNeeded();
+            super.endElement(uri, localname, qName);
+            if (staticLevel > 0 && --staticLevel == 0)
+                pendingWrapperEnd = true;
+        }
+
+        @Override
+        public void characters(char[] chars, int start, int length) throws SAXException {
+            closeWrapperIfNeeded();
+            super.characters(chars, start, length);
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] chars, int start, int length) throws SAXException {
+            closeWrapperIfNeeded();
+            super.ignorableWhitespace(chars, start, length);
+        }
+
+        @Override
+        public void processingInstruction(String target, String data) throws SAXException {
+            closeWrapperIfNeeded();
+            super.processingInstruction(target, data);
+        }
+
+        @Override
+        public void skippedEntity(String name) throws SAXException {
+            closeWrapperIfNeeded();
+            super.skippedEntity(name);
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            closeWrapperIfNeeded();
+            super.endDocument();
+        }
+    }
+}
@@ -14,12 +14,20 @@
 package org.orbeon.oxf.xforms.processor.handlers;
 
 import org.orbeon.oxf.xml.ElementHandler;
+import org.orbeon.oxf.xml.ElementHandlerController;
 
 /**
  * Handler that simply swallows its content and does nothing.
  */
 public class NullHandler extends ElementHandler {
 
+    // This handler is stateless so instances can be reused
+    public static final ElementHandlerController.HandlerFactory FACTORY = new ElementHandlerController.HandlerFactory(true) {
+        public ElementHandler createHandler() {
+            return new NullHandler();
+        }
+    };
+
     public boolean isRepeating() {
         return false;
     }
@@ -16,6 +16,8 @@ package org.orbeon.oxf.xforms.processor.handlers;
 import org.orbeon.oxf.xforms.XFormsUtils;
 import org.orbeon.oxf.xforms.analysis.controls.ControlAnalysis;
 import org.orbeon.oxf.xforms.control.controls.XXFormsAttributeControl;
+import org.orbeon.oxf.xml.ElementHandler;
+import org.orbeon.oxf.xml.ElementHandlerController;
 import org.orbeon.oxf.xml.XMLUtils;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
@@ -25,6 +27,14 @@ import org.xml.sax.SAXException;
  * Handle xhtml:* for handling AVTs as well as rewriting @id and @for.
  */
 public class XHTMLElementHandler extends XFormsBaseHandler {
+
+    // This handler only keeps state set by setContext() so instances can be reused
+    public static final ElementHandlerController.HandlerFactory FACTORY = new ElementHandlerController.HandlerFactory(true) {
+        public ElementHandler createHandler() {
+            return new XHTMLElementHandler();
+        }
+    };
+
     public XHTMLElementHandler() {
         super(false, true);
     }
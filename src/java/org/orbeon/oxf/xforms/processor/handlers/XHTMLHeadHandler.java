@@ -182,8 +182,8 @@ public class XHTMLHeadHandler extends XFormsBaseHandler {
                 // Attempt to cache combined resources
                 // Do it at this point so that deployments using an HTTP server front-end can access the resource on disk directly
                 final List<XFormsFeatures.ResourceConfig> resources = XFormsFeatures.getCSSResources(containingDocument, javaScriptControlsAppearancesMap);
-                final long combinedLastModified = XFormsResourceServer.computeCombinedLastModified(resources, minimal);
-                XFormsResourceServer.cacheResources(resourcesIndentedLogger, resources, pipelineContext, combinedResourceName, combinedLastModified, true, minimal);
+                XFormsResourceServer.getBundle(resourcesIndentedLogger, resources, pipelineContext, combinedResourceName,
+                        XFormsFeatures.getInUseFeatureNames(containingDocument, javaScriptControlsAppearancesMap), true, minimal);
             }
         } else {
             for (final XFormsFeatures.ResourceConfig resourceConfig: XFormsFeatures.getCSSResources(containingDocument, javaScriptControlsAppearancesMap)) {
@@ -233,8 +233,8 @@ public class XHTMLHeadHandler extends XFormsBaseHandler {
                 // Attempt to cache combined resources
                 // Do it at this point so that deployments using an HTTP server front-end can access the resource on disk directly
                 final List<XFormsFeatures.ResourceConfig> resources = XFormsFeatures.getJavaScriptResources(containingDocument, javaScriptControlsAppearancesMap);
-                final long combinedLastModified = XFormsResourceServer.computeCombinedLastModified(resources, minimal);
-                XFormsResourceServer.cacheResources(resourcesIndentedLogger, resources, pipelineContext, combinedResourceName, combinedLastModified, false, minimal);
+                XFormsResourceServer.getBundle(resourcesIndentedLogger, resources, pipelineContext, combinedResourceName,
+                        XFormsFeatures.getInUseFeatureNames(containingDocument, javaScriptControlsAppearancesMap), false, minimal);
             }
 
         } else {
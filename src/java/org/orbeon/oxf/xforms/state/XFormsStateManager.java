@@ -132,6 +132,19 @@ public class XFormsStateManager {
         }
     }
 
+    /**
+     * Return the UUID identifying a document, when its state is kept on the server.
+     *
+     * @param staticStateString static state string coming from the client
+     * @return                  document UUID, or null if the state is kept on the client
+     */
+    public static String getDocumentUUID(String staticStateString) {
+        if (staticStateString.startsWith(PERSISTENT_STATE_PREFIX))
+            return staticStateString.substring(PERSISTENT_STATE_PREFIX.length());
+        else
+            return null;
+    }
+
     public static boolean isSessionDependentState(String staticStateString, String dynamicStateString) {
         if (staticStateString.length() > PREFIX_COLON_POSITION && staticStateString.charAt(PREFIX_COLON_POSITION) == ':') {
             final String staticStatePrefix = staticStateString.substring(0, PREFIX_COLON_POSITION + 1);
@@ -0,0 +1,478 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state;
+
+import org.dom4j.Document;
+import org.orbeon.oxf.cache.Cache;
+import org.orbeon.oxf.cache.InternalCacheKey;
+import org.orbeon.oxf.cache.ObjectCache;
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.common.Version;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.resources.ResourceManagerWrapper;
+import org.orbeon.oxf.util.IndentedLogger;
+import org.orbeon.oxf.util.NumberUtils;
+import org.orbeon.oxf.util.SecureUtils;
+import org.orbeon.oxf.xforms.XFormsProperties;
+import org.orbeon.oxf.xforms.XFormsStaticState;
+import org.orbeon.oxf.xforms.analysis.XFormsAnnotatorContentHandler;
+import org.orbeon.oxf.xml.SAXStore;
+import org.orbeon.oxf.xml.XMLUtils;
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
+import org.xml.sax.SAXException;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This cache stores analyzed XFormsStaticState objects, so that identical forms are analyzed only once.
+ *
+ * Static states are found either by the digest of the static state document produced by the extractor, or by the
+ * digest of their encoded form. The static state document doesn't contain the XHTML of the page, so a static state
+ * which keeps the annotated XHTML, e.g. in noscript mode, is only reused for a page with the same annotated XHTML.
+ *
+ * When the oxf.xforms.static-state.store.directory property is set, encoded static
+ * states are also persisted to that directory so that they can be loaded again after a restart without going through
+ * the XForms extraction.
+ *
+ * Each stored file is named after the digest of the encoded static state and contains:
+ *
+ * o a magic number and a format version
+ * o the version of Orbeon Forms which produced the file
+ * o the digest of the source static state document
+ * o the digest of the annotated XHTML kept by the static state, if any
+ * o the XBL files included by the static state and their last modification date
+ * o the encoded static state
+ *
+ * Files with a different format or product version are ignored. A file found by source digest is removed if its XBL
+ * includes changed since it was written, or when a newer static state is stored for the same source digest.
+ */
+public class XFormsStaticStateCache {
+
+    private static final String LOG_TYPE = "static state cache";
+
+    static final String XFORMS_STATIC_STATE_CACHE_NAME = "xforms.cache.static-states";
+    private static final int XFORMS_STATIC_STATE_CACHE_DEFAULT_SIZE = 50;
+
+    private static final Long CONSTANT_VALIDITY = (long) 0;
+    private static final String SOURCE_DIGEST_KEY_TYPE = XFORMS_STATIC_STATE_CACHE_NAME + ".source";
+    private static final String ENCODED_DIGEST_KEY_TYPE = XFORMS_STATIC_STATE_CACHE_NAME + ".encoded";
+
+    private static final String STORE_FILE_EXTENSION = ".xss";
+    private static final int STORE_MAGIC = 0x4F585353; // "OXSS"
+    private static final int STORE_FORMAT_VERSION = 3;
+
+    private static final XFormsStaticStateCache instance = new XFormsStaticStateCache(null);
+
+    public static XFormsStaticStateCache instance() {
+        return instance;
+    }
+
+    // Store directory, or null to use the oxf.xforms.static-state.store.directory property
+    private final String storeDirectoryPath;
+    // Directory which could not be created, so that the store is disabled without failing each request
+    private volatile String unusableDirectoryPath;
+
+    // Source digest -> stored file, for states which are in the store but not necessarily in memory
+    private final Map<String, File> storeIndex = new ConcurrentHashMap<String, File>();
+    private String indexedDirectory;
+
+    XFormsStaticStateCache(String storeDirectoryPath) {
+        this.storeDirectoryPath = storeDirectoryPath;
+    }
+
+    /**
+     * Compute the digest identifying a static state document before it is analyzed.
+     *
+     * @param staticStateDocument   static state document produced by the extractor
+     * @return                      hexadecimal digest
+     */
+    public static String getSourceDigest(Document staticStateDocument) {
+        return NumberUtils.toHexString(Dom4jUtils.getDigest(staticStateDocument));
+    }
+
+    private static String getXHTMLDigest(SAXStore xhtml) {
+        final XMLUtils.DigestContentHandler digestContentHandler = new XMLUtils.DigestContentHandler("MD5");
+        try {
+            xhtml.replay(digestContentHandler);
+        } catch (SAXException e) {
+            throw new OXFException(e);
+        }
+        return NumberUtils.toHexString(digestContentHandler.getResult());
+    }
+
+    private static String getEncodedDigest(String encodedStaticState) {
+        return SecureUtils.digestString(encodedStaticState, "MD5", "hex");
+    }
+
+    /**
+     * Find an analyzed static state given the digest of its source document.
+     *
+     * @param pipelineContext   current context
+     * @param sourceDigest      digest obtained with getSourceDigest()
+     * @param annotatedSAXStore annotated XHTML of the page, compared with the XHTML kept by the static state if any
+     * @return                  static state, or null if not found
+     */
+    public XFormsStaticState findBySourceDigest(PipelineContext pipelineContext, String sourceDigest, SAXStore annotatedSAXStore) {
+        // Only computed if needed
+        final String[] xhtmlDigest = new String[1];
+
+        final Cache cache = ObjectCache.instance(XFORMS_STATIC_STATE_CACHE_NAME, XFORMS_STATIC_STATE_CACHE_DEFAULT_SIZE);
+        final CacheEntry cacheEntry = (CacheEntry) cache.findValid(pipelineContext, new InternalCacheKey(SOURCE_DIGEST_KEY_TYPE, sourceDigest), CONSTANT_VALIDITY);
+        if (cacheEntry != null) {
+            if (!cacheEntry.isUpToDate()) {
+                getIndentedLogger().logDebug(LOG_TYPE, "discarding static state with modified XBL includes", "digest", sourceDigest);
+                return null;
+            } else if (!isSameXHTML(cacheEntry.xhtmlDigest, annotatedSAXStore, xhtmlDigest)) {
+                getIndentedLogger().logDebug(LOG_TYPE, "not reusing static state with different XHTML", "digest", sourceDigest);
+                return null;
+            } else {
+                getIndentedLogger().logDebug(LOG_TYPE, "found static state by source digest", "digest", sourceDigest);
+                return cacheEntry.staticState;
+            }
+        }
+
+        // Try the store
+        final File storeDirectory = getStoreDirectory();
+        if (storeDirectory != null) {
+            indexStoreIfNeeded(storeDirectory);
+            final File file = storeIndex.get(sourceDigest);
+            if (file != null)
+                return loadStoreFile(pipelineContext, file, true, annotatedSAXStore, xhtmlDigest);
+        }
+
+        return null;
+    }
+
+    /**
+     * Whether the XHTML kept by a static state is the same as the annotated XHTML of the current page.
+     *
+     * @param staticStateXHTMLDigest    digest of the XHTML kept by the static state, null if it doesn't keep XHTML
+     * @param annotatedSAXStore         annotated XHTML of the current page
+     * @param xhtmlDigest               digest of the annotated XHTML, computed and remembered there if null
+     * @return                          true iif the static state can be used for the current page
+     */
+    private static boolean isSameXHTML(String staticStateXHTMLDigest, SAXStore annotatedSAXStore, String[] xhtmlDigest) {
+        if (staticStateXHTMLDigest == null)
+            return true;
+        if (xhtmlDigest[0] == null)
+            xhtmlDigest[0] = getXHTMLDigest(annotatedSAXStore);
+        return staticStateXHTMLDigest.equals(xhtmlDigest[0]);
+    }
+
+    /**
+     * Find an analyzed static state given its encoded form.
+     *
+     * @param pipelineContext       current context
+     * @param encodedStaticState    encoded static state
+     * @return                      static state, or null if not found
+     */
+    public XFormsStaticState findByEncodedStaticState(PipelineContext pipelineContext, String encodedStaticState) {
+        final String encodedDigest = getEncodedDigest(encodedStaticState);
+
+        final Cache cache = ObjectCache.instance(XFORMS_STATIC_STATE_CACHE_NAME, XFORMS_STATIC_STATE_CACHE_DEFAULT_SIZE);
+        final CacheEntry cacheEntry = (CacheEntry) cache.findValid(pipelineContext, new InternalCacheKey(ENCODED_DIGEST_KEY_TYPE, encodedDigest), CONSTANT_VALIDITY);
+        if (cacheEntry != null) {
+            getIndentedLogger().logDebug(LOG_TYPE, "found static state by encoded digest", "digest", encodedDigest);
+            return cacheEntry.staticState;
+        }
+
+        // Try the store
+        final File storeDirectory = getStoreDirectory();
+        if (storeDirectory != null) {
+            // The encoded static state doesn't depend on the XBL files, which are not checked
+            final File file = new File(storeDirectory, encodedDigest + STORE_FILE_EXTENSION);
+            if (file.isFile())
+                return loadStoreFile(pipelineContext, file, false, null, null);
+        }
+
+        return null;
+    }
+
+    /**
+     * Add an analyzed static state to the cache, and to the store if enabled.
+     *
+     * @param pipelineContext   current context
+     * @param sourceDigest      digest of the source static state document, or null if not known
+     * @param staticState       analyzed static state
+     */
+    public void add(PipelineContext pipelineContext, String sourceDigest, XFormsStaticState staticState) {
+        final String encodedStaticState = staticState.getEncodedStaticState(pipelineContext);
+        final String encodedDigest = getEncodedDigest(encodedStaticState);
+
+        final XFormsAnnotatorContentHandler.Metadata metadata = staticState.getMetadata();
+        final List<String> includes = (metadata != null && metadata.getBindingsIncludes() != null)
+                ? metadata.getBindingsIncludes() : Collections.<String>emptyList();
+        final SAXStore xhtml = staticState.getXHTMLDocument();
+        final CacheEntry cacheEntry = new CacheEntry(staticState, includes, getIncludesLastModified(includes),
+                (xhtml != null) ? getXHTMLDigest(xhtml) : null);
+        addToMemory(pipelineContext, sourceDigest, encodedDigest, cacheEntry);
+
+        final File storeDirectory = getStoreDirectory();
+        if (storeDirectory != null && sourceDigest != null) {
+            final File file = new File(storeDirectory, encodedDigest + STORE_FILE_EXTENSION);
+            if (!file.exists()) {
+                try {
+                    writeStoreFile(storeDirectory, file, sourceDigest, cacheEntry, encodedStaticState);
+                    final File supersededFile = storeIndex.put(sourceDigest, file);
+                    if (supersededFile != null && !supersededFile.equals(file))
+                        deleteStoreFile(sourceDigest, supersededFile);
+                    getIndentedLogger().logDebug(LOG_TYPE, "stored static state", "file", file.getAbsolutePath());
+                } catch (IOException e) {
+                    // The store is only an optimization
+                    getIndentedLogger().logWarning(LOG_TYPE, "unable to store static state", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Analyze all the static states present in the store, so that the first requests to the corresponding forms
+     * don't have to.
+     *
+     * @param pipelineContext   current context
+     * @return                  number of static states loaded
+     */
+    public int loadStore(PipelineContext pipelineContext) {
+        final File storeDirectory = getStoreDirectory();
+        if (storeDirectory == null)
+            return 0;
+
+        indexStoreIfNeeded(storeDirectory);
+
+        int count = 0;
+        for (final File file: new ArrayList<File>(storeIndex.values())) {
+            if (loadStoreFile(pipelineContext, file, true, null, null) != null)
+                count++;
+        }
+        getIndentedLogger().logInfo(LOG_TYPE, "loaded static states", "directory", storeDirectory.getAbsolutePath(), "count", Integer.toString(count));
+        return count;
+    }
+
+    private void addToMemory(PipelineContext pipelineContext, String sourceDigest, String encodedDigest, CacheEntry cacheEntry) {
+        final Cache cache = ObjectCache.instance(XFORMS_STATIC_STATE_CACHE_NAME, XFORMS_STATIC_STATE_CACHE_DEFAULT_SIZE);
+        if (sourceDigest != null)
+            cache.add(pipelineContext, new InternalCacheKey(SOURCE_DIGEST_KEY_TYPE, sourceDigest), CONSTANT_VALIDITY, cacheEntry);
+        cache.add(pipelineContext, new InternalCacheKey(ENCODED_DIGEST_KEY_TYPE, encodedDigest), CONSTANT_VALIDITY, cacheEntry);
+    }
+
+    /**
+     * Load a stored static state and add it to memory.
+     *
+     * @param pipelineContext   current context
+     * @param file              stored file
+     * @param checkIncludes     whether to check that the XBL includes are unchanged
+     * @param annotatedSAXStore annotated XHTML of the current page to check, null if not checked
+     * @param xhtmlDigest       digest of the annotated XHTML if already computed, see isSameXHTML()
+     * @return                  static state, or null if not usable
+     */
+    private XFormsStaticState loadStoreFile(PipelineContext pipelineContext, File file, boolean checkIncludes,
+                                            SAXStore annotatedSAXStore, String[] xhtmlDigest) {
+        final StoreEntry entry;
+        try {
+            entry = readStoreFile(file, true);
+        } catch (IOException e) {
+            getIndentedLogger().logWarning(LOG_TYPE, "unable to read stored static state", e);
+            return null;
+        }
+        if (entry == null) {
+            getIndentedLogger().logDebug(LOG_TYPE, "ignoring stored static state with different version", "file", file.getAbsolutePath());
+            return null;
+        }
+        if (checkIncludes && getIncludesLastModified(entry.includes) > entry.includesLastModified) {
+            getIndentedLogger().logDebug(LOG_TYPE, "removing stored static state with modified XBL includes", "file", file.getAbsolutePath());
+            deleteStoreFile(entry.sourceDigest, file);
+            return null;
+        }
+        if (annotatedSAXStore != null && !isSameXHTML(entry.xhtmlDigest, annotatedSAXStore, xhtmlDigest)) {
+            getIndentedLogger().logDebug(LOG_TYPE, "not reusing stored static state with different XHTML", "file", file.getAbsolutePath());
+            return null;
+        }
+
+        getIndentedLogger().startHandleOperation(LOG_TYPE, "loading stored static state", "file", file.getAbsolutePath());
+        final XFormsStaticState staticState = new XFormsStaticState(pipelineContext, entry.encodedStaticState);
+        getIndentedLogger().endHandleOperation();
+
+        addToMemory(pipelineContext, entry.sourceDigest, getEncodedDigest(entry.encodedStaticState),
+                new CacheEntry(staticState, entry.includes, entry.includesLastModified, entry.xhtmlDigest));
+        return staticState;
+    }
+
+    private void deleteStoreFile(String sourceDigest, File file) {
+        storeIndex.remove(sourceDigest);
+        if (!file.delete() && file.exists())
+            getIndentedLogger().logWarning(LOG_TYPE, "unable to remove stored static state", "file", file.getAbsolutePath());
+    }
+
+    private synchronized void indexStoreIfNeeded(File storeDirectory) {
+        final String directoryPath = storeDirectory.getAbsolutePath();
+        if (directoryPath.equals(indexedDirectory))
+            return;
+
+        storeIndex.clear();
+        final File[] files = storeDirectory.listFiles();
+        if (files != null) {
+            for (final File file: files) {
+                if (file.getName().endsWith(STORE_FILE_EXTENSION)) {
+                    try {
+                        final StoreEntry header = readStoreFile(file, false);
+                        if (header != null) {
+                            // Only keep the most recent file for a given source
+                            final File otherFile = storeIndex.get(header.sourceDigest);
+                            if (otherFile == null) {
+                                storeIndex.put(header.sourceDigest, file);
+                            } else if (otherFile.lastModified() < file.lastModified()) {
+                                deleteStoreFile(header.sourceDigest, otherFile);
+                                storeIndex.put(header.sourceDigest, file);
+                            } else {
+                                deleteStoreFile(header.sourceDigest, file);
+                                storeIndex.put(header.sourceDigest, otherFile);
+                            }
+                        }
+                    } catch (IOException e) {
+                        getIndentedLogger().logWarning(LOG_TYPE, "unable to read stored static state", e);
+                    }
+                }
+            }
+        }
+        indexedDirectory = directoryPath;
+    }
+
+    private static void writeStoreFile(File storeDirectory, File file, String sourceDigest, CacheEntry cacheEntry, String encodedStaticState) throws IOException {
+        // Write to a temporary file first so that readers never see a partial file
+        final File temporaryFile = File.createTempFile("static-state", ".tmp", storeDirectory);
+        final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+        try {
+            os.writeInt(STORE_MAGIC);
+            os.writeInt(STORE_FORMAT_VERSION);
+            os.writeUTF(Version.getVersionString());
+            os.writeUTF(sourceDigest);
+            os.writeUTF((cacheEntry.xhtmlDigest != null) ? cacheEntry.xhtmlDigest : "");
+            os.writeInt(cacheEntry.includes.size());
+            for (final String include: cacheEntry.includes)
+                os.writeUTF(include);
+            os.writeLong(cacheEntry.includesLastModified);
+            final byte[] bytes = encodedStaticState.getBytes("utf-8");
+            os.writeInt(bytes.length);
+            os.write(bytes);
+        } finally {
+            os.close();
+        }
+        if (!temporaryFile.renameTo(file)) {
+            // Another thread or process may have stored the same state
+            temporaryFile.delete();
+        }
+    }
+
+    /**
+     * Read a stored static state.
+     *
+     * @param file              file to read
+     * @param readContent       whether to read the encoded static state or just the header
+     * @return                  entry, with a null encoded static state if not read, or null if the version doesn't match
+     * @throws IOException      if the file cannot be read
+     */
+    private static StoreEntry readStoreFile(File file, boolean readContent) throws IOException {
+        final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (is.readInt() != STORE_MAGIC || is.readInt() != STORE_FORMAT_VERSION || !Version.getVersionString().equals(is.readUTF()))
+                return null;
+
+            final String sourceDigest = is.readUTF();
+            final String xhtmlDigest = is.readUTF();
+            final int includesCount = is.readInt();
+            final List<String> includes = new ArrayList<String>(includesCount);
+            for (int i = 0; i < includesCount; i++)
+                includes.add(is.readUTF());
+            final long includesLastModified = is.readLong();
+            if (!readContent)
+                return new StoreEntry(sourceDigest, xhtmlDigest, includes, includesLastModified, null);
+
+            final byte[] bytes = new byte[is.readInt()];
+            is.readFully(bytes);
+            return new StoreEntry(sourceDigest, xhtmlDigest, includes, includesLastModified, new String(bytes, "utf-8"));
+        } finally {
+            is.close();
+        }
+    }
+
+    private File getStoreDirectory() {
+        final String directoryPath = (storeDirectoryPath != null) ? storeDirectoryPath : XFormsProperties.getStaticStateStoreDirectory();
+        if (directoryPath == null || directoryPath.equals(unusableDirectoryPath))
+            return null;
+
+        final File directory = new File(directoryPath);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            // The store is only an optimization
+            getIndentedLogger().logWarning(LOG_TYPE, "unable to create static state store directory, disabling store", "directory", directory.getAbsolutePath());
+            unusableDirectoryPath = directoryPath;
+            return null;
+        }
+        return directory;
+    }
+
+    private static long getIncludesLastModified(List<String> includes) {
+        long result = 0;
+        for (final String include: includes)
+            result = Math.max(result, ResourceManagerWrapper.instance().lastModified(include, false));
+        return result;
+    }
+
+    private static IndentedLogger getIndentedLogger() {
+        return XFormsStateManager.getIndentedLogger();
+    }
+
+    private static class CacheEntry {
+        public final XFormsStaticState staticState;
+        public final List<String> includes;
+        public final long includesLastModified;
+        public final String xhtmlDigest;
+
+        public CacheEntry(XFormsStaticState staticState, List<String> includes, long includesLastModified, String xhtmlDigest) {
+            this.staticState = staticState;
+            this.includes = includes;
+            this.includesLastModified = includesLastModified;
+            this.xhtmlDigest = xhtmlDigest;
+        }
+
+        /**
+         * Whether the XBL files used by the static state have not changed since it was analyzed.
+         *
+         * @return true iif up to date
+         */
+        public boolean isUpToDate() {
+            return getIncludesLastModified(includes) <= includesLastModified;
+        }
+    }
+
+    private static class StoreEntry {
+        public final String sourceDigest;
+        public final String xhtmlDigest;
+        public final List<String> includes;
+        public final long includesLastModified;
+        public final String encodedStaticState;
+
+        public StoreEntry(String sourceDigest, String xhtmlDigest, List<String> includes, long includesLastModified, String encodedStaticState) {
+            this.sourceDigest = sourceDigest;
+            this.xhtmlDigest = xhtmlDigest.length() > 0 ? xhtmlDigest : null;
+            this.includes = includes;
+            this.includesLastModified = includesLastModified;
+            this.encodedStaticState = encodedStaticState;
+        }
+    }
+}
@@ -26,7 +26,6 @@ import org.orbeon.oxf.processor.Processor;
 import org.orbeon.oxf.processor.ProcessorFactory;
 import org.orbeon.oxf.processor.ProcessorFactoryRegistry;
 import org.orbeon.oxf.processor.generator.DOMGenerator;
-import org.orbeon.oxf.resources.ResourceManagerWrapper;
 import org.orbeon.oxf.util.IndentedLogger;
 import org.orbeon.oxf.util.PipelineUtils;
 import org.orbeon.oxf.util.PropertyContext;
@@ -218,7 +217,7 @@ public class XBLBindings {
             final List<String> includes = metadata.getBindingsIncludes();
             if (includes != null) {
                 for (final String include: includes) {
-                    xblDocuments.add(ResourceManagerWrapper.instance().getContentAsDOM4J(include));
+                    xblDocuments.add(XBLComponentRegistry.instance().getXBLDocument(include));
                 }
             }
         }
@@ -312,7 +311,7 @@ public class XBLBindings {
                 {
                     final Element implementationElement = currentBindingElement.element(XFormsConstants.XBL_IMPLEMENTATION_QNAME);
                     if (implementationElement != null) {
-                        final List<Document> modelDocuments = extractChildrenModels(implementationElement, true); // just detach because they are copied later anyway
+                        final List<Document> modelDocuments = extractChildrenModels(implementationElement, false); // don't detach as the XBL document may be shared between forms
 
                         if (xblImplementations == null) {
                             xblImplementations = new LinkedHashMap<QName, List<Document>>();
@@ -391,7 +390,7 @@ public class XBLBindings {
                         indentedLogger.startHandleOperation("", "adding XBL bindings");
                         int xblBindingCount = 0;
                         for (final String include: includes.subList(initialIncludesCount, finalIncludesCount)) {
-                            xblBindingCount += extractXBLBindings(ResourceManagerWrapper.instance().getContentAsDOM4J(include), staticState);
+                            xblBindingCount += extractXBLBindings(XBLComponentRegistry.instance().getXBLDocument(include), staticState);
                         }
                         indentedLogger.endHandleOperation("xbl:xbl count", Integer.toString(finalIncludesCount - initialIncludesCount),
                                 "xbl:binding count", Integer.toString(xblBindingCount),
@@ -758,10 +757,9 @@ public class XBLBindings {
             }
 
             // Connect this root to the processor config input
+            // The generators of all the bound elements share the same cache key so that the compiled transformation is cached
             final Element templateChild = (Element) templateElement.elements().get(0);
-            final DOMGenerator domGeneratorConfig = PipelineUtils.createDOMGenerator(
-                    Dom4jUtils.createDocumentCopyParentNamespaces(templateChild),
-                    "xbl-xslt-config", processor, Dom4jUtils.makeSystemId(templateChild));
+            final DOMGenerator domGeneratorConfig = XBLComponentRegistry.instance().createTemplateConfigGenerator(templateChild);
             PipelineUtils.connect(domGeneratorConfig, "data", processor, "config");
 
             // Connect the bound element to the processor data input
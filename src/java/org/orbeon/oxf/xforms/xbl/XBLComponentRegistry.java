@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.xbl;
+
+import org.apache.log4j.Logger;
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.orbeon.oxf.processor.generator.DOMGenerator;
+import org.orbeon.oxf.resources.ResourceManagerWrapper;
+import org.orbeon.oxf.util.LoggerFactory;
+import org.orbeon.oxf.util.PipelineUtils;
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Application-wide registry of XBL components, shared by the static states of all forms.
+ *
+ * o XBL documents automatically included by forms are parsed once per URL and kept until the resource changes. The
+ *   documents returned are shared and must not be modified.
+ * o The configuration of each xxbl:transform template is produced by generators sharing the same cache key, so that
+ *   the compiled transformation is reused through the processor input cache instead of being rebuilt for each bound
+ *   element.
+ * o Static state construction times are aggregated per form.
+ */
+public class XBLComponentRegistry implements XBLComponentRegistryMBean {
+
+    private static final Logger logger = LoggerFactory.createLogger(XBLComponentRegistry.class);
+
+    public static final String OBJECT_NAME = "org.orbeon.oxf:type=XBLComponentRegistry";
+
+    private static XBLComponentRegistry instance;
+
+    private final ConcurrentMap<String, XBLDocument> documents = new ConcurrentHashMap<String, XBLDocument>();
+    private final AtomicLong documentHits = new AtomicLong();
+    private final AtomicLong documentLoads = new AtomicLong();
+
+    // Template elements are weakly referenced, as inline XBL documents are specific to a static state
+    // The generators are never connected, only copied
+    private final Map<Element, DOMGenerator> templateConfigGenerators = Collections.synchronizedMap(new WeakHashMap<Element, DOMGenerator>());
+
+    private final ConcurrentMap<String, StaticStateStatistics> staticStates = new ConcurrentHashMap<String, StaticStateStatistics>();
+
+    public synchronized static XBLComponentRegistry instance() {
+        if (instance == null) {
+            instance = new XBLComponentRegistry();
+            try {
+                final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+                final ObjectName objectName = new ObjectName(OBJECT_NAME);
+                if (!mbeanServer.isRegistered(objectName))
+                    mbeanServer.registerMBean(instance, objectName);
+            } catch (Exception e) {
+                // The registry must work even if JMX is not available
+                logger.warn("Unable to register XBL component registry with JMX: " + e.getMessage());
+            }
+        }
+        return instance;
+    }
+
+    private XBLComponentRegistry() {}
+
+    /**
+     * Return the XBL document at the given URL, parsing it only if it is not known yet or if it has changed.
+     *
+     * @param url   resource URL of the XBL document
+     * @return      shared XBL document, which must not be modified
+     */
+    public Document getXBLDocument(String url) {
+        final long lastModified = ResourceManagerWrapper.instance().lastModified(url, false);
+        final XBLDocument existingDocument = documents.get(url);
+        if (existingDocument != null && existingDocument.lastModified == lastModified) {
+            documentHits.incrementAndGet();
+            return existingDocument.document;
+        }
+
+        documentLoads.incrementAndGet();
+        final XBLDocument newDocument = new XBLDocument(ResourceManagerWrapper.instance().getContentAsDOM4J(url), lastModified);
+        documents.put(url, newDocument);
+        return newDocument.document;
+    }
+
+    /**
+     * Create a generator for the configuration of the given xxbl:transform template.
+     *
+     * @param templateChild single child element of the xbl:template element
+     * @return              new generator, which produces the same cache key for all bound elements
+     */
+    public DOMGenerator createTemplateConfigGenerator(Element templateChild) {
+        final DOMGenerator generator;
+        synchronized (templateConfigGenerators) {
+            DOMGenerator existingGenerator = templateConfigGenerators.get(templateChild);
+            if (existingGenerator == null) {
+                existingGenerator = PipelineUtils.createDOMGenerator(Dom4jUtils.createDocumentCopyParentNamespaces(templateChild),
+                        "xbl-xslt-config", DOMGenerator.ZeroValidity, Dom4jUtils.makeSystemId(templateChild));
+                templateConfigGenerators.put(templateChild, existingGenerator);
+            }
+            generator = existingGenerator;
+        }
+        // Each connection gets its own generator, as connecting modifies the generator
+        return generator.createCopy();
+    }
+
+    /**
+     * Record the construction of a static state.
+     *
+     * @param formURI       URI identifying the form
+     * @param timeElapsed   construction time in ms
+     */
+    public void addStaticStateConstruction(String formURI, long timeElapsed) {
+        final String key = (formURI != null) ? formURI : "";
+        StaticStateStatistics statistics = staticStates.get(key);
+        if (statistics == null) {
+            final StaticStateStatistics newStatistics = new StaticStateStatistics();
+            statistics = staticStates.putIfAbsent(key, newStatistics);
+            if (statistics == null)
+                statistics = newStatistics;
+        }
+        statistics.add(timeElapsed);
+    }
+
+    public int getDocumentCount() {
+        return documents.size();
+    }
+
+    public long getDocumentHits() {
+        return documentHits.get();
+    }
+
+    public long getDocumentLoads() {
+        return documentLoads.get();
+    }
+
+    public String getStaticStateReport() {
+        final List<Map.Entry<String, StaticStateStatistics>> entries = new ArrayList<Map.Entry<String, StaticStateStatistics>>(staticStates.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, StaticStateStatistics>>() {
+            public int compare(Map.Entry<String, StaticStateStatistics> e1, Map.Entry<String, StaticStateStatistics> e2) {
+                final long t1 = e1.getValue().totalTime.get();
+                final long t2 = e2.getValue().totalTime.get();
+                return (t1 < t2) ? 1 : (t1 == t2) ? 0 : -1;
+            }
+        });
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append("count\ttotal (ms)\tmax (ms)\tform\n");
+        for (final Map.Entry<String, StaticStateStatistics> entry: entries) {
+            final StaticStateStatistics statistics = entry.getValue();
+            sb.append(statistics.count.get());
+            sb.append('\t');
+            sb.append(statistics.totalTime.get());
+            sb.append('\t');
+            sb.append(statistics.maxTime.get());
+            sb.append('\t');
+            sb.append(entry.getKey());
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    public void reset() {
+        documents.clear();
+        documentHits.set(0);
+        documentLoads.set(0);
+        templateConfigGenerators.clear();
+        staticStates.clear();
+    }
+
+    private static class XBLDocument {
+        public final Document document;
+        public final long lastModified;
+
+        public XBLDocument(Document document, long lastModified) {
+            this.document = document;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static class StaticStateStatistics {
+        public final AtomicLong count = new AtomicLong();
+        public final AtomicLong totalTime = new AtomicLong();
+        public final AtomicLong maxTime = new AtomicLong();
+
+        public void add(long timeElapsed) {
+            count.incrementAndGet();
+            totalTime.addAndGet(timeElapsed);
+            long currentMax;
+            while ((currentMax = maxTime.get()) < timeElapsed && !maxTime.compareAndSet(currentMax, timeElapsed));
+        }
+    }
+}
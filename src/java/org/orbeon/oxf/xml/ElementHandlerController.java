@@ -16,6 +16,7 @@ package org.orbeon.oxf.xml;
 import org.dom4j.Element;
 import org.dom4j.Namespace;
 import org.dom4j.QName;
+import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.processor.xinclude.XIncludeProcessor;
 import org.orbeon.oxf.xforms.XFormsConstants;
@@ -26,7 +27,9 @@ import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
 
+import java.lang.reflect.Constructor;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This is the controller for the handlers system.
@@ -38,15 +41,24 @@ import java.util.*;
  * o calls handlers when needed
  * o handles repeated content
  *
- * TODO: Should use pools of handlers to reduce memory consumption?
+ * Handlers are registered as factories. Registrations are kept in a dispatch table keyed by URI then local name, so
+ * that no exploded QName needs to be built for each element. Factories which declare their handlers reusable get a
+ * per-registration pool, and handlers are returned to the pool when their element ends.
+ *
+ * Content wrapped in the static content element, if one is registered, is known not to require any handler and is
+ * forwarded directly to the output.
  */
 public class ElementHandlerController implements ElementHandlerContext, ContentHandler {
 
     private Object elementHandlerContext;
     private DeferredContentHandler output;
 
-    private final Map<String, List<HandlerMatcher>> handlerMatchers = new HashMap<String, List<HandlerMatcher>>();
-    private final Map<String, String> uriHandlers = new HashMap<String, String>();
+    private final Map<String, Map<String, List<HandlerMatcher>>> handlerMatchers = new HashMap<String, Map<String, List<HandlerMatcher>>>();
+    private final Map<String, HandlerMatcher> uriHandlers = new HashMap<String, HandlerMatcher>();
+
+    private String staticContentURI;
+    private String staticContentLocalname;
+    private int staticContentLevel;
 
     private final Stack<HandlerInfo> handlerInfos = new Stack<HandlerInfo>();
     private HandlerInfo currentHandlerInfo;
@@ -58,8 +70,8 @@ public class ElementHandlerController implements ElementHandlerContext, ContentH
 
     private int level = 0;
 
-    // Class.forName is expensive, so we cache mappings
-    private static Map<String, Class<ElementHandler>> classNameToHandlerClass = new HashMap<String, Class<ElementHandler>>();
+    // Class.forName is expensive, so we cache factories (shared by all controllers, hence concurrent)
+    private static final Map<String, HandlerFactory> classNameToHandlerFactory = new ConcurrentHashMap<String, HandlerFactory>();
 
     /**
      * Register a handler that matches on a URI only.
@@ -92,21 +104,61 @@ public class ElementHandlerController implements ElementHandlerContext, ContentH
      * @param matcher               matcher on attributes, or null
      */
     public void registerHandler(String handlerClassName, String uri, String localname, Matcher matcher) {
+        registerHandler(getHandlerFactory(handlerClassName), uri, localname, matcher);
+    }
+
+    /**
+     * Register a handler factory that matches on a URI only.
+     *
+     * @param handlerFactory    factory for the handler
+     * @param uri               URI of the element that triggers the handler
+     */
+    public void registerHandler(HandlerFactory handlerFactory, String uri) {
+        registerHandler(handlerFactory, uri, null, null);
+    }
+
+    /**
+     * Register a handler factory. The handler can match on a URI + localname + custom matcher, URI + localname, or on
+     * URI only in that order.
+     *
+     * @param handlerFactory        factory for the handler
+     * @param uri                   URI of the element that triggers the handler
+     * @param localname             local name of the element that triggers the handler, or null if match on URI only
+     * @param matcher               matcher on attributes, or null
+     */
+    public void registerHandler(HandlerFactory handlerFactory, String uri, String localname, Matcher matcher) {
+        final HandlerMatcher handlerMatcher = new HandlerMatcher(handlerFactory, matcher != null ? matcher : ALL_MATCHER);
         if (localname != null) {
             // Match on URI + localname and optionally custom matcher
-            final String key = XMLUtils.buildExplodedQName(uri, localname);
-            List<HandlerMatcher> handlerMatchers = this.handlerMatchers.get(key);
+            Map<String, List<HandlerMatcher>> localnameMatchers = this.handlerMatchers.get(uri);
+            if (localnameMatchers == null) {
+                localnameMatchers = new HashMap<String, List<HandlerMatcher>>();
+                this.handlerMatchers.put(uri, localnameMatchers);
+            }
+            List<HandlerMatcher> handlerMatchers = localnameMatchers.get(localname);
             if (handlerMatchers == null) {
                 handlerMatchers = new ArrayList<HandlerMatcher>();
-                this.handlerMatchers.put(key, handlerMatchers);
+                localnameMatchers.put(localname, handlerMatchers);
             }
-            handlerMatchers.add(new HandlerMatcher(handlerClassName, matcher != null ? matcher : ALL_MATCHER));
+            handlerMatchers.add(handlerMatcher);
         } else {
             // Match on URI only
-            uriHandlers.put(uri, handlerClassName);
+            uriHandlers.put(uri, handlerMatcher);
         }
     }
 
+    /**
+     * Register the element wrapping static content. The element itself is not output, and its content is forwarded to
+     * the output without looking for handlers.
+     *
+     * @param uri           URI of the wrapper element
+     * @param localname     local name of the wrapper element
+     */
+    public void registerStaticContent(String uri, String localname) {
+        this.staticContentURI = uri;
+        this.staticContentLocalname = localname;
+    }
+
     public void setElementHandlerContext(Object elementHandlerContext) {
         this.elementHandlerContext = elementHandlerContext;
     }
@@ -144,6 +196,12 @@ public class ElementHandlerController implements ElementHandlerContext, ContentH
             // Increment level before, so that if callees like start() and startElement() use us, the level is correct
             level++;
 
+            if (staticContentLevel > 0) {
+                // Static content goes straight to the output
+                output.startElement(uri, localname, qName, attributes);
+                return;
+            }
+
             namespaceSupport.startElement();
 
             if (isFillingUpSAXStore) {
@@ -152,25 +210,27 @@ public class ElementHandlerController implements ElementHandlerContext, ContentH
             } else if (currentHandlerInfo != null && !currentHandlerInfo.elementHandler.isForwarding()) {
                 // The current handler doesn't want forwarding
                 // Just ignore content
+            } else if (localname.equals(staticContentLocalname) && uri.equals(staticContentURI)) {
+                // Start of static content
+                staticContentLevel = level;
             } else {
                 // Look for a new handler
-                final String explodedQName = XMLUtils.buildExplodedQName(uri, localname);
+                final HandlerMatcher handlerMatcher = getHandlerMatcher(uri, localname, attributes);
 
-                final ElementHandler elementHandler = getHandler(uri, explodedQName, attributes);
-
-                if (elementHandler != null) {
+                if (handlerMatcher != null) {
                     // New handler found
+                    final ElementHandler elementHandler = handlerMatcher.borrowHandler();
                     elementHandler.setContext(elementHandlerContext);
 
                     if (elementHandler.isRepeating()) {
                         // Repeating handler will process its body later
-                        currentHandlerInfo = new HandlerInfo(level, explodedQName, elementHandler, attributes, this.locator);
+                        currentHandlerInfo = new HandlerInfo(level, handlerMatcher, elementHandler, attributes, this.locator);
                         isFillingUpSAXStore = true;
                         // Push current handler
                         handlerInfos.push(currentHandlerInfo);
                     } else {
                         // Non-repeating handler processes its body immediately
-                        currentHandlerInfo = new HandlerInfo(level, explodedQName, elementHandler);
+                        currentHandlerInfo = new HandlerInfo(level, handlerMatcher, elementHandler);
                         // Push current handler
                         handlerInfos.push(currentHandlerInfo);
                         // Signal init/start to current handler
@@ -190,6 +250,18 @@ public class ElementHandlerController implements ElementHandlerContext, ContentH
     public void endElement(String uri, String localname, String qName) throws SAXException {
         try {
 
+            if (staticContentLevel > 0) {
+                if (staticContentLevel == level) {
+                    // End of static content
+                    staticContentLevel = 0;
+                    namespaceSupport.endElement();
+                } else {
+                    output.endElement(uri, localname, qName);
+                }
+                level--;
+                return;
+            }
+
             if (currentHandlerInfo != null && currentHandlerInfo.level == level) {
                 // End of current handler
 
@@ -205,8 +277,9 @@ public class ElementHandlerController implements ElementHandlerContext, ContentH
                     currentHandlerInfo.elementHandler.end(uri, localname, qName);
                 }
 
-                // Pop current handler
+                // Pop current handler and make it available again if possible
                 handlerInfos.pop();
+                currentHandlerInfo.handlerMatcher.releaseHandler(currentHandlerInfo.elementHandler);
                 currentHandlerInfo = ((handlerInfos.size() > 0) ? handlerInfos.peek() : null);
             } else if (isFillingUpSAXStore) {
                 // Fill-up SAXStore
@@ -265,7 +338,10 @@ public class ElementHandlerController implements ElementHandlerContext, ContentH
 
     public void characters(char[] chars, int start, int length) throws SAXException {
         try {
-            if (isFillingUpSAXStore) {
+            if (staticContentLevel > 0) {
+                // Static content goes straight to the output
+                output.characters(chars, start, length);
+            } else if (isFillingUpSAXStore) {
                 // Fill-up SAXStore
                 currentHandlerInfo.saxStore.characters(chars, start, length);
             } else if (currentHandlerInfo != null && !currentHandlerInfo.elementHandler.isForwarding()) {
@@ -282,7 +358,10 @@ public class ElementHandlerController implements ElementHandlerContext, ContentH
 
     public void startPrefixMapping(String prefix, String uri) throws SAXException {
         try {
-            if (isFillingUpSAXStore) {
+            if (staticContentLevel > 0) {
+                // Static content goes straight to the output
+                output.startPrefixMapping(prefix, uri);
+            } else if (isFillingUpSAXStore) {
                 // Fill-up SAXStore
                 currentHandlerInfo.saxStore.startPrefixMapping(prefix, uri);
             } else if (currentHandlerInfo != null && !currentHandlerInfo.elementHandler.isForwarding()) {
@@ -301,7 +380,10 @@ public class ElementHandlerController implements ElementHandlerContext, ContentH
 
     public void endPrefixMapping(String s) throws SAXException {
         try {
-            if (isFillingUpSAXStore) {
+            if (staticContentLevel > 0) {
+                // Static content goes straight to the output
+                output.endPrefixMapping(s);
+            } else if (isFillingUpSAXStore) {
                 // Fill-up SAXStore
                 currentHandlerInfo.saxStore.endPrefixMapping(s);
             } else if (currentHandlerInfo != null && !currentHandlerInfo.elementHandler.isForwarding()) {
@@ -318,7 +400,10 @@ public class ElementHandlerController implements ElementHandlerContext, ContentH
 
     public void ignorableWhitespace(char ch[], int start, int length) throws SAXException {
         try {
-            if (isFillingUpSAXStore) {
+            if (staticContentLevel > 0) {
+                // Static content goes straight to the output
+                output.ignorableWhitespace(ch, start, length);
+            } else if (isFillingUpSAXStore) {
                 // Fill-up SAXStore
                 currentHandlerInfo.saxStore.ignorableWhitespace(ch, start, length);
             } else if (currentHandlerInfo != null && !currentHandlerInfo.elementHandler.isForwarding()) {
@@ -335,7 +420,10 @@ public class ElementHandlerController implements ElementHandlerContext, ContentH
 
     public void processingInstruction(String target, String data) throws SAXException {
         try {
-            if (isFillingUpSAXStore) {
+            if (staticContentLevel > 0) {
+                // Static content goes straight to the output
+                output.processingInstruction(target, data);
+            } else if (isFillingUpSAXStore) {
                 // Fill-up SAXStore
                 currentHandlerInfo.saxStore.processingInstruction(target, data);
             } else if (currentHandlerInfo != null && !currentHandlerInfo.elementHandler.isForwarding()) {
@@ -352,7 +440,10 @@ public class ElementHandlerController implements ElementHandlerContext, ContentH
 
     public void skippedEntity(String name) throws SAXException {
         try {
-            if (isFillingUpSAXStore) {
+            if (staticContentLevel > 0) {
+                // Static content goes straight to the output
+                output.skippedEntity(name);
+            } else if (isFillingUpSAXStore) {
                 // Fill-up SAXStore
                 currentHandlerInfo.saxStore.skippedEntity(name);
             } else if (currentHandlerInfo != null && !currentHandlerInfo.elementHandler.isForwarding()) {
@@ -400,31 +491,29 @@ public class ElementHandlerController implements ElementHandlerContext, ContentH
      * @return          handler if found
      */
     public ElementHandler getHandler(Element element) {
-        return getHandler(element.getNamespaceURI(),
-                XMLUtils.buildExplodedQName(element.getNamespaceURI(), element.getName()),
-                XMLUtils.getSAXAttributes(element));
+        final HandlerMatcher handlerMatcher = getHandlerMatcher(element.getNamespaceURI(), element.getName(), XMLUtils.getSAXAttributes(element));
+        // NOTE: Don't borrow from the pool, as the caller is in charge of the handler's lifecycle
+        return (handlerMatcher != null) ? handlerMatcher.handlerFactory.createHandler() : null;
     }
 
-    private ElementHandler getHandler(String uri, String explodedQName, Attributes attributes) {
+    private HandlerMatcher getHandlerMatcher(String uri, String localname, Attributes attributes) {
         // 1: Try full matchers
-        final List<HandlerMatcher> handlerMatchers = this.handlerMatchers.get(explodedQName);
-        if (handlerMatchers != null) {
-            // Try matchers in order
-            for (HandlerMatcher handlerMatcher: handlerMatchers) {
-                // Run matcher
-                if (handlerMatcher.matcher.match(attributes)) {
-                    return getHandlerByClassName(handlerMatcher.handlerClassName);
+        final Map<String, List<HandlerMatcher>> localnameMatchers = this.handlerMatchers.get(uri);
+        if (localnameMatchers != null) {
+            final List<HandlerMatcher> handlerMatchers = localnameMatchers.get(localname);
+            if (handlerMatchers != null) {
+                // Try matchers in order
+                for (final HandlerMatcher handlerMatcher: handlerMatchers) {
+                    // Run matcher
+                    if (handlerMatcher.matcher.match(attributes)) {
+                        return handlerMatcher;
+                    }
                 }
             }
         }
 
         // 2: Try URI-based handler
-        final String uriHandlerClassName = uriHandlers.get(uri);
-        if (uriHandlerClassName != null) {
-            return getHandlerByClassName(uriHandlerClassName);
-        } else {
-            return null;
-        }
+        return uriHandlers.get(uri);
     }
 
     /**
@@ -445,42 +534,84 @@ public class ElementHandlerController implements ElementHandlerContext, ContentH
     }
 
     @SuppressWarnings("unchecked")
-    private ElementHandler getHandlerByClassName(String handlerClassName) {
-        Class<ElementHandler> handlerClass = classNameToHandlerClass.get(handlerClassName);
-        if (handlerClass == null) {
+    private HandlerFactory getHandlerFactory(String handlerClassName) {
+        HandlerFactory handlerFactory = classNameToHandlerFactory.get(handlerClassName);
+        if (handlerFactory == null) {
             try {
-                handlerClass = (Class<ElementHandler>) Class.forName(handlerClassName);
-                classNameToHandlerClass.put(handlerClassName, handlerClass);
-            } catch (ClassNotFoundException e) {
+                final Class<ElementHandler> handlerClass = (Class<ElementHandler>) Class.forName(handlerClassName);
+                handlerFactory = new ClassHandlerFactory(handlerClass.getConstructor());
+                classNameToHandlerFactory.put(handlerClassName, handlerFactory);
+            } catch (Exception e) {
                 throw ValidationException.wrapException(e, new LocationData(locator));
             }
         }
-        try {
-            return handlerClass.newInstance();
-        } catch (Exception e) {
-            throw ValidationException.wrapException(e, new LocationData(locator));
+        return handlerFactory;
+    }
+
+    /**
+     * Factory for element handlers.
+     *
+     * A reusable factory promises that its handlers don't keep state across elements beyond what setContext() and
+     * init() set, so that the controller may pool them.
+     */
+    public static abstract class HandlerFactory {
+
+        private final boolean reusable;
+
+        protected HandlerFactory() {
+            this(false);
+        }
+
+        protected HandlerFactory(boolean reusable) {
+            this.reusable = reusable;
+        }
+
+        public boolean isReusable() {
+            return reusable;
+        }
+
+        public abstract ElementHandler createHandler();
+    }
+
+    /**
+     * Factory used for handlers registered by class name. The constructor is resolved once.
+     */
+    private static class ClassHandlerFactory extends HandlerFactory {
+
+        private final Constructor<ElementHandler> constructor;
+
+        private ClassHandlerFactory(Constructor<ElementHandler> constructor) {
+            this.constructor = constructor;
+        }
+
+        public ElementHandler createHandler() {
+            try {
+                return constructor.newInstance();
+            } catch (Exception e) {
+                throw new OXFException(e);
+            }
         }
     }
 
     private static class HandlerInfo {
         public final int level;
-        public final String explodedQName;
+        public final HandlerMatcher handlerMatcher;
         public final ElementHandler elementHandler;
         public final Attributes attributes;
 
         public final SAXStore saxStore;
 
-        public HandlerInfo(int level, String explodedQName, ElementHandler elementHandler) {
+        public HandlerInfo(int level, HandlerMatcher handlerMatcher, ElementHandler elementHandler) {
             this.level = level;
-            this.explodedQName = explodedQName;
+            this.handlerMatcher = handlerMatcher;
             this.elementHandler = elementHandler;
             this.attributes = null;
             this.saxStore = null;
         }
 
-        public HandlerInfo(int level, String explodedQName, ElementHandler elementHandler, Attributes attributes, Locator locator) {
+        public HandlerInfo(int level, HandlerMatcher handlerMatcher, ElementHandler elementHandler, Attributes attributes, Locator locator) {
             this.level = level;
-            this.explodedQName = explodedQName;
+            this.handlerMatcher = handlerMatcher;
             this.elementHandler = elementHandler;
             this.attributes = new AttributesImpl(attributes);
 
@@ -507,12 +638,28 @@ public class ElementHandlerController implements ElementHandlerContext, ContentH
     };
 
     private static class HandlerMatcher {
-        public String handlerClassName;
-        public Matcher matcher;
+        public final HandlerFactory handlerFactory;
+        public final Matcher matcher;
 
-        private HandlerMatcher(String handlerClassName, Matcher matcher) {
-            this.handlerClassName = handlerClassName;
+        // Available handlers, only for reusable factories
+        private final List<ElementHandler> pool;
+
+        private HandlerMatcher(HandlerFactory handlerFactory, Matcher matcher) {
+            this.handlerFactory = handlerFactory;
             this.matcher = matcher;
+            this.pool = handlerFactory.isReusable() ? new ArrayList<ElementHandler>() : null;
+        }
+
+        public ElementHandler borrowHandler() {
+            if (pool != null && pool.size() > 0)
+                return pool.remove(pool.size() - 1);
+            else
+                return handlerFactory.createHandler();
+        }
+
+        public void releaseHandler(ElementHandler elementHandler) {
+            if (pool != null)
+                pool.add(elementHandler);
         }
     }
 }
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml;
+
+import org.orbeon.oxf.common.OXFException;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.XMLReader;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of XMLReader instances for a given combination of validating and XInclude-aware parsers.
+ *
+ * Borrowing and returning do not lock. A reader is only returned to the pool after a successful parse, and its
+ * handlers are reset on return so that the pool does not hold on to the content handler of the last parse.
+ */
+class XMLReaderPool {
+
+    // Maximum number of idle readers kept per pool
+    private static final int MAX_IDLE = Runtime.getRuntime().availableProcessors() * 4;
+
+    private final boolean validating;
+    private final boolean handleXInclude;
+    private final ContentHandler nullContentHandler;
+
+    private final Queue<XMLReader> idle = new ConcurrentLinkedQueue<XMLReader>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    public XMLReaderPool(boolean validating, boolean handleXInclude, ContentHandler nullContentHandler) {
+        this.validating = validating;
+        this.handleXInclude = handleXInclude;
+        this.nullContentHandler = nullContentHandler;
+    }
+
+    public XMLReader borrow() {
+        final XMLReader xmlReader = idle.poll();
+        if (xmlReader != null) {
+            idleCount.decrementAndGet();
+            return xmlReader;
+        } else {
+            try {
+                return XMLUtils.getSAXParserFactory(validating, handleXInclude).newSAXParser().getXMLReader();
+            } catch (Exception e) {
+                throw new OXFException(e);
+            }
+        }
+    }
+
+    /**
+     * Return a reader to the pool. Only call this after a parse completed normally: after an error, the reader is
+     * simply dropped.
+     */
+    public void release(XMLReader xmlReader) {
+        xmlReader.setContentHandler(nullContentHandler);
+        xmlReader.setEntityResolver(XMLUtils.ENTITY_RESOLVER);
+        xmlReader.setErrorHandler(XMLUtils.ERROR_HANDLER);
+
+        if (idleCount.incrementAndGet() <= MAX_IDLE)
+            idle.offer(xmlReader);
+        else
+            idleCount.decrementAndGet();
+    }
+}
@@ -72,12 +72,20 @@ public class XMLUtils {
     private static final ContentHandler NULL_CONTENT_HANDLER = new ContentHandlerAdapter();
 
     private static final DocumentBuilderFactory documentBuilderFactory;
-    private static Map<Thread, DocumentBuilder> documentBuilders = null;
+    private static final ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<DocumentBuilder>() {
+        @Override
+        protected DocumentBuilder initialValue() {
+            return newDocumentBuilder();
+        }
+    };
 
-    private static SAXParserFactory nonValidatingXIncludeSAXParserFactory;
-    private static SAXParserFactory validatingXIncludeSAXParserFactory;
-    private static SAXParserFactory nonValidatingSAXParserFactory;
-    private static SAXParserFactory validatingSAXParserFactory;
+    // Pools of readers used by the parsing methods below, indexed by getParserIndex()
+    private static final XMLReaderPool[] xmlReaderPools = {
+        new XMLReaderPool(false, false, NULL_CONTENT_HANDLER),
+        new XMLReaderPool(false, true, NULL_CONTENT_HANDLER),
+        new XMLReaderPool(true, false, NULL_CONTENT_HANDLER),
+        new XMLReaderPool(true, true, NULL_CONTENT_HANDLER)
+    };
 
     public static final String XML_CONTENT_TYPE1 = "text/xml";
     public static final String XML_CONTENT_TYPE2 = "application/xml";
@@ -131,6 +139,20 @@ public class XMLUtils {
         }
     }
 
+    // Factories are created on first use, without locking, with the initialization-on-demand holder idiom
+    private static class SAXParserFactories {
+        static final SAXParserFactory[] FACTORIES = {
+            createSAXParserFactory(false, false),
+            createSAXParserFactory(false, true),
+            createSAXParserFactory(true, false),
+            createSAXParserFactory(true, true)
+        };
+    }
+
+    private static int getParserIndex(boolean validating, boolean handleXInclude) {
+        return (validating ? 2 : 0) + (handleXInclude ? 1 : 0);
+    }
+
     /**
      * Get a SAXParserFactory to build combinations of validating and XInclude-aware SAXParser.
      *
@@ -138,28 +160,8 @@ public class XMLUtils {
      * @param handleXInclude    whether the factory creates XInclude-aware parsers
      * @return                  the SAXParserFactory
      */
-    public static synchronized SAXParserFactory getSAXParserFactory(boolean validating, boolean handleXInclude) {
-        if (validating) {
-            if (handleXInclude) {
-                if (validatingXIncludeSAXParserFactory == null)
-                    validatingXIncludeSAXParserFactory = createSAXParserFactory(validating, handleXInclude);
-                return validatingXIncludeSAXParserFactory;
-            } else {
-                if (validatingSAXParserFactory == null)
-                    validatingSAXParserFactory = createSAXParserFactory(validating, handleXInclude);
-                return validatingSAXParserFactory;
-            }
-        } else {
-            if (handleXInclude) {
-                if (nonValidatingXIncludeSAXParserFactory == null)
-                    nonValidatingXIncludeSAXParserFactory = createSAXParserFactory(validating, handleXInclude);
-                return nonValidatingXIncludeSAXParserFactory;
-            } else {
-                if (nonValidatingSAXParserFactory == null)
-                    nonValidatingSAXParserFactory = createSAXParserFactory(validating, handleXInclude);
-                return nonValidatingSAXParserFactory;
-            }
-        }
+    public static SAXParserFactory getSAXParserFactory(boolean validating, boolean handleXInclude) {
+        return SAXParserFactories.FACTORIES[getParserIndex(validating, handleXInclude)];
     }
 
     /**
@@ -169,7 +171,7 @@ public class XMLUtils {
      * @param handleXInclude    whether the parser is XInclude-aware
      * @return                  the SAXParser
      */
-    private static synchronized SAXParser newSAXParser(boolean validating, boolean handleXInclude) {
+    private static SAXParser newSAXParser(boolean validating, boolean handleXInclude) {
         try {
             return getSAXParserFactory(validating, handleXInclude).newSAXParser();
         } catch (Exception e) {
@@ -410,12 +412,15 @@ public class XMLUtils {
     }
 
     private static void inputSourceToSAX(InputSource inputSource, ContentHandler contentHandler, boolean validating, boolean handleXInclude) {
+        final XMLReaderPool xmlReaderPool = xmlReaderPools[getParserIndex(validating, handleXInclude)];
         try {
-            final XMLReader xmlReader = newSAXParser(validating, handleXInclude).getXMLReader();
+            final XMLReader xmlReader = xmlReaderPool.borrow();
             xmlReader.setContentHandler(contentHandler);
             xmlReader.setEntityResolver(ENTITY_RESOLVER);
             xmlReader.setErrorHandler(ERROR_HANDLER);
             xmlReader.parse(inputSource);
+            // Only reuse the reader if the parse completed normally
+            xmlReaderPool.release(xmlReader);
         } catch (SAXParseException e) {
             throw new ValidationException(e.getMessage(), new LocationData(e));
         } catch (Exception e) {
@@ -435,8 +440,9 @@ public class XMLUtils {
         if (xmlString.trim().length() == 0)
             return false;
 
+        final XMLReaderPool xmlReaderPool = xmlReaderPools[getParserIndex(false, false)];
         try {
-            final XMLReader xmlReader = newSAXParser(false, false).getXMLReader();
+            final XMLReader xmlReader = xmlReaderPool.borrow();
             xmlReader.setContentHandler(NULL_CONTENT_HANDLER);
             xmlReader.setEntityResolver(ENTITY_RESOLVER);
             xmlReader.setErrorHandler(new org.xml.sax.ErrorHandler() {
@@ -452,6 +458,7 @@ public class XMLUtils {
                 }
             });
             xmlReader.parse(new InputSource(new StringReader(xmlString)));
+            xmlReaderPool.release(xmlReader);
             return true;
         } catch (Exception e) {
             // Ideally we would like the parser to not throw as this is time-consuming, but not sure how to achieve that
@@ -486,22 +493,7 @@ public class XMLUtils {
      * instances of DocumentBuilder should be created.
      */
     private static DocumentBuilder getThreadDocumentBuilder() {
-        Thread thread = Thread.currentThread();
-        DocumentBuilder documentBuilder = (documentBuilders == null) ? null : documentBuilders.get(thread);
-        // Try a first test outside the synchronized block
-        if (documentBuilder == null) {
-            synchronized (documentBuilderFactory) {
-                // Redo the test within the synchronized block
-                documentBuilder = (documentBuilders == null) ? null : documentBuilders.get(thread);
-                if (documentBuilder == null) {
-                    if (documentBuilders == null)
-                        documentBuilders = new HashMap<Thread, DocumentBuilder>();
-                    documentBuilder = newDocumentBuilder();
-                    documentBuilders.put(thread, documentBuilder);
-                }
-            }
-        }
-        return documentBuilder;
+        return documentBuilders.get();
     }
 
     public static String domToString(Node node) {
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmark;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.pipeline.api.ExternalContext;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.processor.NullSerializer;
+import org.orbeon.oxf.processor.generator.DOMGenerator;
+import org.orbeon.oxf.util.PipelineUtils;
+import org.orbeon.oxf.xforms.XFormsConstants;
+import org.orbeon.oxf.xforms.XFormsContainingDocument;
+import org.orbeon.oxf.xforms.XFormsStaticState;
+import org.orbeon.oxf.xforms.control.XFormsControl;
+import org.orbeon.oxf.xforms.control.controls.XFormsInputControl;
+import org.orbeon.oxf.xforms.event.XFormsEvents;
+import org.orbeon.oxf.xforms.processor.XFormsServer;
+import org.orbeon.oxf.xforms.state.XFormsState;
+import org.orbeon.oxf.xforms.state.XFormsStateManager;
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
+
+/**
+ * Handle an Ajax request with XFormsServer: restore the document from its client state, change the value of the
+ * first input control, and produce the Ajax response.
+ */
+public class AjaxEventBenchmark extends Benchmark {
+
+    private NullSerializer serializer;
+
+    public AjaxEventBenchmark(String fixture) {
+        super(fixture);
+    }
+
+    @Override
+    public void setUp() {
+        // Produce the initial state of the form
+        final Document requestDocument;
+        final PipelineContext pipelineContext = BenchmarkSupport.createPipelineContext();
+        try {
+            final XFormsStaticState staticState = BenchmarkSupport.createStaticState(pipelineContext, getFixture());
+            final XFormsContainingDocument containingDocument = new XFormsContainingDocument(pipelineContext, staticState, null);
+            final ExternalContext externalContext = (ExternalContext) pipelineContext.getAttribute(PipelineContext.EXTERNAL_CONTEXT);
+            final XFormsState clientState = XFormsStateManager.getInitialEncodedClientState(containingDocument, externalContext,
+                    containingDocument.getXFormsState(pipelineContext), null, null);
+
+            requestDocument = createRequestDocument(clientState, getInputControlEffectiveId(containingDocument));
+        } finally {
+            BenchmarkSupport.destroyPipelineContext(pipelineContext, true);
+        }
+
+        final XFormsServer xformsServer = new XFormsServer();
+        PipelineUtils.connect(PipelineUtils.createDOMGenerator(requestDocument, "request", DOMGenerator.ZeroValidity, DOMGenerator.DefaultContext), "data", xformsServer, "request");
+        serializer = new NullSerializer();
+        PipelineUtils.connect(xformsServer, "response", serializer, "data");
+    }
+
+    @Override
+    public Object run() {
+        final PipelineContext pipelineContext = BenchmarkSupport.createPipelineContext();
+        boolean success = false;
+        try {
+            serializer.reset(pipelineContext);
+            serializer.start(pipelineContext);
+            success = true;
+            return pipelineContext;
+        } finally {
+            BenchmarkSupport.destroyPipelineContext(pipelineContext, success);
+        }
+    }
+
+    private static String getInputControlEffectiveId(XFormsContainingDocument containingDocument) {
+        for (final XFormsControl control: containingDocument.getControls().getCurrentControlTree().getEffectiveIdsToControls().values()) {
+            if (control instanceof XFormsInputControl && ((XFormsInputControl) control).isRelevant() && !((XFormsInputControl) control).isReadonly())
+                return control.getEffectiveId();
+        }
+        throw new OXFException("No input control found in form.");
+    }
+
+    private static Document createRequestDocument(XFormsState clientState, String controlEffectiveId) {
+        final Document requestDocument = Dom4jUtils.createDocument();
+        final Element requestElement = requestDocument.addElement("xxforms:event-request", XFormsConstants.XXFORMS_NAMESPACE_URI);
+        requestElement.addElement(XFormsConstants.XXFORMS_STATIC_STATE_QNAME).setText(clientState.getStaticState());
+        requestElement.addElement(XFormsConstants.XXFORMS_DYNAMIC_STATE_QNAME).setText(clientState.getDynamicState());
+        final Element eventElement = requestElement.addElement(XFormsConstants.XXFORMS_ACTION_QNAME).addElement(XFormsConstants.XXFORMS_EVENT_QNAME);
+        eventElement.addAttribute("name", XFormsEvents.XXFORMS_VALUE_CHANGE_WITH_FOCUS_CHANGE);
+        eventElement.addAttribute("source-control-id", controlEffectiveId);
+        eventElement.setText("benchmark");
+        return requestDocument;
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmark;
+
+/**
+ * A benchmark measures the throughput of a single operation, run repeatedly by BenchmarkRunner.
+ *
+ * The value returned by run() is consumed by the runner so that the JIT cannot eliminate the operation.
+ */
+public abstract class Benchmark {
+
+    private final String fixture;
+
+    protected Benchmark(String fixture) {
+        this.fixture = fixture;
+    }
+
+    /**
+     * Return the name under which results are reported, made of the class name and of the fixture if any.
+     *
+     * @return name
+     */
+    public String getName() {
+        final String className = getClass().getSimpleName();
+        final String name = className.endsWith("Benchmark") ? className.substring(0, className.length() - "Benchmark".length()) : className;
+        return (fixture == null) ? name : name + "[" + BenchmarkSupport.getFixtureName(fixture) + "]";
+    }
+
+    protected String getFixture() {
+        return fixture;
+    }
+
+    /**
+     * Whether run() can be called concurrently by several threads once setUp() has completed.
+     *
+     * @return true iif thread-safe
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
+    public void setUp() throws Exception {
+    }
+
+    public abstract Object run() throws Exception;
+
+    public void tearDown() throws Exception {
+    }
+}
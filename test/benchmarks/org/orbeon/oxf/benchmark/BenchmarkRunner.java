@@ -0,0 +1,287 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmark;
+
+import org.orbeon.oxf.common.Version;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Run the benchmarks and report their throughput.
+ *
+ * Each benchmark runs a number of warmup iterations, whose results are discarded, followed by a number of measurement
+ * iterations. During an iteration, the benchmark operation is called repeatedly for a fixed amount of time, by one or
+ * more threads. The score of an iteration is the number of operations per second.
+ *
+ * Results are printed to the console and written as JSON to the output file, so that runs on different versions or
+ * machines can be compared. Options are passed as system properties:
+ *
+ * o oxf.benchmark.filter: regular expression matched against benchmark names (default: all)
+ * o oxf.benchmark.warmup-iterations (default: 5)
+ * o oxf.benchmark.iterations (default: 10)
+ * o oxf.benchmark.iteration-time: iteration duration in ms (default: 1000)
+ * o oxf.benchmark.threads: number of threads for thread-safe benchmarks (default: 1)
+ * o oxf.benchmark.output: JSON result file (default: none)
+ */
+public class BenchmarkRunner {
+
+    private final Pattern filter;
+    private final int warmupIterations;
+    private final int iterations;
+    private final long iterationTime;
+    private final int threads;
+
+    // Results of the operations end up here so that they can't be optimized away
+    private volatile int sink;
+
+    public BenchmarkRunner(Pattern filter, int warmupIterations, int iterations, long iterationTime, int threads) {
+        this.filter = filter;
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.iterationTime = iterationTime;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        final String filterString = System.getProperty("oxf.benchmark.filter");
+        final BenchmarkRunner runner = new BenchmarkRunner(
+                (filterString == null || filterString.length() == 0) ? null : Pattern.compile(filterString),
+                Integer.getInteger("oxf.benchmark.warmup-iterations", 5),
+                Integer.getInteger("oxf.benchmark.iterations", 10),
+                Long.getLong("oxf.benchmark.iteration-time", 1000),
+                Integer.getInteger("oxf.benchmark.threads", 1));
+
+        BenchmarkSupport.init();
+
+        final List<Result> results = runner.run(getBenchmarks());
+
+        final String output = System.getProperty("oxf.benchmark.output");
+        if (output != null && output.length() > 0) {
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(output), "utf-8");
+            try {
+                runner.writeJSON(writer, results);
+            } finally {
+                writer.close();
+            }
+            System.out.println("Results written to " + new File(output).getAbsolutePath());
+        }
+    }
+
+    /**
+     * Return all the benchmarks, instantiated for each fixture where applicable.
+     *
+     * @return benchmarks
+     */
+    public static List<Benchmark> getBenchmarks() {
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        final List<String> fixtures = BenchmarkSupport.getFixtures();
+
+        benchmarks.add(new MemoryCacheBenchmark());
+        for (final String fixture: fixtures) {
+            benchmarks.add(new XMLParserBenchmark(fixture));
+            benchmarks.add(new SAXStoreBenchmark(fixture));
+            benchmarks.add(new XPathCacheBenchmark(fixture));
+            benchmarks.add(new StateEncodingBenchmark(fixture));
+            benchmarks.add(new ContainingDocumentBenchmark(fixture));
+            benchmarks.add(new InitialRenderBenchmark(fixture));
+            benchmarks.add(new AjaxEventBenchmark(fixture));
+        }
+        return benchmarks;
+    }
+
+    public List<Result> run(List<Benchmark> benchmarks) throws Exception {
+        final List<Result> results = new ArrayList<Result>();
+        for (final Benchmark benchmark: benchmarks) {
+            if (filter != null && !filter.matcher(benchmark.getName()).find())
+                continue;
+
+            final int benchmarkThreads = benchmark.isThreadSafe() ? threads : 1;
+            System.out.println("# " + benchmark.getName() + ", " + benchmarkThreads + " thread(s)");
+
+            benchmark.setUp();
+            try {
+                for (int i = 0; i < warmupIterations; i++) {
+                    final double score = runIteration(benchmark, benchmarkThreads);
+                    System.out.println(format("  warmup %d: %.3f ops/s", i + 1, score));
+                }
+                final double[] scores = new double[iterations];
+                for (int i = 0; i < iterations; i++) {
+                    scores[i] = runIteration(benchmark, benchmarkThreads);
+                    System.out.println(format("  iteration %d: %.3f ops/s", i + 1, scores[i]));
+                }
+                final Result result = new Result(benchmark.getName(), benchmarkThreads, scores);
+                System.out.println(format("  result: %.3f +/- %.3f ops/s, %.0f ns/op", result.getMean(), result.getError(), result.getNanosPerOperation()));
+                results.add(result);
+            } finally {
+                benchmark.tearDown();
+            }
+        }
+
+        // Summary
+        System.out.println();
+        System.out.println(format("%-50s %8s %16s %12s %14s", "Benchmark", "Threads", "Score (ops/s)", "Error", "ns/op"));
+        for (final Result result: results) {
+            System.out.println(format("%-50s %8d %16.3f %12.3f %14.0f", result.name, result.threads, result.getMean(), result.getError(), result.getNanosPerOperation()));
+        }
+        return results;
+    }
+
+    private double runIteration(final Benchmark benchmark, int threadCount) throws Exception {
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicLong operations = new AtomicLong();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch endLatch = new CountDownLatch(threadCount);
+        final Exception[] exception = new Exception[1];
+
+        for (int i = 0; i < threadCount; i++) {
+            final Thread thread = new Thread("benchmark-" + i) {
+                @Override
+                public void run() {
+                    long count = 0;
+                    int localSink = 0;
+                    try {
+                        startLatch.await();
+                        while (!done.get()) {
+                            final Object result = benchmark.run();
+                            if (result != null)
+                                localSink += result.hashCode();
+                            count++;
+                        }
+                    } catch (Exception e) {
+                        synchronized (exception) {
+                            exception[0] = e;
+                        }
+                        done.set(true);
+                    } finally {
+                        sink += localSink;
+                        operations.addAndGet(count);
+                        endLatch.countDown();
+                    }
+                }
+            };
+            thread.start();
+        }
+
+        final long start = System.nanoTime();
+        startLatch.countDown();
+        Thread.sleep(iterationTime);
+        done.set(true);
+        endLatch.await();
+        final long elapsed = System.nanoTime() - start;
+
+        synchronized (exception) {
+            if (exception[0] != null)
+                throw exception[0];
+        }
+
+        return operations.get() * 1e9 / elapsed;
+    }
+
+    public void writeJSON(Writer writer, List<Result> results) throws IOException {
+        final PrintWriter out = new PrintWriter(writer);
+        out.println("{");
+        out.println("  \"version\": " + quote(Version.getVersionString()) + ",");
+        out.println("  \"jvm\": " + quote(System.getProperty("java.vm.name") + " " + System.getProperty("java.version")) + ",");
+        out.println("  \"os\": " + quote(System.getProperty("os.name") + " " + System.getProperty("os.arch")) + ",");
+        out.println("  \"processors\": " + Runtime.getRuntime().availableProcessors() + ",");
+        out.println("  \"warmupIterations\": " + warmupIterations + ",");
+        out.println("  \"iterations\": " + iterations + ",");
+        out.println("  \"iterationTime\": " + iterationTime + ",");
+        out.println("  \"results\": [");
+        for (int i = 0; i < results.size(); i++) {
+            final Result result = results.get(i);
+            out.print("    { \"benchmark\": " + quote(result.name)
+                    + ", \"threads\": " + result.threads
+                    + ", \"score\": " + format("%.3f", result.getMean())
+                    + ", \"error\": " + format("%.3f", result.getError())
+                    + ", \"unit\": \"ops/s\""
+                    + ", \"nsPerOperation\": " + format("%.1f", result.getNanosPerOperation())
+                    + ", \"iterations\": [");
+            for (int j = 0; j < result.scores.length; j++) {
+                if (j > 0)
+                    out.print(", ");
+                out.print(format("%.3f", result.scores[j]));
+            }
+            out.println("] }" + (i < results.size() - 1 ? "," : ""));
+        }
+        out.println("  ]");
+        out.println("}");
+        out.flush();
+    }
+
+    private static String format(String format, Object... args) {
+        // Use a fixed locale so that the output can be parsed
+        return String.format(java.util.Locale.US, format, args);
+    }
+
+    private static String quote(String s) {
+        final StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    public static class Result {
+        public final String name;
+        public final int threads;
+        public final double[] scores;
+
+        public Result(String name, int threads, double[] scores) {
+            this.name = name;
+            this.threads = threads;
+            this.scores = scores;
+        }
+
+        public double getMean() {
+            double sum = 0;
+            for (final double score: scores)
+                sum += score;
+            return sum / scores.length;
+        }
+
+        /**
+         * Half-width of the 95% confidence interval of the mean, using a normal approximation.
+         *
+         * @return error in ops/s
+         */
+        public double getError() {
+            if (scores.length < 2)
+                return 0;
+            final double mean = getMean();
+            double sum = 0;
+            for (final double score: scores)
+                sum += (score - mean) * (score - mean);
+            return 1.96 * Math.sqrt(sum / (scores.length - 1)) / Math.sqrt(scores.length);
+        }
+
+        public double getNanosPerOperation() {
+            final double mean = getMean();
+            return (mean == 0) ? 0 : threads * 1e9 / mean;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmark;
+
+import org.dom4j.Document;
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.pipeline.StaticExternalContext;
+import org.orbeon.oxf.pipeline.api.ExternalContext;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.processor.generator.DOMGenerator;
+import org.orbeon.oxf.processor.ProcessorUtils;
+import org.orbeon.oxf.processor.XMLProcessorRegistry;
+import org.orbeon.oxf.processor.test.TestExternalContext;
+import org.orbeon.oxf.resources.ResourceManagerWrapper;
+import org.orbeon.oxf.util.LoggerFactory;
+import org.orbeon.oxf.util.NetUtils;
+import org.orbeon.oxf.util.PipelineUtils;
+import org.orbeon.oxf.xforms.XFormsStaticState;
+import org.orbeon.oxf.xforms.analysis.XFormsAnnotatorContentHandler;
+import org.orbeon.oxf.xforms.analysis.XFormsExtractorContentHandler;
+import org.orbeon.oxf.xml.SAXStore;
+import org.orbeon.oxf.xml.TransformerUtils;
+import org.orbeon.oxf.xml.XMLUtils;
+import org.orbeon.oxf.xml.dom4j.LocationDocumentResult;
+
+import javax.xml.transform.sax.TransformerHandler;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Environment and fixtures shared by the benchmarks.
+ *
+ * Fixtures are forms read through the resource manager, by default some of the example applications. They can be
+ * changed with the oxf.benchmark.fixtures system property, which contains a space-separated list of URLs.
+ */
+public class BenchmarkSupport {
+
+    public static final String FIXTURES_PROPERTY = "oxf.benchmark.fixtures";
+    private static final String DEFAULT_FIXTURES = "oxf:/apps/xforms-hello/view.xhtml oxf:/apps/xforms-todo/view.xhtml oxf:/apps/xforms-wizard-switch/view.xhtml";
+
+    private static final String PROPERTIES_URL = "oxf:/org/orbeon/oxf/benchmark/properties.xml";
+    private static final String REQUEST_URL = "oxf:/org/orbeon/oxf/benchmark/request.xml";
+
+    private static boolean initialized;
+    private static Document requestDocument;
+
+    /**
+     * Initialize resources, properties and processors. Like for the unit tests, the resource manager is configured
+     * with oxf.resources.* system properties.
+     */
+    public static synchronized void init() {
+        if (initialized)
+            return;
+
+        LoggerFactory.initBasicLogger();
+
+        final Map<String, Object> props = new HashMap<String, Object>();
+        final Properties properties = System.getProperties();
+        for (Enumeration e = properties.propertyNames(); e.hasMoreElements();) {
+            final String name = (String) e.nextElement();
+            if (name.startsWith("oxf.resources."))
+                props.put(name, properties.getProperty(name));
+        }
+        ResourceManagerWrapper.init(props);
+        org.orbeon.oxf.properties.Properties.init(PROPERTIES_URL);
+        LoggerFactory.initLogger();
+
+        // Register processors
+        final PipelineContext pipelineContext = new PipelineContext();
+        final XMLProcessorRegistry registry = new XMLProcessorRegistry();
+        final String fileName = "processors.xml";
+        final DOMGenerator config = PipelineUtils.createDOMGenerator(ResourceManagerWrapper.instance().getContentAsDOM4J(fileName),
+                fileName, DOMGenerator.ZeroValidity, fileName);
+        PipelineUtils.connect(config, "data", registry, "config");
+        registry.start(pipelineContext);
+        pipelineContext.destroy(true);
+
+        requestDocument = ProcessorUtils.createDocumentFromURL(REQUEST_URL, null);
+        initialized = true;
+    }
+
+    public static List<String> getFixtures() {
+        final String property = System.getProperty(FIXTURES_PROPERTY);
+        final String fixtures = (property == null || property.trim().length() == 0) ? DEFAULT_FIXTURES : property.trim();
+        return Arrays.asList(fixtures.split("\\s+"));
+    }
+
+    /**
+     * Return a short name for a fixture, e.g. "xforms-todo" for oxf:/apps/xforms-todo/view.xhtml.
+     *
+     * @param url   fixture URL
+     * @return      name
+     */
+    public static String getFixtureName(String url) {
+        final String[] segments = url.split("/");
+        final String last = segments[segments.length - 1];
+        return (last.startsWith("view.") && segments.length > 1) ? segments[segments.length - 2] : last;
+    }
+
+    /**
+     * Create a PipelineContext with an ExternalContext representing a simple servlet request. The context must be
+     * destroyed with destroyPipelineContext() by the same thread.
+     *
+     * @return PipelineContext
+     */
+    public static PipelineContext createPipelineContext() {
+        final PipelineContext pipelineContext = new PipelineContext();
+        final ExternalContext externalContext = new TestExternalContext(pipelineContext, requestDocument);
+        pipelineContext.setAttribute(PipelineContext.EXTERNAL_CONTEXT, externalContext);
+        StaticExternalContext.setStaticContext(new StaticExternalContext.StaticContext(externalContext, pipelineContext));
+        return pipelineContext;
+    }
+
+    public static void destroyPipelineContext(PipelineContext pipelineContext, boolean success) {
+        try {
+            pipelineContext.destroy(success);
+        } finally {
+            StaticExternalContext.removeStaticContext();
+        }
+    }
+
+    public static byte[] readFixture(String url) {
+        try {
+            final InputStream inputStream = ResourceManagerWrapper.instance().getContentAsStream(url);
+            try {
+                return NetUtils.inputStreamToByteArray(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            throw new OXFException(e);
+        }
+    }
+
+    /**
+     * Extract and analyze the static state of a form, as XFormsToXHTML does.
+     *
+     * @param pipelineContext   current context
+     * @param url               form URL
+     * @return                  analyzed static state
+     */
+    public static XFormsStaticState createStaticState(PipelineContext pipelineContext, String url) {
+        final ExternalContext externalContext = (ExternalContext) pipelineContext.getAttribute(PipelineContext.EXTERNAL_CONTEXT);
+
+        final TransformerHandler identity = TransformerUtils.getIdentityTransformerHandler();
+        final LocationDocumentResult documentResult = new LocationDocumentResult();
+        identity.setResult(documentResult);
+
+        final XFormsAnnotatorContentHandler.Metadata metadata = new XFormsAnnotatorContentHandler.Metadata();
+        final SAXStore annotatedSAXStore = new SAXStore(new XFormsExtractorContentHandler(externalContext, identity, metadata));
+        XMLUtils.urlToSAX(url, new XFormsAnnotatorContentHandler(annotatedSAXStore, externalContext, metadata), false, false);
+
+        final XFormsStaticState staticState = new XFormsStaticState(pipelineContext, documentResult.getDocument(), metadata, annotatedSAXStore);
+        staticState.analyzeIfNecessary(pipelineContext);
+        return staticState;
+    }
+}
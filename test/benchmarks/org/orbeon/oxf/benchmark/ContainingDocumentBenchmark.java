@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmark;
+
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.xforms.XFormsContainingDocument;
+import org.orbeon.oxf.xforms.XFormsStaticState;
+
+/**
+ * Create and initialize an XFormsContainingDocument from an analyzed static state, and produce its state, as done
+ * for each initial request once the static state is cached.
+ */
+public class ContainingDocumentBenchmark extends Benchmark {
+
+    private XFormsStaticState staticState;
+
+    public ContainingDocumentBenchmark(String fixture) {
+        super(fixture);
+    }
+
+    @Override
+    public void setUp() {
+        final PipelineContext pipelineContext = BenchmarkSupport.createPipelineContext();
+        try {
+            staticState = BenchmarkSupport.createStaticState(pipelineContext, getFixture());
+        } finally {
+            BenchmarkSupport.destroyPipelineContext(pipelineContext, true);
+        }
+    }
+
+    @Override
+    public Object run() {
+        final PipelineContext pipelineContext = BenchmarkSupport.createPipelineContext();
+        boolean success = false;
+        try {
+            final XFormsContainingDocument containingDocument = new XFormsContainingDocument(pipelineContext, staticState, null);
+            final Object result = containingDocument.getXFormsState(pipelineContext);
+            success = true;
+            return result;
+        } finally {
+            BenchmarkSupport.destroyPipelineContext(pipelineContext, success);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmark;
+
+import org.dom4j.Document;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.processor.generator.DOMGenerator;
+import org.orbeon.oxf.processor.NullSerializer;
+import org.orbeon.oxf.processor.generator.URLGenerator;
+import org.orbeon.oxf.util.PipelineUtils;
+import org.orbeon.oxf.xforms.processor.XFormsToXHTML;
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
+
+/**
+ * Produce the initial XHTML output of a form with XFormsToXHTML.
+ *
+ * The processors are connected once, so after the first run the annotated document and static state come from the
+ * cache, like in production, and the benchmark measures document initialization and XHTML rendering.
+ */
+public class InitialRenderBenchmark extends Benchmark {
+
+    private NullSerializer serializer;
+
+    public InitialRenderBenchmark(String fixture) {
+        super(fixture);
+    }
+
+    @Override
+    public void setUp() {
+        final XFormsToXHTML xformsToXHTML = new XFormsToXHTML();
+
+        PipelineUtils.connect(new URLGenerator(getFixture()), "data", xformsToXHTML, "annotated-document");
+
+        final Document namespaceDocument = Dom4jUtils.createDocument();
+        namespaceDocument.addElement("request").addElement("container-namespace");
+        PipelineUtils.connect(PipelineUtils.createDOMGenerator(namespaceDocument, "namespace", DOMGenerator.ZeroValidity, DOMGenerator.DefaultContext), "data", xformsToXHTML, "namespace");
+        PipelineUtils.connect(PipelineUtils.createDOMGenerator(Dom4jUtils.NULL_DOCUMENT, "data", DOMGenerator.ZeroValidity, DOMGenerator.DefaultContext), "data", xformsToXHTML, "data");
+        PipelineUtils.connect(PipelineUtils.createDOMGenerator(Dom4jUtils.NULL_DOCUMENT, "instance", DOMGenerator.ZeroValidity, DOMGenerator.DefaultContext), "data", xformsToXHTML, "instance");
+
+        serializer = new NullSerializer();
+        PipelineUtils.connect(xformsToXHTML, "document", serializer, "data");
+    }
+
+    @Override
+    public Object run() {
+        final PipelineContext pipelineContext = BenchmarkSupport.createPipelineContext();
+        boolean success = false;
+        try {
+            serializer.reset(pipelineContext);
+            serializer.start(pipelineContext);
+            success = true;
+            return pipelineContext;
+        } finally {
+            BenchmarkSupport.destroyPipelineContext(pipelineContext, success);
+        }
+    }
+}
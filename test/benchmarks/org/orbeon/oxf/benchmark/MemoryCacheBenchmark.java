@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmark;
+
+import org.orbeon.oxf.cache.Cache;
+import org.orbeon.oxf.cache.InternalCacheKey;
+import org.orbeon.oxf.cache.MemoryCacheImpl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lookups in a MemoryCacheImpl, with a working set larger than the cache so that entries are also added and expired.
+ */
+public class MemoryCacheBenchmark extends Benchmark {
+
+    private static final int CACHE_SIZE = 1000;
+    private static final int KEY_COUNT = 1500;
+    private static final Long VALIDITY = (long) 0;
+
+    private Cache cache;
+    private InternalCacheKey[] keys;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    public MemoryCacheBenchmark() {
+        super(null);
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public void setUp() {
+        cache = new MemoryCacheImpl("benchmark", CACHE_SIZE);
+        keys = new InternalCacheKey[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++)
+            keys[i] = new InternalCacheKey("benchmark", "key" + i);
+    }
+
+    @Override
+    public Object run() {
+        // Skewed access: half of the operations go to the first tenth of the keys
+        final int n = counter.getAndIncrement() & Integer.MAX_VALUE;
+        final InternalCacheKey key = keys[(n % 2 == 0) ? (n / 2) % (KEY_COUNT / 10) : (n / 2) % KEY_COUNT];
+
+        final Object value = cache.findValid(null, key, VALIDITY);
+        if (value == null)
+            cache.add(null, key, VALIDITY, key);
+        return value;
+    }
+}
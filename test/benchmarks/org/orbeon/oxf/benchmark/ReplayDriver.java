@@ -0,0 +1,462 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmark;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.orbeon.oxf.cache.Cache;
+import org.orbeon.oxf.cache.CacheStatistics;
+import org.orbeon.oxf.cache.ObjectCache;
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.common.Version;
+import org.orbeon.oxf.pipeline.api.ExternalContext;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.processor.DOMSerializer;
+import org.orbeon.oxf.processor.generator.DOMGenerator;
+import org.orbeon.oxf.util.PipelineUtils;
+import org.orbeon.oxf.xforms.XFormsConstants;
+import org.orbeon.oxf.xforms.XFormsContainingDocument;
+import org.orbeon.oxf.xforms.XFormsStaticState;
+import org.orbeon.oxf.xforms.processor.XFormsRequestRecorder;
+import org.orbeon.oxf.xforms.processor.XFormsServer;
+import org.orbeon.oxf.xforms.state.XFormsState;
+import org.orbeon.oxf.xforms.state.XFormsStateManager;
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Replay Ajax sessions recorded with the oxf.xforms.record-requests.directory property against a form, in-process,
+ * with a number of concurrent virtual users.
+ *
+ * Each virtual user renders the form to obtain its initial state, then sends the recorded requests of a session one
+ * after the other, each time with the static and dynamic states returned by the previous response. Sessions are
+ * assigned to users round-robin so that runs are reproducible. States are kept on the client, as the server store
+ * requires the database.
+ *
+ * The driver reports latency percentiles per event type, the size of the encoded state after each request, cache
+ * hit ratios, and, when the JVM supports it, the number of bytes allocated per request. Options are passed as system
+ * properties:
+ *
+ * o oxf.replay.recording: directory containing the recorded sessions (required)
+ * o oxf.replay.form: URL of the form the sessions were recorded against (required)
+ * o oxf.replay.users: number of concurrent virtual users (default: 1)
+ * o oxf.replay.sessions-per-user: number of sessions replayed by each user (default: 1)
+ * o oxf.replay.think-time: factor applied to the recorded delays between requests, 0 to send requests back to back
+ *   (default: 0)
+ * o oxf.replay.output: JSON result file (default: none)
+ */
+public class ReplayDriver {
+
+    private static final String INITIAL_RENDER = "initial-render";
+    private static final String NO_EVENT = "none";
+
+    private final String formURL;
+    private final List<List<Document>> sessions;
+    private final int users;
+    private final int sessionsPerUser;
+    private final double thinkTime;
+
+    private final Map<String, List<Long>> latencies = new TreeMap<String, List<Long>>();
+    private final List<Integer> stateSizes = new ArrayList<Integer>();
+    private final Map<String, long[]> cacheStatistics = new TreeMap<String, long[]>(); // { hits, misses }
+    private final List<Long> allocatedBytes = new ArrayList<Long>();
+    private long totalTime;
+
+    public ReplayDriver(String formURL, List<List<Document>> sessions, int users, int sessionsPerUser, double thinkTime) {
+        this.formURL = formURL;
+        this.sessions = sessions;
+        this.users = users;
+        this.sessionsPerUser = sessionsPerUser;
+        this.thinkTime = thinkTime;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        final String recording = System.getProperty("oxf.replay.recording");
+        final String formURL = System.getProperty("oxf.replay.form");
+        if (recording == null || recording.length() == 0 || formURL == null || formURL.length() == 0)
+            throw new OXFException("The oxf.replay.recording and oxf.replay.form properties are required.");
+
+        final List<List<Document>> sessions = readSessions(new File(recording));
+        if (sessions.size() == 0)
+            throw new OXFException("No recorded session found in " + recording);
+
+        BenchmarkSupport.init();
+
+        final ReplayDriver driver = new ReplayDriver(formURL, sessions,
+                Integer.getInteger("oxf.replay.users", 1),
+                Integer.getInteger("oxf.replay.sessions-per-user", 1),
+                Double.parseDouble(System.getProperty("oxf.replay.think-time", "0")));
+        driver.run();
+        driver.printSummary();
+
+        final String output = System.getProperty("oxf.replay.output");
+        if (output != null && output.length() > 0) {
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(output), "utf-8");
+            try {
+                driver.writeJSON(writer);
+            } finally {
+                writer.close();
+            }
+            System.out.println("Results written to " + new File(output).getAbsolutePath());
+        }
+    }
+
+    /**
+     * Read the recorded sessions, one per subdirectory, each with its requests in order. The recorder creates one
+     * subdirectory per document, so a session is the sequence of requests made on one page.
+     *
+     * @param directory recording directory
+     * @return          sessions
+     */
+    public static List<List<Document>> readSessions(File directory) {
+        final File[] sessionDirectories = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isDirectory();
+            }
+        });
+        if (sessionDirectories == null)
+            throw new OXFException("Unable to read directory: " + directory.getAbsolutePath());
+        Arrays.sort(sessionDirectories);
+
+        final List<List<Document>> sessions = new ArrayList<List<Document>>();
+        for (final File sessionDirectory: sessionDirectories) {
+            final File[] files = sessionDirectory.listFiles(new FileFilter() {
+                public boolean accept(File file) {
+                    return file.isFile() && file.getName().endsWith(".xml");
+                }
+            });
+            if (files == null || files.length == 0)
+                continue;
+            // File names sort in the order in which requests were received
+            Arrays.sort(files);
+
+            final List<Document> requests = new ArrayList<Document>(files.length);
+            for (final File file: files)
+                requests.add(Dom4jUtils.readFromURL(file.toURI().toString(), false, false));
+            sessions.add(requests);
+        }
+        return sessions;
+    }
+
+    public void run() throws Exception {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch endLatch = new CountDownLatch(users);
+        final Exception[] exception = new Exception[1];
+
+        for (int i = 0; i < users; i++) {
+            final int user = i;
+            final Thread thread = new Thread("replay-user-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (int j = 0; j < sessionsPerUser; j++)
+                            replaySession(sessions.get((user + j * users) % sessions.size()));
+                    } catch (Exception e) {
+                        synchronized (exception) {
+                            if (exception[0] == null)
+                                exception[0] = e;
+                        }
+                    } finally {
+                        endLatch.countDown();
+                    }
+                }
+            };
+            thread.start();
+        }
+
+        final long start = System.nanoTime();
+        startLatch.countDown();
+        endLatch.await();
+        totalTime = System.nanoTime() - start;
+
+        synchronized (exception) {
+            if (exception[0] != null)
+                throw exception[0];
+        }
+    }
+
+    private void replaySession(List<Document> requests) throws InterruptedException {
+
+        // Render the form to get the initial state
+        XFormsState clientState;
+        {
+            final PipelineContext pipelineContext = BenchmarkSupport.createPipelineContext();
+            boolean success = false;
+            try {
+                final long allocatedBefore = getAllocatedBytes();
+                final long start = System.nanoTime();
+
+                final XFormsStaticState staticState = BenchmarkSupport.createStaticState(pipelineContext, formURL);
+                final XFormsContainingDocument containingDocument = new XFormsContainingDocument(pipelineContext, staticState, null);
+                final ExternalContext externalContext = (ExternalContext) pipelineContext.getAttribute(PipelineContext.EXTERNAL_CONTEXT);
+                clientState = XFormsStateManager.getInitialEncodedClientState(containingDocument, externalContext,
+                        containingDocument.getXFormsState(pipelineContext), null, null);
+
+                recordRequest(pipelineContext, INITIAL_RENDER, System.nanoTime() - start, getAllocatedBytes() - allocatedBefore, clientState);
+                success = true;
+            } finally {
+                BenchmarkSupport.destroyPipelineContext(pipelineContext, success);
+            }
+        }
+
+        // Replay requests
+        long previousRecordedTime = -1;
+        for (final Document recordedRequest: requests) {
+
+            final long recordedTime = getRecordedTime(recordedRequest);
+            if (thinkTime > 0 && previousRecordedTime != -1 && recordedTime > previousRecordedTime)
+                Thread.sleep((long) ((recordedTime - previousRecordedTime) * thinkTime));
+            previousRecordedTime = recordedTime;
+
+            final Document requestDocument = createRequestDocument(recordedRequest, clientState);
+
+            final XFormsServer xformsServer = new XFormsServer();
+            PipelineUtils.connect(PipelineUtils.createDOMGenerator(requestDocument, "request", DOMGenerator.ZeroValidity, DOMGenerator.DefaultContext), "data", xformsServer, "request");
+            final DOMSerializer serializer = new DOMSerializer();
+            PipelineUtils.connect(xformsServer, "response", serializer, "data");
+
+            final PipelineContext pipelineContext = BenchmarkSupport.createPipelineContext();
+            boolean success = false;
+            try {
+                final long allocatedBefore = getAllocatedBytes();
+                final long start = System.nanoTime();
+
+                serializer.start(pipelineContext);
+
+                final long elapsed = System.nanoTime() - start;
+                final long allocated = getAllocatedBytes() - allocatedBefore;
+
+                // Keep the new dynamic state for the next request
+                final Element dynamicStateElement = serializer.getDocument(pipelineContext).getRootElement().element(XFormsConstants.XXFORMS_DYNAMIC_STATE_QNAME);
+                if (dynamicStateElement != null)
+                    clientState = new XFormsState(clientState.getStaticState(), dynamicStateElement.getTextTrim());
+
+                recordRequest(pipelineContext, getEventType(recordedRequest), elapsed, allocated, clientState);
+                success = true;
+            } finally {
+                BenchmarkSupport.destroyPipelineContext(pipelineContext, success);
+            }
+        }
+    }
+
+    private static Document createRequestDocument(Document recordedRequest, XFormsState clientState) {
+        final Document requestDocument = Dom4jUtils.createDocumentCopyElement(recordedRequest.getRootElement());
+        final Element requestElement = requestDocument.getRootElement();
+        requestElement.addElement(XFormsConstants.XXFORMS_STATIC_STATE_QNAME).setText(clientState.getStaticState());
+        requestElement.addElement(XFormsConstants.XXFORMS_DYNAMIC_STATE_QNAME).setText(clientState.getDynamicState());
+        return requestDocument;
+    }
+
+    private static long getRecordedTime(Document recordedRequest) {
+        final String value = recordedRequest.getRootElement().attributeValue(XFormsRequestRecorder.RECORDED_TIME_ATTRIBUTE);
+        return (value != null) ? Long.parseLong(value) : -1;
+    }
+
+    private static String getEventType(Document recordedRequest) {
+        final Element actionElement = recordedRequest.getRootElement().element(XFormsConstants.XXFORMS_ACTION_QNAME);
+        final Element eventElement = (actionElement != null) ? actionElement.element(XFormsConstants.XXFORMS_EVENT_QNAME) : null;
+        return (eventElement != null) ? eventElement.attributeValue("name") : NO_EVENT;
+    }
+
+    private synchronized void recordRequest(PipelineContext pipelineContext, String eventType, long latency, long allocated, XFormsState clientState) {
+        List<Long> eventLatencies = latencies.get(eventType);
+        if (eventLatencies == null) {
+            eventLatencies = new ArrayList<Long>();
+            latencies.put(eventType, eventLatencies);
+        }
+        eventLatencies.add(latency);
+
+        stateSizes.add(clientState.getStaticState().length() + clientState.getDynamicState().length());
+
+        if (allocated >= 0)
+            allocatedBytes.add(allocated);
+
+        // Cache statistics are kept per pipeline context
+        for (final String cacheName: ObjectCache.getCacheNames()) {
+            final Cache cache = ObjectCache.instanceIfExists(cacheName);
+            if (cache == null)
+                continue;
+            final CacheStatistics statistics = cache.getStatistics(pipelineContext);
+            long[] counts = cacheStatistics.get(cacheName);
+            if (counts == null) {
+                counts = new long[2];
+                cacheStatistics.put(cacheName, counts);
+            }
+            counts[0] += statistics.getHitCount();
+            counts[1] += statistics.getMissCount();
+        }
+    }
+
+    private static final Object threadMXBean = ManagementFactory.getThreadMXBean();
+    private static final Method getThreadAllocatedBytesMethod;
+    static {
+        // Only available on some JVMs, so use reflection
+        Method method = null;
+        try {
+            method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+            if (!method.getDeclaringClass().isInstance(threadMXBean))
+                method = null;
+        } catch (Exception e) {
+            // Not supported
+        }
+        getThreadAllocatedBytesMethod = method;
+    }
+
+    /**
+     * Return the number of bytes allocated so far by the current thread.
+     *
+     * @return number of bytes, or -1 if not supported by the JVM
+     */
+    private static long getAllocatedBytes() {
+        if (getThreadAllocatedBytesMethod == null)
+            return -1;
+        try {
+            return (Long) getThreadAllocatedBytesMethod.invoke(threadMXBean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static long percentile(List<Long> sortedValues, double percentile) {
+        if (sortedValues.size() == 0)
+            return 0;
+        final int index = (int) Math.ceil(percentile / 100 * sortedValues.size()) - 1;
+        return sortedValues.get(Math.max(0, Math.min(index, sortedValues.size() - 1)));
+    }
+
+    private static double mean(List<? extends Number> values) {
+        if (values.size() == 0)
+            return 0;
+        double sum = 0;
+        for (final Number value: values)
+            sum += value.doubleValue();
+        return sum / values.size();
+    }
+
+    private static long max(List<? extends Number> values) {
+        long max = 0;
+        for (final Number value: values)
+            max = Math.max(max, value.longValue());
+        return max;
+    }
+
+    private Map<String, List<Long>> getSortedLatencies() {
+        final Map<String, List<Long>> result = new TreeMap<String, List<Long>>();
+        for (final Map.Entry<String, List<Long>> entry: latencies.entrySet()) {
+            final List<Long> sorted = new ArrayList<Long>(entry.getValue());
+            Collections.sort(sorted);
+            result.put(entry.getKey(), sorted);
+        }
+        return result;
+    }
+
+    private static double getHitRatio(long[] counts) {
+        final long total = counts[0] + counts[1];
+        return (total == 0) ? 0 : (double) counts[0] / total;
+    }
+
+    public void printSummary() {
+        System.out.println(format("%d user(s), %d session(s) per user, %.1f s", users, sessionsPerUser, totalTime / 1e9));
+        System.out.println();
+        System.out.println(format("%-40s %8s %10s %10s %10s %10s %10s", "Event", "Count", "Mean (ms)", "p50 (ms)", "p90 (ms)", "p99 (ms)", "Max (ms)"));
+        for (final Map.Entry<String, List<Long>> entry: getSortedLatencies().entrySet()) {
+            final List<Long> sorted = entry.getValue();
+            System.out.println(format("%-40s %8d %10.2f %10.2f %10.2f %10.2f %10.2f", entry.getKey(), sorted.size(), mean(sorted) / 1e6,
+                    percentile(sorted, 50) / 1e6, percentile(sorted, 90) / 1e6, percentile(sorted, 99) / 1e6, max(sorted) / 1e6));
+        }
+        System.out.println();
+        System.out.println(format("State size: mean %.0f chars, max %d chars", mean(stateSizes), max(stateSizes)));
+        if (allocatedBytes.size() > 0)
+            System.out.println(format("Allocated per request: mean %.0f bytes, max %d bytes", mean(allocatedBytes), max(allocatedBytes)));
+        System.out.println();
+        for (final Map.Entry<String, long[]> entry: cacheStatistics.entrySet()) {
+            final long[] counts = entry.getValue();
+            System.out.println(format("Cache %-30s hits %10d, misses %10d, ratio %.3f", entry.getKey(), counts[0], counts[1], getHitRatio(counts)));
+        }
+    }
+
+    public void writeJSON(Writer writer) throws IOException {
+        final PrintWriter out = new PrintWriter(writer);
+        out.println("{");
+        out.println("  \"version\": " + quote(Version.getVersionString()) + ",");
+        out.println("  \"jvm\": " + quote(System.getProperty("java.vm.name") + " " + System.getProperty("java.version")) + ",");
+        out.println("  \"form\": " + quote(formURL) + ",");
+        out.println("  \"users\": " + users + ",");
+        out.println("  \"sessionsPerUser\": " + sessionsPerUser + ",");
+        out.println("  \"thinkTime\": " + format("%.3f", thinkTime) + ",");
+        out.println("  \"totalTime\": " + format("%.1f", totalTime / 1e6) + ",");
+
+        out.println("  \"latencies\": [");
+        final Map<String, List<Long>> sortedLatencies = getSortedLatencies();
+        int i = 0;
+        for (final Map.Entry<String, List<Long>> entry: sortedLatencies.entrySet()) {
+            final List<Long> sorted = entry.getValue();
+            out.println("    { \"event\": " + quote(entry.getKey())
+                    + ", \"count\": " + sorted.size()
+                    + ", \"unit\": \"ms\""
+                    + ", \"mean\": " + format("%.3f", mean(sorted) / 1e6)
+                    + ", \"p50\": " + format("%.3f", percentile(sorted, 50) / 1e6)
+                    + ", \"p90\": " + format("%.3f", percentile(sorted, 90) / 1e6)
+                    + ", \"p99\": " + format("%.3f", percentile(sorted, 99) / 1e6)
+                    + ", \"max\": " + format("%.3f", max(sorted) / 1e6)
+                    + " }" + (++i < sortedLatencies.size() ? "," : ""));
+        }
+        out.println("  ],");
+
+        out.println("  \"stateSize\": { \"mean\": " + format("%.0f", mean(stateSizes)) + ", \"max\": " + max(stateSizes) + " },");
+        out.println("  \"allocatedBytes\": " + (allocatedBytes.size() > 0
+                ? "{ \"mean\": " + format("%.0f", mean(allocatedBytes)) + ", \"max\": " + max(allocatedBytes) + " }"
+                : "null") + ",");
+
+        out.println("  \"caches\": [");
+        i = 0;
+        for (final Map.Entry<String, long[]> entry: cacheStatistics.entrySet()) {
+            final long[] counts = entry.getValue();
+            out.println("    { \"cache\": " + quote(entry.getKey())
+                    + ", \"hits\": " + counts[0]
+                    + ", \"misses\": " + counts[1]
+                    + ", \"ratio\": " + format("%.3f", getHitRatio(counts))
+                    + " }" + (++i < cacheStatistics.size() ? "," : ""));
+        }
+        out.println("  ]");
+        out.println("}");
+        out.flush();
+    }
+
+    private static String format(String format, Object... args) {
+        // Use a fixed locale so that the output can be parsed
+        return String.format(java.util.Locale.US, format, args);
+    }
+
+    private static String quote(String s) {
+        final StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
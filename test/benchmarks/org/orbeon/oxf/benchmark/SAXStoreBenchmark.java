@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmark;
+
+import org.orbeon.oxf.xml.SAXStore;
+import org.orbeon.oxf.xml.XMLUtils;
+
+/**
+ * Record a form into a SAXStore by replaying another SAXStore, which exercises both recording and replay.
+ */
+public class SAXStoreBenchmark extends Benchmark {
+
+    private SAXStore source;
+
+    public SAXStoreBenchmark(String fixture) {
+        super(fixture);
+    }
+
+    @Override
+    public void setUp() {
+        source = new SAXStore();
+        XMLUtils.urlToSAX(getFixture(), source, false, false);
+    }
+
+    @Override
+    public Object run() throws Exception {
+        final SAXStore destination = new SAXStore();
+        source.replay(destination);
+        return destination;
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmark;
+
+import org.dom4j.Document;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.xforms.XFormsProperties;
+import org.orbeon.oxf.xforms.XFormsStaticState;
+import org.orbeon.oxf.xforms.XFormsUtils;
+
+/**
+ * Encode and decode the static state of a form with XFormsUtils, as done with client state handling.
+ */
+public class StateEncodingBenchmark extends Benchmark {
+
+    private Document staticStateDocument;
+
+    public StateEncodingBenchmark(String fixture) {
+        super(fixture);
+    }
+
+    @Override
+    public void setUp() {
+        final PipelineContext pipelineContext = BenchmarkSupport.createPipelineContext();
+        try {
+            final XFormsStaticState staticState = BenchmarkSupport.createStaticState(pipelineContext, getFixture());
+            staticStateDocument = XFormsUtils.decodeXML(pipelineContext, staticState.getEncodedStaticState(pipelineContext));
+        } finally {
+            BenchmarkSupport.destroyPipelineContext(pipelineContext, true);
+        }
+    }
+
+    @Override
+    public Object run() {
+        final PipelineContext pipelineContext = new PipelineContext();
+        try {
+            final String encoded = XFormsUtils.encodeXML(pipelineContext, staticStateDocument, XFormsProperties.getXFormsPassword(), true);
+            return XFormsUtils.decodeXML(pipelineContext, encoded);
+        } finally {
+            pipelineContext.destroy(true);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmark;
+
+import org.orbeon.oxf.processor.NullSerializer;
+import org.orbeon.oxf.xml.XMLUtils;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Parse a form with XMLUtils. Run with several threads, this measures the contention on the shared parser pools.
+ */
+public class XMLParserBenchmark extends Benchmark {
+
+    private byte[] bytes;
+
+    public XMLParserBenchmark(String fixture) {
+        super(fixture);
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public void setUp() {
+        bytes = BenchmarkSupport.readFixture(getFixture());
+    }
+
+    @Override
+    public Object run() {
+        XMLUtils.inputStreamToSAX(new ByteArrayInputStream(bytes), getFixture(), new NullSerializer.NullContentHandler(), false, false);
+        return bytes;
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.benchmark;
+
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.util.XPathCache;
+import org.orbeon.oxf.xforms.XFormsConstants;
+import org.orbeon.oxf.xml.XMLConstants;
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
+import org.orbeon.saxon.dom4j.DocumentWrapper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Evaluate typical expressions against a form through XPathCache, so that expressions are found in the cache and only
+ * the lookup and evaluation are measured.
+ */
+public class XPathCacheBenchmark extends Benchmark {
+
+    private static final String[] EXPRESSIONS = {
+        "count(//xforms:*)",
+        "//xhtml:body//xforms:*[@ref]/@ref",
+        "normalize-space(/xhtml:html/xhtml:head/xhtml:title)",
+        "for $e in //xforms:*[@id] return concat($e/@id, '-suffix')"
+    };
+
+    private static final Map<String, String> NAMESPACES = new HashMap<String, String>();
+    static {
+        NAMESPACES.put("xhtml", XMLConstants.XHTML_NAMESPACE_URI);
+        NAMESPACES.put("xforms", XFormsConstants.XFORMS_NAMESPACE_URI);
+    }
+
+    private PipelineContext pipelineContext;
+    private DocumentWrapper documentWrapper;
+
+    public XPathCacheBenchmark(String fixture) {
+        super(fixture);
+    }
+
+    @Override
+    public void setUp() {
+        pipelineContext = new PipelineContext();
+        documentWrapper = new DocumentWrapper(Dom4jUtils.readFromURL(getFixture(), false, false), getFixture(), XPathCache.getGlobalConfiguration());
+    }
+
+    @Override
+    public Object run() {
+        int size = 0;
+        for (final String expression: EXPRESSIONS)
+            size += XPathCache.evaluate(pipelineContext, documentWrapper, expression, NAMESPACES, null, null, null, null, null).size();
+        return size;
+    }
+
+    @Override
+    public void tearDown() {
+        pipelineContext.destroy(true);
+    }
+}
@@ -71,6 +71,48 @@ public class NetUtilsTest extends ResourceManagerTestBase {
         assertEquals(NetUtils.checkIfModifiedSince(httpServletRequest, ifModifiedHeaderLong + 1001), true);
     }
 
+    public void testAcceptsGZIP() {
+        assertFalse(NetUtils.acceptsGZIP(null));
+        assertFalse(NetUtils.acceptsGZIP(""));
+        assertTrue(NetUtils.acceptsGZIP("gzip"));
+        assertTrue(NetUtils.acceptsGZIP("deflate, GZIP"));
+        assertTrue(NetUtils.acceptsGZIP("gzip;q=0.5, deflate"));
+        assertFalse(NetUtils.acceptsGZIP("deflate"));
+
+        // Explicit refusal
+        assertFalse(NetUtils.acceptsGZIP("gzip;q=0"));
+        assertFalse(NetUtils.acceptsGZIP("gzip; q=0.000, deflate"));
+        assertFalse(NetUtils.acceptsGZIP("gzip;q=zero"));
+
+        // Any coding
+        assertTrue(NetUtils.acceptsGZIP("*"));
+        assertTrue(NetUtils.acceptsGZIP("deflate, *;q=0.1"));
+        assertFalse(NetUtils.acceptsGZIP("*;q=0"));
+        assertFalse(NetUtils.acceptsGZIP("gzip;q=0, *"));
+        assertTrue(NetUtils.acceptsGZIP("gzip, *;q=0"));
+    }
+
+    public void testMatchesETag() {
+        assertFalse(NetUtils.matchesETag(null, "\"abc\""));
+        assertTrue(NetUtils.matchesETag("\"abc\"", "\"abc\""));
+        assertFalse(NetUtils.matchesETag("\"abc\"", "\"abd\""));
+        assertFalse(NetUtils.matchesETag("abc", "\"abc\""));
+
+        // Weak comparison
+        assertTrue(NetUtils.matchesETag("W/\"abc\"", "\"abc\""));
+        assertTrue(NetUtils.matchesETag("\"abc\"", "W/\"abc\""));
+        assertFalse(NetUtils.matchesETag("W/\"abc\"", "\"abc-gzip\""));
+
+        // Lists of ETags
+        assertTrue(NetUtils.matchesETag("\"xyz\", W/\"abc\"", "\"abc\""));
+        assertTrue(NetUtils.matchesETag("\"xyz\",\"abc-gzip\"", "\"abc\"", "\"abc-gzip\""));
+        assertFalse(NetUtils.matchesETag("\"xyz\", \"uvw\"", "\"abc\"", "\"abc-gzip\""));
+
+        // Any ETag
+        assertTrue(NetUtils.matchesETag("*", "\"abc\""));
+        assertTrue(NetUtils.matchesETag(" * ", "\"abc\""));
+    }
+
     public void testProxyURI() {
         assertEquals("/xforms-server/dynamic/87c938edbc170d5038192ca5ab9add97", NetUtils.proxyURI(pipelineContext, "/foo/bar.png", null, null, -1));
         assertEquals("/xforms-server/dynamic/674c2ff956348155ff60c01c0c0ec2e0", NetUtils.proxyURI(pipelineContext, "http://example.org/foo/bar.png", null, null, -1));
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms;
+
+import org.orbeon.oxf.test.ResourceManagerTestBase;
+import org.orbeon.oxf.xml.XMLConstants;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class XFormsRefreshMemoTest extends ResourceManagerTestBase {
+
+    private XFormsRefreshMemo memo;
+    private Map<String, String> namespaces;
+
+    @Override
+    protected void setUp() throws Exception {
+        memo = new XFormsRefreshMemo();
+        namespaces = new HashMap<String, String>();
+        namespaces.put("xxforms", XFormsConstants.XXFORMS_NAMESPACE_URI);
+        namespaces.put("xs", XMLConstants.XSD_URI);
+    }
+
+    public void testPureExpressions() {
+        assertTrue(memo.isMemoizable("concat(@first, ' ', instance('resources')/label)", false, namespaces));
+        assertTrue(memo.isMemoizable("xxforms:instance('resources')/label", false, namespaces));
+        assertTrue(memo.isMemoizable("if (. = 'a') then xs:integer(1) else count(node())", false, namespaces));
+    }
+
+    public void testIndex() {
+        assertFalse(memo.isMemoizable("index('repeat')", false, namespaces));
+        assertFalse(memo.isMemoizable("instance('items')/item[index('repeat')]", false, namespaces));
+    }
+
+    public void testPosition() {
+        assertFalse(memo.isMemoizable("position()", false, namespaces));
+        assertFalse(memo.isMemoizable("concat(position(), '/', last())", false, namespaces));
+    }
+
+    public void testVariables() {
+        assertFalse(memo.isMemoizable("$var", false, namespaces));
+        assertFalse(memo.isMemoizable("concat(., $var)", false, namespaces));
+        assertFalse(memo.isMemoizable("for $i in item return $i/@id", false, namespaces));
+    }
+
+    public void testLiteralsAndComments() {
+        // Function names and variables within literals and comments are ignored
+        assertTrue(memo.isMemoizable("concat('index(''repeat'')', \"$var\")", false, namespaces));
+        assertTrue(memo.isMemoizable("string(.) (: position() and $var (: nested :) :)", false, namespaces));
+
+        // Unterminated literals and comments
+        assertFalse(memo.isMemoizable("concat('a", false, namespaces));
+        assertFalse(memo.isMemoizable("string(.) (: comment", false, namespaces));
+    }
+
+    public void testUnknownPrefix() {
+        assertFalse(memo.isMemoizable("foo:bar(.)", false, namespaces));
+    }
+
+    public void testAvt() {
+        assertTrue(memo.isMemoizable("$var {concat(., 'a')} position()", true, namespaces));
+        assertTrue(memo.isMemoizable("{{position()}}", true, namespaces));
+        assertFalse(memo.isMemoizable("item {position()}", true, namespaces));
+        assertFalse(memo.isMemoizable("{index('repeat')}", true, namespaces));
+        assertFalse(memo.isMemoizable("{$var}", true, namespaces));
+        assertFalse(memo.isMemoizable("{concat(., 'a')", true, namespaces));
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2010 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state;
+
+import org.dom4j.Document;
+import org.orbeon.oxf.cache.Cache;
+import org.orbeon.oxf.cache.ObjectCache;
+import org.orbeon.oxf.pipeline.api.ExternalContext;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.processor.ProcessorUtils;
+import org.orbeon.oxf.processor.test.TestExternalContext;
+import org.orbeon.oxf.test.ResourceManagerTestBase;
+import org.orbeon.oxf.xforms.XFormsStaticState;
+import org.orbeon.oxf.xforms.analysis.XFormsAnnotatorContentHandler;
+import org.orbeon.oxf.xforms.analysis.XFormsExtractorContentHandler;
+import org.orbeon.oxf.xml.SAXStore;
+import org.orbeon.oxf.xml.TransformerUtils;
+import org.orbeon.oxf.xml.XMLUtils;
+import org.orbeon.oxf.xml.dom4j.LocationDocumentResult;
+
+import javax.xml.transform.sax.TransformerHandler;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+
+public class XFormsStaticStateCacheTest extends ResourceManagerTestBase {
+
+    private static final String FORM_URL = "oxf:/org/orbeon/oxf/xforms/analysis/form.xml";
+    private static final String OTHER_FORM_URL = "oxf:/org/orbeon/oxf/xforms/analysis/binds.xml";
+    private static final String NOSCRIPT_FORM_URL = "oxf:/org/orbeon/oxf/xforms/state/noscript.xml";
+    private static final String NOSCRIPT_OTHER_MARKUP_FORM_URL = "oxf:/org/orbeon/oxf/xforms/state/noscript-other-markup.xml";
+
+    // Annotated XHTML of the current page, only checked for static states which keep XHTML
+    private static final SAXStore NO_XHTML = new SAXStore();
+
+    private PipelineContext pipelineContext;
+    private File storeDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        pipelineContext = new PipelineContext();
+        clearMemory();
+
+        storeDirectory = File.createTempFile("static-state-store", "");
+        storeDirectory.delete();
+        storeDirectory.mkdir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        final File[] files = storeDirectory.listFiles();
+        if (files != null) {
+            for (final File file: files)
+                file.delete();
+        }
+        storeDirectory.delete();
+    }
+
+    public void testMemoryHit() {
+        final XFormsStaticStateCache cache = new XFormsStaticStateCache(storeDirectory.getAbsolutePath());
+        final XFormsStaticState staticState = getStaticState(FORM_URL);
+        cache.add(pipelineContext, "source-digest", staticState);
+
+        assertSame(staticState, cache.findBySourceDigest(pipelineContext, "source-digest", NO_XHTML));
+        assertSame(staticState, cache.findByEncodedStaticState(pipelineContext, staticState.getEncodedStaticState(pipelineContext)));
+        assertNull(cache.findBySourceDigest(pipelineContext, "other-source-digest", NO_XHTML));
+    }
+
+    public void testStoreHit() {
+        final XFormsStaticState staticState = getStaticState(FORM_URL);
+        final String encodedStaticState = staticState.getEncodedStaticState(pipelineContext);
+        new XFormsStaticStateCache(storeDirectory.getAbsolutePath()).add(pipelineContext, "source-digest", staticState);
+        assertEquals(1, getStoreFiles().length);
+
+        // Simulate a restart
+        clearMemory();
+        final XFormsStaticStateCache cache = new XFormsStaticStateCache(storeDirectory.getAbsolutePath());
+
+        final XFormsStaticState loadedStaticState = cache.findBySourceDigest(pipelineContext, "source-digest", NO_XHTML);
+        assertNotNull(loadedStaticState);
+        assertNotSame(staticState, loadedStaticState);
+        assertEquals(encodedStaticState, loadedStaticState.getEncodedStaticState(pipelineContext));
+
+        // Now in memory
+        assertSame(loadedStaticState, cache.findBySourceDigest(pipelineContext, "source-digest", NO_XHTML));
+        assertSame(loadedStaticState, cache.findByEncodedStaticState(pipelineContext, encodedStaticState));
+    }
+
+    public void testLoadStore() {
+        final XFormsStaticStateCache cache = new XFormsStaticStateCache(storeDirectory.getAbsolutePath());
+        cache.add(pipelineContext, "source-digest", getStaticState(FORM_URL));
+        cache.add(pipelineContext, "other-source-digest", getStaticState(OTHER_FORM_URL));
+
+        clearMemory();
+        assertEquals(2, new XFormsStaticStateCache(storeDirectory.getAbsolutePath()).loadStore(pipelineContext));
+    }
+
+    public void testSupersededFileRemoved() {
+        final XFormsStaticStateCache cache = new XFormsStaticStateCache(storeDirectory.getAbsolutePath());
+        cache.add(pipelineContext, "source-digest", getStaticState(FORM_URL));
+
+        // The same source now produces a different static state, e.g. after a configuration change
+        final XFormsStaticState newStaticState = getStaticState(OTHER_FORM_URL);
+        cache.add(pipelineContext, "source-digest", newStaticState);
+        assertEquals(1, getStoreFiles().length);
+
+        clearMemory();
+        final XFormsStaticState loadedStaticState = new XFormsStaticStateCache(storeDirectory.getAbsolutePath()).findBySourceDigest(pipelineContext, "source-digest", NO_XHTML);
+        assertEquals(newStaticState.getEncodedStaticState(pipelineContext), loadedStaticState.getEncodedStaticState(pipelineContext));
+    }
+
+    public void testInvalidFileIgnored() throws IOException {
+        final FileOutputStream os = new FileOutputStream(new File(storeDirectory, "invalid.xss"));
+        os.write("not a static state".getBytes("utf-8"));
+        os.close();
+
+        final XFormsStaticStateCache cache = new XFormsStaticStateCache(storeDirectory.getAbsolutePath());
+        assertNull(cache.findBySourceDigest(pipelineContext, "source-digest", NO_XHTML));
+        assertEquals(0, cache.loadStore(pipelineContext));
+    }
+
+    public void testUnusableDirectory() throws IOException {
+        // A directory can't be created under a file
+        final File file = new File(storeDirectory, "file");
+        file.createNewFile();
+        final XFormsStaticStateCache cache = new XFormsStaticStateCache(new File(file, "store").getAbsolutePath());
+
+        final XFormsStaticState staticState = getStaticState(FORM_URL);
+        cache.add(pipelineContext, "source-digest", staticState);
+        assertSame(staticState, cache.findBySourceDigest(pipelineContext, "source-digest", NO_XHTML));
+        assertNull(cache.findBySourceDigest(pipelineContext, "other-source-digest", NO_XHTML));
+    }
+
+    public void testDifferentXHTML() {
+        final XFormsStaticState staticState = getStaticState(NOSCRIPT_FORM_URL);
+        final SAXStore xhtml = staticState.getXHTMLDocument();
+        assertNotNull(xhtml);
+        final SAXStore otherXHTML = getStaticState(NOSCRIPT_OTHER_MARKUP_FORM_URL).getXHTMLDocument();
+        assertNotNull(otherXHTML);
+
+        // Same XForms content with different markup
+        final XFormsStaticStateCache cache = new XFormsStaticStateCache(storeDirectory.getAbsolutePath());
+        cache.add(pipelineContext, "source-digest", staticState);
+        assertNull(cache.findBySourceDigest(pipelineContext, "source-digest", otherXHTML));
+        assertSame(staticState, cache.findBySourceDigest(pipelineContext, "source-digest", xhtml));
+
+        // Simulate a restart
+        clearMemory();
+        final XFormsStaticStateCache newCache = new XFormsStaticStateCache(storeDirectory.getAbsolutePath());
+        assertNull(newCache.findBySourceDigest(pipelineContext, "source-digest", otherXHTML));
+        final XFormsStaticState loadedStaticState = newCache.findBySourceDigest(pipelineContext, "source-digest", xhtml);
+        assertNotNull(loadedStaticState);
+        assertEquals(staticState.getEncodedStaticState(pipelineContext), loadedStaticState.getEncodedStaticState(pipelineContext));
+    }
+
+    public void testXHTMLNotKept() {
+        final XFormsStaticState staticState = getStaticState(FORM_URL);
+        assertNull(staticState.getXHTMLDocument());
+
+        // The markup of the page doesn't matter
+        final XFormsStaticStateCache cache = new XFormsStaticStateCache(storeDirectory.getAbsolutePath());
+        cache.add(pipelineContext, "source-digest", staticState);
+        assertSame(staticState, cache.findBySourceDigest(pipelineContext, "source-digest", getStaticState(NOSCRIPT_FORM_URL).getXHTMLDocument()));
+    }
+
+    private File[] getStoreFiles() {
+        return storeDirectory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".xss");
+            }
+        });
+    }
+
+    private void clearMemory() {
+        final Cache cache = ObjectCache.instanceIfExists(XFormsStaticStateCache.XFORMS_STATIC_STATE_CACHE_NAME);
+        if (cache != null)
+            cache.removeAll(pipelineContext);
+    }
+
+    private XFormsStaticState getStaticState(String documentURL) {
+        final Document requestDocument = ProcessorUtils.createDocumentFromURL("oxf:/org/orbeon/oxf/xforms/analysis/request.xml", null);
+        final ExternalContext externalContext = new TestExternalContext(pipelineContext, requestDocument);
+
+        final TransformerHandler identity = TransformerUtils.getIdentityTransformerHandler();
+        final LocationDocumentResult documentResult = new LocationDocumentResult();
+        identity.setResult(documentResult);
+
+        final XFormsAnnotatorContentHandler.Metadata metadata = new XFormsAnnotatorContentHandler.Metadata();
+        final SAXStore annotatedSAXStore = new SAXStore(new XFormsExtractorContentHandler(externalContext, identity, metadata));
+        XMLUtils.urlToSAX(documentURL, new XFormsAnnotatorContentHandler(annotatedSAXStore, externalContext, metadata), false, false);
+
+        final XFormsStaticState staticState = new XFormsStaticState(pipelineContext, documentResult.getDocument(), metadata, annotatedSAXStore);
+        staticState.analyzeIfNecessary(pipelineContext);
+        return staticState;
+    }
+}